@@ -0,0 +1,66 @@
+#!/usr/bin/env python3
+"""Compares two JMH JSON result files and reports benchmarks that regressed.
+
+Usage: python3 compare_results.py baseline.json current.json [--threshold 10]
+
+A benchmark has regressed when its score is more than threshold percent worse than the
+baseline and the difference is larger than the combined error of both measurements. The
+script exits with status 1 if at least one benchmark regressed.
+"""
+
+import argparse
+import json
+import sys
+
+# modes where a higher score is better, all other modes measure time per operation
+HIGHER_IS_BETTER = {'thrpt'}
+
+
+def load(path):
+  with open(path) as f:
+    results = json.load(f)
+  res = {}
+  for result in results:
+    params = ','.join('%s=%s' % item for item in sorted(result.get('params', {}).items()))
+    name = result['benchmark'] + ('(' + params + ')' if params else '')
+    res[(name, result['mode'])] = result['primaryMetric']
+  return res
+
+
+def main():
+  parser = argparse.ArgumentParser()
+  parser.add_argument('baseline')
+  parser.add_argument('current')
+  parser.add_argument('--threshold', type=float, default=10.0,
+                      help='allowed regression in percent (default: 10)')
+  args = parser.parse_args()
+
+  baseline = load(args.baseline)
+  current = load(args.current)
+  regressions = 0
+  print('%-90s %14s %14s %9s' % ('Benchmark', 'Baseline', 'Current', 'Change'))
+  for key in sorted(current):
+    name, mode = key
+    metric = current[key]
+    if key not in baseline:
+      print('%-90s %14s %14.3f %9s' % (name, '-', metric['score'], 'new'))
+      continue
+    old = baseline[key]
+    change = (metric['score'] - old['score']) / old['score'] * 100.0 if old['score'] else 0.0
+    worse = -change if mode in HIGHER_IS_BETTER else change
+    error = abs(metric.get('scoreError') or 0.0) + abs(old.get('scoreError') or 0.0)
+    regressed = (worse > args.threshold
+                 and abs(metric['score'] - old['score']) > error)
+    if regressed:
+      regressions += 1
+    print('%-90s %14.3f %14.3f %+8.1f%% %s %s' % (name, old['score'], metric['score'], change,
+                                                  metric['scoreUnit'],
+                                                  'REGRESSION' if regressed else ''))
+  if regressions:
+    print('%d benchmark(s) regressed by more than %.1f%%' % (regressions, args.threshold))
+    return 1
+  return 0
+
+
+if __name__ == '__main__':
+  sys.exit(main())
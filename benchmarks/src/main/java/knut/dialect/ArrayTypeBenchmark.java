@@ -0,0 +1,92 @@
+package knut.dialect;
+
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for converting array values between their Java type and the JDBC {@link
+ * java.sql.Array} representation. Run with <code>-prof gc</code> to see the allocation of the
+ * intermediate arrays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArrayTypeBenchmark {
+  @Param({"10", "1000"})
+  public int size;
+
+  private Long[] longs;
+  private String[] strings;
+  private byte[][] bytes;
+  private BenchmarkArray longArray;
+  private BenchmarkArray longObjectArray;
+  private BenchmarkArray stringArray;
+  private BenchmarkArray bytesArray;
+
+  @Setup
+  public void setup() {
+    longs = new Long[size];
+    strings = new String[size];
+    bytes = new byte[size][];
+    Object[] longObjects = new Object[size];
+    for (int i = 0; i < size; i++) {
+      longs[i] = (long) i;
+      longObjects[i] = (long) i;
+      strings[i] = "value-" + i;
+      bytes[i] = strings[i].getBytes();
+    }
+    longArray = new BenchmarkArray(Types.BIGINT, longs);
+    longObjectArray = new BenchmarkArray(Types.BIGINT, longObjects);
+    stringArray = new BenchmarkArray(Types.NVARCHAR, strings);
+    bytesArray = new BenchmarkArray(Types.BINARY, bytes);
+  }
+
+  @Benchmark
+  public Object int64Unwrap() {
+    return Int64ArrayType.INSTANCE.getJavaTypeDescriptor().unwrap(longs, Long[].class, null);
+  }
+
+  @Benchmark
+  public Long[] int64Wrap() {
+    return Int64ArrayType.INSTANCE.getJavaTypeDescriptor().wrap(longArray, null);
+  }
+
+  @Benchmark
+  public Long[] int64WrapObjectArray() {
+    return Int64ArrayType.INSTANCE.getJavaTypeDescriptor().wrap(longObjectArray, null);
+  }
+
+  @Benchmark
+  public Object stringUnwrap() {
+    return StringArrayType.INSTANCE.getJavaTypeDescriptor().unwrap(strings, String[].class, null);
+  }
+
+  @Benchmark
+  public String[] stringWrap() {
+    return StringArrayType.INSTANCE.getJavaTypeDescriptor().wrap(stringArray, null);
+  }
+
+  @Benchmark
+  public Object bytesUnwrap() {
+    return BytesArrayType.INSTANCE.getJavaTypeDescriptor().unwrap(bytes, byte[][].class, null);
+  }
+
+  @Benchmark
+  public byte[][] bytesWrap() {
+    return BytesArrayType.INSTANCE.getJavaTypeDescriptor().wrap(bytesArray, null);
+  }
+}
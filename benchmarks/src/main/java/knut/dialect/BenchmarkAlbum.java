@@ -0,0 +1,30 @@
+package knut.dialect;
+
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/** Interleaved child entity of the DDL benchmark. */
+@Entity
+@Table(name = "Albums", indexes = {@Index(columnList = "albumTitle")})
+@InterleaveInParent(value = "Singers", cascadeDelete = true)
+public class BenchmarkAlbum {
+  @Embeddable
+  public static class AlbumId implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Long singerId;
+    private Long albumId;
+  }
+
+  @EmbeddedId
+  private AlbumId id;
+
+  @Column(length = 200)
+  private String albumTitle;
+
+  private Double marketingBudget;
+}
@@ -0,0 +1,69 @@
+package knut.dialect;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.util.Map;
+
+/** Minimal {@link Array} that returns a fixed Java array, like the JDBC driver does. */
+class BenchmarkArray implements Array {
+  private final int baseType;
+  private final Object data;
+
+  BenchmarkArray(int baseType, Object data) {
+    this.baseType = baseType;
+    this.data = data;
+  }
+
+  @Override
+  public String getBaseTypeName() {
+    return null;
+  }
+
+  @Override
+  public int getBaseType() {
+    return baseType;
+  }
+
+  @Override
+  public Object getArray() {
+    return data;
+  }
+
+  @Override
+  public Object getArray(Map<String, Class<?>> map) {
+    return data;
+  }
+
+  @Override
+  public Object getArray(long index, int count) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Object getArray(long index, int count, Map<String, Class<?>> map) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public ResultSet getResultSet() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public ResultSet getResultSet(Map<String, Class<?>> map) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public ResultSet getResultSet(long index, int count) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public ResultSet getResultSet(long index, int count, Map<String, Class<?>> map) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void free() {}
+}
@@ -0,0 +1,20 @@
+package knut.dialect;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+/** Entity of the counter contention benchmark, with a single-row and a sharded counter. */
+@Entity
+@Table(name = "Posts")
+public class BenchmarkPost {
+  @Id
+  private Long postId;
+
+  private long likes;
+
+  @Transient
+  @ShardedCounter(shards = 16)
+  private long shardedLikes;
+}
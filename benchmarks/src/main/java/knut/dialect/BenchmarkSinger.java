@@ -0,0 +1,30 @@
+package knut.dialect;
+
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/** Parent entity of the DDL benchmark. */
+@Entity
+@Table(name = "Singers")
+public class BenchmarkSinger {
+  @Id
+  private Long singerId;
+
+  @Column(length = 100)
+  private String firstName;
+
+  @Column(length = 100, nullable = false)
+  private String lastName;
+
+  @Temporal(TemporalType.DATE)
+  private Date birthDate;
+
+  private byte[] singerInfo;
+
+  private boolean active;
+}
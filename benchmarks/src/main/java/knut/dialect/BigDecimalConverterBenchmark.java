@@ -0,0 +1,47 @@
+package knut.dialect;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks for {@link BigDecimalToStringConverter}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BigDecimalConverterBenchmark {
+  @Param({"0", "123456.789", "-999999999999999999.999999999999999999"})
+  public String value;
+
+  private final BigDecimalToStringConverter converter = new BigDecimalToStringConverter();
+  private BigDecimal decimal;
+  private String string;
+
+  @Setup
+  public void setup() {
+    decimal = new BigDecimal(value);
+    string = converter.convertToDatabaseColumn(decimal);
+  }
+
+  @Benchmark
+  public String convertToDatabaseColumn() {
+    return converter.convertToDatabaseColumn(decimal);
+  }
+
+  @Benchmark
+  public BigDecimal convertToEntityAttribute() {
+    return converter.convertToEntityAttribute(string);
+  }
+}
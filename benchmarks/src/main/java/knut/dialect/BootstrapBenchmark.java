@@ -0,0 +1,105 @@
+package knut.dialect;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import knut.harness.FakeSpannerDriver;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.dialect.Dialect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the creation of a dialect and the bootstrap of a complete SessionFactory per tenant
+ * with both dialects, compared to the first session of a new tenant of a SessionFactory that is
+ * shared by all tenants with {@link CloudSpannerMultiTenantConnectionProvider}. The session
+ * factories connect to the in-process fake driver, so the numbers do not include any network
+ * latency. Run with <code>-prof gc</code> to see the bytes allocated per dialect and per tenant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BootstrapBenchmark {
+  @Param({"knut", "ours"})
+  public String dialect;
+
+  private String dialectClass;
+  private StandardServiceRegistry multiTenantRegistry;
+  private SessionFactory multiTenantSessionFactory;
+  private long tenants;
+
+  @Setup
+  public void setup() throws SQLException {
+    FakeSpannerDriver.register();
+    dialectClass = "knut".equals(dialect) ? CloudSpannerDialect.class.getName()
+        : SpannerDialect.class.getName();
+    multiTenantRegistry = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", dialectClass)
+        .applySetting("hibernate.connection.url", FakeSpannerDriver.URL_PREFIX + "{tenant}")
+        .applySetting("hibernate.multiTenancy", "DATABASE")
+        .applySetting("hibernate.multi_tenant_connection_provider",
+            CloudSpannerMultiTenantConnectionProvider.class.getName())
+        .applySetting(CloudSpannerMultiTenantConnectionProvider.DEFAULT_TENANT, "bootstrap")
+        .applySetting(CloudSpannerMultiTenantConnectionProvider.MAX_TENANTS, "100")
+        .build();
+    multiTenantSessionFactory = new MetadataSources(multiTenantRegistry)
+        .addAnnotatedClass(BenchmarkSinger.class).addAnnotatedClass(BenchmarkAlbum.class)
+        .buildMetadata().buildSessionFactory();
+  }
+
+  @TearDown
+  public void tearDown() {
+    multiTenantSessionFactory.close();
+    StandardServiceRegistryBuilder.destroy(multiTenantRegistry);
+  }
+
+  @Benchmark
+  public Dialect createDialect() {
+    return "knut".equals(dialect) ? new CloudSpannerDialect() : new SpannerDialect();
+  }
+
+  @Benchmark
+  public int bootstrapSessionFactory() {
+    StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", dialectClass)
+        .applySetting("hibernate.connection.driver_class", FakeSpannerDriver.class.getName())
+        .applySetting("hibernate.connection.url", FakeSpannerDriver.URL_PREFIX + "bootstrap")
+        .build();
+    try (SessionFactory sessionFactory = new MetadataSources(registry)
+        .addAnnotatedClass(BenchmarkSinger.class).addAnnotatedClass(BenchmarkAlbum.class)
+        .buildMetadata().buildSessionFactory()) {
+      return sessionFactory.getMetamodel().getEntities().size();
+    } finally {
+      StandardServiceRegistryBuilder.destroy(registry);
+    }
+  }
+
+  @Benchmark
+  public boolean openSessionOfNewTenant() {
+    String tenant = "tenant" + tenants++;
+    try (Session session =
+        multiTenantSessionFactory.withOptions().tenantIdentifier(tenant).openSession()) {
+      session.beginTransaction().commit();
+      return session.isOpen();
+    } finally {
+      FakeSpannerDriver.dropDatabase(tenant);
+    }
+  }
+}
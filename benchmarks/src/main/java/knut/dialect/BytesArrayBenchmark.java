@@ -0,0 +1,81 @@
+package knut.dialect;
+
+import java.nio.ByteBuffer;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Struct;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading an ARRAY&lt;BYTES&gt; value of one row, such as the thumbnails of an image,
+ * with {@link BytesArrayType} and with {@link ByteBufferArrayType}, both from the array of the
+ * JDBC driver and from a {@link Struct}. Each operation reads one row, so with
+ * <code>-prof gc</code> the <code>gc.alloc.rate.norm</code> result is the number of bytes that
+ * are allocated per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BytesArrayBenchmark {
+  @Param({"8"})
+  public int elements;
+
+  @Param({"1024", "16384"})
+  public int elementSize;
+
+  private BenchmarkArray jdbcArray;
+  private Struct struct;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42L);
+    Object[] data = new Object[elements];
+    List<ByteArray> list = new ArrayList<>(elements);
+    for (int i = 0; i < elements; i++) {
+      byte[] thumbnail = new byte[elementSize];
+      random.nextBytes(thumbnail);
+      data[i] = thumbnail;
+      list.add(ByteArray.copyFrom(thumbnail));
+    }
+    jdbcArray = new BenchmarkArray(Types.BINARY, data);
+    struct = Struct.newBuilder().set("thumbnails").toBytesArray(list).build();
+  }
+
+  @Benchmark
+  public byte[][] bytesWrap() {
+    return BytesArrayType.INSTANCE.getJavaTypeDescriptor().wrap(jdbcArray, null);
+  }
+
+  @Benchmark
+  public ByteBuffer[] byteBufferWrap() {
+    return ByteBufferArrayType.INSTANCE.getJavaTypeDescriptor().wrap(jdbcArray, null);
+  }
+
+  @Benchmark
+  public byte[][] bytesFromStruct() {
+    return BytesArrayType.INSTANCE.getJavaTypeDescriptor()
+        .wrap(StructValues.getValue(struct, 0), null);
+  }
+
+  @Benchmark
+  public ByteBuffer[] byteBufferFromStruct() {
+    return ByteBufferArrayType.INSTANCE.fromStruct(struct, 0);
+  }
+}
@@ -0,0 +1,158 @@
+package knut.dialect;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import knut.harness.FakeSpannerDriver;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the hit path of {@link CommitTimestampRegionFactory}: a lookup of an entry within the
+ * staleness window, a lookup of an older entry that is validated against the commit timestamp
+ * watermark, a plain <code>ConcurrentHashMap</code> lookup as the lower bound, and
+ * <code>Session.get</code> of an entity with and without the second-level cache against the
+ * in-process fake driver.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class CacheBenchmark {
+  private static final int KEYS = 1024;
+  private static final String DATABASE = "cache-benchmark";
+
+  private final ConcurrentHashMap<Object, Object> map = new ConcurrentHashMap<>();
+  private CommitTimestampStorageAccess recent;
+  private CommitTimestampStorageAccess validated;
+  private StandardServiceRegistry cachedRegistry;
+  private StandardServiceRegistry uncachedRegistry;
+  private SessionFactory cached;
+  private SessionFactory uncached;
+
+  @State(Scope.Thread)
+  public static class Key {
+    private long next;
+
+    Long next() {
+      return next++ % KEYS;
+    }
+  }
+
+  @Setup
+  public void setup() throws SQLException {
+    long now = CommitTimestampStorageAccess.currentMicros();
+    CommitTimestampWatermarks watermarks =
+        new CommitTimestampWatermarks(table -> now - TimeUnit.HOURS.toMicros(1L));
+    recent = new CommitTimestampStorageAccess(watermarks,
+        () -> Collections.singletonList("Singers"), TimeUnit.HOURS.toMillis(1L), 0L, 0, 0L);
+    // the watermark is refreshed once, and stays younger than the staleness window of a trial
+    validated = new CommitTimestampStorageAccess(watermarks,
+        () -> Collections.singletonList("Singers"), TimeUnit.MINUTES.toMillis(5L), 0L, 0, 0L);
+    for (long key = 0L; key < KEYS; key++) {
+      map.put(key, "value" + key);
+      recent.put(key, "value" + key, now);
+      validated.put(key, "value" + key, now - TimeUnit.MINUTES.toMicros(10L));
+    }
+    validated.getFromCache(0L, null);
+    watermarks.refreshAll(now, Long.MIN_VALUE);
+    validated.put(0L, "value0", now - TimeUnit.MINUTES.toMicros(10L));
+
+    FakeSpannerDriver.register();
+    cachedRegistry = createRegistry(true);
+    uncachedRegistry = createRegistry(false);
+    cached = new MetadataSources(cachedRegistry).addAnnotatedClass(CachedBenchmarkSinger.class)
+        .buildMetadata().buildSessionFactory();
+    uncached = new MetadataSources(uncachedRegistry).addAnnotatedClass(CachedBenchmarkSinger.class)
+        .buildMetadata().buildSessionFactory();
+    try (Connection connection =
+        DriverManager.getConnection(FakeSpannerDriver.URL_PREFIX + DATABASE);
+        Statement statement = connection.createStatement()) {
+      for (int key = 0; key < KEYS; key++) {
+        statement.executeUpdate("insert into Singers (singerId, active, lastName, "
+            + "CommitTimestamp) values (" + key + ", true, 'Last" + key + "', "
+            + "PENDING_COMMIT_TIMESTAMP())");
+      }
+    }
+    FakeSpannerDriver.getDatabase(DATABASE).setLogStatements(false);
+  }
+
+  private static StandardServiceRegistry createRegistry(boolean cache) {
+    StandardServiceRegistryBuilder builder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", CloudSpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", FakeSpannerDriver.URL_PREFIX + DATABASE)
+        .applySetting("hibernate.hbm2ddl.auto", cache ? "create" : "none");
+    if (cache) {
+      builder.applySetting("hibernate.cache.use_second_level_cache", "true")
+          .applySetting("hibernate.cache.region.factory_class",
+              CommitTimestampRegionFactory.class.getName())
+          .applySetting("hibernate.session_factory.statement_inspector",
+              CloudSpannerStatementInspector.class.getName())
+          .applySetting("hibernate.cache.default_cache_concurrency_strategy", "read-write")
+          .applySetting("javax.persistence.sharedCache.mode", "ALL")
+          // measures the lookups within the staleness window
+          .applySetting(CommitTimestampRegionFactory.MAX_STALENESS, "3600000");
+    }
+    return builder.build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    cached.close();
+    uncached.close();
+    StandardServiceRegistryBuilder.destroy(cachedRegistry);
+    StandardServiceRegistryBuilder.destroy(uncachedRegistry);
+    FakeSpannerDriver.dropDatabase(DATABASE);
+  }
+
+  @Benchmark
+  public Object mapGet(Key key) {
+    return map.get(key.next());
+  }
+
+  @Benchmark
+  public Object getWithinStaleness(Key key) {
+    return recent.getFromCache(key.next(), null);
+  }
+
+  @Benchmark
+  public Object getValidatedByWatermark(Key key) {
+    return validated.getFromCache(key.next(), null);
+  }
+
+  @Benchmark
+  public Object sessionGetFromCache(Key key) {
+    try (Session session = cached.openSession()) {
+      return session.get(CachedBenchmarkSinger.class, key.next());
+    }
+  }
+
+  @Benchmark
+  public Object sessionGetFromDatabase(Key key) {
+    try (Session session = uncached.openSession()) {
+      return session.get(CachedBenchmarkSinger.class, key.next());
+    }
+  }
+}
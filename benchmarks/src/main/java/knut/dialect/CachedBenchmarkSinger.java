@@ -0,0 +1,24 @@
+package knut.dialect;
+
+import java.sql.Timestamp;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/** Entity of the cache benchmark, with the commit timestamp of the cached tables. */
+@Entity
+@Table(name = "Singers")
+public class CachedBenchmarkSinger {
+  @Id
+  private Long singerId;
+
+  @Column(length = 100, nullable = false)
+  private String lastName;
+
+  private boolean active;
+
+  @Column(name = "CommitTimestamp", insertable = false, updatable = false,
+      columnDefinition = "TIMESTAMP OPTIONS (allow_commit_timestamp=true)")
+  private Timestamp commitTimestamp;
+}
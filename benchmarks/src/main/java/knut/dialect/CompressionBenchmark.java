@@ -0,0 +1,101 @@
+package knut.dialect;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the encode and decode cost of the compressing converters with the compression ratio
+ * that they reach, for JSON documents, log lines and random bytes. The <code>rawBytes</code> and
+ * <code>encodedBytes</code> counters of <code>encode</code> give the ratio.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+  @Param({"NONE", "DEFLATE", "LZ"})
+  public CompressionCodec codec;
+
+  @Param({"json", "log", "random"})
+  public String payload;
+
+  @Param({"4096", "262144"})
+  public int size;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Sizes {
+    public long rawBytes;
+    public long encodedBytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      rawBytes = 0L;
+      encodedBytes = 0L;
+    }
+  }
+
+  private CompressedBytesConverter converter;
+  private byte[] value;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() {
+    converter = new CompressedBytesConverter(codec, CompressionCodec.DEFAULT_THRESHOLD) {};
+    value = createPayload(payload, size);
+    encoded = converter.convertToDatabaseColumn(value);
+  }
+
+  static byte[] createPayload(String payload, int size) {
+    Random random = new Random(42L);
+    if (payload.equals("random")) {
+      byte[] res = new byte[size];
+      random.nextBytes(res);
+      return res;
+    }
+    StringBuilder res = new StringBuilder(size + 200);
+    for (int i = 0; res.length() < size; i++) {
+      if (payload.equals("json")) {
+        res.append(i == 0 ? "[" : ",").append("{\"singerId\":").append(random.nextInt(100000))
+            .append(",\"firstName\":\"name").append(random.nextInt(1000))
+            .append("\",\"active\":").append(random.nextBoolean())
+            .append(",\"albums\":[").append(random.nextInt(50)).append(",")
+            .append(random.nextInt(50)).append("]}");
+      } else {
+        res.append("2019-03-").append(10 + random.nextInt(20)).append(" INFO [worker-")
+            .append(random.nextInt(16)).append("] knut.dialect.SlowQueryLog - query took ")
+            .append(random.nextInt(5000)).append(" ms\n");
+      }
+    }
+    return res.substring(0, size).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public byte[] encode(Sizes sizes) {
+    byte[] res = converter.convertToDatabaseColumn(value);
+    sizes.rawBytes += value.length;
+    sizes.encodedBytes += res.length;
+    return res;
+  }
+
+  @Benchmark
+  public byte[] decode() {
+    return converter.convertToEntityAttribute(encoded);
+  }
+}
@@ -0,0 +1,105 @@
+package knut.dialect;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import knut.harness.FakeDatabase;
+import knut.harness.FakeSpannerDriver;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of concurrent increments of one counter: an UPDATE of a single-row
+ * counter column, and an increment of a {@link ShardedCounter} with 16 shards. The fake driver
+ * locks the rows that a transaction writes until its commit has returned after
+ * {@link #COMMIT_LATENCY_MICROS}, like Cloud Spanner, so the increments of the single-row counter
+ * are serialized, while the sharded increments only wait if they pick the same shard.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class CounterContentionBenchmark {
+  private static final String DATABASE = "counter-benchmark";
+  private static final long COMMIT_LATENCY_MICROS = 1000L;
+  private static final Long POST_ID = 1L;
+
+  private StandardServiceRegistry registry;
+  private SessionFactory sessionFactory;
+
+  @Setup
+  public void setup() throws SQLException {
+    FakeSpannerDriver.register();
+    registry = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", CloudSpannerDialect.class.getName())
+        .applySetting("hibernate.connection.url", FakeSpannerDriver.URL_PREFIX + DATABASE)
+        .applySetting("hibernate.connection.pool_size", "32")
+        .applySetting("hibernate.hbm2ddl.auto", "create")
+        .applySetting(CloudSpannerIntegrator.KEY_SAMPLE_RATE, "0")
+        .applySetting(InstrumentedConnectionProvider.JMX_ENABLED, "false").build();
+    sessionFactory = new MetadataSources(registry).addAnnotatedClass(BenchmarkPost.class)
+        .buildMetadata().buildSessionFactory();
+    try (Connection connection =
+        DriverManager.getConnection(FakeSpannerDriver.URL_PREFIX + DATABASE);
+        Statement statement = connection.createStatement()) {
+      statement.executeUpdate("insert into Posts (postId, likes) values (" + POST_ID + ", 0)");
+      for (int shard = 0; shard < 16; shard++) {
+        statement.executeUpdate("insert into Posts_shardedLikes (postId, shard, count) values ("
+            + POST_ID + ", " + shard + ", 0)");
+      }
+    }
+    FakeDatabase database = FakeSpannerDriver.getDatabase(DATABASE);
+    database.setLogStatements(false);
+    database.setCommitLatency(COMMIT_LATENCY_MICROS, TimeUnit.MICROSECONDS);
+  }
+
+  @TearDown
+  public void tearDown() {
+    sessionFactory.close();
+    StandardServiceRegistryBuilder.destroy(registry);
+    FakeSpannerDriver.dropDatabase(DATABASE);
+  }
+
+  @Benchmark
+  public int singleRowIncrement() {
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      int res = session
+          .createQuery("update BenchmarkPost set likes = likes + 1 where postId = :id")
+          .setParameter("id", POST_ID).executeUpdate();
+      transaction.commit();
+      return res;
+    }
+  }
+
+  @Benchmark
+  public void shardedIncrement() {
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      ShardedCounters.increment(session, session.load(BenchmarkPost.class, POST_ID),
+          "shardedLikes", 1L);
+      transaction.commit();
+    }
+  }
+}
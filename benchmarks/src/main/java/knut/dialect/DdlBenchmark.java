@@ -0,0 +1,72 @@
+package knut.dialect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.model.relational.Namespace;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.mapping.Table;
+import org.hibernate.tool.schema.spi.Exporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the generation of the CREATE TABLE statements of a parent and an interleaved child
+ * table by the table exporters of both dialects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DdlBenchmark {
+  @Param({"knut", "ours"})
+  public String dialect;
+
+  private StandardServiceRegistry registry;
+  private Metadata metadata;
+  private Exporter<Table> exporter;
+  private final List<Table> tables = new ArrayList<>();
+
+  @Setup
+  public void setup() {
+    String dialectClass = "knut".equals(dialect) ? CloudSpannerDialect.class.getName()
+        : SpannerDialect.class.getName();
+    registry = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", dialectClass).build();
+    metadata = new MetadataSources(registry).addAnnotatedClass(BenchmarkSinger.class)
+        .addAnnotatedClass(BenchmarkAlbum.class).buildMetadata();
+    exporter = metadata.getDatabase().getDialect().getTableExporter();
+    for (Namespace namespace : metadata.getDatabase().getNamespaces()) {
+      tables.addAll(namespace.getTables());
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    StandardServiceRegistryBuilder.destroy(registry);
+  }
+
+  @Benchmark
+  public void createTableStrings(Blackhole blackhole) {
+    for (Table table : tables) {
+      blackhole.consume(exporter.getSqlCreateStrings(table, metadata));
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package knut.dialect;
+
+import java.lang.reflect.Field;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.hibernate.MappingException;
+import org.hibernate.dialect.pagination.LimitHandler;
+import org.hibernate.engine.spi.RowSelection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the methods of {@link CloudSpannerDialect} that Hibernate calls for every query.
+ * The dialect of the other implementation registers neither a limit handler nor column types, so
+ * these are only measured for this dialect.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DialectBenchmark {
+  private static final String SQL = "select singer0_.SingerId as SingerId1_1_, "
+      + "singer0_.FirstName as FirstNam2_1_, singer0_.LastName as LastName3_1_ "
+      + "from Singers singer0_ where singer0_.LastName like ? order by singer0_.LastName";
+  private static final int[] CAST_TYPES = {Types.BIGINT, Types.VARCHAR, Types.TIMESTAMP,
+      Types.BOOLEAN, Types.VARBINARY, Types.DOUBLE, Types.DATE, Types.CLOB};
+
+  private CloudSpannerDialect dialect;
+  /** All {@link Types} codes that have a cast type name in the dialect. */
+  private int[] registeredTypes;
+  private LimitHandler limitHandler;
+  private RowSelection firstPage;
+  private RowSelection nextPage;
+
+  @Setup
+  public void setup() throws IllegalAccessException {
+    dialect = new CloudSpannerDialect();
+    List<Integer> codes = new ArrayList<>();
+    for (Field field : Types.class.getFields()) {
+      try {
+        dialect.getCastTypeName(field.getInt(null));
+        codes.add(field.getInt(null));
+      } catch (MappingException e) {
+        // not registered
+      }
+    }
+    registeredTypes = codes.stream().mapToInt(Integer::intValue).toArray();
+    limitHandler = dialect.getLimitHandler();
+    firstPage = new RowSelection();
+    firstPage.setMaxRows(20);
+    nextPage = new RowSelection();
+    nextPage.setFirstRow(40);
+    nextPage.setMaxRows(20);
+  }
+
+  @Benchmark
+  public String limitWithoutOffset() {
+    return limitHandler.processSql(SQL, firstPage);
+  }
+
+  @Benchmark
+  public String limitWithOffset() {
+    return limitHandler.processSql(SQL, nextPage);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(8)
+  public void castTypeName(Blackhole blackhole) {
+    for (int type : CAST_TYPES) {
+      blackhole.consume(dialect.getCastTypeName(type));
+    }
+  }
+
+  /** Looks up the cast type name of every registered type code once per operation. */
+  @Benchmark
+  public void castTypeNameAllRegisteredTypes(Blackhole blackhole) {
+    for (int type : registeredTypes) {
+      blackhole.consume(dialect.getCastTypeName(type));
+    }
+  }
+}
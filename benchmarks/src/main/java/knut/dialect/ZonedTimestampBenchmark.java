@@ -0,0 +1,96 @@
+package knut.dialect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+
+/**
+ * Compares the conversion of {@link ZonedTimestamp} and {@link CompactZonedTimestamp} over all
+ * available zones: writing a {@link ZonedDateTime}, reading it from an instance that was just
+ * loaded, and reading it again from the same instance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZonedTimestampBenchmark {
+  private ZonedDateTime[] dateTimes;
+  private ZonedTimestamp[] zonedTimestamps;
+  private long[] epochMicros;
+  private long[] zoneCodes;
+  private CompactZonedTimestamp[] compactTimestamps;
+  private int next;
+
+  @Setup
+  public void setup() {
+    List<ZonedDateTime> res = new ArrayList<>();
+    long second = 1553994000L;
+    for (String id : ZoneId.getAvailableZoneIds()) {
+      res.add(ZonedDateTime.ofInstant(Instant.ofEpochSecond(second += 3607L, 123456000),
+          ZoneId.of(id)));
+    }
+    dateTimes = res.toArray(new ZonedDateTime[0]);
+    zonedTimestamps = new ZonedTimestamp[dateTimes.length];
+    epochMicros = new long[dateTimes.length];
+    zoneCodes = new long[dateTimes.length];
+    compactTimestamps = new CompactZonedTimestamp[dateTimes.length];
+    for (int i = 0; i < dateTimes.length; i++) {
+      zonedTimestamps[i] = new ZonedTimestamp();
+      zonedTimestamps[i].setZonedDateTime(dateTimes[i]);
+      compactTimestamps[i] = new CompactZonedTimestamp(dateTimes[i]);
+      epochMicros[i] = compactTimestamps[i].getEpochMicros();
+      zoneCodes[i] = ZoneCodes.code(dateTimes[i].getZone());
+    }
+  }
+
+  private int next() {
+    int res = next;
+    next = res + 1 == dateTimes.length ? 0 : res + 1;
+    return res;
+  }
+
+  @Benchmark
+  public ZonedTimestamp zonedTimestampWrite() {
+    int i = next();
+    zonedTimestamps[i].setZonedDateTime(dateTimes[i]);
+    return zonedTimestamps[i];
+  }
+
+  @Benchmark
+  public ZonedDateTime zonedTimestampRead() {
+    return zonedTimestamps[next()].getZonedDateTime();
+  }
+
+  @Benchmark
+  public CompactZonedTimestamp compactWrite() {
+    int i = next();
+    compactTimestamps[i].setZonedDateTime(dateTimes[i]);
+    return compactTimestamps[i];
+  }
+
+  @Benchmark
+  public ZonedDateTime compactReadLoaded() {
+    int i = next();
+    return new CompactZonedTimestamp(epochMicros[i], zoneCodes[i]).getZonedDateTime();
+  }
+
+  @Benchmark
+  public ZonedDateTime compactReadCached() {
+    return compactTimestamps[next()].getZonedDateTime();
+  }
+}
@@ -19,12 +19,16 @@
 package com.google.cloud.spanner.hibernate;
 
 import org.hibernate.boot.Metadata;
+import org.hibernate.mapping.Collection;
 import org.hibernate.mapping.Column;
 import org.hibernate.mapping.Table;
 import org.hibernate.tool.schema.spi.Exporter;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.StringJoiner;
 import java.util.stream.Collectors;
 
@@ -48,13 +52,27 @@ public class SpannerTableExporter implements Exporter<Table> {
 
   @Override
   public String[] getSqlCreateStrings(Table table, Metadata metadata) {
-    /* The current implementation does not support interleaved tables for collections
-     * or UNIQUE constraints/indexes for relationships
+    /* The current implementation does not support UNIQUE constraints/indexes for relationships.
+     * Collection tables are interleaved in the table of their owner if their key columns have
+     * the names of the primary key columns of the owner.
      * */
     String createTableTemplate = this.spannerDialect.getCreateTableString()
-        + " {0} ({1}) PRIMARY KEY ({2})";
+        + " {0} ({1}) PRIMARY KEY ({2}){3}";
 
-    String primaryKeyColNames = table.getPrimaryKey().getColumns()
+    Table parentTable = getInterleavedParent(table, metadata);
+
+    List<Column> primaryKeyColumns = new ArrayList<>(table.getPrimaryKey().getColumns());
+    if (parentTable != null) {
+      // the primary key of the parent must be a prefix of the primary key of the child
+      List<String> parentColumnNames = parentTable.getPrimaryKey().getColumns().stream()
+          .map(Column::getName)
+          .collect(Collectors.toList());
+      primaryKeyColumns.sort(Comparator.comparingInt(col -> {
+        int index = parentColumnNames.indexOf(col.getName());
+        return index < 0 ? parentColumnNames.size() : index;
+      }));
+    }
+    String primaryKeyColNames = primaryKeyColumns
         .stream()
         .map(Column::getName)
         .collect(Collectors.joining(","));
@@ -67,7 +85,38 @@ public class SpannerTableExporter implements Exporter<Table> {
 
     return new String[]{
         MessageFormat.format(createTableTemplate, table.getName(), colsAndTypes.toString(),
-            primaryKeyColNames)};
+            primaryKeyColNames,
+            parentTable == null ? "" : ", INTERLEAVE IN PARENT " + parentTable.getName())};
+  }
+
+  /**
+   * Returns the table of the owner of the collection that is stored in the given table, if the
+   * key columns of the collection have the same names as the primary key columns of the owner.
+   * Cloud Spanner requires these names to interleave the table in the table of the owner.
+   *
+   * @param table the table to create.
+   * @param metadata the metadata of the tables.
+   * @return the parent table, or null if the table cannot be interleaved.
+   */
+  private static Table getInterleavedParent(Table table, Metadata metadata) {
+    for (Collection collection : metadata.getCollectionBindings()) {
+      if (collection.isOneToMany() || !collection.getCollectionTable().equals(table)) {
+        continue;
+      }
+      Table ownerTable = collection.getOwner().getTable();
+      if (ownerTable.equals(table) || !ownerTable.hasPrimaryKey()
+          || !table.hasPrimaryKey()) {
+        return null;
+      }
+      List<String> keyColumnNames = new ArrayList<>();
+      collection.getKey().getColumnIterator()
+          .forEachRemaining(col -> keyColumnNames.add(col.getText()));
+      List<String> ownerColumnNames = ownerTable.getPrimaryKey().getColumns().stream()
+          .map(Column::getName)
+          .collect(Collectors.toList());
+      return keyColumnNames.equals(ownerColumnNames) ? ownerTable : null;
+    }
+    return null;
   }
 
   @Override
@@ -35,7 +35,6 @@ import org.hibernate.boot.registry.selector.spi.StrategySelector;
 import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.dialect.Dialect;
 import org.hibernate.mapping.DenormalizedTable;
-import org.hibernate.mapping.PersistentClass;
 import org.hibernate.mapping.Table;
 import org.hibernate.tool.schema.JdbcMetadaAccessStrategy;
 import org.hibernate.tool.schema.internal.DefaultSchemaFilterProvider;
@@ -220,15 +219,15 @@ abstract class AbstractCloudSpannerSchemaManagementTool extends HibernateSchemaM
     }
 
     int compareTables(Table table1, Table table2) {
-      InterleaveInParent interleaveTable1 = getInterleaveAnnotation(table1);
-      InterleaveInParent interleaveTable2 = getInterleaveAnnotation(table2);
-      if (interleaveTable1 == null && interleaveTable2 != null) {
+      InterleavedTables.Parent parentTable1 = InterleavedTables.getParent(metadata, table1);
+      InterleavedTables.Parent parentTable2 = InterleavedTables.getParent(metadata, table2);
+      if (parentTable1 == null && parentTable2 != null) {
         return -1;
-      } else if (interleaveTable1 != null && interleaveTable2 == null) {
+      } else if (parentTable1 != null && parentTable2 == null) {
         return 1;
-      } else if (interleaveTable1 == null && interleaveTable2 == null) {
+      } else if (parentTable1 == null && parentTable2 == null) {
         return 0;
-      } else if (interleaveTable1 != null && interleaveTable2 != null) {
+      } else if (parentTable1 != null && parentTable2 != null) {
         if (isParentOf(table1, table2)) {
           return -1;
         }
@@ -240,28 +239,18 @@ abstract class AbstractCloudSpannerSchemaManagementTool extends HibernateSchemaM
     }
 
     private boolean isParentOf(Table potentialParent, Table potentialChild) {
-      InterleaveInParent interleave = getInterleaveAnnotation(potentialChild);
-      while (interleave != null) {
-        String parent = interleave.value();
-        if (parent.equalsIgnoreCase(potentialParent.getName())) {
+      InterleavedTables.Parent parent = InterleavedTables.getParent(metadata, potentialChild);
+      while (parent != null) {
+        if (parent.getName().equalsIgnoreCase(potentialParent.getName())) {
           return true;
         }
-        potentialChild = getTable(parent);
-        interleave = getInterleaveAnnotation(potentialChild);
+        potentialChild = getTable(parent.getName());
+        parent = potentialChild == null ? null
+            : InterleavedTables.getParent(metadata, potentialChild);
       }
       return false;
     }
 
-    private InterleaveInParent getInterleaveAnnotation(Table table) {
-      for (PersistentClass pc : metadata.getEntityBindings()) {
-        if (pc.getTable().equals(table)) {
-          Class<?> entityClass = pc.getMappedClass();
-          return entityClass.getAnnotation(InterleaveInParent.class);
-        }
-      }
-      return null;
-    }
-
     private Table getTable(String name) {
       for (Table t : namespace.getTables()) {
         if (t.getName().equalsIgnoreCase(name)) {
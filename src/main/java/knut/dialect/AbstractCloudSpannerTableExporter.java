@@ -21,7 +21,9 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -32,6 +34,7 @@ import java.util.Set;
 
 import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
 import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
 import org.hibernate.boot.Metadata;
 import org.hibernate.boot.model.naming.Identifier;
 import org.hibernate.boot.model.relational.InitCommand;
@@ -45,10 +48,14 @@ import org.hibernate.mapping.Index;
 import org.hibernate.mapping.KeyValue;
 import org.hibernate.mapping.PersistentClass;
 import org.hibernate.mapping.PrimaryKey;
+import org.hibernate.mapping.SimpleValue;
 import org.hibernate.mapping.Table;
 import org.hibernate.mapping.UniqueKey;
 import org.hibernate.tool.hbm2ddl.TableMetadata;
 import org.hibernate.tool.schema.internal.StandardTableExporter;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.jboss.logging.Logger;
 
 // dzou@: This is a reference to his specific JDBC driver in the Hibernate Dialect.
 // If we can come up with a substitute, we can decouple the JDBC driver from the Dialect.
@@ -56,13 +63,30 @@ import org.hibernate.tool.schema.internal.StandardTableExporter;
 
 @SuppressWarnings("deprecation")
 public abstract class AbstractCloudSpannerTableExporter extends StandardTableExporter {
+  /**
+   * Whether the tables of collections that are interleaved in the table of their owner are
+   * created with ON DELETE CASCADE. Defaults to <code>true</code>; Hibernate deletes the rows of
+   * a collection before its owner either way.
+   */
+  public static final String COLLECTION_CASCADE_DELETE =
+      "hibernate.cloudspanner.collection_cascade_delete";
+  private static final Logger LOG = Logger.getLogger(AbstractCloudSpannerTableExporter.class);
+
+  /** The identifier generator strategies that generate increasing values. */
+  private static final Set<String> SEQUENTIAL_GENERATORS = new HashSet<>(Arrays.asList("identity",
+      "sequence", "increment", "native", "seqhilo", "hilo", "enhanced-sequence", "enhanced-table",
+      "table", "org.hibernate.id.IdentityGenerator", "org.hibernate.id.IncrementGenerator",
+      "org.hibernate.id.SequenceGenerator", "org.hibernate.id.SequenceHiLoGenerator",
+      "org.hibernate.id.enhanced.SequenceStyleGenerator",
+      "org.hibernate.id.enhanced.TableGenerator"));
+
   private static final class ColumnComparator implements Comparator<Column> {
-    private final Table table;
+    private final PrimaryKey primaryKey;
     private final Table parentTable;
     private final Metadata metadata;
 
-    private ColumnComparator(Table table, Table parentTable, Metadata metadata) {
-      this.table = table;
+    private ColumnComparator(PrimaryKey primaryKey, Table parentTable, Metadata metadata) {
+      this.primaryKey = primaryKey;
       this.parentTable = parentTable;
       this.metadata = metadata;
     }
@@ -78,8 +102,8 @@ public abstract class AbstractCloudSpannerTableExporter extends StandardTableExp
         o1InParent = o1InParent || o1.getName().equalsIgnoreCase(parentColumn.getName());
         o2InParent = o2InParent || o2.getName().equalsIgnoreCase(parentColumn.getName());
       }
-      boolean o1InPK = table.getPrimaryKey().containsColumn(o1);
-      boolean o2InPK = table.getPrimaryKey().containsColumn(o2);
+      boolean o1InPK = primaryKey.containsColumn(o1);
+      boolean o2InPK = primaryKey.containsColumn(o2);
       if (!o1InPK && !o2InPK) {
         return 0;
       } else if (o1InPK && !o2InPK) {
@@ -93,10 +117,11 @@ public abstract class AbstractCloudSpannerTableExporter extends StandardTableExp
           return 1;
         }
       }
-      InterleaveInParent interleave = getInterleaveAnnotation(metadata, parentTable);
-      if (interleave != null) {
-        Table newParentTable = getTable(metadata, interleave.value());
-        ColumnComparator comp = new ColumnComparator(parentTable, newParentTable, metadata);
+      InterleavedTables.Parent parent = InterleavedTables.getParent(metadata, parentTable);
+      if (parent != null) {
+        Table newParentTable = getTable(metadata, parent.getName());
+        ColumnComparator comp = new ColumnComparator(
+            InterleavedTables.getPrimaryKey(metadata, parentTable), newParentTable, metadata);
         return comp.compare(o1, o2);
       }
       return 0;
@@ -124,7 +149,7 @@ public abstract class AbstractCloudSpannerTableExporter extends StandardTableExp
       while (it.hasNext()) {
         list.add(it.next());
       }
-      Collections.sort(list, new ColumnComparator(delegate.getTable(), parentTable, metadata));
+      Collections.sort(list, new ColumnComparator(delegate, parentTable, metadata));
       return list.iterator();
     }
 
@@ -225,11 +250,15 @@ public abstract class AbstractCloudSpannerTableExporter extends StandardTableExp
   abstract static class AbstractCloudSpannerTableWithParent extends Table {
     private static final long serialVersionUID = 1L;
     private final Table delegate;
+    /** The primary key of the table, which is not necessarily a part of the mapping. */
+    private final PrimaryKey primaryKey;
     private final Table parentTable;
     private final Metadata metadata;
 
-    AbstractCloudSpannerTableWithParent(Table delegate, Table parentTable, Metadata metadata) {
+    AbstractCloudSpannerTableWithParent(Table delegate, PrimaryKey primaryKey, Table parentTable,
+        Metadata metadata) {
       this.delegate = delegate;
+      this.primaryKey = primaryKey;
       this.parentTable = parentTable;
       this.metadata = metadata;
     }
@@ -242,13 +271,13 @@ public abstract class AbstractCloudSpannerTableExporter extends StandardTableExp
       while (it.hasNext()) {
         list.add(it.next());
       }
-      Collections.sort(list, new ColumnComparator(delegate, parentTable, metadata));
+      Collections.sort(list, new ColumnComparator(primaryKey, parentTable, metadata));
       return list.iterator();
     }
 
     @Override
     public PrimaryKey getPrimaryKey() {
-      return new CloudSpannerPrimaryKeyWithParent(delegate.getPrimaryKey(), parentTable, metadata);
+      return new CloudSpannerPrimaryKeyWithParent(primaryKey, parentTable, metadata);
     }
 
     @Override
@@ -414,7 +443,7 @@ public abstract class AbstractCloudSpannerTableExporter extends StandardTableExp
 
     @Override
     public boolean hasPrimaryKey() {
-      return delegate.hasPrimaryKey();
+      return primaryKey != null;
     }
 
     @Override
@@ -604,8 +633,8 @@ public abstract class AbstractCloudSpannerTableExporter extends StandardTableExp
     this.dialect = dialect;
   }
 
-  abstract AbstractCloudSpannerTableWithParent createTableWithParent(Table table, Table parentTable,
-      Metadata metadata);
+  abstract AbstractCloudSpannerTableWithParent createTableWithParent(Table table,
+      PrimaryKey primaryKey, Table parentTable, Metadata metadata);
 
   /**
    * Cloud Spanner has a couple of differences with other database systems that we need to take into
@@ -615,50 +644,165 @@ public abstract class AbstractCloudSpannerTableExporter extends StandardTableExp
    * added as a CONSTRAINT after the list of columns.</li>
    * <li>If the table is interleaved in another table, we need to add this to the end of the
    * creation string. Interleaving is specified using the {@link InterleaveInParent}
-   * annotation.</li>
+   * annotation, and collection tables are interleaved in the table of their owner, see
+   * {@link InterleavedTables}.</li>
    * <li>If the table is interleaved in another table, we need to make sure that the order in which
    * we specify the primary key columns is correct and consistent with the parent table.</li>
+   * <li>The {@link ShardPrefix} column of a table is its first primary key column.</li>
    * </ol>
    */
   @Override
   public String[] getSqlCreateStrings(Table table, Metadata metadata) {
-    InterleaveInParent interleave = getInterleaveAnnotation(metadata, table);
-    if (interleave != null) {
-      Table parentTable = getTable(metadata, interleave.value());
+    Set<String> counterTables = ShardedCounters.getTables(metadata, table);
+    List<GeneratedColumn> generatedColumns = GeneratedColumns.getColumns(metadata, table);
+    Table entityTable = table;
+    ShardPrefixes.setShardFirst(metadata, table, dialect);
+    PrimaryKey primaryKey = InterleavedTables.getPrimaryKey(metadata, table);
+    if (primaryKey == null) {
+      throw new HibernateException("Table " + table.getName() + " does not specify a primary key");
+    }
+    InterleavedTables.Parent interleave = InterleavedTables.getParent(metadata, table);
+    if (interleave == null) {
+      String reason = getHotspotReason(table, metadata);
+      if (reason != null) {
+        LOG.warnf("Inserts into table %s go to the same key range in Cloud Spanner, because %s. "
+            + "Use a random first key column, such as a UUID, to avoid a hotspot.",
+            table.getName(), reason);
+      }
+    } else {
+      Table parentTable = getTable(metadata, interleave.getName());
       if (parentTable == null) {
         throw new HibernateException(
-            "Parent table " + interleave.value() + " of table " + table.getName() + " not found");
+            "Parent table " + interleave.getName() + " of table " + table.getName() + " not found");
       }
-      table = createTableWithParent(table, parentTable, metadata);
+      table = createTableWithParent(table, primaryKey, parentTable, metadata);
+      primaryKey = table.getPrimaryKey();
     }
+    setColumnTypes(table, metadata);
     String[] res = super.getSqlCreateStrings(table, metadata);
     String create = res[0];
-    // move the primary key definition to the end
-    if (table.hasPrimaryKey()) {
-      String pkDef = ", " + table.getPrimaryKey().sqlConstraintString(dialect);
-      create = create.replace(pkDef, "");
-      // then append it to the end of the create string
-      create = create + " " + table.getPrimaryKey().sqlConstraintString(dialect);
-      // check if we need to add an INTERLEAVE IN PARENT clause
-      if (interleave != null) {
-        create = create + ", INTERLEAVE IN PARENT " + dialect.quote(interleave.value());
-        if (interleave.cascadeDelete()) {
-          create = create + " ON DELETE CASCADE";
+    // move the primary key definition to the end, if the table has it in the mapping
+    String pkDef = primaryKey.sqlConstraintString(dialect);
+    create = create.replace(", " + pkDef, "");
+    if (!generatedColumns.isEmpty()) {
+      StringBuilder columns = new StringBuilder(create.substring(0, create.lastIndexOf(')')));
+      for (GeneratedColumn column : generatedColumns) {
+        columns.append(", ").append(column.name()).append(' ').append(column.type())
+            .append(" AS (").append(column.expression()).append(") STORED");
+      }
+      create = columns.append(')').toString();
+    }
+    // then append it to the end of the create string
+    create = create + " " + pkDef;
+    // check if we need to add an INTERLEAVE IN PARENT clause
+    if (interleave != null) {
+      create = create + ", INTERLEAVE IN PARENT " + dialect.quote(interleave.getName());
+      if (interleave.isCascadeDelete()) {
+        create = create + " ON DELETE CASCADE";
+      }
+    }
+    // return the new create string
+    res[0] = create;
+    if (!counterTables.isEmpty() || !generatedColumns.isEmpty()) {
+      List<String> list = new ArrayList<>(Arrays.asList(res));
+      for (GeneratedColumn column : generatedColumns) {
+        if (column.index()) {
+          list.add("create " + (column.unique() ? "unique " : "") + "index "
+              + GeneratedColumns.getIndexName(entityTable, column) + " on "
+              + table.getQuotedName(dialect) + " (" + column.name() + ")");
         }
       }
-      // return the new create string
-      res[0] = create;
-    } else {
-      throw new HibernateException("Table " + table.getName() + " does not specify a primary key");
+      for (String counterTable : counterTables) {
+        list.add(getShardedCounterCreateString(table, counterTable, metadata));
+      }
+      res = list.toArray(new String[0]);
     }
     return res;
   }
 
-  private static InterleaveInParent getInterleaveAnnotation(Metadata metadata, Table table) {
-    for (PersistentClass pc : metadata.getEntityBindings()) {
-      if (pc.getTable().equals(table)) {
-        Class<?> entityClass = pc.getMappedClass();
-        return entityClass.getAnnotation(InterleaveInParent.class);
+  /**
+   * @return the CREATE TABLE statement of the shards of a {@link ShardedCounter}, which are
+   *         interleaved in the table of their entity
+   */
+  private String getShardedCounterCreateString(Table table, String counterTable,
+      Metadata metadata) {
+    StringBuilder create = new StringBuilder("create table ").append(dialect.quote(counterTable))
+        .append(" (");
+    StringBuilder primaryKey = new StringBuilder("PRIMARY KEY (");
+    for (Iterator<Column> it = table.getPrimaryKey().getColumnIterator(); it.hasNext();) {
+      Column column = it.next();
+      create.append(column.getQuotedName(dialect)).append(' ')
+          .append(column.getSqlType(dialect, metadata)).append(" not null, ");
+      primaryKey.append(column.getQuotedName(dialect)).append(", ");
+    }
+    String int64 = dialect.getTypeName(Types.BIGINT);
+    create.append(ShardedCounters.SHARD_COLUMN).append(' ').append(int64).append(" not null, ")
+        .append(ShardedCounters.COUNT_COLUMN).append(' ').append(int64).append(" not null) ");
+    primaryKey.append(ShardedCounters.SHARD_COLUMN).append(')');
+    return create.append(primaryKey).append(", INTERLEAVE IN PARENT ")
+        .append(dialect.quote(table.getName())).append(" ON DELETE CASCADE").toString();
+  }
+
+  /**
+   * All {@link CollectionArrayType}, {@link TemporalArrayType}, {@link UuidArrayType} and
+   * {@link ByteBufferArrayType} columns have the type code of an ARRAY, so the type of each column
+   * is set from the element type of its value unless the column defines its own type.
+   * {@link UuidType} columns and the foreign key columns that reference them are BYTES(16) instead
+   * of BYTES with the default length, so that the key columns of interleaved tables have the same
+   * type as those of their parent.
+   */
+  private void setColumnTypes(Table table, Metadata metadata) {
+    for (Iterator<?> it = table.getColumnIterator(); it.hasNext();) {
+      Column column = (Column) it.next();
+      if (column.getSqlType() != null || column.getValue() == null) {
+        continue;
+      }
+      Type type = column.getValue().getType();
+      if (type instanceof EntityType) {
+        type = ((EntityType) type).getIdentifierOrUniqueKeyType(metadata);
+      }
+      if (type instanceof CollectionArrayType) {
+        column.setSqlType(((CollectionArrayType) type).getColumnTypeName(dialect));
+      } else if (type instanceof TemporalArrayType) {
+        column.setSqlType(((TemporalArrayType<?>) type).getColumnTypeName(dialect));
+      } else if (type instanceof UuidType) {
+        column.setSqlType(((UuidType) type).getColumnTypeName(dialect));
+      } else if (type instanceof UuidArrayType) {
+        column.setSqlType(((UuidArrayType) type).getColumnTypeName(dialect));
+      } else if (type instanceof ByteBufferArrayType) {
+        column.setSqlType(((ByteBufferArrayType) type).getColumnTypeName(dialect));
+      }
+    }
+  }
+
+  /**
+   * @return the reason why the first primary key column of the given table has monotonic values,
+   *         or <code>null</code> if it does not. The first key column of an interleaved table is
+   *         that of its parent.
+   */
+  static String getHotspotReason(Table table, Metadata metadata) {
+    if (!table.hasPrimaryKey() || table.getPrimaryKey().getColumnSpan() == 0) {
+      return null;
+    }
+    Column column = table.getPrimaryKey().getColumn(0);
+    int code;
+    try {
+      code = column.getSqlTypeCode(metadata);
+    } catch (MappingException e) {
+      code = Types.OTHER;
+    }
+    if (code == Types.TIMESTAMP || code == Types.TIMESTAMP_WITH_TIMEZONE || code == Types.DATE) {
+      return "its first key column " + column.getName() + " is a timestamp";
+    }
+    for (PersistentClass entity : metadata.getEntityBindings()) {
+      if (entity.getTable() == table && entity.getIdentifier() instanceof SimpleValue
+          && entity.getIdentifier().getColumnIterator().next().equals(column)) {
+        String strategy =
+            ((SimpleValue) entity.getIdentifier()).getIdentifierGeneratorStrategy();
+        if (SEQUENTIAL_GENERATORS.contains(strategy)) {
+          return "its first key column " + column.getName() + " is generated by the sequential "
+              + "generator " + strategy;
+        }
       }
     }
     return null;
@@ -679,24 +823,41 @@ public abstract class AbstractCloudSpannerTableExporter extends StandardTableExp
     if (!tableExists(table))
       return new String[] {};
     Set<String> existingIndices = getIndicesExcludingPK(table);
+    for (GeneratedColumn column : GeneratedColumns.getColumns(metadata, table)) {
+      String index = GeneratedColumns.getIndexName(table, column);
+      if (column.index() && indexExists(index)) {
+        existingIndices.add(index);
+      }
+    }
+    // the shards of sharded counters are interleaved in the table and are dropped first
+    List<String> dropCounters = new ArrayList<>();
+    for (String counterTable : ShardedCounters.getTables(metadata, table)) {
+      if (tableExists(table.getCatalog(), table.getSchema(), counterTable)) {
+        dropCounters.add(dialect.getDropTableString(dialect.quote(counterTable)));
+      }
+    }
 
-    if (existingIndices.isEmpty())
+    if (existingIndices.isEmpty() && dropCounters.isEmpty())
       return super.getSqlDropStrings(table, metadata);
 
-    List<String> dropIndices = new ArrayList<>();
+    List<String> drops = new ArrayList<>(dropCounters);
     for (String index : existingIndices) {
-      dropIndices.add("DROP INDEX `" + index + "`");
+      drops.add("DROP INDEX `" + index + "`");
     }
     String[] tableDrop = super.getSqlDropStrings(table, metadata);
 
-    String[] res = new String[dropIndices.size() + tableDrop.length];
-    dropIndices.toArray(res);
-    System.arraycopy(tableDrop, 0, res, dropIndices.size(), tableDrop.length);
+    String[] res = new String[drops.size() + tableDrop.length];
+    drops.toArray(res);
+    System.arraycopy(tableDrop, 0, res, drops.size(), tableDrop.length);
 
     return res;
   }
 
   private boolean tableExists(Table table) {
+    return tableExists(table.getCatalog(), table.getSchema(), table.getName());
+  }
+
+  private boolean tableExists(String catalog, String schema, String name) {
     if (dialect.getMetadata() == null)
       return false;
     boolean exists = true;
@@ -707,8 +868,8 @@ public abstract class AbstractCloudSpannerTableExporter extends StandardTableExp
         try (Connection connection =
             DriverManager.getConnection(existingConnection.getConnectionUrl())) {
           connection.setAutoCommit(true);
-          try (ResultSet tables = connection.getMetaData().getTables(table.getCatalog(),
-              table.getSchema(), table.getName(), null)) {
+          try (ResultSet tables =
+              connection.getMetaData().getTables(catalog, schema, name, null)) {
             exists = tables.next();
           }
         }
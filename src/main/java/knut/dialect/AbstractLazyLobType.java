@@ -0,0 +1,252 @@
+package knut.dialect;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Properties;
+import org.hibernate.EntityMode;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.jdbc.connections.spi.JdbcConnectionAccess;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.ComponentType;
+import org.hibernate.usertype.DynamicParameterizedType;
+import org.hibernate.usertype.UserType;
+
+/**
+ * Base class of the types of LOB properties that are loaded lazily. The {@link
+ * CloudSpannerIntegrator} replaces the column of such a property in the select statements of
+ * Hibernate with the <code>LENGTH</code> of the column, so loading an entity only transfers the
+ * size of the value. The value itself is read on first access in chunks of
+ * <code>SUBSTR(column, position, chunkSize)</code> queries by the primary key of the entity. The
+ * chunk size defaults to 1 MiB and can be set with the <code>chunkSize</code> parameter of the
+ * type.
+ *
+ * The chunks are read on connections of their own, so the value can be read after the session
+ * is closed, but a value that is updated concurrently may be read partly before and partly after
+ * the update. The integrator maps the entities with lazy properties with dynamic update, so the
+ * value is only written when it was changed, and rejects entities with lazy properties that are
+ * stored in the second-level cache when the session factory is built.
+ */
+abstract class AbstractLazyLobType<T> implements UserType, DynamicParameterizedType {
+  /** The name of the parameter that sets the size of the chunks in which the value is read. */
+  static final String CHUNK_SIZE = "chunkSize";
+
+  static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+  /** Reads the chunks of the value of a lazy property. */
+  static final class Locator implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final transient JdbcConnectionAccess connectionAccess;
+    private final String sql;
+    private final Object[] key;
+    private final long length;
+    private final int chunkSize;
+
+    private Locator(JdbcConnectionAccess connectionAccess, String sql, Object[] key, long length,
+        int chunkSize) {
+      this.connectionAccess = connectionAccess;
+      this.sql = sql;
+      this.key = key;
+      this.length = length;
+      this.chunkSize = chunkSize;
+    }
+
+    long getLength() {
+      return length;
+    }
+
+    int getChunkSize() {
+      return chunkSize;
+    }
+
+    /** @return the value of the given range, with a 1-based position */
+    Object read(long position, int count) throws SQLException {
+      if (connectionAccess == null) {
+        throw new SQLException("The value of a lazy LOB cannot be read after serialization");
+      }
+      Connection connection = connectionAccess.obtainConnection();
+      try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        statement.setLong(1, position);
+        statement.setLong(2, count);
+        for (int i = 0; i < key.length; i++) {
+          statement.setObject(i + 3, key[i]);
+        }
+        try (ResultSet resultSet = statement.executeQuery()) {
+          if (!resultSet.next()) {
+            throw new SQLException("The row of the lazy LOB no longer exists: " + sql);
+          }
+          return resultSet.getObject(1);
+        }
+      } finally {
+        connectionAccess.releaseConnection(connection);
+      }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Locator)) {
+        return false;
+      }
+      Locator other = (Locator) obj;
+      return sql.equals(other.sql) && Arrays.equals(key, other.key) && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sql, Arrays.hashCode(key), length);
+    }
+  }
+
+  private final Class<T> returnedClass;
+  private final int sqlType;
+  private String propertyName;
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private volatile String sql;
+
+  AbstractLazyLobType(Class<T> returnedClass, int sqlType) {
+    this.returnedClass = returnedClass;
+    this.sqlType = sqlType;
+  }
+
+  @Override
+  public void setParameterValues(Properties parameters) {
+    propertyName = parameters.getProperty(PROPERTY);
+    String size = parameters.getProperty(CHUNK_SIZE);
+    if (size != null) {
+      chunkSize = Integer.parseInt(size.trim());
+      if (chunkSize <= 0) {
+        throw new HibernateException("The chunk size of a lazy LOB must be positive: " + size);
+      }
+    }
+  }
+
+  /** @return the lazy value of the given locator */
+  abstract T createLazyValue(Locator locator);
+
+  /** @return the locator of the given value if it is a lazy value of this type */
+  abstract Locator getLocator(Object value);
+
+  /** Binds the full content of the given value. */
+  abstract void bind(PreparedStatement st, T value, int index) throws SQLException;
+
+  @Override
+  public int[] sqlTypes() {
+    return new int[] {sqlType};
+  }
+
+  @Override
+  public Class<T> returnedClass() {
+    return returnedClass;
+  }
+
+  @Override
+  public boolean equals(Object x, Object y) {
+    if (x == y) {
+      return true;
+    }
+    Locator locator = getLocator(x);
+    return locator != null && locator.equals(getLocator(y));
+  }
+
+  @Override
+  public int hashCode(Object x) {
+    Locator locator = getLocator(x);
+    return locator == null ? System.identityHashCode(x) : locator.hashCode();
+  }
+
+  @Override
+  public Object nullSafeGet(ResultSet rs, String[] names,
+      SharedSessionContractImplementor session, Object owner) throws SQLException {
+    // the integrator replaces the column with its length in the selects of Hibernate
+    long length = rs.getLong(names[0]);
+    if (rs.wasNull()) {
+      return null;
+    }
+    if (owner == null) {
+      throw new HibernateException(
+          "The lazy LOB property " + propertyName + " can only be loaded with its entity");
+    }
+    EntityPersister persister = session.getEntityPersister(null, owner);
+    return createLazyValue(new Locator(session.getJdbcConnectionAccess(), getSql(persister),
+        getKey(persister, persister.getIdentifier(owner, session)), length, chunkSize));
+  }
+
+  private String getSql(EntityPersister persister) {
+    if (sql == null) {
+      if (!(persister instanceof AbstractEntityPersister)) {
+        throw new HibernateException(
+            "Lazy LOBs are not supported for entity " + persister.getEntityName());
+      }
+      AbstractEntityPersister entityPersister = (AbstractEntityPersister) persister;
+      StringBuilder builder = new StringBuilder("select substr(")
+          .append(entityPersister.getPropertyColumnNames(propertyName)[0])
+          .append(", ?, ?) from ").append(entityPersister.getPropertyTableName(propertyName))
+          .append(" where ");
+      String[] keyColumns = entityPersister.getIdentifierColumnNames();
+      for (int i = 0; i < keyColumns.length; i++) {
+        builder.append(i == 0 ? "" : " and ").append(keyColumns[i]).append(" = ?");
+      }
+      sql = builder.toString();
+    }
+    return sql;
+  }
+
+  private static Object[] getKey(EntityPersister persister, Serializable id) {
+    if (persister.getIdentifierType() instanceof ComponentType) {
+      return ((ComponentType) persister.getIdentifierType()).getPropertyValues(id,
+          EntityMode.POJO);
+    }
+    return new Object[] {id};
+  }
+
+  @Override
+  public void nullSafeSet(PreparedStatement st, Object value, int index,
+      SharedSessionContractImplementor session) throws SQLException {
+    if (value == null) {
+      st.setNull(index, sqlType);
+    } else {
+      bind(st, returnedClass.cast(value), index);
+    }
+  }
+
+  /** @return the given length of a value that is bound in full */
+  static int checkSize(long length) throws SQLException {
+    if (length > Integer.MAX_VALUE) {
+      throw new SQLException("LOB too large to be written: " + length);
+    }
+    return (int) length;
+  }
+
+  @Override
+  public Object deepCopy(Object value) {
+    return value;
+  }
+
+  @Override
+  public boolean isMutable() {
+    return false;
+  }
+
+  @Override
+  public Serializable disassemble(Object value) {
+    throw new HibernateException(
+        "The lazy LOB property " + propertyName + " cannot be stored in the second-level cache");
+  }
+
+  @Override
+  public Object assemble(Serializable cached, Object owner) {
+    throw new HibernateException(
+        "The lazy LOB property " + propertyName + " cannot be stored in the second-level cache");
+  }
+
+  @Override
+  public Object replace(Object original, Object target, Object owner) {
+    return original;
+  }
+}
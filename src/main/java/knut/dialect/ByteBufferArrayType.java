@@ -0,0 +1,212 @@
+package knut.dialect;
+
+import java.nio.ByteBuffer;
+import java.sql.Array;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Struct;
+import org.hibernate.HibernateException;
+import org.hibernate.type.AbstractSingleColumnStandardBasicType;
+import org.hibernate.type.descriptor.ValueBinder;
+import org.hibernate.type.descriptor.ValueExtractor;
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.java.AbstractTypeDescriptor;
+import org.hibernate.type.descriptor.java.JavaTypeDescriptor;
+import org.hibernate.type.descriptor.java.MutableMutabilityPlan;
+import org.hibernate.type.descriptor.sql.BasicExtractor;
+import org.hibernate.type.descriptor.sql.SqlTypeDescriptor;
+
+/**
+ * Type definition for ARRAY&lt;BYTES&gt; columns in Cloud Spanner that are mapped to arrays of
+ * read-only {@link ByteBuffer}s. Unlike {@link BytesArrayType} the elements are views of the bytes
+ * that the JDBC driver or the {@link Struct} returned, so reading a value does not copy the bytes
+ * of its elements. NULL elements are <code>null</code>.
+ */
+public class ByteBufferArrayType extends AbstractSingleColumnStandardBasicType<ByteBuffer[]>
+    implements StructValueReader<ByteBuffer[]> {
+  private static final long serialVersionUID = 1L;
+  public static final ByteBufferArrayType INSTANCE = new ByteBufferArrayType();
+
+  static final class ByteBufferArrayTypeDescriptor extends AbstractTypeDescriptor<ByteBuffer[]> {
+    private static final long serialVersionUID = 1L;
+    private static final ByteBufferArrayTypeDescriptor INSTANCE =
+        new ByteBufferArrayTypeDescriptor();
+
+    private ByteBufferArrayTypeDescriptor() {
+      super(ByteBuffer[].class, new MutableMutabilityPlan<ByteBuffer[]>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected ByteBuffer[] deepCopyNotNull(ByteBuffer[] value) {
+          // the bytes are read-only, only the positions and limits are copied
+          ByteBuffer[] res = new ByteBuffer[value.length];
+          for (int i = 0; i < res.length; i++) {
+            res[i] = value[i] == null ? null : value[i].asReadOnlyBuffer();
+          }
+          return res;
+        }
+      });
+    }
+
+    @Override
+    public boolean areEqual(ByteBuffer[] one, ByteBuffer[] another) {
+      return Arrays.equals(one, another);
+    }
+
+    @Override
+    public int extractHashCode(ByteBuffer[] value) {
+      return Arrays.hashCode(value);
+    }
+
+    @Override
+    public ByteBuffer[] fromString(String string) {
+      throw new UnsupportedOperationException();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <X> X unwrap(ByteBuffer[] value, Class<X> type, WrapperOptions options) {
+      if (value == null) {
+        return null;
+      }
+      byte[][] res = new byte[value.length][];
+      for (int i = 0; i < res.length; i++) {
+        if (value[i] != null) {
+          res[i] = new byte[value[i].remaining()];
+          value[i].duplicate().get(res[i]);
+        }
+      }
+      return (X) res;
+    }
+
+    @Override
+    public <X> ByteBuffer[] wrap(X value, WrapperOptions options) {
+      if (value == null || value instanceof ByteBuffer[]) {
+        return (ByteBuffer[]) value;
+      }
+      Object data = value;
+      if (value instanceof Array) {
+        try {
+          data = ((Array) value).getArray();
+        } catch (SQLException e) {
+          throw new HibernateException(e);
+        }
+      }
+      if (data instanceof Object[]) {
+        Object[] elements = (Object[]) data;
+        ByteBuffer[] res = new ByteBuffer[elements.length];
+        for (int i = 0; i < res.length; i++) {
+          if (elements[i] != null) {
+            res[i] = ByteBuffer.wrap((byte[]) elements[i]).asReadOnlyBuffer();
+          }
+        }
+        return res;
+      }
+      throw new IllegalArgumentException(
+          data.getClass().getName() + " is not a valid type for a BYTES array");
+    }
+
+    @Override
+    public String toString(ByteBuffer[] value) {
+      return value == null ? "null" : Arrays.toString(value);
+    }
+  }
+
+  static class ByteBufferArraySqlTypeDescriptor implements SqlTypeDescriptor {
+    private static final long serialVersionUID = 1L;
+    private static final ByteBufferArraySqlTypeDescriptor INSTANCE =
+        new ByteBufferArraySqlTypeDescriptor();
+
+    private ByteBufferArraySqlTypeDescriptor() {}
+
+    @Override
+    public int getSqlType() {
+      return Types.ARRAY;
+    }
+
+    @Override
+    public boolean canBeRemapped() {
+      return false;
+    }
+
+    @Override
+    public <X> ValueBinder<X> getBinder(final JavaTypeDescriptor<X> javaTypeDescriptor) {
+      return new ValueBinder<X>() {
+        @Override
+        public void bind(PreparedStatement st, X value, int index, WrapperOptions options)
+            throws SQLException {
+          if (value == null) {
+            st.setNull(index, Types.ARRAY);
+          } else {
+            st.setArray(index, st.getConnection().createArrayOf("BYTES",
+                javaTypeDescriptor.unwrap(value, byte[][].class, options)));
+          }
+        }
+
+        @Override
+        public void bind(CallableStatement st, X value, String name, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+      };
+    }
+
+    @Override
+    public <X> ValueExtractor<X> getExtractor(final JavaTypeDescriptor<X> javaTypeDescriptor) {
+      return new BasicExtractor<X>(javaTypeDescriptor, this) {
+        @Override
+        protected X doExtract(ResultSet rs, String name, WrapperOptions options)
+            throws SQLException {
+          return javaTypeDescriptor.wrap(rs.getArray(name), options);
+        }
+
+        @Override
+        protected X doExtract(CallableStatement statement, int index, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+
+        @Override
+        protected X doExtract(CallableStatement statement, String name, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+      };
+    }
+  }
+
+  public ByteBufferArrayType() {
+    super(ByteBufferArraySqlTypeDescriptor.INSTANCE, ByteBufferArrayTypeDescriptor.INSTANCE);
+  }
+
+  @Override
+  public String getName() {
+    return "BYTE_BUFFER_ARRAY";
+  }
+
+  /** @return views of the bytes of the elements, which are not copied */
+  @Override
+  public ByteBuffer[] fromStruct(Struct struct, int index) {
+    List<ByteArray> list = struct.getBytesList(index);
+    ByteBuffer[] res = new ByteBuffer[list.size()];
+    for (int i = 0; i < res.length; i++) {
+      ByteArray element = list.get(i);
+      if (element != null) {
+        res[i] = element.asReadOnlyByteBuffer();
+      }
+    }
+    return res;
+  }
+
+  /** @return the type of the columns of this type, ARRAY&lt;BYTES(MAX)&gt; */
+  String getColumnTypeName(AbstractCloudSpannerDialect dialect) {
+    return dialect.getArrayTypeName(Types.BINARY);
+  }
+}
@@ -0,0 +1,232 @@
+package knut.dialect;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.dialect.function.StandardSQLFunction;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+
+/**
+ * The SQL functions of Cloud Spanner. The functions are immutable, so they are created once and
+ * registered with every dialect instance.
+ */
+final class CloudSpannerFunctions {
+  /** Only modified by the static initializer. */
+  private static final Map<String, SQLFunction> REGISTERED = new LinkedHashMap<>();
+  /** The functions by name, in registration order. */
+  static final Map<String, SQLFunction> FUNCTIONS = Collections.unmodifiableMap(REGISTERED);
+
+  /**
+   * A function that accepts either STRING or BYTES arguments and returns a STRING or BYTES value,
+   * or an array of those, depending on the type of its first argument.
+   */
+  static final class StringOrBytesFunction extends StandardSQLFunction {
+    private final Type bytesType;
+
+    StringOrBytesFunction(String name) {
+      this(name, StandardBasicTypes.STRING, StandardBasicTypes.BINARY);
+    }
+
+    StringOrBytesFunction(String name, Type stringType, Type bytesType) {
+      super(name, stringType);
+      this.bytesType = bytesType;
+    }
+
+    @Override
+    public Type getReturnType(Type firstArgumentType, Mapping mapping) {
+      if (firstArgumentType != null && firstArgumentType.getReturnedClass() == byte[].class) {
+        return bytesType;
+      }
+      return getType();
+    }
+  }
+
+  static {
+    register("ANY_VALUE", new StandardSQLFunction("ANY_VALUE"));
+    register("COUNTIF", new StandardSQLFunction("COUNTIF", StandardBasicTypes.LONG));
+
+    register("CONCAT", new StringOrBytesFunction("CONCAT"));
+    register("STRING_AGG", new StringOrBytesFunction("STRING_AGG"));
+    register("FARM_FINGERPRINT",
+        new StandardSQLFunction("FARM_FINGERPRINT", StandardBasicTypes.LONG));
+    register("SHA1", new StandardSQLFunction("SHA1", StandardBasicTypes.BINARY));
+    register("SHA256", new StandardSQLFunction("SHA256", StandardBasicTypes.BINARY));
+    register("SHA512", new StandardSQLFunction("SHA512", StandardBasicTypes.BINARY));
+    register("BYTE_LENGTH",
+        new StandardSQLFunction("BYTE_LENGTH", StandardBasicTypes.LONG));
+    register("CHAR_LENGTH",
+        new StandardSQLFunction("CHAR_LENGTH", StandardBasicTypes.LONG));
+    register("CHARACTER_LENGTH",
+        new StandardSQLFunction("CHARACTER_LENGTH", StandardBasicTypes.LONG));
+    register("CODE_POINTS_TO_BYTES",
+        new StandardSQLFunction("CODE_POINTS_TO_BYTES", StandardBasicTypes.BINARY));
+    register("CODE_POINTS_TO_STRING",
+        new StandardSQLFunction("CODE_POINTS_TO_STRING", StandardBasicTypes.STRING));
+    register("ENDS_WITH", new StandardSQLFunction("ENDS_WITH", StandardBasicTypes.BOOLEAN));
+    register("FORMAT", new StandardSQLFunction("FORMAT", StandardBasicTypes.STRING));
+    register("FROM_BASE64",
+        new StandardSQLFunction("FROM_BASE64", StandardBasicTypes.BINARY));
+    register("FROM_HEX", new StandardSQLFunction("FROM_HEX", StandardBasicTypes.BINARY));
+    register("LENGTH", new StandardSQLFunction("LENGTH", StandardBasicTypes.LONG));
+    register("LPAD", new StringOrBytesFunction("LPAD"));
+    register("LOWER", new StringOrBytesFunction("LOWER"));
+    register("LTRIM", new StringOrBytesFunction("LTRIM"));
+    register("REGEXP_CONTAINS",
+        new StandardSQLFunction("REGEXP_CONTAINS", StandardBasicTypes.BOOLEAN));
+    register("REGEXP_EXTRACT", new StringOrBytesFunction("REGEXP_EXTRACT"));
+    register("REGEXP_EXTRACT_ALL", new StringOrBytesFunction("REGEXP_EXTRACT_ALL",
+        StringArrayType.INSTANCE, BytesArrayType.INSTANCE));
+    register("REGEXP_REPLACE", new StringOrBytesFunction("REGEXP_REPLACE"));
+    register("REPLACE", new StringOrBytesFunction("REPLACE"));
+    register("REPEAT", new StringOrBytesFunction("REPEAT"));
+    register("REVERSE", new StringOrBytesFunction("REVERSE"));
+    register("RPAD", new StringOrBytesFunction("RPAD"));
+    register("RTRIM", new StringOrBytesFunction("RTRIM"));
+    register("SAFE_CONVERT_BYTES_TO_STRING",
+        new StandardSQLFunction("SAFE_CONVERT_BYTES_TO_STRING", StandardBasicTypes.STRING));
+    register("SPLIT",
+        new StringOrBytesFunction("SPLIT", StringArrayType.INSTANCE, BytesArrayType.INSTANCE));
+    register("STARTS_WITH",
+        new StandardSQLFunction("STARTS_WITH", StandardBasicTypes.BOOLEAN));
+    register("STRPOS", new StandardSQLFunction("STRPOS", StandardBasicTypes.LONG));
+    register("SUBSTR", new StringOrBytesFunction("SUBSTR"));
+    register("TO_BASE64", new StandardSQLFunction("TO_BASE64", StandardBasicTypes.STRING));
+    register("TO_CODE_POINTS",
+        new StandardSQLFunction("TO_CODE_POINTS", Int64ArrayType.INSTANCE));
+    register("TO_HEX", new StandardSQLFunction("TO_HEX", StandardBasicTypes.STRING));
+    register("TRIM", new StringOrBytesFunction("TRIM"));
+    register("UPPER", new StringOrBytesFunction("UPPER"));
+    register("JSON_QUERY",
+        new StandardSQLFunction("JSON_QUERY", StandardBasicTypes.STRING));
+    register("JSON_VALUE",
+        new StandardSQLFunction("JSON_VALUE", StandardBasicTypes.STRING));
+
+    // functions without a registered type return the type of their first argument
+    register("ARRAY_CONCAT", new StandardSQLFunction("ARRAY_CONCAT"));
+    register("ARRAY_LENGTH",
+        new StandardSQLFunction("ARRAY_LENGTH", StandardBasicTypes.LONG));
+    register("ARRAY_TO_STRING",
+        new StandardSQLFunction("ARRAY_TO_STRING", StandardBasicTypes.STRING));
+    register("GENERATE_ARRAY", new StandardSQLFunction("GENERATE_ARRAY") {
+      @Override
+      public Type getReturnType(Type firstArgumentType, Mapping mapping) {
+        if (firstArgumentType == null) {
+          return Int64ArrayType.INSTANCE;
+        } else {
+          if (firstArgumentType.equals(StandardBasicTypes.BYTE)
+              || firstArgumentType.equals(StandardBasicTypes.SHORT)
+              || firstArgumentType.equals(StandardBasicTypes.INTEGER)
+              || firstArgumentType.equals(StandardBasicTypes.LONG)) {
+            return Int64ArrayType.INSTANCE;
+          } else if (firstArgumentType.equals(StandardBasicTypes.FLOAT)
+              || firstArgumentType.equals(StandardBasicTypes.DOUBLE)) {
+            return Float64ArrayType.INSTANCE;
+          }
+        }
+        throw new IllegalArgumentException("Invalid input type for GENERATE_ARRAY: "
+            + firstArgumentType.getName() + ". Only INT64 or FLOAT64 types are supported.");
+      }
+    });
+    register("GENERATE_DATE_ARRAY",
+        new StandardSQLFunction("GENERATE_DATE_ARRAY", DateArrayType.INSTANCE));
+    register("ARRAY_REVERSE", new StandardSQLFunction("ARRAY_REVERSE"));
+
+    register("CURRENT_DATE",
+        new StandardSQLFunction("CURRENT_DATE", StandardBasicTypes.DATE));
+    register("EXTRACT", new StandardSQLFunction("EXTRACT", StandardBasicTypes.LONG));
+    register("DATE", new StandardSQLFunction("DATE", StandardBasicTypes.DATE));
+    register("DATE_ADD", new StandardSQLFunction("DATE_ADD", StandardBasicTypes.DATE));
+    register("DATE_SUB", new StandardSQLFunction("DATE_SUB", StandardBasicTypes.DATE));
+    register("DATE_DIFF", new StandardSQLFunction("DATE_DIFF", StandardBasicTypes.LONG));
+    register("DATE_TRUNC", new StandardSQLFunction("DATE_TRUNC", StandardBasicTypes.DATE));
+    register("DATE_FROM_UNIX_DATE",
+        new StandardSQLFunction("DATE_FROM_UNIX_DATE", StandardBasicTypes.DATE));
+    register("FORMAT_DATE",
+        new StandardSQLFunction("FORMAT_DATE", StandardBasicTypes.STRING));
+    register("PARSE_DATE", new StandardSQLFunction("PARSE_DATE", StandardBasicTypes.DATE));
+    register("UNIX_DATE", new StandardSQLFunction("UNIX_DATE", StandardBasicTypes.LONG));
+
+    register("CURRENT_TIMESTAMP",
+        new StandardSQLFunction("CURRENT_TIMESTAMP", StandardBasicTypes.TIMESTAMP));
+    register("STRING", new StandardSQLFunction("STRING", StandardBasicTypes.STRING));
+    register("TIMESTAMP",
+        new StandardSQLFunction("TIMESTAMP", StandardBasicTypes.TIMESTAMP));
+    register("TIMESTAMP_ADD",
+        new StandardSQLFunction("TIMESTAMP_ADD", StandardBasicTypes.TIMESTAMP));
+    register("TIMESTAMP_SUB",
+        new StandardSQLFunction("TIMESTAMP_SUB", StandardBasicTypes.TIMESTAMP));
+    register("TIMESTAMP_DIFF",
+        new StandardSQLFunction("TIMESTAMP_DIFF", StandardBasicTypes.LONG));
+    register("TIMESTAMP_TRUNC",
+        new StandardSQLFunction("TIMESTAMP_TRUNC", StandardBasicTypes.TIMESTAMP));
+    register("FORMAT_TIMESTAMP",
+        new StandardSQLFunction("FORMAT_TIMESTAMP", StandardBasicTypes.STRING));
+    register("PARSE_TIMESTAMP",
+        new StandardSQLFunction("PARSE_TIMESTAMP", StandardBasicTypes.TIMESTAMP));
+    register("TIMESTAMP_SECONDS",
+        new StandardSQLFunction("TIMESTAMP_SECONDS", StandardBasicTypes.TIMESTAMP));
+    register("TIMESTAMP_MILLIS",
+        new StandardSQLFunction("TIMESTAMP_MILLIS", StandardBasicTypes.TIMESTAMP));
+    register("TIMESTAMP_MICROS",
+        new StandardSQLFunction("TIMESTAMP_MICROS", StandardBasicTypes.TIMESTAMP));
+    register("UNIX_SECONDS",
+        new StandardSQLFunction("UNIX_SECONDS", StandardBasicTypes.LONG));
+    register("UNIX_MILLIS",
+        new StandardSQLFunction("UNIX_MILLIS", StandardBasicTypes.LONG));
+    register("UNIX_MICROS",
+        new StandardSQLFunction("UNIX_MICROS", StandardBasicTypes.LONG));
+
+    register("BIT_AND", new StandardSQLFunction("BIT_AND", StandardBasicTypes.LONG));
+    register("BIT_OR", new StandardSQLFunction("BIT_OR", StandardBasicTypes.LONG));
+    register("BIT_XOR", new StandardSQLFunction("BIT_XOR", StandardBasicTypes.LONG));
+    register("LOGICAL_AND",
+        new StandardSQLFunction("LOGICAL_AND", StandardBasicTypes.BOOLEAN));
+    register("LOGICAL_OR",
+        new StandardSQLFunction("LOGICAL_OR", StandardBasicTypes.BOOLEAN));
+
+    register("IS_INF", new StandardSQLFunction("IS_INF", StandardBasicTypes.BOOLEAN));
+    register("IS_NAN", new StandardSQLFunction("IS_NAN", StandardBasicTypes.BOOLEAN));
+
+    register("SIGN", new StandardSQLFunction("SIGN"));
+    register("IEEE_DIVIDE",
+        new StandardSQLFunction("IEEE_DIVIDE", StandardBasicTypes.DOUBLE));
+    register("SQRT", new StandardSQLFunction("SQRT", StandardBasicTypes.DOUBLE));
+    register("POW", new StandardSQLFunction("POW", StandardBasicTypes.DOUBLE));
+    register("POWER", new StandardSQLFunction("POWER", StandardBasicTypes.DOUBLE));
+    register("EXP", new StandardSQLFunction("EXP", StandardBasicTypes.DOUBLE));
+    register("LN", new StandardSQLFunction("LN", StandardBasicTypes.DOUBLE));
+    register("LOG", new StandardSQLFunction("LOG", StandardBasicTypes.DOUBLE));
+    register("LOG10", new StandardSQLFunction("LOG10", StandardBasicTypes.DOUBLE));
+    register("GREATEST", new StandardSQLFunction("GREATEST"));
+    register("LEAST", new StandardSQLFunction("LEAST"));
+    register("DIV", new StandardSQLFunction("DIV", StandardBasicTypes.LONG));
+    register("MOD", new StandardSQLFunction("MOD", StandardBasicTypes.LONG));
+    register("ROUND", new StandardSQLFunction("ROUND", StandardBasicTypes.DOUBLE));
+    register("TRUNC", new StandardSQLFunction("TRUNC", StandardBasicTypes.DOUBLE));
+    register("CEIL", new StandardSQLFunction("CEIL", StandardBasicTypes.DOUBLE));
+    register("CEILING", new StandardSQLFunction("CEILING", StandardBasicTypes.DOUBLE));
+    register("FLOOR", new StandardSQLFunction("FLOOR", StandardBasicTypes.DOUBLE));
+    register("COS", new StandardSQLFunction("COS", StandardBasicTypes.DOUBLE));
+    register("COSH", new StandardSQLFunction("COSH", StandardBasicTypes.DOUBLE));
+    register("ACOS", new StandardSQLFunction("ACOS", StandardBasicTypes.DOUBLE));
+    register("ACOSH", new StandardSQLFunction("ACOSH", StandardBasicTypes.DOUBLE));
+    register("SIN", new StandardSQLFunction("SIN", StandardBasicTypes.DOUBLE));
+    register("SINH", new StandardSQLFunction("SINH", StandardBasicTypes.DOUBLE));
+    register("ASIN", new StandardSQLFunction("ASIN", StandardBasicTypes.DOUBLE));
+    register("ASINH", new StandardSQLFunction("ASINH", StandardBasicTypes.DOUBLE));
+    register("TAN", new StandardSQLFunction("TAN", StandardBasicTypes.DOUBLE));
+    register("TANH", new StandardSQLFunction("TANH", StandardBasicTypes.DOUBLE));
+    register("ATAN", new StandardSQLFunction("ATAN", StandardBasicTypes.DOUBLE));
+    register("ATANH", new StandardSQLFunction("ATANH", StandardBasicTypes.DOUBLE));
+    register("ATAN2", new StandardSQLFunction("ATAN2", StandardBasicTypes.DOUBLE));
+  }
+
+  private CloudSpannerFunctions() {}
+
+  private static void register(String name, SQLFunction function) {
+    REGISTERED.put(name, function);
+  }
+}
@@ -0,0 +1,32 @@
+package knut.dialect;
+
+import org.hibernate.boot.model.naming.Identifier;
+import org.hibernate.boot.model.naming.ImplicitJoinColumnNameSource;
+import org.hibernate.boot.model.naming.ImplicitNamingStrategyJpaCompliantImpl;
+
+/**
+ * Naming strategy that gives the key columns of collection tables the names of the primary key
+ * columns of the owner of the collection, instead of the JPA default
+ * <code>{entity}_{column}</code>. Cloud Spanner requires these names to interleave a table in
+ * its parent, so with this strategy the tables of element collections and one-to-many join
+ * tables are created interleaved in the table of their owner:
+ *
+ * <pre>
+ * hibernate.implicit_naming_strategy=knut.dialect.CloudSpannerImplicitNamingStrategy
+ * </pre>
+ *
+ * Only the names of columns that are not named explicitly change, but existing schemas that were
+ * generated with the default names have to be migrated.
+ */
+public class CloudSpannerImplicitNamingStrategy extends ImplicitNamingStrategyJpaCompliantImpl {
+  private static final long serialVersionUID = 1L;
+
+  @Override
+  public Identifier determineJoinColumnName(ImplicitJoinColumnNameSource source) {
+    // the key columns of a collection table are the only join columns without an attribute
+    if (source.getAttributePath() == null && source.getReferencedColumnName() != null) {
+      return source.getReferencedColumnName();
+    }
+    return super.determineJoinColumnName(source);
+  }
+}
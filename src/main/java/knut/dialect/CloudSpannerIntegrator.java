@@ -0,0 +1,320 @@
+package knut.dialect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.boot.Metadata;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Index;
+import org.hibernate.mapping.OneToMany;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.mapping.SimpleValue;
+import org.hibernate.mapping.Table;
+import org.hibernate.mapping.Value;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.type.CustomType;
+
+/**
+ * Integrates the Cloud Spanner specific behavior of entities into session factories that use a
+ * Cloud Spanner dialect. The integrator is registered through
+ * <code>META-INF/services/org.hibernate.integrator.spi.Integrator</code>.
+ *
+ * Rows of tables that are {@link InterleaveInParent#cascadeDelete() interleaved with ON DELETE
+ * CASCADE} are deleted by Cloud Spanner together with their parent row. For the inverse
+ * one-to-many collections of such children, the integrator registers an
+ * {@link InterleavedDeleteEventListener} that removes the delete cascade from the persisters of
+ * the session factory, so that Hibernate no longer loads and deletes every child before it
+ * deletes the parent, and that evicts the children of a deleted parent from the session and the
+ * second-level cache instead. Deleting a parent then takes one statement regardless of the number
+ * of children.
+ *
+ * The integrator also replaces the columns of {@link LazyBlobType lazy BLOB} and {@link
+ * LazyClobType lazy CLOB} properties with their length in the selects of Hibernate and maps
+ * their entities with dynamic update, samples the keys of inserted entities in a
+ * {@link KeyDistributionStatistics} to detect hotspots, inserts the shard rows of the
+ * {@link ShardedCounter sharded counters} of inserted entities, and sets the
+ * {@link ShardPrefix shard prefixes} of new entities. The tables with a shard prefix and
+ * the {@link GeneratedColumn generated columns} are added to the
+ * {@link CloudSpannerStatementInspector} of the session factory if it uses one. Unless
+ * {@link InstrumentedConnectionProvider#JMX_ENABLED} is <code>false</code>, the statistics of the
+ * {@link CloudSpannerLimitHandler paged SQL cache} are registered as an MBean while the session
+ * factory is open.
+ */
+public class CloudSpannerIntegrator implements Integrator {
+  /**
+   * Whether the delete cascade to interleaved children is left to Cloud Spanner. Defaults to
+   * <code>true</code>; disable it if the schema does not contain the ON DELETE CASCADE clauses of
+   * the {@link InterleaveInParent} annotations.
+   */
+  public static final String INTERLEAVED_CASCADE_DELETE =
+      "hibernate.cloudspanner.interleaved_cascade_delete";
+  /**
+   * The average number of inserts per sampled key of the {@link KeyDistributionStatistics}.
+   * Defaults to 64; 0 disables the sampling.
+   */
+  public static final String KEY_SAMPLE_RATE =
+      "hibernate.cloudspanner.key_distribution.sample_rate";
+
+  @Override
+  public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+      SessionFactoryServiceRegistry serviceRegistry) {
+    Dialect dialect = serviceRegistry.getService(JdbcServices.class).getDialect();
+    if (!(dialect instanceof AbstractCloudSpannerDialect)) {
+      return;
+    }
+    readLazyLobLengths(metadata, dialect,
+        sessionFactory.getSessionFactoryOptions().isSecondLevelCacheEnabled());
+    ConfigurationService configuration = serviceRegistry.getService(ConfigurationService.class);
+    if (isJmxEnabled(configuration)) {
+      CloudSpannerLimitHandler.INSTANCE.registerMBean("default");
+    }
+    int sampleRate = ConfigurationHelper.getInt(KEY_SAMPLE_RATE, configuration.getSettings(), 64);
+    if (sampleRate > 0) {
+      KeyDistributionStatistics statistics = new KeyDistributionStatistics();
+      for (SpannerMetricsListener listener : ServiceLoader.load(SpannerMetricsListener.class)) {
+        statistics.addListener(listener);
+      }
+      if (isJmxEnabled(configuration)) {
+        statistics.registerMBean(sessionFactory.getName() != null ? sessionFactory.getName()
+            : "default-" + Integer.toHexString(System.identityHashCode(sessionFactory)));
+      }
+      serviceRegistry.getService(EventListenerRegistry.class).appendListeners(
+          EventType.POST_INSERT, new KeyDistributionEventListener(statistics, sampleRate));
+    }
+    Map<String, List<ShardedCounters.Counter>> counters = ShardedCounters.getCounters(metadata);
+    if (!counters.isEmpty()) {
+      serviceRegistry.getService(EventListenerRegistry.class).appendListeners(
+          EventType.POST_INSERT, new ShardedCounterEventListener(counters));
+    }
+    StatementInspector inspector =
+        sessionFactory.getSessionFactoryOptions().getStatementInspector();
+    Map<Class<?>, ShardPrefixes.ShardedKey> keys =
+        ShardPrefixes.getShardedKeys(metadata, dialect);
+    if (!keys.isEmpty()) {
+      ShardPrefixEventListener listener = new ShardPrefixEventListener(keys);
+      EventListenerRegistry listeners = serviceRegistry.getService(EventListenerRegistry.class);
+      listeners.prependListeners(EventType.PERSIST, listener);
+      listeners.prependListeners(EventType.PERSIST_ONFLUSH, listener);
+      listeners.prependListeners(EventType.SAVE_UPDATE, listener);
+      listeners.prependListeners(EventType.SAVE, listener);
+      listeners.prependListeners(EventType.MERGE, listener);
+      if (inspector instanceof CloudSpannerStatementInspector) {
+        for (ShardPrefixes.ShardedKey key : keys.values()) {
+          ((CloudSpannerStatementInspector) inspector).addShardedTable(key.getTable(),
+              key.getColumn(), key.getShards(), key.getKeyColumns());
+        }
+      }
+    }
+    if (inspector instanceof CloudSpannerStatementInspector) {
+      for (PersistentClass entity : metadata.getEntityBindings()) {
+        Table table = entity.getRootTable();
+        for (GeneratedColumn column : GeneratedColumns.getColumns(entity)) {
+          ((CloudSpannerStatementInspector) inspector).addGeneratedColumn(
+              table.getQuotedName(dialect), column.name(), column.expression(),
+              GeneratedColumns.getColumnNames(table));
+        }
+      }
+    }
+    if (serviceRegistry.getService(RegionFactory.class) instanceof CommitTimestampRegionFactory) {
+      writeCommitTimestamps(metadata, dialect, configuration.getSetting(
+          CommitTimestampRegionFactory.COMMIT_TIMESTAMP_COLUMN, StandardConverters.STRING,
+          CommitTimestampRegionFactory.DEFAULT_COMMIT_TIMESTAMP_COLUMN), inspector);
+    }
+    if (!configuration.getSetting(INTERLEAVED_CASCADE_DELETE, StandardConverters.BOOLEAN,
+        Boolean.TRUE)) {
+      return;
+    }
+    Map<String, List<InterleavedDeleteEventListener.Children>> children = new HashMap<>();
+    for (PersistentClass entity : metadata.getEntityBindings()) {
+      for (Iterator<?> it = entity.getPropertyClosureIterator(); it.hasNext();) {
+        Property property = (Property) it.next();
+        PersistentClass child = getCascadeDeletedChild(metadata, entity, property);
+        if (child != null) {
+          children.computeIfAbsent(entity.getEntityName(), name -> new ArrayList<>())
+              .add(new InterleavedDeleteEventListener.Children(child.getEntityName(),
+                  ((Collection) property.getValue()).getMappedByProperty(),
+                  property.getName()));
+        }
+      }
+    }
+    if (!children.isEmpty()) {
+      InterleavedDeleteEventListener listener = new InterleavedDeleteEventListener(children);
+      serviceRegistry.getService(EventListenerRegistry.class).prependListeners(EventType.DELETE,
+          listener);
+      sessionFactory.addObserver(listener);
+    }
+  }
+
+  /**
+   * Checks that the tables of the cached entities and collections of a
+   * {@link CommitTimestampRegionFactory} have a commit timestamp column that Hibernate does not
+   * write and a descending index on it for the watermark query, and lets the statement inspector
+   * set the column in their inserts and updates.
+   *
+   * @throws MappingException if a table has no such column or index
+   */
+  private static void writeCommitTimestamps(Metadata metadata, Dialect dialect, String column,
+      StatementInspector inspector) {
+    Map<Table, String> tables = new LinkedHashMap<>();
+    for (PersistentClass entity : metadata.getEntityBindings()) {
+      if (!entity.isCached()) {
+        continue;
+      }
+      for (Iterator<?> it = entity.getPropertyClosureIterator(); it.hasNext();) {
+        Property property = (Property) it.next();
+        for (Iterator<?> columns = property.getColumnIterator(); columns.hasNext();) {
+          Object selectable = columns.next();
+          if (selectable instanceof Column && ((Column) selectable).getName()
+              .equalsIgnoreCase(column) && (property.isInsertable() || property.isUpdateable())) {
+            throw new MappingException("The commit timestamp column " + column + " of "
+                + entity.getEntityName() + " must be mapped with insertable = false and "
+                + "updatable = false");
+          }
+        }
+      }
+      for (Iterator<?> it = entity.getTableClosureIterator(); it.hasNext();) {
+        tables.put((Table) it.next(), entity.getEntityName());
+      }
+    }
+    for (Collection collection : metadata.getCollectionBindings()) {
+      if (collection.getCacheConcurrencyStrategy() != null) {
+        tables.putIfAbsent(collection.getCollectionTable(), collection.getRole());
+      }
+    }
+    if (tables.isEmpty()) {
+      return;
+    }
+    if (!(inspector instanceof CloudSpannerStatementInspector)) {
+      throw new HibernateException(CommitTimestampRegionFactory.class.getSimpleName()
+          + " needs a " + CloudSpannerStatementInspector.class.getName()
+          + " to write the commit timestamps, set " + AvailableSettings.STATEMENT_INSPECTOR);
+    }
+    for (Map.Entry<Table, String> table : tables.entrySet()) {
+      if (!GeneratedColumns.getColumnNames(table.getKey()).stream()
+          .anyMatch(column::equalsIgnoreCase)) {
+        throw new MappingException("The table " + table.getKey().getName() + " of "
+            + table.getValue() + " has no commit timestamp column " + column);
+      }
+      if (!hasDescendingIndex(table.getKey(), column)) {
+        throw new MappingException("The table " + table.getKey().getName() + " of "
+            + table.getValue() + " needs an index on " + column + " DESC for the watermark query"
+            + ", e.g. @Table(indexes = @Index(columnList = \"" + column + " DESC\"))");
+      }
+      ((CloudSpannerStatementInspector) inspector)
+          .addCommitTimestampColumn(table.getKey().getQuotedName(dialect), column);
+    }
+  }
+
+  private static boolean hasDescendingIndex(Table table, String column) {
+    for (Iterator<Index> it = table.getIndexIterator(); it.hasNext();) {
+      Index index = it.next();
+      Iterator<Column> columns = index.getColumnIterator();
+      if (columns.hasNext()) {
+        Column first = columns.next();
+        String order = index.getColumnOrderMap().get(first);
+        if (first.getName().equalsIgnoreCase(column) && order != null
+            && "desc".equalsIgnoreCase(order.trim())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Selects the length instead of the value of the columns of {@link AbstractLazyLobType lazy
+   * LOB} properties, which read their value when it is accessed, and maps their entities with
+   * dynamic update, so that an update only writes the value of a lazy property if it changed.
+   *
+   * @throws MappingException if an entity with a lazy property is stored in the second-level
+   *         cache, which cannot hold the value
+   */
+  private static void readLazyLobLengths(Metadata metadata, Dialect dialect,
+      boolean secondLevelCache) {
+    for (PersistentClass entity : metadata.getEntityBindings()) {
+      for (Iterator<?> it = entity.getPropertyClosureIterator(); it.hasNext();) {
+        Property property = (Property) it.next();
+        Value value = property.getValue();
+        if (value instanceof SimpleValue && value.getType() instanceof CustomType
+            && ((CustomType) value.getType()).getUserType() instanceof AbstractLazyLobType) {
+          if (secondLevelCache && entity.isCached()) {
+            throw new MappingException("The lazy LOB property " + property.getName() + " of "
+                + entity.getEntityName() + " cannot be stored in the second-level cache, "
+                + "remove the cache mapping of the entity");
+          }
+          entity.setDynamicUpdate(true);
+          for (Iterator<?> columns = value.getColumnIterator(); columns.hasNext();) {
+            Column column = (Column) columns.next();
+            column.setCustomRead("length(" + column.getQuotedName(dialect) + ")");
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the entity of the elements of the given property if it is an inverse one-to-many
+   *         collection of entities that are interleaved in the table of the given entity with ON
+   *         DELETE CASCADE, or <code>null</code>
+   */
+  private static PersistentClass getCascadeDeletedChild(Metadata metadata,
+      PersistentClass entity, Property property) {
+    if (!(property.getValue() instanceof Collection)) {
+      return null;
+    }
+    Collection collection = (Collection) property.getValue();
+    if (!collection.isInverse() || collection.getMappedByProperty() == null
+        || !(collection.getElement() instanceof OneToMany)) {
+      return null;
+    }
+    PersistentClass child = metadata.getEntityBinding(
+        ((OneToMany) collection.getElement()).getReferencedEntityName());
+    Class<?> childClass = child == null ? null : child.getMappedClass();
+    InterleaveInParent interleave =
+        childClass == null ? null : childClass.getAnnotation(InterleaveInParent.class);
+    if (interleave == null || !interleave.cascadeDelete() || !interleave.value().replace("`", "")
+        .equalsIgnoreCase(entity.getTable().getName())) {
+      return null;
+    }
+    return child;
+  }
+
+  private static boolean isJmxEnabled(ConfigurationService configuration) {
+    return configuration.getSetting(InstrumentedConnectionProvider.JMX_ENABLED,
+        StandardConverters.BOOLEAN, Boolean.TRUE);
+  }
+
+  @Override
+  public void disintegrate(SessionFactoryImplementor sessionFactory,
+      SessionFactoryServiceRegistry serviceRegistry) {
+    if (serviceRegistry.getService(JdbcServices.class)
+        .getDialect() instanceof AbstractCloudSpannerDialect
+        && isJmxEnabled(serviceRegistry.getService(ConfigurationService.class))) {
+      CloudSpannerLimitHandler.INSTANCE.unregisterMBean();
+    }
+    KeyDistributionStatistics statistics = KeyDistributionStatistics.get(sessionFactory);
+    if (statistics != null) {
+      statistics.unregisterMBean();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package knut.dialect;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+import org.hibernate.dialect.pagination.AbstractLimitHandler;
+import org.hibernate.dialect.pagination.LimitHelper;
+import org.hibernate.engine.spi.RowSelection;
+
+/**
+ * Limit handler for Cloud Spanner that appends <code>limit ?</code> or
+ * <code>limit ? offset ?</code> to a query. The limit is bound before the offset.
+ *
+ * Hibernate passes the same SQL string for every execution of a query, so the paged SQL strings
+ * are cached by base SQL and by whether the query has an offset. The cache is bounded; when it is
+ * full, an arbitrary entry is evicted for each new entry. The cache of the dialects is shared by
+ * all session factories; the {@link CloudSpannerIntegrator} exposes its hit and miss counts over
+ * JMX as <code>knut.dialect:type=PagedSqlCache,name=default</code> while a session factory with
+ * {@link InstrumentedConnectionProvider#JMX_ENABLED} is open.
+ */
+public class CloudSpannerLimitHandler extends AbstractLimitHandler implements PagedSqlCacheMXBean {
+  /** The default maximum number of cached paged SQL strings. */
+  public static final int DEFAULT_MAX_SIZE = 1024;
+
+  static final CloudSpannerLimitHandler INSTANCE = new CloudSpannerLimitHandler(DEFAULT_MAX_SIZE);
+
+  private static final String LIMIT = " limit ?";
+  private static final String LIMIT_OFFSET = " limit ? offset ?";
+
+  private final int maxSize;
+  private final ConcurrentHashMap<String, String> withoutOffset = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, String> withOffset = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  /** The number of session factories that registered the MBean. */
+  private int registrations;
+  private ObjectName objectName;
+
+  /** @param maxSize the maximum number of cached paged SQL strings, 0 disables the cache */
+  public CloudSpannerLimitHandler(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  @Override
+  public String processSql(String sql, RowSelection selection) {
+    return getLimitString(sql, LimitHelper.hasFirstRow(selection));
+  }
+
+  /** @return the given SQL with a limit and, if <code>hasOffset</code>, an offset parameter */
+  public String getLimitString(String sql, boolean hasOffset) {
+    ConcurrentHashMap<String, String> cache = hasOffset ? withOffset : withoutOffset;
+    String res = cache.get(sql);
+    if (res != null) {
+      hits.increment();
+      return res;
+    }
+    misses.increment();
+    res = sql + (hasOffset ? LIMIT_OFFSET : LIMIT);
+    if (maxSize > 0) {
+      if (withOffset.size() + withoutOffset.size() >= maxSize) {
+        evict(cache.isEmpty() ? (hasOffset ? withoutOffset : withOffset) : cache);
+      }
+      cache.put(sql, res);
+    }
+    return res;
+  }
+
+  private void evict(ConcurrentHashMap<String, String> cache) {
+    Iterator<String> iterator = cache.keySet().iterator();
+    if (iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      evictions.increment();
+    }
+  }
+
+  @Override
+  public boolean supportsLimit() {
+    return true;
+  }
+
+  @Override
+  public boolean bindLimitParametersInReverseOrder() {
+    return true;
+  }
+
+  @Override
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  @Override
+  public int getSize() {
+    return withOffset.size() + withoutOffset.size();
+  }
+
+  @Override
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  @Override
+  public void clear() {
+    withOffset.clear();
+    withoutOffset.clear();
+    hits.reset();
+    misses.reset();
+    evictions.reset();
+  }
+
+  /**
+   * Registers the cache statistics as an MBean with the given name, unless they are registered
+   * already. Each call must be followed by a call of {@link #unregisterMBean()}.
+   */
+  synchronized void registerMBean(String name) {
+    if (registrations++ == 0) {
+      objectName = InstrumentedConnectionProvider.registerMBean(this, "PagedSqlCache", name);
+    }
+  }
+
+  /** Unregisters the MBean when all registrations have been undone. */
+  synchronized void unregisterMBean() {
+    if (registrations > 0 && --registrations == 0) {
+      InstrumentedConnectionProvider.unregisterMBean(objectName);
+      objectName = null;
+    }
+  }
+}
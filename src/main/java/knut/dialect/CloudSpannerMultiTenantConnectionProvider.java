@@ -0,0 +1,423 @@
+package knut.dialect;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import javax.management.ObjectName;
+import org.hibernate.HibernateException;
+import org.hibernate.boot.registry.classloading.spi.ClassLoaderService;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.internal.ConnectionProviderInitiator;
+import org.hibernate.engine.jdbc.connections.spi.MultiTenantConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.ServiceRegistryAwareService;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.service.spi.Stoppable;
+import org.jboss.logging.Logger;
+
+/**
+ * {@link MultiTenantConnectionProvider} for database-per-tenant multi-tenancy, where each tenant
+ * has its own Cloud Spanner database with the same schema. All tenants share one SessionFactory,
+ * so the metadata, the dialect and the schema management tool are set up once instead of once
+ * per tenant. The connection URL of a tenant is created from a URL template by replacing
+ * <code>{tenant}</code> with the tenant identifier:
+ *
+ * <pre>
+ * hibernate.multiTenancy=DATABASE
+ * hibernate.multi_tenant_connection_provider=knut.dialect.CloudSpannerMultiTenantConnectionProvider
+ * hibernate.connection.url=jdbc:cloudspanner:/projects/p/instances/i/databases/{tenant}
+ * hibernate.connection.minSessions=1
+ * hibernate.cloudspanner.multi_tenancy.default_tenant=template
+ * </pre>
+ *
+ * Each tenant gets a small pool of connections that is created on first use, and the pools of
+ * tenants that have not been used for the idle timeout are closed in the background, so memory
+ * and startup time depend on the number of active tenants rather than the total number. The
+ * JDBC driver shares one Spanner instance between all connections with the same credentials, but
+ * keeps a session pool per database; set <code>minSessions</code> to a low value so that the
+ * first connection of a tenant does not create many sessions.
+ *
+ * The schema management tool and the JDBC metadata of Hibernate use the database of the
+ * {@link #DEFAULT_TENANT}. The pools are exposed over JMX as
+ * <code>knut.dialect:type=TenantConnectionPools,name=&lt;session factory name&gt;</code>.
+ */
+public class CloudSpannerMultiTenantConnectionProvider implements MultiTenantConnectionProvider,
+    Configurable, ServiceRegistryAwareService, Stoppable, TenantConnectionPoolsMXBean {
+  private static final long serialVersionUID = 1L;
+  private static final Logger LOG =
+      Logger.getLogger(CloudSpannerMultiTenantConnectionProvider.class);
+
+  /**
+   * The JDBC URL with a <code>{tenant}</code> placeholder for the tenant identifier. Defaults to
+   * <code>hibernate.connection.url</code>.
+   */
+  public static final String URL_TEMPLATE = "hibernate.cloudspanner.multi_tenancy.url";
+  /** The tenant that is used when Hibernate needs a connection without a tenant. */
+  public static final String DEFAULT_TENANT = "hibernate.cloudspanner.multi_tenancy.default_tenant";
+  /** The maximum number of idle connections that are kept per tenant. Defaults to 4. */
+  public static final String MAX_IDLE_CONNECTIONS =
+      "hibernate.cloudspanner.multi_tenancy.max_idle_connections";
+  /**
+   * The time in milliseconds after which the pool of an unused tenant is closed. Defaults to 5
+   * minutes; 0 disables closing idle tenants.
+   */
+  public static final String IDLE_TIMEOUT = "hibernate.cloudspanner.multi_tenancy.idle_timeout_ms";
+  /**
+   * The maximum number of tenants with a connection pool. When a pool is created for another
+   * tenant, the pool of the least recently used tenant without connections in use is closed.
+   * Defaults to 0, which means no limit.
+   */
+  public static final String MAX_TENANTS = "hibernate.cloudspanner.multi_tenancy.max_tenants";
+
+  static final String TENANT_PLACEHOLDER = "{tenant}";
+  /** Tenant identifiers must be valid Cloud Spanner database ids. */
+  private static final Pattern TENANT_IDENTIFIER =
+      Pattern.compile("[a-z][a-z0-9_\\-]{0,28}[a-z0-9]");
+
+  /** The connections of one tenant. All fields are guarded by the pool itself. */
+  private static final class TenantPool {
+    private final String url;
+    private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+    private int borrowed;
+    private long lastUsed = System.nanoTime();
+    private boolean closed;
+
+    private TenantPool(String url) {
+      this.url = url;
+    }
+
+    /** Marks the pool as closed and returns its idle connections, which must be closed. */
+    private List<Connection> close() {
+      closed = true;
+      List<Connection> res = new ArrayList<>(idle);
+      idle.clear();
+      return res;
+    }
+  }
+
+  private transient ServiceRegistryImplementor serviceRegistry;
+  private transient String urlTemplate;
+  private transient String defaultTenant;
+  private transient Driver driver;
+  private transient Properties connectionProperties;
+  private transient int maxIdleConnections;
+  private transient long idleTimeoutNanos;
+  private transient int maxTenants;
+  private final transient ConcurrentHashMap<String, TenantPool> pools = new ConcurrentHashMap<>();
+  private final transient LongAdder createdConnections = new LongAdder();
+  private final transient LongAdder evictedTenants = new LongAdder();
+  private transient ScheduledExecutorService evictor;
+  private transient ObjectName objectName;
+
+  @Override
+  public void injectServices(ServiceRegistryImplementor serviceRegistry) {
+    this.serviceRegistry = serviceRegistry;
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  @Override
+  public void configure(Map configurationValues) {
+    urlTemplate = ConfigurationHelper.getString(URL_TEMPLATE, configurationValues,
+        ConfigurationHelper.getString(AvailableSettings.URL, configurationValues));
+    if (urlTemplate == null || !urlTemplate.contains(TENANT_PLACEHOLDER)) {
+      throw new HibernateException(
+          "The connection URL must contain the placeholder " + TENANT_PLACEHOLDER);
+    }
+    defaultTenant = ConfigurationHelper.getString(DEFAULT_TENANT, configurationValues);
+    if (defaultTenant == null) {
+      throw new HibernateException(DEFAULT_TENANT + " is not set");
+    }
+    String driverClass =
+        ConfigurationHelper.getString(AvailableSettings.DRIVER, configurationValues);
+    if (driverClass != null) {
+      try {
+        driver = (Driver) serviceRegistry.getService(ClassLoaderService.class)
+            .classForName(driverClass).getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException e) {
+        throw new HibernateException("Could not instantiate JDBC driver " + driverClass, e);
+      }
+    }
+    connectionProperties = ConnectionProviderInitiator.getConnectionProperties(configurationValues);
+    maxIdleConnections = ConfigurationHelper.getInt(MAX_IDLE_CONNECTIONS, configurationValues, 4);
+    idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+        ConfigurationHelper.getLong(IDLE_TIMEOUT, configurationValues, 300000));
+    maxTenants = ConfigurationHelper.getInt(MAX_TENANTS, configurationValues, 0);
+    if (idleTimeoutNanos > 0L) {
+      long period = Math.max(TimeUnit.SECONDS.toNanos(1L), idleTimeoutNanos / 2L);
+      evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "knut-tenant-evictor");
+        thread.setDaemon(true);
+        return thread;
+      });
+      evictor.scheduleWithFixedDelay(this::evictIdleTenants, period, period,
+          TimeUnit.NANOSECONDS);
+    }
+    if (ConfigurationHelper.getBoolean(InstrumentedConnectionProvider.JMX_ENABLED,
+        configurationValues, true)) {
+      String name = ConfigurationHelper.getString(AvailableSettings.SESSION_FACTORY_NAME,
+          configurationValues, "default-" + Integer.toHexString(System.identityHashCode(this)));
+      objectName =
+          InstrumentedConnectionProvider.registerMBean(this, "TenantConnectionPools", name);
+    }
+  }
+
+  /** @return the JDBC URL of the database of the given tenant */
+  public String getUrl(String tenantIdentifier) {
+    if (tenantIdentifier == null || !TENANT_IDENTIFIER.matcher(tenantIdentifier).matches()) {
+      throw new HibernateException("Invalid tenant identifier: " + tenantIdentifier);
+    }
+    return urlTemplate.replace(TENANT_PLACEHOLDER, tenantIdentifier);
+  }
+
+  @Override
+  public Connection getAnyConnection() throws SQLException {
+    return getConnection(defaultTenant);
+  }
+
+  @Override
+  public void releaseAnyConnection(Connection connection) throws SQLException {
+    releaseConnection(defaultTenant, connection);
+  }
+
+  @Override
+  public Connection getConnection(String tenantIdentifier) throws SQLException {
+    if (tenantIdentifier == null) {
+      throw new HibernateException("No tenant identifier");
+    }
+    while (true) {
+      TenantPool pool = pools.get(tenantIdentifier);
+      if (pool == null) {
+        pool = new TenantPool(getUrl(tenantIdentifier));
+        TenantPool existing = pools.putIfAbsent(tenantIdentifier, pool);
+        if (existing == null) {
+          if (maxTenants > 0 && pools.size() > maxTenants) {
+            evictLeastRecentlyUsed(tenantIdentifier);
+          }
+        } else {
+          pool = existing;
+        }
+      }
+      Connection connection;
+      synchronized (pool) {
+        if (pool.closed) {
+          // evicted concurrently, a new pool is created for the tenant
+          continue;
+        }
+        pool.borrowed++;
+        pool.lastUsed = System.nanoTime();
+        connection = pool.idle.pollFirst();
+      }
+      if (connection != null) {
+        return connection;
+      }
+      try {
+        connection = driver == null ? DriverManager.getConnection(pool.url, connectionProperties)
+            : driver.connect(pool.url, connectionProperties);
+        if (connection == null) {
+          throw new SQLException("The JDBC driver does not accept the URL " + pool.url);
+        }
+        createdConnections.increment();
+        return connection;
+      } catch (SQLException | RuntimeException e) {
+        synchronized (pool) {
+          pool.borrowed--;
+        }
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public void releaseConnection(String tenantIdentifier, Connection connection)
+      throws SQLException {
+    TenantPool pool = pools.get(tenantIdentifier);
+    if (pool != null) {
+      boolean reusable = reset(connection);
+      synchronized (pool) {
+        pool.borrowed--;
+        pool.lastUsed = System.nanoTime();
+        if (!pool.closed && pool.idle.size() < maxIdleConnections && reusable) {
+          pool.idle.addFirst(connection);
+          return;
+        }
+      }
+    }
+    connection.close();
+  }
+
+  /**
+   * Restores the state that a session may have left on a connection, so that the next session of
+   * the tenant does not inherit it: an open transaction is rolled back, and the connection is put
+   * back in the autocommit and read-write mode of new connections.
+   *
+   * @return whether the connection can be reused
+   */
+  private static boolean reset(Connection connection) {
+    try {
+      if (connection.isClosed()) {
+        return false;
+      }
+      if (!connection.getAutoCommit()) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+      if (connection.isReadOnly()) {
+        connection.setReadOnly(false);
+      }
+      return true;
+    } catch (SQLException e) {
+      LOG.debugf(e, "Could not reset connection, closing it");
+      return false;
+    }
+  }
+
+  @Override
+  public void evictIdleTenants() {
+    if (idleTimeoutNanos > 0L) {
+      evictIdleTenants(System.nanoTime() - idleTimeoutNanos);
+    }
+  }
+
+  /** Closes the pools of the tenants that have not been used since the given nano time. */
+  void evictIdleTenants(long unusedSinceNanos) {
+    for (Map.Entry<String, TenantPool> entry : pools.entrySet()) {
+      TenantPool pool = entry.getValue();
+      List<Connection> connections;
+      synchronized (pool) {
+        if (pool.borrowed > 0 || pool.lastUsed - unusedSinceNanos >= 0L) {
+          continue;
+        }
+        connections = pool.close();
+      }
+      evict(entry.getKey(), pool, connections);
+    }
+  }
+
+  private void evictLeastRecentlyUsed(String exceptTenant) {
+    String tenant = null;
+    TenantPool leastRecentlyUsed = null;
+    long lastUsed = 0L;
+    for (Map.Entry<String, TenantPool> entry : pools.entrySet()) {
+      TenantPool pool = entry.getValue();
+      synchronized (pool) {
+        if (!entry.getKey().equals(exceptTenant) && pool.borrowed == 0 && !pool.closed
+            && (leastRecentlyUsed == null || pool.lastUsed - lastUsed < 0L)) {
+          tenant = entry.getKey();
+          leastRecentlyUsed = pool;
+          lastUsed = pool.lastUsed;
+        }
+      }
+    }
+    if (leastRecentlyUsed != null) {
+      List<Connection> connections;
+      synchronized (leastRecentlyUsed) {
+        if (leastRecentlyUsed.borrowed > 0 || leastRecentlyUsed.closed) {
+          return;
+        }
+        connections = leastRecentlyUsed.close();
+      }
+      evict(tenant, leastRecentlyUsed, connections);
+    }
+  }
+
+  private void evict(String tenant, TenantPool pool, List<Connection> connections) {
+    pools.remove(tenant, pool);
+    evictedTenants.increment();
+    closeAll(connections);
+  }
+
+  private static void closeAll(List<Connection> connections) {
+    for (Connection connection : connections) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        LOG.debugf(e, "Could not close connection");
+      }
+    }
+  }
+
+  @Override
+  public int getTenantCount() {
+    return pools.size();
+  }
+
+  @Override
+  public int getBorrowedConnectionCount() {
+    int res = 0;
+    for (TenantPool pool : pools.values()) {
+      synchronized (pool) {
+        res += pool.borrowed;
+      }
+    }
+    return res;
+  }
+
+  @Override
+  public int getIdleConnectionCount() {
+    int res = 0;
+    for (TenantPool pool : pools.values()) {
+      synchronized (pool) {
+        res += pool.idle.size();
+      }
+    }
+    return res;
+  }
+
+  @Override
+  public long getCreatedConnectionCount() {
+    return createdConnections.sum();
+  }
+
+  @Override
+  public long getEvictedTenantCount() {
+    return evictedTenants.sum();
+  }
+
+  @Override
+  public boolean supportsAggressiveRelease() {
+    return false;
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public boolean isUnwrappableAs(Class unwrapType) {
+    return unwrapType.isInstance(this);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> unwrapType) {
+    if (unwrapType.isInstance(this)) {
+      return unwrapType.cast(this);
+    }
+    throw new HibernateException("Cannot unwrap " + getClass().getName() + " as " + unwrapType);
+  }
+
+  @Override
+  public void stop() {
+    InstrumentedConnectionProvider.unregisterMBean(objectName);
+    if (evictor != null) {
+      evictor.shutdownNow();
+    }
+    for (TenantPool pool : pools.values()) {
+      List<Connection> connections;
+      synchronized (pool) {
+        connections = pool.close();
+      }
+      closeAll(connections);
+    }
+    pools.clear();
+  }
+}
@@ -0,0 +1,69 @@
+package knut.dialect;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Sets the {@link RequestPriority} of statements. The priority of a query is a query hint:
+ *
+ * <pre>
+ * session.createQuery("from Invoice i where i.month = :month", Invoice.class)
+ *     .addQueryHint(CloudSpannerQueryHints.priority(RequestPriority.LOW))
+ *     .setHint("javax.persistence.query.timeout", 30000)
+ *     ...
+ * </pre>
+ *
+ * and the priority of all statements of a session, including loads and flushes, is set when the
+ * session is opened with {@link #openSession}. The query timeout of Hibernate, which is also the
+ * session property <code>javax.persistence.query.timeout</code>, is the statement timeout of the
+ * Cloud Spanner JDBC driver, which cancels the request when it expires.
+ *
+ * The {@link InstrumentedConnectionProvider} takes the priority of each statement from the hint
+ * and admits statements to run in the order of their priority. The priority is not sent to Cloud
+ * Spanner.
+ */
+public final class CloudSpannerQueryHints {
+  static final String PRIORITY_HINT = "RPC_PRIORITY=";
+  /** The priority comment in the leading comments of a statement. */
+  private static final Pattern PRIORITY = Pattern.compile(
+      "\\A(?:\\s*/\\*.*?\\*/)*?\\s*/\\*\\s*" + PRIORITY_HINT + "(LOW|MEDIUM|HIGH)\\s*\\*/",
+      Pattern.DOTALL);
+
+  private CloudSpannerQueryHints() {}
+
+  /** @return the query hint that sets the priority of a query */
+  public static String priority(RequestPriority priority) {
+    return PRIORITY_HINT + priority.name();
+  }
+
+  /**
+   * Opens a session whose statements have the given priority, unless their query hint sets
+   * another priority. The statement inspector of the session factory is kept if it is a
+   * {@link CloudSpannerStatementInspector}.
+   */
+  public static Session openSession(SessionFactory sessionFactory, RequestPriority priority) {
+    StatementInspector inspector =
+        sessionFactory.getSessionFactoryOptions().getStatementInspector();
+    CloudSpannerStatementInspector prioritized = inspector instanceof CloudSpannerStatementInspector
+        ? ((CloudSpannerStatementInspector) inspector).withPriority(priority)
+        : new CloudSpannerStatementInspector().withPriority(priority);
+    return sessionFactory.withOptions().statementInspector(prioritized).openSession();
+  }
+
+  /** @return the statement with a comment that sets its priority */
+  static String addPriority(String sql, RequestPriority priority) {
+    return "/* " + priority(priority) + " */ " + sql;
+  }
+
+  /** @return the priority of the leading comments of a statement, or <code>null</code> */
+  static RequestPriority getPriority(String sql) {
+    if (sql.indexOf(PRIORITY_HINT) < 0) {
+      return null;
+    }
+    Matcher matcher = PRIORITY.matcher(sql);
+    return matcher.find() ? RequestPriority.valueOf(matcher.group(1)) : null;
+  }
+}
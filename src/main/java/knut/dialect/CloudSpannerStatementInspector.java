@@ -0,0 +1,487 @@
+package knut.dialect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Rewrites the statements of Hibernate so that Cloud Spanner can use the keys and indexes of
+ * tables with {@link ShardPrefix shard prefixes} and {@link GeneratedColumn generated columns}.
+ * The inspector is configured with <code>hibernate.session_factory.statement_inspector</code>,
+ * and the {@link CloudSpannerIntegrator} adds the tables of the session factory to it.
+ *
+ * A query that selects a range of the other key columns of a table with a shard prefix without
+ * the shard column would scan the whole table, because the shard is the first key column. The
+ * inspector adds a condition on all shards to the WHERE clause of such a query:
+ *
+ * <pre>
+ * select ... from Events e where e.eventTime &gt;= ? and e.eventTime &lt; ?
+ * select ... from Events e where e.shard in (0, 1, 2, 3) and (e.eventTime &gt;= ? and ...)
+ * </pre>
+ *
+ * which Cloud Spanner executes as one range scan per shard.
+ *
+ * The expression of a generated column in a statement is replaced with the column, so that a
+ * predicate on the expression can use the index of the column:
+ *
+ * <pre>
+ * select ... from Users u where lower(u.email) = ?
+ * select ... from Users u where u.emailLower = ?
+ * </pre>
+ *
+ * Inserts and updates of the tables of a {@link CommitTimestampRegionFactory} also set their
+ * commit timestamp column, which the entities map as read-only:
+ *
+ * <pre>
+ * insert into Singers (name, singerId) values (?, ?)
+ * insert into Singers (name, singerId, CommitTimestamp) values (?, ?, PENDING_COMMIT_TIMESTAMP())
+ * </pre>
+ *
+ * The inspector of a session {@link #withPriority with a priority} also adds the comment of the
+ * {@link RequestPriority} to statements without a priority hint.
+ */
+public class CloudSpannerStatementInspector implements StatementInspector {
+  private static final long serialVersionUID = 1L;
+  private static final int MAX_CACHED_STATEMENTS = 1000;
+  /** The keywords that end a WHERE clause. */
+  private static final Set<String> WHERE_END = new HashSet<>(Arrays.asList("group", "having",
+      "order", "limit", "offset", "union", "intersect", "except"));
+  /** The keywords that may follow a table name instead of an alias. */
+  private static final Set<String> NOT_ALIAS = new HashSet<>(Arrays.asList("where", "join",
+      "inner", "left", "right", "full", "cross", "on", "using", "group", "having", "order",
+      "limit", "offset", "union", "intersect", "except", "tablesample", "set"));
+
+  /** A table whose first key column is a shard. */
+  private static final class ShardedTable {
+    private final String shardColumn;
+    private final Set<String> keyColumns = new HashSet<>();
+    private final String condition;
+
+    private ShardedTable(String shardColumn, int shards, Collection<String> keyColumns) {
+      this.shardColumn = shardColumn;
+      for (String column : keyColumns) {
+        this.keyColumns.add(unquote(column));
+      }
+      StringBuilder condition = new StringBuilder(" in (");
+      for (int shard = 0; shard < shards; shard++) {
+        condition.append(shard == 0 ? "" : ", ").append(shard);
+      }
+      this.condition = condition.append(") and ").toString();
+    }
+  }
+
+  /** A generated column, and the tokens of its expression. */
+  private static final class Generated {
+    private final String column;
+    private final List<Token> expression;
+    /** Whether each token of the expression is a column of the table. */
+    private final boolean[] columns;
+
+    private Generated(String column, String expression, Collection<String> tableColumns) {
+      this.column = column;
+      this.expression = tokenize(expression);
+      this.columns = new boolean[this.expression.size()];
+      Set<String> names = new HashSet<>();
+      for (String name : tableColumns) {
+        names.add(unquote(name));
+      }
+      for (int i = 0; i < columns.length; i++) {
+        Token token = this.expression.get(i);
+        columns[i] = token.word && names.contains(token.text)
+            && (i + 1 == columns.length || !this.expression.get(i + 1).text.equals("("));
+      }
+    }
+  }
+
+  /** A word, quoted identifier, literal or symbol of a statement, outside of comments. */
+  private static final class Token {
+    private final String text;
+    private final int start;
+    private final int end;
+    private final int depth;
+    private final boolean word;
+
+    private Token(String text, int start, int end, int depth, boolean word) {
+      this.text = text;
+      this.start = start;
+      this.end = end;
+      this.depth = depth;
+      this.word = word;
+    }
+  }
+
+  /** A reference to a table in a statement. */
+  private static final class Reference {
+    private final String table;
+    /** The alias of the table, or its name if it has no alias. */
+    private final Token qualifier;
+    private final boolean aliased;
+
+    private Reference(String table, Token qualifier, boolean aliased) {
+      this.table = table;
+      this.qualifier = qualifier;
+      this.aliased = aliased;
+    }
+  }
+
+  private final Map<String, ShardedTable> shardedTables;
+  private final Map<String, List<Generated>> generatedColumns;
+  /** The commit timestamp column of each table whose inserts and updates must set it. */
+  private final Map<String, String> commitTimestampColumns;
+  private final Map<String, String> statements;
+  private final RequestPriority priority;
+
+  public CloudSpannerStatementInspector() {
+    this.shardedTables = new ConcurrentHashMap<>();
+    this.generatedColumns = new ConcurrentHashMap<>();
+    this.commitTimestampColumns = new ConcurrentHashMap<>();
+    this.statements = new ConcurrentHashMap<>();
+    this.priority = null;
+  }
+
+  private CloudSpannerStatementInspector(CloudSpannerStatementInspector inspector,
+      RequestPriority priority) {
+    this.shardedTables = inspector.shardedTables;
+    this.generatedColumns = inspector.generatedColumns;
+    this.commitTimestampColumns = inspector.commitTimestampColumns;
+    this.statements = inspector.statements;
+    this.priority = priority;
+  }
+
+  /**
+   * @return an inspector that rewrites statements like this one, and sets the given priority of
+   *         the statements without a priority hint
+   */
+  public CloudSpannerStatementInspector withPriority(RequestPriority priority) {
+    return new CloudSpannerStatementInspector(this, priority);
+  }
+
+  /**
+   * Adds a table with a shard prefix.
+   *
+   * @param keyColumns the key columns after the shard column
+   */
+  public void addShardedTable(String table, String shardColumn, int shards,
+      Collection<String> keyColumns) {
+    shardedTables.put(unquote(table), new ShardedTable(shardColumn, shards, keyColumns));
+    statements.clear();
+  }
+
+  /**
+   * Adds a generated column of a table.
+   *
+   * @param tableColumns the columns of the table that the expression may reference
+   */
+  public void addGeneratedColumn(String table, String column, String expression,
+      Collection<String> tableColumns) {
+    generatedColumns.computeIfAbsent(unquote(table), t -> new ArrayList<>())
+        .add(new Generated(column, expression, tableColumns));
+    statements.clear();
+  }
+
+  /** Adds a table whose inserts and updates set the given column to the commit timestamp. */
+  public void addCommitTimestampColumn(String table, String column) {
+    commitTimestampColumns.put(unquote(table), column);
+    statements.clear();
+  }
+
+  @Override
+  public String inspect(String sql) {
+    String res = rewrite(sql);
+    if (priority != null && CloudSpannerQueryHints.getPriority(res) == null) {
+      res = CloudSpannerQueryHints.addPriority(res, priority);
+    }
+    return res;
+  }
+
+  private String rewrite(String sql) {
+    if (shardedTables.isEmpty() && generatedColumns.isEmpty()
+        && commitTimestampColumns.isEmpty()) {
+      return sql;
+    }
+    String res = statements.get(sql);
+    if (res == null) {
+      res = addCommitTimestamp(addShards(replaceGenerated(sql)));
+      if (statements.size() < MAX_CACHED_STATEMENTS) {
+        statements.put(sql, res);
+      }
+    }
+    return res;
+  }
+
+  /** Replaces the expressions of generated columns with the columns. */
+  private String replaceGenerated(String sql) {
+    if (generatedColumns.isEmpty()) {
+      return sql;
+    }
+    List<Token> tokens = tokenize(sql);
+    if (tokens.isEmpty() || tokens.get(0).text.equals("insert")) {
+      return sql;
+    }
+    List<Reference> references = getReferences(tokens, generatedColumns.keySet(), false);
+    StringBuilder res = new StringBuilder();
+    int copied = 0;
+    tokens:
+    for (int i = 0; i < tokens.size(); i++) {
+      for (Reference reference : references) {
+        for (Generated generated : generatedColumns.get(reference.table)) {
+          int end = match(tokens, i, generated, reference);
+          if (end > i) {
+            res.append(sql, copied, tokens.get(i).start);
+            if (reference.aliased) {
+              res.append(sql, reference.qualifier.start, reference.qualifier.end).append('.');
+            }
+            res.append(generated.column);
+            copied = tokens.get(end - 1).end;
+            i = end - 1;
+            continue tokens;
+          }
+        }
+      }
+    }
+    return copied == 0 ? sql : res.append(sql, copied, sql.length()).toString();
+  }
+
+  /**
+   * @return the index after the tokens of the statement that match the expression of a generated
+   *         column of the referenced table at the given index, or -1
+   */
+  private static int match(List<Token> tokens, int index, Generated generated,
+      Reference reference) {
+    int i = index;
+    for (int j = 0; j < generated.expression.size(); j++) {
+      if (i >= tokens.size()) {
+        return -1;
+      }
+      if (generated.columns[j] && i + 2 < tokens.size() && tokens.get(i + 1).text.equals(".")) {
+        if (!tokens.get(i).text.equals(reference.qualifier.text)) {
+          return -1;
+        }
+        i += 2;
+      } else if (generated.columns[j] && reference.aliased) {
+        return -1;
+      }
+      if (!tokens.get(i).text.equals(generated.expression.get(j).text)) {
+        return -1;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  /** Adds a condition on all shards to a query of a table with a shard prefix. */
+  private String addShards(String sql) {
+    if (shardedTables.isEmpty()) {
+      return sql;
+    }
+    List<Token> tokens = tokenize(sql);
+    if (tokens.isEmpty() || !tokens.get(0).text.equals("select")) {
+      return sql;
+    }
+    // the sharded tables of the top level FROM clause, and the qualifiers of their columns
+    List<Reference> references = getReferences(tokens, shardedTables.keySet(), true);
+    int where = -1;
+    int whereEnd = tokens.size();
+    for (int i = 1; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      if (token.depth > 0 || !token.word || tokens.get(i - 1).text.equals(".")) {
+        continue;
+      }
+      if (where < 0 && token.text.equals("where")) {
+        where = i;
+      } else if (where >= 0 && WHERE_END.contains(token.text)) {
+        whereEnd = i;
+        break;
+      }
+    }
+    if (references.isEmpty() || where < 0 || where + 1 >= whereEnd) {
+      return sql;
+    }
+    StringBuilder conditions = new StringBuilder();
+    for (Reference reference : references) {
+      ShardedTable table = shardedTables.get(reference.table);
+      boolean key = false;
+      boolean shard = false;
+      for (int j = where + 1; j < whereEnd; j++) {
+        String column = getColumn(tokens, j, reference);
+        key = key || table.keyColumns.contains(column);
+        shard = shard || unquote(table.shardColumn).equals(column);
+      }
+      if (key && !shard) {
+        conditions.append(sql, reference.qualifier.start, reference.qualifier.end).append('.')
+            .append(table.shardColumn).append(table.condition);
+      }
+    }
+    if (conditions.length() == 0) {
+      return sql;
+    }
+    int start = tokens.get(where + 1).start;
+    int end = tokens.get(whereEnd - 1).end;
+    return sql.substring(0, start) + conditions + "(" + sql.substring(start, end) + ")"
+        + sql.substring(end);
+  }
+
+  /** Sets the commit timestamp column in an insert or update of a table that has one. */
+  private String addCommitTimestamp(String sql) {
+    if (commitTimestampColumns.isEmpty()) {
+      return sql;
+    }
+    List<Token> tokens = tokenize(sql);
+    if (tokens.size() < 3) {
+      return sql;
+    }
+    boolean insert = tokens.get(0).text.equals("insert") && tokens.get(1).text.equals("into");
+    boolean update = tokens.get(0).text.equals("update");
+    String column = !insert && !update ? null
+        : commitTimestampColumns.get(tokens.get(insert ? 2 : 1).text);
+    if (column == null || tokens.stream().anyMatch(t -> t.word && t.text.equals(unquote(column)))) {
+      return sql;
+    }
+    if (insert) {
+      // insert into T (columns) values (values)
+      int columnsEnd = findClose(tokens, 3);
+      int valuesEnd = columnsEnd < 0 || columnsEnd + 2 >= tokens.size()
+          || !tokens.get(columnsEnd + 1).text.equals("values") ? -1
+              : findClose(tokens, columnsEnd + 2);
+      if (valuesEnd < 0 || valuesEnd + 1 != tokens.size()) {
+        return sql;
+      }
+      int columns = tokens.get(columnsEnd).start;
+      int values = tokens.get(valuesEnd).start;
+      return sql.substring(0, columns) + ", " + column + sql.substring(columns, values)
+          + ", PENDING_COMMIT_TIMESTAMP()" + sql.substring(values);
+    }
+    // update T [alias] set assignments [where condition]
+    int end = -1;
+    boolean set = false;
+    for (int i = 2; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      if (token.depth == 0 && token.word && !tokens.get(i - 1).text.equals(".")) {
+        if (token.text.equals("set")) {
+          set = true;
+        } else if (set && token.text.equals("where")) {
+          end = tokens.get(i - 1).end;
+          break;
+        }
+      }
+    }
+    if (!set) {
+      return sql;
+    }
+    if (end < 0) {
+      end = tokens.get(tokens.size() - 1).end;
+    }
+    return sql.substring(0, end) + ", " + column + " = PENDING_COMMIT_TIMESTAMP()"
+        + sql.substring(end);
+  }
+
+  /** @return the index of the parenthesis that closes the one at the given index, or -1 */
+  private static int findClose(List<Token> tokens, int open) {
+    if (open >= tokens.size() || !tokens.get(open).text.equals("(")) {
+      return -1;
+    }
+    for (int i = open + 1; i < tokens.size(); i++) {
+      if (tokens.get(i).text.equals(")") && tokens.get(i).depth == tokens.get(open).depth) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the references to the given tables after FROM, JOIN or UPDATE, of the top level of
+   *         the statement or of all levels
+   */
+  private static List<Reference> getReferences(List<Token> tokens, Set<String> tables,
+      boolean topLevel) {
+    List<Reference> res = new ArrayList<>();
+    for (int i = 0; i + 1 < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      if (topLevel && token.depth > 0 || !token.word
+          || i > 0 && tokens.get(i - 1).text.equals(".")
+          || !token.text.equals("from") && !token.text.equals("join")
+              && !(i == 0 && token.text.equals("update"))
+          || !tables.contains(tokens.get(i + 1).text)) {
+        continue;
+      }
+      Token name = tokens.get(i + 1);
+      Token alias = i + 2 < tokens.size() ? tokens.get(i + 2) : null;
+      if (alias != null && alias.text.equals("as") && i + 3 < tokens.size()) {
+        alias = tokens.get(i + 3);
+      }
+      boolean aliased = alias != null && alias.word && !NOT_ALIAS.contains(alias.text);
+      res.add(new Reference(name.text, aliased ? alias : name, aliased));
+    }
+    return res;
+  }
+
+  /**
+   * @return the name of the column of the referenced table that the token at the given index
+   *         references, or <code>null</code>
+   */
+  private static String getColumn(List<Token> tokens, int index, Reference reference) {
+    Token token = tokens.get(index);
+    if (!token.word || index + 1 < tokens.size() && tokens.get(index + 1).text.equals("(")) {
+      return null;
+    }
+    if (index >= 2 && tokens.get(index - 1).text.equals(".")) {
+      return tokens.get(index - 2).text.equals(reference.qualifier.text) ? token.text : null;
+    }
+    boolean qualified = index + 1 < tokens.size() && tokens.get(index + 1).text.equals(".");
+    // columns of a table without an alias may also be referenced without the table name
+    return !qualified && !reference.aliased ? token.text : null;
+  }
+
+  private static List<Token> tokenize(String sql) {
+    List<Token> res = new ArrayList<>();
+    int depth = 0;
+    int i = 0;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      int start = i;
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (sql.startsWith("--", i) || c == '#') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? sql.length() : end;
+      } else if (sql.startsWith("/*", i)) {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? sql.length() : end + 2;
+      } else if (c == '\'' || c == '"') {
+        i = SqlShapes.skipQuoted(sql, i, c);
+        res.add(new Token(sql.substring(start, i), start, i, depth, false));
+      } else if (c == '`') {
+        i = SqlShapes.skipQuoted(sql, i, c);
+        res.add(new Token(unquote(sql.substring(start, i)), start, i, depth, true));
+      } else if (Character.isLetterOrDigit(c) || c == '_' || c == '@') {
+        while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i))
+            || sql.charAt(i) == '_' || sql.charAt(i) == '@')) {
+          i++;
+        }
+        res.add(new Token(sql.substring(start, i).toLowerCase(Locale.ROOT), start, i, depth,
+            true));
+      } else {
+        if (c == ')') {
+          depth--;
+        }
+        res.add(new Token(String.valueOf(c), start, i + 1, depth, false));
+        if (c == '(') {
+          depth++;
+        }
+        i++;
+      }
+    }
+    return res;
+  }
+
+  private static String unquote(String name) {
+    return name.replace("`", "").toLowerCase(Locale.ROOT);
+  }
+}
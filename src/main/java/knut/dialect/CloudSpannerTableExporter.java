@@ -1,14 +1,16 @@
 package knut.dialect;
 
 import org.hibernate.boot.Metadata;
+import org.hibernate.mapping.PrimaryKey;
 import org.hibernate.mapping.Table;
 
 class CloudSpannerTableExporter extends AbstractCloudSpannerTableExporter {
   static class CloudSpannerTableWithParent extends AbstractCloudSpannerTableWithParent {
     private static final long serialVersionUID = 1L;
 
-    CloudSpannerTableWithParent(Table delegate, Table parentTable, Metadata metadata) {
-      super(delegate, parentTable, metadata);
+    CloudSpannerTableWithParent(Table delegate, PrimaryKey primaryKey, Table parentTable,
+        Metadata metadata) {
+      super(delegate, primaryKey, parentTable, metadata);
     }
   }
 
@@ -17,8 +19,8 @@ class CloudSpannerTableExporter extends AbstractCloudSpannerTableExporter {
   }
 
   @Override
-  AbstractCloudSpannerTableWithParent createTableWithParent(Table table, Table parentTable,
-      Metadata metadata) {
-    return new CloudSpannerTableWithParent(table, parentTable, metadata);
+  AbstractCloudSpannerTableWithParent createTableWithParent(Table table, PrimaryKey primaryKey,
+      Table parentTable, Metadata metadata) {
+    return new CloudSpannerTableWithParent(table, primaryKey, parentTable, metadata);
   }
 }
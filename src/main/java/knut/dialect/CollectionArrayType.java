@@ -0,0 +1,322 @@
+package knut.dialect;
+
+import java.sql.Array;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import org.hibernate.HibernateException;
+import org.hibernate.annotations.common.reflection.XClass;
+import org.hibernate.annotations.common.reflection.XProperty;
+import org.hibernate.type.AbstractSingleColumnStandardBasicType;
+import org.hibernate.type.descriptor.ValueBinder;
+import org.hibernate.type.descriptor.ValueExtractor;
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.java.AbstractTypeDescriptor;
+import org.hibernate.type.descriptor.java.JavaTypeDescriptor;
+import org.hibernate.type.descriptor.java.MutableMutabilityPlan;
+import org.hibernate.type.descriptor.sql.BasicExtractor;
+import org.hibernate.type.descriptor.sql.SqlTypeDescriptor;
+import org.hibernate.usertype.DynamicParameterizedType;
+
+/**
+ * Type definition that stores a <code>List</code> or <code>Set</code> of basic values in a single
+ * ARRAY column of the row of the entity, instead of in a separate collection table:
+ *
+ * <pre>
+ * &#64;Type(type = "knut.dialect.CollectionArrayType")
+ * private List&lt;String&gt; tags = new ArrayList&lt;&gt;();
+ * </pre>
+ *
+ * The element type is taken from the declaration of the attribute and can be String, Long,
+ * Double, Boolean, java.sql.Date, java.sql.Timestamp or byte[]. The schema exporter of the dialect
+ * generates the matching array column, for example <code>ARRAY&lt;STRING(MAX)&gt;</code>. Dirty
+ * checking compares the elements of the collection with those of the loaded snapshot, so a
+ * collection is only written when it has been changed.
+ */
+public class CollectionArrayType extends AbstractSingleColumnStandardBasicType<Collection<?>>
+    implements DynamicParameterizedType {
+  private static final long serialVersionUID = 1L;
+
+  /** The Cloud Spanner type of the elements of an array. */
+  enum ElementType {
+    STRING(String.class, Types.VARCHAR, "STRING"),
+    INT64(Long.class, Types.BIGINT, "INT64"),
+    FLOAT64(Double.class, Types.DOUBLE, "FLOAT64"),
+    BOOL(Boolean.class, Types.BOOLEAN, "BOOL"),
+    DATE(java.sql.Date.class, Types.DATE, "DATE"),
+    TIMESTAMP(java.sql.Timestamp.class, Types.TIMESTAMP, "TIMESTAMP"),
+    BYTES(byte[].class, Types.BINARY, "BYTES");
+
+    private final Class<?> javaType;
+    private final int sqlType;
+    private final String typeName;
+
+    private ElementType(Class<?> javaType, int sqlType, String typeName) {
+      this.javaType = javaType;
+      this.sqlType = sqlType;
+      this.typeName = typeName;
+    }
+
+    static ElementType of(String className) {
+      for (ElementType type : values()) {
+        if (type.javaType.getName().equals(className)) {
+          return type;
+        }
+      }
+      throw new HibernateException(
+          className + " is not a supported element type of an ARRAY column");
+    }
+
+    /** @return a copy of the given element if it is mutable */
+    Object copy(Object element) {
+      if (element instanceof byte[]) {
+        return ((byte[]) element).clone();
+      } else if (element instanceof Date) {
+        return ((Date) element).clone();
+      }
+      return element;
+    }
+  }
+
+  static final class CollectionArrayTypeDescriptor extends AbstractTypeDescriptor<Collection<?>> {
+    private static final long serialVersionUID = 1L;
+    private final ElementType elementType;
+    private final boolean set;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private CollectionArrayTypeDescriptor(ElementType elementType, boolean set) {
+      super((Class) Collection.class, new MutableMutabilityPlan<Collection<?>>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected Collection<?> deepCopyNotNull(Collection<?> value) {
+          Collection<Object> res = newCollection(set, value.size());
+          for (Object element : value) {
+            res.add(elementType.copy(element));
+          }
+          return res;
+        }
+      });
+      this.elementType = elementType;
+      this.set = set;
+    }
+
+    private static Collection<Object> newCollection(boolean set, int size) {
+      return set ? new LinkedHashSet<>(Math.max(size * 2, 16)) : new ArrayList<>(size);
+    }
+
+    @Override
+    public Collection<?> fromString(String string) {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Compares the elements in the order of iteration, which is the order in which they were
+     * loaded for the sets that this type creates, and the elements of sets in any order if that
+     * differs. Arrays of bytes are compared by content.
+     */
+    @Override
+    public boolean areEqual(Collection<?> one, Collection<?> another) {
+      if (one == another) {
+        return true;
+      }
+      if (one == null || another == null || one.size() != another.size()) {
+        return false;
+      }
+      Iterator<?> iterator = another.iterator();
+      for (Object element : one) {
+        if (!Objects.deepEquals(element, iterator.next())) {
+          return set && containsSameElements(one, another);
+        }
+      }
+      return true;
+    }
+
+    /** @return whether the collections of the same size contain the same elements in any order */
+    private boolean containsSameElements(Collection<?> one, Collection<?> another) {
+      if (elementType != ElementType.BYTES) {
+        return one instanceof Set && one.equals(another);
+      }
+      // a set of arrays holds arrays with the same content as separate elements
+      List<Object> remaining = new ArrayList<>(another);
+      for (Object element : one) {
+        Iterator<Object> iterator = remaining.iterator();
+        boolean found = false;
+        while (!found && iterator.hasNext()) {
+          found = Objects.deepEquals(element, iterator.next());
+        }
+        if (!found) {
+          return false;
+        }
+        iterator.remove();
+      }
+      return true;
+    }
+
+    @Override
+    public int extractHashCode(Collection<?> value) {
+      return value.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <X> X unwrap(Collection<?> value, Class<X> type, WrapperOptions options) {
+      if (value != null) {
+        return (X) value.toArray();
+      }
+      return null;
+    }
+
+    @Override
+    public <X> Collection<?> wrap(X value, WrapperOptions options) {
+      Object data = value;
+      if (value instanceof Array) {
+        try {
+          data = ((Array) value).getArray();
+        } catch (SQLException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      if (data == null || data instanceof Collection) {
+        return (Collection<?>) data;
+      }
+      if (!(data instanceof Object[])) {
+        throw new IllegalArgumentException(data.getClass().getName()
+            + " is not a valid type for a " + elementType.typeName + " array");
+      }
+      Object[] elements = (Object[]) data;
+      Collection<Object> res = newCollection(set, elements.length);
+      for (Object element : elements) {
+        res.add(element);
+      }
+      return res;
+    }
+
+    @Override
+    public String toString(Collection<?> value) {
+      return value == null ? "null" : value.toString();
+    }
+  }
+
+  static class CollectionArraySqlTypeDescriptor implements SqlTypeDescriptor {
+    private static final long serialVersionUID = 1L;
+    private final ElementType elementType;
+
+    private CollectionArraySqlTypeDescriptor(ElementType elementType) {
+      this.elementType = elementType;
+    }
+
+    @Override
+    public int getSqlType() {
+      return Types.ARRAY;
+    }
+
+    @Override
+    public boolean canBeRemapped() {
+      return false;
+    }
+
+    @Override
+    public <X> ValueBinder<X> getBinder(final JavaTypeDescriptor<X> javaTypeDescriptor) {
+      return new ValueBinder<X>() {
+        @Override
+        public void bind(PreparedStatement st, X value, int index, WrapperOptions options)
+            throws SQLException {
+          if (value == null) {
+            st.setNull(index, Types.ARRAY);
+          } else {
+            st.setArray(index, st.getConnection().createArrayOf(elementType.typeName,
+                javaTypeDescriptor.unwrap(value, Object[].class, options)));
+          }
+        }
+
+        @Override
+        public void bind(CallableStatement st, X value, String name, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+      };
+    }
+
+    @Override
+    public <X> ValueExtractor<X> getExtractor(final JavaTypeDescriptor<X> javaTypeDescriptor) {
+      return new BasicExtractor<X>(javaTypeDescriptor, this) {
+        @Override
+        protected X doExtract(ResultSet rs, String name, WrapperOptions options)
+            throws SQLException {
+          return javaTypeDescriptor.wrap(rs.getArray(name), options);
+        }
+
+        @Override
+        protected X doExtract(CallableStatement statement, int index, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+
+        @Override
+        protected X doExtract(CallableStatement statement, String name, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+      };
+    }
+  }
+
+  private ElementType elementType = ElementType.STRING;
+
+  public CollectionArrayType() {
+    this(ElementType.STRING, false);
+  }
+
+  CollectionArrayType(ElementType elementType, boolean set) {
+    super(new CollectionArraySqlTypeDescriptor(elementType),
+        new CollectionArrayTypeDescriptor(elementType, set));
+    this.elementType = elementType;
+  }
+
+  /**
+   * Resolves the element type and the kind of collection from the declaration of the attribute
+   * that uses this type.
+   */
+  @Override
+  public void setParameterValues(Properties parameters) {
+    ParameterType parameterType = (ParameterType) parameters.get(PARAMETER_TYPE);
+    Object property = parameters.get(XPROPERTY);
+    if (parameterType == null || !(property instanceof XProperty)) {
+      return;
+    }
+    // the element class of the annotated attribute, without loading the entity class
+    XClass elementClass = ((XProperty) property).getElementClass();
+    if (elementClass == null) {
+      throw new HibernateException("Could not determine the element type of "
+          + parameters.getProperty(ENTITY) + "." + parameters.getProperty(PROPERTY));
+    }
+    ElementType resolved = ElementType.of(elementClass.getName());
+    boolean set = Set.class.isAssignableFrom(parameterType.getReturnedClass());
+    this.elementType = resolved;
+    setSqlTypeDescriptor(new CollectionArraySqlTypeDescriptor(resolved));
+    setJavaTypeDescriptor(new CollectionArrayTypeDescriptor(resolved, set));
+  }
+
+  /** @return the type of the column of this type, for example <code>ARRAY&lt;INT64&gt;</code> */
+  String getColumnTypeName(AbstractCloudSpannerDialect dialect) {
+    return dialect.getArrayTypeName(elementType.sqlType);
+  }
+
+  @Override
+  public String getName() {
+    return elementType.typeName + "_COLLECTION_ARRAY";
+  }
+}
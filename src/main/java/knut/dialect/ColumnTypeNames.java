@@ -0,0 +1,117 @@
+package knut.dialect;
+
+import java.sql.Types;
+import java.util.regex.Pattern;
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+
+/**
+ * Table of the Cloud Spanner type names of the {@link Types} codes that are registered with a
+ * dialect, indexed by type code. The entry of a type code is computed from the registered column
+ * types when it is first looked up and never changes afterwards, so looking up a name does not
+ * allocate.
+ *
+ * For each type code the table contains the name that is used in CAST expressions, such as
+ * <code>STRING</code>, the name with the maximum length, such as <code>STRING(MAX)</code>, and
+ * the name of an array with elements of the type, such as <code>ARRAY&lt;STRING(MAX)&gt;</code>.
+ */
+final class ColumnTypeNames {
+  private static final Pattern LENGTH_PRECISION_AND_SCALE = Pattern.compile("\\(.+\\)");
+  /** The {@link Types} codes are between -16 and 93, 1111, or between 2000 and 2014. */
+  private static final int MIN_CODE = Types.LONGNVARCHAR;
+  private static final int MAX_STANDARD_CODE = Types.TIMESTAMP;
+  private static final int MIN_OBJECT_CODE = Types.JAVA_OBJECT;
+  private static final int MAX_OBJECT_CODE = Types.TIMESTAMP_WITH_TIMEZONE;
+  private static final int OTHER_INDEX = MAX_STANDARD_CODE - MIN_CODE + 1;
+  private static final int SIZE = OTHER_INDEX + 1 + MAX_OBJECT_CODE - MIN_OBJECT_CODE + 1;
+
+  private static final class Entry {
+    private final String castName;
+    private final String maxLengthName;
+    private final String arrayName;
+
+    private Entry(String castName, String maxLengthName, String arrayName) {
+      this.castName = castName;
+      this.maxLengthName = maxLengthName;
+      this.arrayName = arrayName;
+    }
+  }
+
+  private static final Entry NOT_REGISTERED = new Entry(null, null, null);
+
+  private final Dialect dialect;
+  /** The entries by index, which are written at most once with an immutable entry. */
+  private final Entry[] entries = new Entry[SIZE];
+
+  private ColumnTypeNames(Dialect dialect) {
+    this.dialect = dialect;
+  }
+
+  /** @return the type names of the column types that are currently registered with the dialect */
+  static ColumnTypeNames of(Dialect dialect) {
+    return new ColumnTypeNames(dialect);
+  }
+
+  /** @return the given type name without length, precision and scale */
+  static String stripLength(String typeName) {
+    return LENGTH_PRECISION_AND_SCALE.matcher(typeName).replaceAll("");
+  }
+
+  /** @return the name to use in CAST expressions, or <code>null</code> if not known */
+  String getCastName(int code) {
+    Entry entry = getEntry(code);
+    return entry == null ? null : entry.castName;
+  }
+
+  /** @return the name with the maximum length, or <code>null</code> if not known */
+  String getMaxLengthName(int code) {
+    Entry entry = getEntry(code);
+    return entry == null ? null : entry.maxLengthName;
+  }
+
+  /** @return the name of an array of the given type, or <code>null</code> if not known */
+  String getArrayName(int code) {
+    Entry entry = getEntry(code);
+    return entry == null ? null : entry.arrayName;
+  }
+
+  private Entry getEntry(int code) {
+    int index = getIndex(code);
+    if (index < 0) {
+      return null;
+    }
+    Entry entry = entries[index];
+    if (entry == null) {
+      entry = createEntry(code);
+      entries[index] = entry;
+    }
+    return entry;
+  }
+
+  /**
+   * Creates the entry of a type code. A type that is registered with a maximum length, such as
+   * <code>STRING($l)</code>, takes precedence over a default name without a length.
+   */
+  private Entry createEntry(int code) {
+    String name;
+    try {
+      name = dialect.getTypeName(code, 1L, 0, 0);
+    } catch (MappingException e) {
+      return NOT_REGISTERED;
+    }
+    String castName = stripLength(name);
+    String maxLengthName = castName.equals(name) ? name : castName + "(MAX)";
+    return new Entry(castName, maxLengthName, "ARRAY<" + maxLengthName + ">");
+  }
+
+  private static int getIndex(int code) {
+    if (code >= MIN_CODE && code <= MAX_STANDARD_CODE) {
+      return code - MIN_CODE;
+    } else if (code == Types.OTHER) {
+      return OTHER_INDEX;
+    } else if (code >= MIN_OBJECT_CODE && code <= MAX_OBJECT_CODE) {
+      return OTHER_INDEX + 1 + code - MIN_OBJECT_CODE;
+    }
+    return -1;
+  }
+}
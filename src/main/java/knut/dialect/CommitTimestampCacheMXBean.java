@@ -0,0 +1,25 @@
+package knut.dialect;
+
+/** JMX interface of the second-level cache of a {@link CommitTimestampRegionFactory}. */
+public interface CommitTimestampCacheMXBean {
+  /** @return the number of entries that were served from the cache */
+  long getHitCount();
+
+  /** @return the number of lookups that did not return an entry */
+  long getMissCount();
+
+  /** @return the number of entries that were removed because a table changed after the read */
+  long getStaleCount();
+
+  /** @return the number of entries that were removed because of their age or the region size */
+  long getEvictionCount();
+
+  /** @return the number of commit timestamp watermark queries that have been executed */
+  long getWatermarkQueryCount();
+
+  /** @return the current number of entries in all regions */
+  int getSize();
+
+  /** Removes all entries from all regions. */
+  void clear();
+}
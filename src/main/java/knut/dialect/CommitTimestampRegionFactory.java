@@ -0,0 +1,304 @@
+package knut.dialect;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+import org.hibernate.boot.model.naming.Identifier;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.CollectionDataCachingConfig;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.cfg.spi.EntityDataCachingConfig;
+import org.hibernate.cache.cfg.spi.NaturalIdDataCachingConfig;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.JdbcConnectionAccess;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.metamodel.model.domain.NavigableRole;
+import org.hibernate.metamodel.spi.MetamodelImplementor;
+import org.hibernate.persister.entity.Joinable;
+
+/**
+ * Second-level cache for Cloud Spanner that can be used by several nodes without a distributed
+ * cache. The entries are kept in memory, each with the time of the read that produced it. An
+ * entry is served without a round trip while it is younger than the staleness window; an older
+ * entry is validated against the highest commit timestamp of the tables of its region, which is
+ * queried in the background with
+ * <code>select &lt;column&gt; from &lt;table&gt; order by &lt;column&gt; desc limit 1</code>. So
+ * an entry is never more stale than the staleness window if another node updated its row, and
+ * query results, which cannot be validated, are only kept for the staleness window. Enable it
+ * with:
+ *
+ * <pre>
+ * hibernate.cache.use_second_level_cache=true
+ * hibernate.cache.region.factory_class=knut.dialect.CommitTimestampRegionFactory
+ * hibernate.session_factory.statement_inspector=knut.dialect.CloudSpannerStatementInspector
+ * </pre>
+ *
+ * The tables of the cached entities and collections need a commit timestamp column, by default
+ * <code>CommitTimestamp</code>, that the entities map as read-only, and a descending index on
+ * that column, so that the watermark query reads one index entry instead of the table:
+ *
+ * <pre>
+ * &#64;Table(name = "Products", indexes = &#64;Index(columnList = "CommitTimestamp DESC"))
+ * ...
+ * &#64;Column(name = "CommitTimestamp", insertable = false, updatable = false,
+ *     columnDefinition = "TIMESTAMP OPTIONS (allow_commit_timestamp=true)")
+ * private Timestamp commitTimestamp;
+ * </pre>
+ *
+ * The {@link CloudSpannerIntegrator} checks the mappings when the session factory is built, and
+ * the {@link CloudSpannerStatementInspector} sets the column to
+ * <code>PENDING_COMMIT_TIMESTAMP()</code> in every insert and update of these tables. The
+ * watermark query is only executed for the tables whose entries were validated within the
+ * staleness window.
+ *
+ * The watermark does not change when another node deletes a row, so a deleted row can be served
+ * until its entry reaches the maximum age. Update timestamps are only kept locally. The
+ * statistics are exposed over JMX as
+ * <code>knut.dialect:type=CommitTimestampCache,name=&lt;session factory name&gt;</code>.
+ */
+public class CommitTimestampRegionFactory extends RegionFactoryTemplate
+    implements CommitTimestampCacheMXBean {
+  private static final long serialVersionUID = 1L;
+
+  /** The name of the commit timestamp column of the cached tables. */
+  public static final String COMMIT_TIMESTAMP_COLUMN =
+      "hibernate.cloudspanner.cache.commit_timestamp_column";
+  static final String DEFAULT_COMMIT_TIMESTAMP_COLUMN = "CommitTimestamp";
+  /** The interval in milliseconds at which the watermarks are refreshed. Defaults to 1 second. */
+  public static final String WATERMARK_REFRESH_INTERVAL =
+      "hibernate.cloudspanner.cache.watermark_refresh_ms";
+  /**
+   * The age in milliseconds below which entries are served without validation, which is also the
+   * maximum age of a watermark. Defaults to 10 seconds.
+   */
+  public static final String MAX_STALENESS = "hibernate.cloudspanner.cache.max_staleness_ms";
+  /**
+   * The age in milliseconds after which entity and collection entries are removed. Defaults to 10
+   * minutes.
+   */
+  public static final String MAX_AGE = "hibernate.cloudspanner.cache.max_age_ms";
+  /** The maximum number of entries per region. Defaults to 10000. */
+  public static final String MAX_ENTRIES = "hibernate.cloudspanner.cache.max_entries";
+  /**
+   * The maximum difference in milliseconds between the local clock and the commit timestamps of
+   * Cloud Spanner. Defaults to 1 second.
+   */
+  public static final String MAX_CLOCK_SKEW = "hibernate.cloudspanner.cache.max_clock_skew_ms";
+
+  private transient String commitTimestampColumn;
+  private transient long refreshInterval;
+  private transient long maxStaleness;
+  private transient long maxAge;
+  private transient int maxEntries;
+  private transient long maxClockSkew;
+  private transient volatile CommitTimestampWatermarks watermarks;
+  private final transient List<CommitTimestampStorageAccess> regions =
+      new CopyOnWriteArrayList<>();
+  private transient ScheduledExecutorService executor;
+  private transient ObjectName objectName;
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  protected void prepareForUse(SessionFactoryOptions settings, Map configValues) {
+    commitTimestampColumn = ConfigurationHelper.getString(COMMIT_TIMESTAMP_COLUMN, configValues,
+        DEFAULT_COMMIT_TIMESTAMP_COLUMN);
+    refreshInterval = ConfigurationHelper.getLong(WATERMARK_REFRESH_INTERVAL, configValues, 1000);
+    maxStaleness = ConfigurationHelper.getLong(MAX_STALENESS, configValues, 10000);
+    maxAge = ConfigurationHelper.getLong(MAX_AGE, configValues, 600000);
+    maxEntries = ConfigurationHelper.getInt(MAX_ENTRIES, configValues, 10000);
+    maxClockSkew = ConfigurationHelper.getLong(MAX_CLOCK_SKEW, configValues, 1000);
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "knut-cache-watermarks");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::refreshWatermarks, refreshInterval, refreshInterval,
+        TimeUnit.MILLISECONDS);
+    if (ConfigurationHelper.getBoolean(InstrumentedConnectionProvider.JMX_ENABLED, configValues,
+        true)) {
+      String name = ConfigurationHelper.getString(AvailableSettings.SESSION_FACTORY_NAME,
+          configValues, "default-" + Integer.toHexString(System.identityHashCode(this)));
+      objectName = InstrumentedConnectionProvider.registerMBean(this, "CommitTimestampCache",
+          name);
+    }
+  }
+
+  private void refreshWatermarks() {
+    long now = CommitTimestampStorageAccess.currentMicros();
+    CommitTimestampWatermarks res = watermarks;
+    if (res != null) {
+      res.refreshAll(now, now - TimeUnit.MILLISECONDS.toMicros(maxStaleness));
+    }
+    for (CommitTimestampStorageAccess region : regions) {
+      region.evictExpired(now);
+    }
+  }
+
+  @Override
+  protected DomainDataStorageAccess createDomainDataStorageAccess(
+      DomainDataRegionConfig regionConfig, DomainDataRegionBuildingContext buildingContext) {
+    SessionFactoryImplementor sessionFactory = buildingContext.getSessionFactory();
+    return register(new CommitTimestampStorageAccess(getWatermarks(sessionFactory),
+        () -> getTableNames(regionConfig, sessionFactory.getMetamodel()), maxStaleness, maxAge,
+        maxEntries, maxClockSkew));
+  }
+
+  @Override
+  protected StorageAccess createQueryResultsRegionStorageAccess(String regionName,
+      SessionFactoryImplementor sessionFactory) {
+    // query results have no tables to validate them against, so they expire with the window
+    return register(new CommitTimestampStorageAccess(null, null, maxStaleness,
+        Math.max(maxStaleness, 1L), maxEntries, 0L));
+  }
+
+  @Override
+  protected StorageAccess createTimestampsRegionStorageAccess(String regionName,
+      SessionFactoryImplementor sessionFactory) {
+    // a missing update timestamp would make cached query results look current
+    return register(new CommitTimestampStorageAccess(null, null, maxStaleness, 0L, 0, 0L));
+  }
+
+  private CommitTimestampStorageAccess register(CommitTimestampStorageAccess region) {
+    regions.add(region);
+    return region;
+  }
+
+  private CommitTimestampWatermarks getWatermarks(SessionFactoryImplementor sessionFactory) {
+    if (watermarks == null) {
+      JdbcConnectionAccess connectionAccess = sessionFactory.getServiceRegistry()
+          .getService(JdbcServices.class).getBootstrapJdbcConnectionAccess();
+      String column = Identifier.toIdentifier(commitTimestampColumn, true)
+          .render(sessionFactory.getJdbcServices().getDialect());
+      watermarks = new CommitTimestampWatermarks(table -> queryWatermark(connectionAccess,
+          "select " + column + " from " + table + " order by " + column + " desc limit 1"));
+    }
+    return watermarks;
+  }
+
+  private static long queryWatermark(JdbcConnectionAccess connectionAccess, String sql)
+      throws SQLException {
+    Connection connection = connectionAccess.obtainConnection();
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery(sql)) {
+      Timestamp timestamp = resultSet.next() ? resultSet.getTimestamp(1) : null;
+      if (timestamp == null) {
+        return Long.MIN_VALUE;
+      }
+      return Math.floorDiv(timestamp.getTime(), 1000L) * 1000000L + timestamp.getNanos() / 1000;
+    } finally {
+      connectionAccess.releaseConnection(connection);
+    }
+  }
+
+  /** @return the tables of the entities, natural ids and collections of a region */
+  private static List<String> getTableNames(DomainDataRegionConfig regionConfig,
+      MetamodelImplementor metamodel) {
+    Set<String> res = new LinkedHashSet<>();
+    for (EntityDataCachingConfig entity : regionConfig.getEntityCaching()) {
+      for (NavigableRole role : entity.getCachedTypes()) {
+        addTableName(res, metamodel.entityPersister(role.getFullPath()));
+      }
+    }
+    for (NaturalIdDataCachingConfig naturalId : regionConfig.getNaturalIdCaching()) {
+      addTableName(res, metamodel.entityPersister(naturalId.getNavigableRole().getFullPath()));
+    }
+    for (CollectionDataCachingConfig collection : regionConfig.getCollectionCaching()) {
+      addTableName(res,
+          metamodel.collectionPersister(collection.getNavigableRole().getFullPath()));
+    }
+    return new ArrayList<>(res);
+  }
+
+  private static void addTableName(Set<String> tableNames, Object persister) {
+    if (persister instanceof Joinable) {
+      tableNames.add(((Joinable) persister).getTableName());
+    }
+  }
+
+  @Override
+  public long getHitCount() {
+    long res = 0L;
+    for (CommitTimestampStorageAccess region : regions) {
+      res += region.getHitCount();
+    }
+    return res;
+  }
+
+  @Override
+  public long getMissCount() {
+    long res = 0L;
+    for (CommitTimestampStorageAccess region : regions) {
+      res += region.getMissCount();
+    }
+    return res;
+  }
+
+  @Override
+  public long getStaleCount() {
+    long res = 0L;
+    for (CommitTimestampStorageAccess region : regions) {
+      res += region.getStaleCount();
+    }
+    return res;
+  }
+
+  @Override
+  public long getEvictionCount() {
+    long res = 0L;
+    for (CommitTimestampStorageAccess region : regions) {
+      res += region.getEvictionCount();
+    }
+    return res;
+  }
+
+  @Override
+  public long getWatermarkQueryCount() {
+    CommitTimestampWatermarks res = watermarks;
+    return res == null ? 0L : res.getQueryCount();
+  }
+
+  @Override
+  public int getSize() {
+    int res = 0;
+    for (CommitTimestampStorageAccess region : regions) {
+      res += region.size();
+    }
+    return res;
+  }
+
+  @Override
+  public void clear() {
+    for (CommitTimestampStorageAccess region : regions) {
+      region.evictData();
+    }
+  }
+
+  @Override
+  protected void releaseFromUse() {
+    InstrumentedConnectionProvider.unregisterMBean(objectName);
+    executor.shutdownNow();
+    for (CommitTimestampStorageAccess region : regions) {
+      region.release();
+    }
+    regions.clear();
+    watermarks = null;
+  }
+}
@@ -0,0 +1,222 @@
+package knut.dialect;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.SimpleTimestamper;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+/**
+ * The entries of one region of a {@link CommitTimestampRegionFactory}. Each entry is stored with
+ * the time of the read that produced it, which is the start of the transaction of the session
+ * minus the maximum clock skew, so it is never later than the read timestamp in Cloud Spanner.
+ *
+ * An entry that is younger than the staleness window is returned without any check. An older
+ * entry is only returned if it was read after the commit timestamp watermark of every table of
+ * the region, and if these watermarks were queried within the staleness window. The watermarks
+ * are refreshed in the background, so a lookup never executes a query; an entry that cannot be
+ * validated yet is a miss. Entries
+ * that are older than the maximum age are removed, and when the region is full the oldest of a
+ * sample of entries is evicted for each new entry.
+ */
+final class CommitTimestampStorageAccess implements DomainDataStorageAccess {
+  /** The number of entries that is sampled to find an entry to evict. */
+  private static final int EVICTION_SAMPLE_SIZE = 8;
+
+  private static final class Entry {
+    private final Object value;
+    private final long readTimestamp;
+
+    private Entry(Object value, long readTimestamp) {
+      this.value = value;
+      this.readTimestamp = readTimestamp;
+    }
+  }
+
+  private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+  private final CommitTimestampWatermarks watermarks;
+  private final Supplier<List<String>> tableNames;
+  private volatile CommitTimestampWatermarks.Table[] tables;
+  private final long maxStaleness;
+  private final long maxAge;
+  private final int maxEntries;
+  private final long maxClockSkew;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder staleEntries = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * @param watermarks the watermarks of the tables, or <code>null</code> if the entries of the
+   *        region do not need to be validated
+   * @param tableNames the tables of the region, which is called once on the first validation
+   * @param maxStalenessMillis the age in milliseconds below which entries are not validated
+   * @param maxAgeMillis the age in milliseconds after which entries are removed, 0 for no limit
+   * @param maxEntries the maximum number of entries, 0 for no limit
+   * @param maxClockSkewMillis the maximum difference between the local clock and Cloud Spanner
+   */
+  CommitTimestampStorageAccess(CommitTimestampWatermarks watermarks,
+      Supplier<List<String>> tableNames, long maxStalenessMillis, long maxAgeMillis,
+      int maxEntries, long maxClockSkewMillis) {
+    this.watermarks = watermarks;
+    this.tableNames = tableNames;
+    this.maxStaleness = TimeUnit.MILLISECONDS.toMicros(maxStalenessMillis);
+    this.maxAge = maxAgeMillis > 0L ? TimeUnit.MILLISECONDS.toMicros(maxAgeMillis) : Long.MAX_VALUE;
+    this.maxEntries = maxEntries > 0 ? maxEntries : Integer.MAX_VALUE;
+    this.maxClockSkew = TimeUnit.MILLISECONDS.toMicros(maxClockSkewMillis);
+  }
+
+  /** @return the current time in microseconds since the epoch */
+  static long currentMicros() {
+    return System.currentTimeMillis() * 1000L;
+  }
+
+  @Override
+  public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+    return get(key, currentMicros());
+  }
+
+  Object get(Object key, long now) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    long age = now - entry.readTimestamp;
+    if (age > maxAge) {
+      if (entries.remove(key, entry)) {
+        evictions.increment();
+      }
+      misses.increment();
+      return null;
+    }
+    // soft locks of read-write regions only exist in this JVM and are never stale
+    if (age > maxStaleness && watermarks != null && !(entry.value instanceof SoftLock)) {
+      long watermark = getWatermark(now);
+      if (entry.readTimestamp <= watermark) {
+        if (entries.remove(key, entry) && watermark != CommitTimestampWatermarks.UNKNOWN) {
+          staleEntries.increment();
+        }
+        misses.increment();
+        return null;
+      }
+    }
+    hits.increment();
+    return entry.value;
+  }
+
+  /**
+   * @return the highest watermark of the tables of the region, or
+   *         {@link CommitTimestampWatermarks#UNKNOWN} if one of them is older than the staleness
+   *         window
+   */
+  private long getWatermark(long now) {
+    CommitTimestampWatermarks.Table[] res = tables;
+    if (res == null) {
+      res = tables = getTables();
+    }
+    long watermark = Long.MIN_VALUE;
+    for (CommitTimestampWatermarks.Table table : res) {
+      table.request(now);
+      watermark = Math.max(watermark, table.getRefreshed() < now - maxStaleness
+          ? CommitTimestampWatermarks.UNKNOWN : table.getWatermark());
+    }
+    return watermark;
+  }
+
+  private CommitTimestampWatermarks.Table[] getTables() {
+    List<String> names = tableNames.get();
+    CommitTimestampWatermarks.Table[] res = new CommitTimestampWatermarks.Table[names.size()];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = watermarks.getTable(names.get(i));
+    }
+    return res;
+  }
+
+  @Override
+  public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+    long readTimestamp = session == null ? currentMicros()
+        : session.getTransactionStartTimestamp() / SimpleTimestamper.ONE_MS * 1000L;
+    put(key, value, readTimestamp - maxClockSkew);
+  }
+
+  void put(Object key, Object value, long readTimestamp) {
+    entries.put(key, new Entry(value, readTimestamp));
+    if (entries.size() > maxEntries) {
+      evictOldestOfSample();
+    }
+  }
+
+  private void evictOldestOfSample() {
+    Map.Entry<Object, Entry> oldest = null;
+    Iterator<Map.Entry<Object, Entry>> iterator = entries.entrySet().iterator();
+    for (int i = 0; i < EVICTION_SAMPLE_SIZE && iterator.hasNext(); i++) {
+      Map.Entry<Object, Entry> entry = iterator.next();
+      if (oldest == null || entry.getValue().readTimestamp < oldest.getValue().readTimestamp) {
+        oldest = entry;
+      }
+    }
+    if (oldest != null && entries.remove(oldest.getKey(), oldest.getValue())) {
+      evictions.increment();
+    }
+  }
+
+  /** Removes all entries that are older than the maximum age. */
+  void evictExpired(long now) {
+    if (maxAge == Long.MAX_VALUE) {
+      return;
+    }
+    for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+      if (now - iterator.next().readTimestamp > maxAge) {
+        iterator.remove();
+        evictions.increment();
+      }
+    }
+  }
+
+  @Override
+  public boolean contains(Object key) {
+    return entries.containsKey(key);
+  }
+
+  @Override
+  public void evictData() {
+    entries.clear();
+  }
+
+  @Override
+  public void evictData(Object key) {
+    entries.remove(key);
+  }
+
+  @Override
+  public void release() {
+    entries.clear();
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  long getHitCount() {
+    return hits.sum();
+  }
+
+  long getMissCount() {
+    return misses.sum();
+  }
+
+  long getStaleCount() {
+    return staleEntries.sum();
+  }
+
+  long getEvictionCount() {
+    return evictions.sum();
+  }
+}
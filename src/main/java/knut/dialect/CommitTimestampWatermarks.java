@@ -0,0 +1,122 @@
+package knut.dialect;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.jboss.logging.Logger;
+
+/**
+ * The highest commit timestamp of each table that is used by a {@link CommitTimestampRegionFactory}
+ * region. A cached entry that was read before the watermark of one of its tables may be stale;
+ * an entry that was read after it is current as of the time at which the watermark was queried.
+ * All timestamps are in microseconds since the epoch.
+ *
+ * The watermarks are only queried by {@link #refreshAll}, in the background, and only for the
+ * tables whose entries were recently validated; a cache lookup never waits for a query.
+ */
+final class CommitTimestampWatermarks {
+  private static final Logger LOG = Logger.getLogger(CommitTimestampWatermarks.class);
+
+  /** The watermark of a table that could not be queried, which invalidates every entry. */
+  static final long UNKNOWN = Long.MAX_VALUE;
+
+  /** Queries the watermark of a table. */
+  @FunctionalInterface
+  interface Source {
+    /**
+     * @return the highest commit timestamp in the table, or {@link Long#MIN_VALUE} if the table
+     *         has no commit timestamps
+     */
+    long query(String table) throws SQLException;
+  }
+
+  /** The watermark of one table. */
+  static final class Table {
+    private final String name;
+    private volatile long watermark = UNKNOWN;
+    /** The time at which the watermark was queried. */
+    private volatile long refreshed = Long.MIN_VALUE;
+    /** The time at which an entry of the table was last validated. */
+    private volatile long requested = Long.MIN_VALUE;
+    private boolean warned;
+
+    private Table(String name) {
+      this.name = name;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    long getWatermark() {
+      return watermark;
+    }
+
+    long getRefreshed() {
+      return refreshed;
+    }
+
+    /** Records that an entry of this table was validated, so that its watermark is refreshed. */
+    void request(long now) {
+      if (requested < now) {
+        requested = now;
+      }
+    }
+  }
+
+  private final Source source;
+  private final ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<>();
+  private final LongAdder queries = new LongAdder();
+
+  CommitTimestampWatermarks(Source source) {
+    this.source = source;
+  }
+
+  /** @return the watermark of the given table, which is refreshed while it is requested */
+  Table getTable(String name) {
+    return tables.computeIfAbsent(name, Table::new);
+  }
+
+  /** @return the number of watermark queries that have been executed */
+  long getQueryCount() {
+    return queries.sum();
+  }
+
+  /**
+   * Refreshes the watermarks of the tables that were requested at or after the given time.
+   *
+   * @param now the current time, which is before the queries are executed
+   */
+  void refreshAll(long now, long requestedAfter) {
+    for (Table table : tables.values()) {
+      if (table.requested >= requestedAfter) {
+        refresh(table, now);
+      }
+    }
+  }
+
+  /**
+   * Refreshes the watermark of the given table. A table that cannot be queried, for example
+   * because it has no commit timestamp column, gets the {@link #UNKNOWN} watermark.
+   *
+   * @param now the current time, which is before the query is executed
+   */
+  void refresh(Table table, long now) {
+    synchronized (table) {
+      long watermark;
+      queries.increment();
+      try {
+        watermark = source.query(table.name);
+      } catch (SQLException | RuntimeException e) {
+        if (!table.warned) {
+          LOG.warnf(e, "Could not query the commit timestamp watermark of table %s, cached "
+              + "entries of this table are only used within the staleness window", table.name);
+          table.warned = true;
+        }
+        watermark = UNKNOWN;
+      }
+      table.watermark = watermark;
+      table.refreshed = now;
+    }
+  }
+}
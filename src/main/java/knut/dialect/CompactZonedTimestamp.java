@@ -0,0 +1,106 @@
+package knut.dialect;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import org.hibernate.HibernateException;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZonedDateTime;
+
+/**
+ * A timestamp with timezone in two INT64 columns: the microseconds since the epoch and a compact
+ * code of the zone, either the offset in seconds or a code of the region id (see
+ * {@link ZoneCodes}). Compared to {@link ZonedTimestamp} it stores no zone id string, writes
+ * without creating intermediate objects, parses each zone only once and keeps the last
+ * {@link ZonedDateTime} it returned. Cloud Spanner timestamps have microsecond precision, so the
+ * nanoseconds below a microsecond are truncated.
+ */
+@Embeddable
+public class CompactZonedTimestamp {
+  private static final long MICROS_PER_SECOND = 1000000L;
+
+  @Column
+  private long epochMicros;
+
+  @Column
+  private long zoneCode;
+
+  private transient ZonedDateTime dateTime;
+  private transient long dateTimeMicros;
+  private transient long dateTimeZoneCode;
+
+  public CompactZonedTimestamp() {}
+
+  public CompactZonedTimestamp(ZonedDateTime dateTime) {
+    setZonedDateTime(dateTime);
+  }
+
+  CompactZonedTimestamp(long epochMicros, long zoneCode) {
+    this.epochMicros = epochMicros;
+    this.zoneCode = zoneCode;
+  }
+
+  public ZonedDateTime getZonedDateTime() {
+    ZonedDateTime res = dateTime;
+    if (res == null || dateTimeMicros != epochMicros || dateTimeZoneCode != zoneCode) {
+      res = ZonedDateTime.ofInstant(
+          Instant.ofEpochSecond(Math.floorDiv(epochMicros, MICROS_PER_SECOND),
+              Math.floorMod(epochMicros, MICROS_PER_SECOND) * 1000L),
+          ZoneCodes.zone(zoneCode));
+      dateTime = res;
+      dateTimeMicros = epochMicros;
+      dateTimeZoneCode = zoneCode;
+    }
+    return res;
+  }
+
+  /**
+   * @throws HibernateException if the timestamp is out of range, or if its zone is a region that
+   *         is not in the time zone database and cannot be decoded by other JVMs
+   */
+  public void setZonedDateTime(ZonedDateTime dateTime) {
+    long zoneCode = ZoneCodes.code(dateTime.getZone());
+    try {
+      this.epochMicros = Math.addExact(
+          Math.multiplyExact(dateTime.toEpochSecond(), MICROS_PER_SECOND),
+          dateTime.getNano() / 1000);
+    } catch (ArithmeticException e) {
+      throw new HibernateException("Timestamp out of range: " + dateTime, e);
+    }
+    this.zoneCode = zoneCode;
+    // a region with a fixed offset is stored as that offset, and read back with it
+    if (dateTime.getNano() % 1000 == 0 && ZoneCodes.zone(zoneCode).equals(dateTime.getZone())) {
+      this.dateTime = dateTime;
+      this.dateTimeMicros = epochMicros;
+      this.dateTimeZoneCode = zoneCode;
+    }
+  }
+
+  /** @return the microseconds since the epoch */
+  public long getEpochMicros() {
+    return epochMicros;
+  }
+
+  public ZoneId getZone() {
+    return ZoneCodes.zone(zoneCode);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof CompactZonedTimestamp)) {
+      return false;
+    }
+    CompactZonedTimestamp other = (CompactZonedTimestamp) obj;
+    return epochMicros == other.epochMicros && zoneCode == other.zoneCode;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(epochMicros) * 31 + Long.hashCode(zoneCode);
+  }
+
+  @Override
+  public String toString() {
+    return getZonedDateTime().toString();
+  }
+}
@@ -0,0 +1,44 @@
+package knut.dialect;
+
+import javax.persistence.AttributeConverter;
+import org.hibernate.HibernateException;
+
+/**
+ * Base class of converters that store <code>byte[]</code> attributes compressed. The column has
+ * to be declared with the maximum size, for example
+ * <code>&#64;Column(columnDefinition = "BYTES(MAX)")</code>. See {@link CompressionCodec} for
+ * the format of the values.
+ */
+public abstract class CompressedBytesConverter implements AttributeConverter<byte[], byte[]> {
+  private final CompressionCodec codec;
+  private final int threshold;
+
+  /**
+   * @param codec the codec of the values that are written
+   * @param threshold the size in bytes below which values are stored uncompressed
+   */
+  protected CompressedBytesConverter(CompressionCodec codec, int threshold) {
+    if (threshold < 0) {
+      throw new HibernateException("The compression threshold must not be negative");
+    }
+    this.codec = codec;
+    this.threshold = threshold;
+  }
+
+  @Override
+  public byte[] convertToDatabaseColumn(byte[] attribute) {
+    if (attribute == null) {
+      return null;
+    }
+    return CompressionCodec.encode(codec, threshold, attribute, attribute.length,
+        CompressionCodec.buffers());
+  }
+
+  @Override
+  public byte[] convertToEntityAttribute(byte[] dbData) {
+    if (dbData == null) {
+      return null;
+    }
+    return CompressionCodec.decode(dbData, CompressionCodec.buffers());
+  }
+}
@@ -0,0 +1,48 @@
+package knut.dialect;
+
+import java.nio.charset.StandardCharsets;
+import javax.persistence.AttributeConverter;
+import org.hibernate.HibernateException;
+
+/**
+ * Base class of converters that store {@link String} attributes compressed in BYTES columns,
+ * because compressed values are no valid UTF-8. The column has to be declared with the maximum
+ * size, for example <code>&#64;Column(columnDefinition = "BYTES(MAX)")</code>. See
+ * {@link CompressionCodec} for the format of the values.
+ */
+public abstract class CompressedStringConverter implements AttributeConverter<String, byte[]> {
+  private final CompressionCodec codec;
+  private final int threshold;
+
+  /**
+   * @param codec the codec of the values that are written
+   * @param threshold the size in bytes of the UTF-8 encoding below which values are stored
+   *        uncompressed
+   */
+  protected CompressedStringConverter(CompressionCodec codec, int threshold) {
+    if (threshold < 0) {
+      throw new HibernateException("The compression threshold must not be negative");
+    }
+    this.codec = codec;
+    this.threshold = threshold;
+  }
+
+  @Override
+  public byte[] convertToDatabaseColumn(String attribute) {
+    if (attribute == null) {
+      return null;
+    }
+    CompressionCodec.Buffers buffers = CompressionCodec.buffers();
+    int length = buffers.encodeUtf8(attribute);
+    return CompressionCodec.encode(codec, threshold, buffers.getInput(length), length, buffers);
+  }
+
+  @Override
+  public String convertToEntityAttribute(byte[] dbData) {
+    if (dbData == null) {
+      return null;
+    }
+    return new String(CompressionCodec.decode(dbData, CompressionCodec.buffers()),
+        StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,261 @@
+package knut.dialect;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.hibernate.HibernateException;
+
+/**
+ * The codecs of the compressing attribute converters, such as {@link DeflateStringConverter} and
+ * {@link LzBytesConverter}. Compressed values start with a header byte that holds the format
+ * version in the high nibble and the {@link #getId() id} of the codec in the low nibble,
+ * followed by the uncompressed length as an unsigned varint. Values are decoded with the codec
+ * of their header, so the codec of an attribute can be changed without migrating the rows that
+ * were written with the previous codec.
+ */
+public enum CompressionCodec {
+  /** Values that are stored uncompressed, because they are small or do not compress. */
+  NONE(0) {
+    @Override
+    int compress(byte[] src, int length, byte[] dst, int dstOffset, int dstEnd,
+        Buffers buffers) {
+      return -1;
+    }
+
+    @Override
+    void decompress(byte[] src, int srcOffset, byte[] dst, Buffers buffers) {
+      if (src.length - srcOffset != dst.length) {
+        throw new HibernateException("Uncompressed value has " + (src.length - srcOffset)
+            + " bytes instead of " + dst.length);
+      }
+      System.arraycopy(src, srcOffset, dst, 0, dst.length);
+    }
+  },
+  /** Deflate without zlib wrapper, which compresses best. */
+  DEFLATE(1) {
+    @Override
+    int compress(byte[] src, int length, byte[] dst, int dstOffset, int dstEnd,
+        Buffers buffers) {
+      Deflater deflater = buffers.getDeflater();
+      deflater.setInput(src, 0, length);
+      deflater.finish();
+      int dp = dstOffset;
+      while (!deflater.finished() && dp < dstEnd) {
+        dp += deflater.deflate(dst, dp, dstEnd - dp);
+      }
+      return deflater.finished() ? dp : -1;
+    }
+
+    @Override
+    void decompress(byte[] src, int srcOffset, byte[] dst, Buffers buffers) {
+      Inflater inflater = buffers.getInflater();
+      inflater.setInput(src, srcOffset, src.length - srcOffset);
+      try {
+        int length = 0;
+        while (length < dst.length && !inflater.finished()) {
+          int count = inflater.inflate(dst, length, dst.length - length);
+          if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          length += count;
+        }
+        if (length != dst.length || !inflater.finished()) {
+          throw new HibernateException("Deflate compressed value is truncated");
+        }
+      } catch (DataFormatException e) {
+        throw new HibernateException("Corrupt deflate compressed value", e);
+      }
+    }
+  },
+  /** A fast pure-Java LZ codec, which compresses less but is several times faster. */
+  LZ(2) {
+    @Override
+    int compress(byte[] src, int length, byte[] dst, int dstOffset, int dstEnd,
+        Buffers buffers) {
+      return LzCodec.compress(src, length, dst, dstOffset, dstEnd, buffers.hashTable);
+    }
+
+    @Override
+    void decompress(byte[] src, int srcOffset, byte[] dst, Buffers buffers) {
+      LzCodec.decompress(src, srcOffset, src.length, dst);
+    }
+  };
+
+  /** The version of the format of the header. */
+  static final int VERSION = 1;
+  /** The size in bytes below which values are stored uncompressed by default. */
+  public static final int DEFAULT_THRESHOLD = 256;
+
+  /** The reusable buffers and codec state of a thread. */
+  static final class Buffers {
+    private final int[] hashTable = new int[1 << LzCodec.HASH_LOG];
+    private byte[] input = new byte[1024];
+    private byte[] output = new byte[1024];
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private Deflater deflater;
+    private Inflater inflater;
+
+    byte[] getInput(int size) {
+      if (input.length < size) {
+        input = new byte[Math.max(size, input.length * 2)];
+      }
+      return input;
+    }
+
+    /** @return the length of the UTF-8 encoding of the given string in {@link #getInput} */
+    int encodeUtf8(String value) {
+      ByteBuffer buffer = ByteBuffer.wrap(
+          getInput((int) Math.min((long) value.length() * 3L, Integer.MAX_VALUE)));
+      encoder.reset();
+      CharBuffer chars = CharBuffer.wrap(value);
+      CoderResult result = encoder.encode(chars, buffer, true);
+      if (result.isUnderflow()) {
+        result = encoder.flush(buffer);
+      }
+      if (!result.isUnderflow()) {
+        throw new HibernateException("Cannot encode string of length " + value.length());
+      }
+      return buffer.position();
+    }
+
+    private byte[] getOutput(int size) {
+      if (output.length < size) {
+        output = new byte[Math.max(size, output.length * 2)];
+      }
+      return output;
+    }
+
+    private Deflater getDeflater() {
+      if (deflater == null) {
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      } else {
+        deflater.reset();
+      }
+      return deflater;
+    }
+
+    private Inflater getInflater() {
+      if (inflater == null) {
+        inflater = new Inflater(true);
+      } else {
+        inflater.reset();
+      }
+      return inflater;
+    }
+  }
+
+  private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+  private static final CompressionCodec[] BY_ID = new CompressionCodec[16];
+  static {
+    for (CompressionCodec codec : values()) {
+      BY_ID[codec.id] = codec;
+    }
+  }
+
+  private final int id;
+
+  private CompressionCodec(int id) {
+    this.id = id;
+  }
+
+  /** @return the id of the codec in the header of the values that it compressed */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Compresses the first <code>length</code> bytes of <code>src</code> into <code>dst</code>
+   * between <code>dstOffset</code> and <code>dstEnd</code>.
+   *
+   * @return the end of the compressed data, or -1 if it does not fit
+   */
+  abstract int compress(byte[] src, int length, byte[] dst, int dstOffset, int dstEnd,
+      Buffers buffers);
+
+  /** Decompresses the value from <code>srcOffset</code> into all of <code>dst</code>. */
+  abstract void decompress(byte[] src, int srcOffset, byte[] dst, Buffers buffers);
+
+  /** @return the buffers of the current thread */
+  static Buffers buffers() {
+    return BUFFERS.get();
+  }
+
+  /**
+   * Encodes the first <code>length</code> bytes of <code>src</code> with the given codec, or
+   * uncompressed if the value is shorter than the threshold or does not get smaller.
+   */
+  static byte[] encode(CompressionCodec codec, int threshold, byte[] src, int length,
+      Buffers buffers) {
+    int headerLength = 1 + varintLength(length);
+    int rawEnd = headerLength + length;
+    byte[] output = buffers.getOutput(rawEnd);
+    int end = -1;
+    if (codec != NONE && length >= threshold) {
+      // a value that does not compress to less than its length is stored uncompressed
+      end = codec.compress(src, length, output, headerLength, rawEnd - 1, buffers);
+    }
+    if (end < 0) {
+      codec = NONE;
+      System.arraycopy(src, 0, output, headerLength, length);
+      end = rawEnd;
+    }
+    output[0] = (byte) (VERSION << 4 | codec.id);
+    writeVarint(output, 1, length);
+    return Arrays.copyOf(output, end);
+  }
+
+  /** @return the decoded value of the given encoded value */
+  static byte[] decode(byte[] value, Buffers buffers) {
+    if (value.length == 0 || (value[0] & 0xff) >>> 4 != VERSION) {
+      throw new HibernateException("Unsupported compressed value format "
+          + (value.length == 0 ? "(empty)" : Integer.toString((value[0] & 0xff) >>> 4)));
+    }
+    CompressionCodec codec = BY_ID[value[0] & 0xf];
+    if (codec == null) {
+      throw new HibernateException("Unknown compression codec " + (value[0] & 0xf));
+    }
+    long length = 0L;
+    int position = 1;
+    for (int shift = 0;; shift += 7) {
+      if (position == value.length || shift > 28) {
+        throw new HibernateException("Corrupt length of compressed value");
+      }
+      byte b = value[position++];
+      length |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        break;
+      }
+    }
+    if (length > Integer.MAX_VALUE) {
+      throw new HibernateException("Corrupt length of compressed value: " + length);
+    }
+    byte[] res = new byte[(int) length];
+    codec.decompress(value, position, res, buffers);
+    return res;
+  }
+
+  private static int varintLength(int value) {
+    int res = 1;
+    while ((value >>>= 7) != 0) {
+      res++;
+    }
+    return res;
+  }
+
+  private static void writeVarint(byte[] bytes, int offset, int value) {
+    while ((value & ~0x7f) != 0) {
+      bytes[offset++] = (byte) (value & 0x7f | 0x80);
+      value >>>= 7;
+    }
+    bytes[offset] = (byte) value;
+  }
+}
@@ -0,0 +1,11 @@
+package knut.dialect;
+
+/**
+ * Converter that stores <code>byte[]</code> attributes compressed with Deflate. Values below {@link
+ * CompressionCodec#DEFAULT_THRESHOLD} bytes are stored uncompressed.
+ */
+public class DeflateBytesConverter extends CompressedBytesConverter {
+  public DeflateBytesConverter() {
+    super(CompressionCodec.DEFLATE, CompressionCodec.DEFAULT_THRESHOLD);
+  }
+}
@@ -0,0 +1,11 @@
+package knut.dialect;
+
+/**
+ * Converter that stores {@link String} attributes compressed with Deflate. Values below {@link
+ * CompressionCodec#DEFAULT_THRESHOLD} bytes are stored uncompressed.
+ */
+public class DeflateStringConverter extends CompressedStringConverter {
+  public DeflateStringConverter() {
+    super(CompressionCodec.DEFLATE, CompressionCodec.DEFAULT_THRESHOLD);
+  }
+}
@@ -0,0 +1,59 @@
+package knut.dialect;
+
+import java.time.LocalDate;
+import java.util.List;
+import com.google.cloud.spanner.Struct;
+
+/**
+ * Type definition for ARRAY&lt;DATE&gt; columns in Cloud Spanner that are mapped to
+ * <code>int[]</code> arrays of days since the epoch, which need no object per element. Arrays
+ * with NULL elements cannot be read.
+ */
+public class EpochDaysArrayType extends TemporalArrayType<int[]> {
+  private static final long serialVersionUID = 1L;
+  public static final EpochDaysArrayType INSTANCE = new EpochDaysArrayType();
+
+  public EpochDaysArrayType() {
+    super(int[].class, true);
+  }
+
+  @Override
+  int[] fromJdbcArray(Object[] elements) {
+    int[] res = new int[elements.length];
+    for (int i = 0; i < res.length; i++) {
+      if (elements[i] == null) {
+        throw nullElement("int[]");
+      }
+      res[i] = toEpochDay((java.sql.Date) elements[i]);
+    }
+    return res;
+  }
+
+  @Override
+  Object[] toJdbcArray(int[] value) {
+    java.sql.Date[] res = new java.sql.Date[value.length];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = java.sql.Date.valueOf(LocalDate.ofEpochDay(value[i]));
+    }
+    return res;
+  }
+
+  @Override
+  public int[] fromStruct(Struct struct, int index) {
+    List<com.google.cloud.Date> list = struct.getDateList(index);
+    int[] res = new int[list.size()];
+    for (int i = 0; i < res.length; i++) {
+      com.google.cloud.Date date = list.get(i);
+      if (date == null) {
+        throw nullElement("int[]");
+      }
+      res[i] = toEpochDay(date.getYear(), date.getMonth(), date.getDayOfMonth());
+    }
+    return res;
+  }
+
+  @Override
+  public String getName() {
+    return "EPOCH_DAYS_ARRAY";
+  }
+}
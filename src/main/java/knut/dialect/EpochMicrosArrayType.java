@@ -0,0 +1,61 @@
+package knut.dialect;
+
+import java.sql.Timestamp;
+import java.util.List;
+import com.google.cloud.spanner.Struct;
+
+/**
+ * Type definition for ARRAY&lt;TIMESTAMP&gt; columns in Cloud Spanner that are mapped to
+ * <code>long[]</code> arrays of microseconds since the epoch, which need no object per element.
+ * Nanoseconds below a microsecond are truncated, and arrays with NULL elements cannot be read.
+ */
+public class EpochMicrosArrayType extends TemporalArrayType<long[]> {
+  private static final long serialVersionUID = 1L;
+  public static final EpochMicrosArrayType INSTANCE = new EpochMicrosArrayType();
+
+  public EpochMicrosArrayType() {
+    super(long[].class, false);
+  }
+
+  @Override
+  long[] fromJdbcArray(Object[] elements) {
+    long[] res = new long[elements.length];
+    for (int i = 0; i < res.length; i++) {
+      Timestamp timestamp = (Timestamp) elements[i];
+      if (timestamp == null) {
+        throw nullElement("long[]");
+      }
+      res[i] = toEpochMicros(Math.floorDiv(timestamp.getTime(), 1000L), timestamp.getNanos());
+    }
+    return res;
+  }
+
+  @Override
+  Object[] toJdbcArray(long[] value) {
+    Timestamp[] res = new Timestamp[value.length];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = toTimestamp(Math.floorDiv(value[i], 1000000L),
+          (int) Math.floorMod(value[i], 1000000L) * 1000);
+    }
+    return res;
+  }
+
+  @Override
+  public long[] fromStruct(Struct struct, int index) {
+    List<com.google.cloud.Timestamp> list = struct.getTimestampList(index);
+    long[] res = new long[list.size()];
+    for (int i = 0; i < res.length; i++) {
+      com.google.cloud.Timestamp timestamp = list.get(i);
+      if (timestamp == null) {
+        throw nullElement("long[]");
+      }
+      res[i] = toEpochMicros(timestamp.getSeconds(), timestamp.getNanos());
+    }
+    return res;
+  }
+
+  @Override
+  public String getName() {
+    return "EPOCH_MICROS_ARRAY";
+  }
+}
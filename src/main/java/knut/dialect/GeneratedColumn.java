@@ -0,0 +1,58 @@
+package knut.dialect;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a stored generated column of the table of an entity, with an optional index. The
+ * column is not mapped by Hibernate, Cloud Spanner computes its value from the other columns of
+ * the row when the row is inserted or updated. A predicate on the expression, such as a lookup of
+ * a lower case email address, cannot use an index, but a predicate on the generated column can.
+ *
+ * <pre>
+ * &#64;Entity
+ * &#64;Table(name = "Users")
+ * &#64;GeneratedColumn(name = "emailLower", expression = "LOWER(email)", type = "STRING(255)",
+ *     index = true)
+ * public class User {
+ *   ...
+ * }
+ * </pre>
+ *
+ * adds the column <code>emailLower STRING(255) AS (LOWER(email)) STORED</code> to the table
+ * Users and creates an index on it. The {@link CloudSpannerStatementInspector} replaces the
+ * expression in the statements of Hibernate with the column, so the HQL query
+ * <code>from User u where lower(u.email) = :email</code> is executed as an index seek.
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(GeneratedColumn.List.class)
+public @interface GeneratedColumn {
+  /** @return the name of the column */
+  String name();
+
+  /** @return the expression of the column, in terms of the other columns of the table */
+  String expression();
+
+  /** @return the Cloud Spanner type of the column, for example <code>STRING(MAX)</code> */
+  String type();
+
+  /** @return whether an index is created on the column */
+  boolean index() default false;
+
+  /** @return whether the index is unique */
+  boolean unique() default false;
+
+  /** The generated columns of an entity. */
+  @Documented
+  @Target(ElementType.TYPE)
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface List {
+    GeneratedColumn[] value();
+  }
+}
@@ -0,0 +1,75 @@
+package knut.dialect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.hibernate.MappingException;
+import org.hibernate.boot.Metadata;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Constraint;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Table;
+
+/**
+ * Reads the {@link GeneratedColumn generated columns} of the tables of entities.
+ */
+final class GeneratedColumns {
+  private GeneratedColumns() {}
+
+  /** @return the generated columns of the entities whose root table is the given table */
+  static List<GeneratedColumn> getColumns(Metadata metadata, Table table) {
+    List<GeneratedColumn> res = new ArrayList<>();
+    for (PersistentClass entity : metadata.getEntityBindings()) {
+      if (entity.getRootTable().equals(table)) {
+        for (GeneratedColumn column : getColumns(entity)) {
+          if (res.stream().noneMatch(c -> c.name().equalsIgnoreCase(column.name()))) {
+            res.add(column);
+          }
+        }
+      }
+    }
+    return res;
+  }
+
+  /** @return the generated columns of an entity and its superclasses */
+  static List<GeneratedColumn> getColumns(PersistentClass entity) {
+    if (entity.getMappedClass() == null) {
+      return Collections.emptyList();
+    }
+    List<GeneratedColumn> res = new ArrayList<>();
+    for (Class<?> type = entity.getMappedClass(); type != null; type = type.getSuperclass()) {
+      for (GeneratedColumn column : type.getAnnotationsByType(GeneratedColumn.class)) {
+        String description = "Generated column " + column.name() + " of " + type.getName();
+        if (column.name().isEmpty() || column.expression().isEmpty()
+            || column.type().isEmpty()) {
+          throw new MappingException(description + " must have a name, expression and type");
+        }
+        if (column.unique() && !column.index()) {
+          throw new MappingException(description + " must have an index to be unique");
+        }
+        for (Iterator<?> it = entity.getRootTable().getColumnIterator(); it.hasNext();) {
+          if (((Column) it.next()).getName().equalsIgnoreCase(column.name())) {
+            throw new MappingException(description + " is also a mapped column");
+          }
+        }
+        res.add(column);
+      }
+    }
+    return res;
+  }
+
+  /** @return the names of the other columns of a table, which the expressions reference */
+  static List<String> getColumnNames(Table table) {
+    List<String> res = new ArrayList<>();
+    for (Iterator<?> it = table.getColumnIterator(); it.hasNext();) {
+      res.add(((Column) it.next()).getName());
+    }
+    return res;
+  }
+
+  /** @return the name of the index of a generated column, like that of a unique key */
+  static String getIndexName(Table table, GeneratedColumn column) {
+    return Constraint.generateName("IDX_", table, new Column(column.name()));
+  }
+}
@@ -0,0 +1,61 @@
+package knut.dialect;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import com.google.cloud.spanner.Struct;
+
+/**
+ * Type definition for ARRAY&lt;TIMESTAMP&gt; columns in Cloud Spanner that are mapped to
+ * {@link Instant} arrays with nanosecond precision. NULL elements are <code>null</code>.
+ */
+public class InstantArrayType extends TemporalArrayType<Instant[]> {
+  private static final long serialVersionUID = 1L;
+  public static final InstantArrayType INSTANCE = new InstantArrayType();
+
+  public InstantArrayType() {
+    super(Instant[].class, false);
+  }
+
+  @Override
+  Instant[] fromJdbcArray(Object[] elements) {
+    Instant[] res = new Instant[elements.length];
+    for (int i = 0; i < res.length; i++) {
+      Timestamp timestamp = (Timestamp) elements[i];
+      if (timestamp != null) {
+        res[i] = Instant.ofEpochSecond(Math.floorDiv(timestamp.getTime(), 1000L),
+            timestamp.getNanos());
+      }
+    }
+    return res;
+  }
+
+  @Override
+  Object[] toJdbcArray(Instant[] value) {
+    Timestamp[] res = new Timestamp[value.length];
+    for (int i = 0; i < res.length; i++) {
+      if (value[i] != null) {
+        res[i] = toTimestamp(value[i].getEpochSecond(), value[i].getNano());
+      }
+    }
+    return res;
+  }
+
+  @Override
+  public Instant[] fromStruct(Struct struct, int index) {
+    List<com.google.cloud.Timestamp> list = struct.getTimestampList(index);
+    Instant[] res = new Instant[list.size()];
+    for (int i = 0; i < res.length; i++) {
+      com.google.cloud.Timestamp timestamp = list.get(i);
+      if (timestamp != null) {
+        res[i] = Instant.ofEpochSecond(timestamp.getSeconds(), timestamp.getNanos());
+      }
+    }
+    return res;
+  }
+
+  @Override
+  public String getName() {
+    return "INSTANT_ARRAY";
+  }
+}
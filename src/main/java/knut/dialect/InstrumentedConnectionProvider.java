@@ -0,0 +1,284 @@
+package knut.dialect;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import com.google.cloud.spanner.ReadContext.QueryAnalyzeMode;
+import org.hibernate.HibernateException;
+import org.hibernate.boot.registry.classloading.spi.ClassLoaderService;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.internal.DriverManagerConnectionProviderImpl;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.ServiceRegistryAwareService;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.service.spi.Stoppable;
+import org.jboss.logging.Logger;
+
+/**
+ * {@link ConnectionProvider} that records latency, rows, bytes and transaction retries of every
+ * statement that Hibernate executes in a {@link StatementStatistics}. The statistics are exposed
+ * over JMX as <code>knut.dialect:type=StatementStatistics,name=&lt;session factory name&gt;</code>
+ * and are passed on to all registered {@link SpannerMetricsListener}s.
+ *
+ * The provider wraps the connections of another connection provider, by default the standard
+ * Hibernate {@link DriverManagerConnectionProviderImpl}. Enable it with:
+ *
+ * <pre>
+ * hibernate.connection.provider_class=knut.dialect.InstrumentedConnectionProvider
+ * </pre>
+ *
+ * Setting {@link #SLOW_QUERY_THRESHOLD} also enables the {@link SlowQueryLog}, which logs the
+ * query plans of statements that exceed the threshold.
+ *
+ * The provider takes the {@link RequestPriority} of each statement from its
+ * {@link CloudSpannerQueryHints priority hint}, or from {@link #RPC_PRIORITY}, and admits the
+ * statements in the order of their priority with a {@link PriorityAdmission}, which counts the
+ * queued and running statements of each priority and is exposed as
+ * <code>knut.dialect:type=PriorityAdmission,name=&lt;session factory name&gt;</code>.
+ */
+public class InstrumentedConnectionProvider
+    implements ConnectionProvider, Configurable, ServiceRegistryAwareService, Stoppable {
+  private static final long serialVersionUID = 1L;
+  private static final Logger LOG = Logger.getLogger(InstrumentedConnectionProvider.class);
+
+  /** The class name of the connection provider whose connections should be instrumented. */
+  public static final String DELEGATE_CONNECTION_PROVIDER =
+      "hibernate.cloudspanner.metrics.connection_provider";
+  /** The maximum number of distinct statement shapes to record. */
+  public static final String MAX_STATEMENT_SHAPES =
+      "hibernate.cloudspanner.metrics.max_statement_shapes";
+  /** Whether the statistics should be registered as an MBean. Defaults to <code>true</code>. */
+  public static final String JMX_ENABLED = "hibernate.cloudspanner.metrics.jmx_enabled";
+  /**
+   * The execution time in milliseconds above which the plan of a statement is captured. The slow
+   * query log is disabled when this is not set. While it is enabled, the parameter values of
+   * prepared statements are kept until the statements are executed, see {@link SlowQueryLog}.
+   */
+  public static final String SLOW_QUERY_THRESHOLD =
+      "hibernate.cloudspanner.slow_query.threshold_ms";
+  /** The mode in which slow queries are analyzed, PLAN (default) or PROFILE. */
+  public static final String SLOW_QUERY_ANALYZE_MODE =
+      "hibernate.cloudspanner.slow_query.analyze_mode";
+  /** The maximum number of slow statements that are captured per minute. Defaults to 10. */
+  public static final String SLOW_QUERY_MAX_PER_MINUTE =
+      "hibernate.cloudspanner.slow_query.max_per_minute";
+  /**
+   * The class name of the {@link PlanSource} of the slow query log. The default is a
+   * {@link SpannerPlanSource} for the database of <code>hibernate.connection.url</code>.
+   */
+  public static final String SLOW_QUERY_PLAN_SOURCE =
+      "hibernate.cloudspanner.slow_query.plan_source";
+
+  /**
+   * The priority of statements without a priority hint, LOW, MEDIUM or HIGH. The priority orders
+   * the admission of statements and is not sent to Cloud Spanner.
+   */
+  public static final String RPC_PRIORITY = "hibernate.cloudspanner.rpc_priority";
+  /**
+   * The timeout in seconds of statements without a query timeout. Cloud Spanner cancels a
+   * statement when its timeout expires. Statements have no timeout when this is not set.
+   */
+  public static final String STATEMENT_TIMEOUT = "hibernate.cloudspanner.statement_timeout";
+  /**
+   * The maximum number of statements that run at the same time. Statements with higher priority
+   * are admitted first when the limit is reached. A statement runs until its execute call returns,
+   * not until its result set is closed. The number is not limited when this is not set.
+   */
+  public static final String MAX_CONCURRENT_STATEMENTS =
+      "hibernate.cloudspanner.max_concurrent_statements";
+
+  static final String JMX_DOMAIN = "knut.dialect";
+
+  private transient ServiceRegistryImplementor serviceRegistry;
+  private transient ConnectionProvider delegate;
+  private transient StatementStatistics statistics;
+  private transient SlowQueryLog slowQueryLog;
+  private transient PriorityAdmission admission;
+  private transient RequestPriority defaultPriority;
+  private transient int statementTimeout;
+  private transient ObjectName objectName;
+  private transient ObjectName admissionName;
+
+  @Override
+  public void injectServices(ServiceRegistryImplementor serviceRegistry) {
+    this.serviceRegistry = serviceRegistry;
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  @Override
+  public void configure(Map configurationValues) {
+    String delegateClass = ConfigurationHelper.getString(DELEGATE_CONNECTION_PROVIDER,
+        configurationValues, DriverManagerConnectionProviderImpl.class.getName());
+    try {
+      delegate = (ConnectionProvider) serviceRegistry.getService(ClassLoaderService.class)
+          .classForName(delegateClass).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new HibernateException("Could not instantiate connection provider " + delegateClass,
+          e);
+    }
+    if (delegate instanceof ServiceRegistryAwareService) {
+      ((ServiceRegistryAwareService) delegate).injectServices(serviceRegistry);
+    }
+    if (delegate instanceof Configurable) {
+      ((Configurable) delegate).configure(configurationValues);
+    }
+    statistics = new StatementStatistics(ConfigurationHelper.getInt(MAX_STATEMENT_SHAPES,
+        configurationValues, StatementStatistics.DEFAULT_MAX_SHAPES));
+    for (SpannerMetricsListener listener : ServiceLoader.load(SpannerMetricsListener.class)) {
+      statistics.addListener(listener);
+    }
+    String priority = ConfigurationHelper.getString(RPC_PRIORITY, configurationValues);
+    try {
+      defaultPriority =
+          priority == null ? null : RequestPriority.valueOf(priority.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new HibernateException("Unknown " + RPC_PRIORITY + ": " + priority, e);
+    }
+    statementTimeout = ConfigurationHelper.getInt(STATEMENT_TIMEOUT, configurationValues, 0);
+    admission = new PriorityAdmission(
+        ConfigurationHelper.getInt(MAX_CONCURRENT_STATEMENTS, configurationValues, 0));
+    if (ConfigurationHelper.getBoolean(JMX_ENABLED, configurationValues, true)) {
+      String name = ConfigurationHelper.getString(AvailableSettings.SESSION_FACTORY_NAME,
+          configurationValues, "default-" + Integer.toHexString(System.identityHashCode(this)));
+      objectName = registerMBean(statistics, "StatementStatistics", name);
+      admissionName = registerMBean(admission, "PriorityAdmission", name);
+    }
+    int threshold = ConfigurationHelper.getInt(SLOW_QUERY_THRESHOLD, configurationValues, -1);
+    if (threshold >= 0) {
+      QueryAnalyzeMode mode = QueryAnalyzeMode.valueOf(ConfigurationHelper.getString(
+          SLOW_QUERY_ANALYZE_MODE, configurationValues, QueryAnalyzeMode.PLAN.name()));
+      slowQueryLog = new SlowQueryLog(createPlanSource(configurationValues), mode, threshold,
+          ConfigurationHelper.getInt(SLOW_QUERY_MAX_PER_MINUTE, configurationValues, 10),
+          statistics.getListeners());
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private PlanSource createPlanSource(Map configurationValues) {
+    String planSourceClass =
+        ConfigurationHelper.getString(SLOW_QUERY_PLAN_SOURCE, configurationValues);
+    if (planSourceClass == null) {
+      return new SpannerPlanSource(
+          ConfigurationHelper.getString(AvailableSettings.URL, configurationValues));
+    }
+    try {
+      return (PlanSource) serviceRegistry.getService(ClassLoaderService.class)
+          .classForName(planSourceClass).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new HibernateException("Could not instantiate plan source " + planSourceClass, e);
+    }
+  }
+
+  /** @return the statistics of all statements executed on connections of this provider */
+  public StatementStatistics getStatistics() {
+    return statistics;
+  }
+
+  /** @return the slow query log, or <code>null</code> if it is not enabled */
+  public SlowQueryLog getSlowQueryLog() {
+    return slowQueryLog;
+  }
+
+  /** @return the admission of statements by priority */
+  public PriorityAdmission getAdmission() {
+    return admission;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    Connection connection = delegate.getConnection();
+    try {
+      return InstrumentedJdbc.wrap(connection, statistics, slowQueryLog, admission,
+          defaultPriority, statementTimeout);
+    } catch (SQLException | RuntimeException e) {
+      delegate.closeConnection(connection);
+      throw e;
+    }
+  }
+
+  @Override
+  public void closeConnection(Connection connection) throws SQLException {
+    delegate.closeConnection(InstrumentedJdbc.unwrap(connection));
+  }
+
+  @Override
+  public boolean supportsAggressiveRelease() {
+    return delegate.supportsAggressiveRelease();
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public boolean isUnwrappableAs(Class unwrapType) {
+    return unwrapType.isInstance(this) || delegate.isUnwrappableAs(unwrapType);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> unwrapType) {
+    if (unwrapType.isInstance(this)) {
+      return unwrapType.cast(this);
+    }
+    return delegate.unwrap(unwrapType);
+  }
+
+  @Override
+  public void stop() {
+    unregisterMBean(objectName);
+    unregisterMBean(admissionName);
+    if (slowQueryLog != null) {
+      slowQueryLog.close();
+    }
+    if (delegate instanceof Stoppable) {
+      ((Stoppable) delegate).stop();
+    }
+  }
+
+  /**
+   * Registers an MBean under the given name. If another MBean of the same type is registered
+   * under that name, for example by another session factory with the same name, that MBean is
+   * kept and this one is registered under the name with a numeric suffix.
+   */
+  static ObjectName registerMBean(Object mbean, String type, String name) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = objectName(type, name);
+      for (int i = 2; ; i++) {
+        try {
+          server.registerMBean(mbean, objectName);
+          if (i > 2) {
+            LOG.warnf("MBean %s is already registered, registered %s instead",
+                objectName(type, name), objectName);
+          }
+          return objectName;
+        } catch (InstanceAlreadyExistsException e) {
+          objectName = objectName(type, name + "-" + i);
+        }
+      }
+    } catch (JMException e) {
+      LOG.warnf(e, "Could not register MBean %s for %s", type, name);
+      return null;
+    }
+  }
+
+  private static ObjectName objectName(String type, String name) throws JMException {
+    return new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+  }
+
+  static void unregisterMBean(ObjectName objectName) {
+    if (objectName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      } catch (JMException e) {
+        LOG.debugf(e, "Could not unregister MBean %s", objectName);
+      }
+    }
+  }
+}
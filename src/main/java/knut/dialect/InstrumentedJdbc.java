@@ -0,0 +1,391 @@
+package knut.dialect;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import knut.dialect.StatementStatistics.ShapeRecorder;
+
+/**
+ * Dynamic proxies for JDBC connections, statements and result sets that record the execution of
+ * each statement in a {@link StatementStatistics}. The connections also set the timeout of each
+ * statement, and admit statements to run in the order of their {@link RequestPriority} through a
+ * {@link PriorityAdmission}.
+ */
+final class InstrumentedJdbc {
+
+  private InstrumentedJdbc() {}
+
+  /**
+   * @param slowQueryLog the log for statements that exceed the slow query threshold, or
+   *        <code>null</code> if slow queries should not be captured
+   */
+  static Connection wrap(Connection connection, StatementStatistics statistics,
+      SlowQueryLog slowQueryLog) throws SQLException {
+    return wrap(connection, statistics, slowQueryLog, null, null, 0);
+  }
+
+  /**
+   * @param admission the admission of statements by priority, or <code>null</code>
+   * @param defaultPriority the priority of statements without a priority hint, or
+   *        <code>null</code> for high priority
+   * @param defaultTimeout the timeout in seconds of statements without a query timeout, or 0
+   */
+  static Connection wrap(Connection connection, StatementStatistics statistics,
+      SlowQueryLog slowQueryLog, PriorityAdmission admission, RequestPriority defaultPriority,
+      int defaultTimeout) throws SQLException {
+    ConnectionHandler handler = new ConnectionHandler(connection, statistics, slowQueryLog,
+        admission, defaultPriority, defaultTimeout);
+    if (handler.retryListener != null) {
+      handler.retryListener.add();
+    }
+    return (Connection) Proxy.newProxyInstance(InstrumentedJdbc.class.getClassLoader(),
+        new Class<?>[] {Connection.class}, handler);
+  }
+
+  /** @return the connection that was wrapped by {@link #wrap} */
+  static Connection unwrap(Connection connection) throws SQLException {
+    if (Proxy.isProxyClass(connection.getClass())
+        && Proxy.getInvocationHandler(connection) instanceof ConnectionHandler) {
+      ConnectionHandler handler = (ConnectionHandler) Proxy.getInvocationHandler(connection);
+      if (handler.retryListener != null) {
+        handler.retryListener.remove();
+      }
+      return handler.delegate;
+    }
+    return connection;
+  }
+
+  private static Object invoke(Object delegate, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(delegate, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static Object invokeObjectMethod(Object proxy, Object delegate, Method method,
+      Object[] args) throws Throwable {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      default:
+        return invoke(delegate, method, args);
+    }
+  }
+
+  private static final class ConnectionHandler implements InvocationHandler {
+    private final Connection delegate;
+    private final StatementStatistics statistics;
+    private final SlowQueryLog slowQueryLog;
+    private final PriorityAdmission admission;
+    private final RequestPriority defaultPriority;
+    private final int defaultTimeout;
+    /** The last statement that was executed, to which transaction retries are attributed. */
+    private volatile ShapeRecorder lastRecorder;
+    /** The listener for the transaction retries of a Cloud Spanner connection, or null. */
+    private final RetryListener retryListener;
+
+    private ConnectionHandler(Connection delegate, StatementStatistics statistics,
+        SlowQueryLog slowQueryLog, PriorityAdmission admission, RequestPriority defaultPriority,
+        int defaultTimeout) throws SQLException {
+      this.delegate = delegate;
+      this.statistics = statistics;
+      this.slowQueryLog = slowQueryLog;
+      this.admission = admission;
+      this.defaultPriority = defaultPriority;
+      this.defaultTimeout = defaultTimeout;
+      this.retryListener = delegate.isWrapperFor(CloudSpannerJdbcConnection.class)
+          ? new RetryListener(this) : null;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "prepareStatement":
+        case "prepareCall":
+          return wrapStatement(method, (Statement) InstrumentedJdbc.invoke(delegate, method, args),
+              (String) args[0]);
+        case "createStatement":
+          return wrapStatement(method, (Statement) InstrumentedJdbc.invoke(delegate, method, args),
+              null);
+        case "equals":
+        case "hashCode":
+          return invokeObjectMethod(proxy, delegate, method, args);
+        default:
+          return InstrumentedJdbc.invoke(delegate, method, args);
+      }
+    }
+
+    private Statement wrapStatement(Method method, Statement statement, String sql)
+        throws SQLException {
+      if (defaultTimeout > 0) {
+        statement.setQueryTimeout(defaultTimeout);
+      }
+      Class<?> type = method.getReturnType();
+      return (Statement) Proxy.newProxyInstance(InstrumentedJdbc.class.getClassLoader(),
+          new Class<?>[] {type}, new StatementHandler(this, statement, sql));
+    }
+  }
+
+  /**
+   * Attributes the transaction retries of a Cloud Spanner connection to the last statement of the
+   * connection. The retry listeners are deprecated in newer versions of the driver, but they are
+   * the only way to observe the retries of the transactions of one connection, so the deprecated
+   * API is confined to this class.
+   */
+  @SuppressWarnings("deprecation")
+  private static final class RetryListener
+      implements com.google.cloud.spanner.jdbc.TransactionRetryListener {
+    private final ConnectionHandler connection;
+
+    private RetryListener(ConnectionHandler connection) {
+      this.connection = connection;
+    }
+
+    private void add() throws SQLException {
+      connection.delegate.unwrap(CloudSpannerJdbcConnection.class)
+          .addTransactionRetryListener(this);
+    }
+
+    private void remove() throws SQLException {
+      connection.delegate.unwrap(CloudSpannerJdbcConnection.class)
+          .removeTransactionRetryListener(this);
+    }
+
+    @Override
+    public void retryStarting(Timestamp transactionStarted, long transactionId,
+        int retryAttempt) {}
+
+    @Override
+    public void retryFinished(Timestamp transactionStarted, long transactionId, int retryAttempt,
+        RetryResult result) {
+      ShapeRecorder recorder = connection.lastRecorder;
+      if (recorder != null && result != RetryResult.RETRY_ABORTED_AND_RESTARTING) {
+        connection.statistics.recordRetry(recorder, result == RetryResult.RETRY_SUCCESSFUL);
+      }
+    }
+  }
+
+  private static final class StatementHandler implements InvocationHandler {
+    private final ConnectionHandler connection;
+    private final Statement delegate;
+    private final String sql;
+    /** The parameter values of a prepared statement, only kept when slow queries are captured. */
+    private final SlowQueryLog.Parameters parameters;
+    private ShapeRecorder recorder;
+    /** The latency of the last execute call, if its result set has not yet been retrieved. */
+    private long pendingLatency = -1L;
+    private ResultSetHandler openResultSet;
+    /** The query timeout in seconds, which is also the time a statement may wait to run. */
+    private int queryTimeout;
+
+    private StatementHandler(ConnectionHandler connection, Statement delegate, String sql) {
+      this.connection = connection;
+      this.delegate = delegate;
+      this.sql = sql;
+      this.queryTimeout = connection.defaultTimeout;
+      this.parameters =
+          connection.slowQueryLog != null && sql != null ? new SlowQueryLog.Parameters() : null;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "executeQuery":
+        case "executeUpdate":
+        case "executeLargeUpdate":
+        case "execute":
+        case "executeBatch":
+        case "executeLargeBatch":
+          return execute(method, args);
+        case "getResultSet":
+          return wrapResultSet((ResultSet) InstrumentedJdbc.invoke(delegate, method, args));
+        case "close":
+          finishPending();
+          return InstrumentedJdbc.invoke(delegate, method, args);
+        case "setQueryTimeout":
+          InstrumentedJdbc.invoke(delegate, method, args);
+          queryTimeout = (Integer) args[0];
+          return null;
+        case "clearParameters":
+          if (parameters != null) {
+            parameters.clear();
+          }
+          return InstrumentedJdbc.invoke(delegate, method, args);
+        case "equals":
+        case "hashCode":
+          return invokeObjectMethod(proxy, delegate, method, args);
+        default:
+          if (parameters != null && args != null && args.length >= 2
+              && args[0] instanceof Integer && method.getName().startsWith("set")) {
+            setParameter(method.getName(), args);
+          }
+          return InstrumentedJdbc.invoke(delegate, method, args);
+      }
+    }
+
+    private void setParameter(String name, Object[] args) {
+      if (name.equals("setNull")) {
+        parameters.setNull((Integer) args[0], (Integer) args[1]);
+      } else {
+        parameters.set((Integer) args[0], args[1]);
+      }
+    }
+
+    private Object execute(Method method, Object[] args) throws Throwable {
+      finishPending();
+      String executed = args != null && args.length > 0 && args[0] instanceof String
+          ? (String) args[0] : sql;
+      // the recorder of a prepared statement only needs to be looked up once
+      if (executed != null && (recorder == null || executed != sql)) {
+        recorder = connection.statistics.getRecorder(executed);
+      }
+      connection.lastRecorder = recorder;
+      RequestPriority priority = executed == null ? null
+          : CloudSpannerQueryHints.getPriority(executed);
+      if (priority == null) {
+        priority = connection.defaultPriority;
+      }
+      if (connection.admission != null) {
+        connection.admission.acquire(priority, queryTimeout * 1000L);
+      }
+      long start = System.nanoTime();
+      Object result;
+      boolean timedOut = false;
+      try {
+        result = InstrumentedJdbc.invoke(delegate, method, args);
+      } catch (Throwable t) {
+        timedOut = t instanceof SQLTimeoutException;
+        if (recorder != null) {
+          connection.statistics.record(recorder, System.nanoTime() - start, 0L, 0L, true);
+        }
+        throw t;
+      } finally {
+        // the statement is released before the rows of its result set are read
+        if (connection.admission != null) {
+          connection.admission.release(priority, timedOut);
+        }
+      }
+      long latency = System.nanoTime() - start;
+      if (connection.slowQueryLog != null && executed != null
+          && connection.slowQueryLog.isSlow(latency)) {
+        connection.slowQueryLog.submit(executed, executed == sql ? parameters : null, latency);
+      }
+      if (recorder == null) {
+        return result;
+      }
+      if (result instanceof ResultSet) {
+        pendingLatency = latency;
+        return wrapResultSet((ResultSet) result);
+      } else if (result instanceof Boolean) {
+        if ((Boolean) result) {
+          pendingLatency = latency;
+        } else {
+          connection.statistics.record(recorder, latency, delegate.getUpdateCount(), 0L, false);
+        }
+      } else if (result instanceof Number) {
+        connection.statistics.record(recorder, latency, ((Number) result).longValue(), 0L, false);
+      } else if (result instanceof int[]) {
+        long rows = 0L;
+        for (int count : (int[]) result) {
+          rows += Math.max(count, 0);
+        }
+        connection.statistics.record(recorder, latency, rows, 0L, false);
+      } else if (result instanceof long[]) {
+        long rows = 0L;
+        for (long count : (long[]) result) {
+          rows += Math.max(count, 0L);
+        }
+        connection.statistics.record(recorder, latency, rows, 0L, false);
+      }
+      return result;
+    }
+
+    private ResultSet wrapResultSet(ResultSet resultSet) {
+      if (resultSet == null || pendingLatency < 0L) {
+        return resultSet;
+      }
+      openResultSet = new ResultSetHandler(this, resultSet, pendingLatency);
+      pendingLatency = -1L;
+      return (ResultSet) Proxy.newProxyInstance(InstrumentedJdbc.class.getClassLoader(),
+          new Class<?>[] {ResultSet.class}, openResultSet);
+    }
+
+    private void finishPending() {
+      if (openResultSet != null) {
+        openResultSet.finish();
+      } else if (pendingLatency >= 0L) {
+        connection.statistics.record(recorder, pendingLatency, 0L, 0L, false);
+        pendingLatency = -1L;
+      }
+    }
+  }
+
+  private static final class ResultSetHandler implements InvocationHandler {
+    private final StatementHandler statement;
+    private final ResultSet delegate;
+    private final long latency;
+    private long rows;
+    private long bytes;
+    private boolean finished;
+
+    private ResultSetHandler(StatementHandler statement, ResultSet delegate, long latency) {
+      this.statement = statement;
+      this.delegate = delegate;
+      this.latency = latency;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      Object result;
+      switch (method.getName()) {
+        case "next":
+          result = InstrumentedJdbc.invoke(delegate, method, args);
+          if ((Boolean) result) {
+            rows++;
+          }
+          return result;
+        case "close":
+          finish();
+          return InstrumentedJdbc.invoke(delegate, method, args);
+        case "equals":
+        case "hashCode":
+          return invokeObjectMethod(proxy, delegate, method, args);
+        default:
+          result = InstrumentedJdbc.invoke(delegate, method, args);
+          bytes += estimateSize(result);
+          return result;
+      }
+    }
+
+    private void finish() {
+      if (!finished) {
+        finished = true;
+        statement.openResultSet = null;
+        statement.connection.statistics.record(statement.recorder, latency, rows, bytes, false);
+      }
+    }
+
+    private static long estimateSize(Object value) {
+      if (value instanceof String) {
+        return ((String) value).length();
+      } else if (value instanceof byte[]) {
+        return ((byte[]) value).length;
+      } else if (value instanceof Number || value instanceof Boolean
+          || value instanceof java.util.Date) {
+        return 8L;
+      }
+      return 0L;
+    }
+  }
+}
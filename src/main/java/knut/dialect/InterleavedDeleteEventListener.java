@@ -0,0 +1,212 @@
+package knut.dialect;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.action.internal.BulkOperationCleanupAction;
+import org.hibernate.engine.spi.CascadeStyle;
+import org.hibernate.engine.spi.CascadeStyles;
+import org.hibernate.engine.spi.CascadingAction;
+import org.hibernate.engine.spi.CascadingActions;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.Status;
+import org.hibernate.event.spi.DeleteEvent;
+import org.hibernate.event.spi.DeleteEventListener;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.metamodel.spi.MetamodelImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Queryable;
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * Evicts the children of a deleted entity that Cloud Spanner deletes with ON DELETE CASCADE from
+ * the session. The children are found among the entities of the session by their reference to the
+ * parent, so collections that have not been initialized are not loaded. Children of children are
+ * evicted as well if their table is also interleaved with ON DELETE CASCADE.
+ *
+ * When the session factory is created, the listener removes the delete cascade from the
+ * collections of children in the persisters of the session factory, so that Hibernate does not
+ * load and delete the children itself. The mapping and the cascade styles of other session
+ * factories are not changed. As the deleted children that the session does not contain are not
+ * known, the second-level cache regions and query spaces of the children are invalidated like
+ * after a bulk delete.
+ */
+final class InterleavedDeleteEventListener implements DeleteEventListener, SessionFactoryObserver {
+  private static final long serialVersionUID = 1L;
+
+  /** A collection of children that is deleted by Cloud Spanner. */
+  static final class Children implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String entityName;
+    /** The many-to-one property of the children that references the parent. */
+    private final String parentProperty;
+    /** The collection property of the parent. */
+    private final String collectionProperty;
+
+    Children(String entityName, String parentProperty, String collectionProperty) {
+      this.entityName = entityName;
+      this.parentProperty = parentProperty;
+      this.collectionProperty = collectionProperty;
+    }
+  }
+
+  /** A cascade style that cascades all actions of another style except delete. */
+  private static final class NoDeleteCascadeStyle extends CascadeStyles.BaseCascadeStyle {
+    private static final long serialVersionUID = 1L;
+    private final CascadeStyle style;
+
+    private NoDeleteCascadeStyle(CascadeStyle style) {
+      this.style = style;
+    }
+
+    @Override
+    public boolean doCascade(CascadingAction action) {
+      return action != CascadingActions.DELETE && style.doCascade(action);
+    }
+
+    @Override
+    public boolean reallyDoCascade(CascadingAction action) {
+      return action != CascadingActions.DELETE && style.reallyDoCascade(action);
+    }
+
+    @Override
+    public boolean hasOrphanDelete() {
+      return style.hasOrphanDelete();
+    }
+
+    @Override
+    public String toString() {
+      return "NO_DELETE[" + style + "]";
+    }
+  }
+
+  private final Map<String, List<Children>> children;
+  /**
+   * The persisters of the (transitive) children of each parent whose caches are invalidated,
+   * resolved when the session factory is created.
+   */
+  private final Map<String, Queryable[]> cleanups = new HashMap<>();
+
+  /** @param children the cascade deleted children by the entity name of their parent */
+  InterleavedDeleteEventListener(Map<String, List<Children>> children) {
+    this.children = children;
+  }
+
+  @Override
+  public void sessionFactoryCreated(SessionFactory factory) {
+    SessionFactoryImplementor sessionFactory = factory.unwrap(SessionFactoryImplementor.class);
+    MetamodelImplementor metamodel = sessionFactory.getMetamodel();
+    for (Map.Entry<String, List<Children>> entry : children.entrySet()) {
+      EntityPersister persister = metamodel.entityPersister(entry.getKey());
+      for (Children child : entry.getValue()) {
+        removeDeleteCascade(persister,
+            persister.getEntityMetamodel().getPropertyIndex(child.collectionProperty));
+      }
+      Set<EntityPersister> persisters = new LinkedHashSet<>();
+      addChildPersisters(metamodel, entry.getKey(), persisters);
+      boolean cached = sessionFactory.getSessionFactoryOptions().isQueryCacheEnabled();
+      for (EntityPersister childPersister : persisters) {
+        cached |= childPersister.canWriteToCache() || childPersister.hasNaturalIdCache();
+      }
+      if (cached) {
+        cleanups.put(entry.getKey(), persisters.stream().filter(Queryable.class::isInstance)
+            .map(Queryable.class::cast).toArray(Queryable[]::new));
+      }
+    }
+  }
+
+  private static void removeDeleteCascade(EntityPersister persister, int propertyIndex) {
+    // the array of the persister of this session factory, not the mapping, which is shared
+    CascadeStyle[] styles = persister.getPropertyCascadeStyles();
+    CascadeStyle style = styles[propertyIndex];
+    if (!style.doCascade(CascadingActions.DELETE)) {
+      return;
+    }
+    styles[propertyIndex] = new NoDeleteCascadeStyle(style);
+    if (persister.getPropertyCascadeStyles()[propertyIndex] != styles[propertyIndex]) {
+      throw new HibernateException("Cannot remove the delete cascade of "
+          + persister.getEntityName() + "." + persister.getPropertyNames()[propertyIndex]
+          + " from its persister, set " + CloudSpannerIntegrator.INTERLEAVED_CASCADE_DELETE
+          + " to false");
+    }
+  }
+
+  private void addChildPersisters(MetamodelImplementor metamodel, String entityName,
+      Set<EntityPersister> persisters) {
+    for (Children child : children.getOrDefault(entityName, Collections.emptyList())) {
+      if (persisters.add(metamodel.entityPersister(child.entityName))) {
+        addChildPersisters(metamodel, child.entityName, persisters);
+      }
+    }
+  }
+
+  @Override
+  public void onDelete(DeleteEvent event) throws HibernateException {
+    onDelete(event, Collections.emptySet());
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void onDelete(DeleteEvent event, Set transientEntities) throws HibernateException {
+    EventSource session = event.getSession();
+    Object entity = event.getObject();
+    String entityName = entity instanceof HibernateProxy
+        ? ((HibernateProxy) entity).getHibernateLazyInitializer().getEntityName()
+        : event.getEntityName();
+    EntityPersister persister = session.getEntityPersister(entityName, entity);
+    if (children.containsKey(persister.getEntityName())) {
+      evictChildren(session, persister, getIdentifier(session, persister, entity));
+      Queryable[] cleanup = cleanups.get(persister.getEntityName());
+      if (cleanup != null) {
+        session.getActionQueue().addAction(new BulkOperationCleanupAction(session, cleanup));
+      }
+    }
+  }
+
+  private void evictChildren(EventSource session, EntityPersister persister, Serializable id) {
+    List<Children> list = children.get(persister.getEntityName());
+    if (list == null) {
+      return;
+    }
+    List<Object> evicted = new ArrayList<>();
+    for (Map.Entry<Object, EntityEntry> entry :
+        session.getPersistenceContext().reentrantSafeEntityEntries()) {
+      EntityEntry entityEntry = entry.getValue();
+      if (entityEntry.getStatus() == Status.DELETED || entityEntry.getStatus() == Status.GONE) {
+        continue;
+      }
+      for (Children child : list) {
+        if (entityEntry.getEntityName().equals(child.entityName)) {
+          Object parent =
+              entityEntry.getPersister().getPropertyValue(entry.getKey(), child.parentProperty);
+          if (parent != null && persister.getIdentifierType()
+              .isEqual(id, getIdentifier(session, persister, parent))) {
+            evicted.add(entry.getKey());
+            evictChildren(session, entityEntry.getPersister(), entityEntry.getId());
+          }
+        }
+      }
+    }
+    for (Object child : evicted) {
+      session.evict(child);
+    }
+  }
+
+  private static Serializable getIdentifier(EventSource session, EntityPersister persister,
+      Object entity) {
+    if (entity instanceof HibernateProxy) {
+      return ((HibernateProxy) entity).getHibernateLazyInitializer().getIdentifier();
+    }
+    Serializable id = session.getContextEntityIdentifier(entity);
+    return id == null ? persister.getIdentifier(entity, session) : id;
+  }
+}
@@ -0,0 +1,393 @@
+package knut.dialect;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import com.google.cloud.spanner.ReadContext;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Value;
+import org.hibernate.EntityMode;
+import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.internal.TwoPhaseLoad;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PreLoadEvent;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.AbstractStandardBasicType;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.ComponentType;
+import org.hibernate.type.OneToOneType;
+import org.hibernate.type.Type;
+
+/**
+ * Loads entities together with the one-to-many collections of children that are
+ * {@link InterleaveInParent interleaved} in the table of the entity in a single query. Each
+ * collection is selected with an <code>ARRAY(SELECT AS STRUCT ...)</code> subquery, which Cloud
+ * Spanner executes on the split that holds the parent row, instead of a separate query per
+ * collection or a join that repeats the parent columns for every child:
+ *
+ * <pre>
+ * select p.OrderId, p.Customer,
+ *   ARRAY(select as struct c.OrderId, c.LineNo, c.Product from OrderLines c
+ *     where c.OrderId = p.OrderId order by c.OrderId, c.LineNo) as _children0
+ * from Orders p where p.OrderId = @id1
+ * </pre>
+ *
+ * The entities and their children are loaded into the persistence context of a session like the
+ * results of a query: the fetched collections are initialized, the many-to-one references of the
+ * children to their parent are resolved to the parent, and the other associations are resolved
+ * by Hibernate, as lazy proxies and collections or by loading them. Entities that the session
+ * already contains are returned as they are, and changes of the loaded entities are flushed by
+ * the session.
+ *
+ * <pre>
+ * InterleavedFetcher&lt;Order&gt; fetcher =
+ *     new InterleavedFetcher&lt;&gt;(sessionFactory, Order.class, "lines");
+ * try (ReadContext context = databaseClient.singleUse()) {
+ *   Order order = fetcher.find(session, context, orderId);
+ * }
+ * </pre>
+ *
+ * The rows are read with the read context instead of the connection of the session, and the
+ * changes of the session are not flushed before they are read.
+ */
+public class InterleavedFetcher<T> {
+  static final String PARENT_ALIAS = "p";
+  private static final String CHILD_ALIAS = "c";
+  private static final String CHILDREN_ALIAS = "_children";
+
+  /** A collection of interleaved children of the entity. */
+  private static final class Child {
+    private final CollectionType type;
+    private final CollectionPersister collectionPersister;
+    private final AbstractEntityPersister persister;
+    private final StructEntityMapper<?> mapper;
+
+    private Child(CollectionType type, CollectionPersister collectionPersister,
+        AbstractEntityPersister persister, StructEntityMapper<?> mapper) {
+      this.type = type;
+      this.collectionPersister = collectionPersister;
+      this.persister = persister;
+      this.mapper = mapper;
+    }
+  }
+
+  private final Class<T> entityClass;
+  private final AbstractEntityPersister persister;
+  private final StructEntityMapper<T> mapper;
+  private final List<Child> children = new ArrayList<>();
+  /** The number of columns of the entity, which are followed by the collections of children. */
+  private final int columnCount;
+  private final String select;
+
+  /**
+   * @param sessionFactory the session factory of the entity
+   * @param entityClass the class of the entity
+   * @param collections the names of the one-to-many collections of the entity to load. The
+   *        elements of each collection must be interleaved in the table of the entity.
+   */
+  public InterleavedFetcher(SessionFactory sessionFactory, Class<T> entityClass,
+      String... collections) {
+    SessionFactoryImplementor factory = sessionFactory.unwrap(SessionFactoryImplementor.class);
+    this.entityClass = entityClass;
+    this.persister = getPersister(factory.getMetamodel().entityPersister(entityClass));
+    this.mapper = new StructEntityMapper<>(factory, entityClass);
+    checkProperties(persister, factory);
+    StringBuilder sql = new StringBuilder("select ");
+    this.columnCount = appendColumns(sql, persister, PARENT_ALIAS, factory);
+    for (int i = 0; i < collections.length; i++) {
+      int propertyIndex = persister.getPropertyIndex(collections[i]);
+      Type type = persister.getPropertyTypes()[propertyIndex];
+      if (!(type instanceof CollectionType)) {
+        throw new HibernateException(collections[i] + " is not a collection of "
+            + persister.getEntityName());
+      }
+      CollectionType collectionType = (CollectionType) type;
+      CollectionPersister collection =
+          factory.getMetamodel().collectionPersister(collectionType.getRole());
+      if (!collection.isOneToMany() || collection.hasIndex() || collection.isArray()) {
+        throw new HibernateException("Only one-to-many sets and bags of entities can be "
+            + "fetched: " + collection.getRole());
+      }
+      AbstractEntityPersister childPersister = getPersister(
+          ((QueryableCollection) collection).getElementPersister());
+      Class<?> childClass = childPersister.getMappedClass();
+      checkInterleaved(childPersister, childClass);
+      checkProperties(childPersister, factory);
+      sql.append(", ARRAY(select as struct ");
+      appendColumns(sql, childPersister, CHILD_ALIAS, factory);
+      sql.append(" from ").append(childPersister.getTableName()).append(' ')
+          .append(CHILD_ALIAS).append(" where ");
+      String[] keyColumns = ((QueryableCollection) collection).getKeyColumnNames();
+      String[] parentColumns = persister.getIdentifierColumnNames();
+      for (int k = 0; k < keyColumns.length; k++) {
+        sql.append(k == 0 ? "" : " and ").append(CHILD_ALIAS).append('.').append(keyColumns[k])
+            .append(" = ").append(PARENT_ALIAS).append('.').append(parentColumns[k]);
+      }
+      sql.append(" order by ");
+      if (collection.hasOrdering()) {
+        sql.append(((QueryableCollection) collection).getSQLOrderByString(CHILD_ALIAS));
+      } else {
+        appendQualified(sql, childPersister.getIdentifierColumnNames(), CHILD_ALIAS);
+      }
+      sql.append(") as ").append(CHILDREN_ALIAS).append(i);
+      children.add(new Child(collectionType, collection, childPersister,
+          new StructEntityMapper<>(factory, childClass)));
+    }
+    this.select = sql.append(" from ").append(persister.getTableName()).append(' ')
+        .append(PARENT_ALIAS).toString();
+  }
+
+  private static AbstractEntityPersister getPersister(EntityPersister persister) {
+    if (!(persister instanceof AbstractEntityPersister)) {
+      throw new HibernateException("Unsupported persister for entity "
+          + persister.getEntityName());
+    }
+    return (AbstractEntityPersister) persister;
+  }
+
+  private void checkInterleaved(AbstractEntityPersister childPersister, Class<?> childClass) {
+    InterleaveInParent interleave = childClass.getAnnotation(InterleaveInParent.class);
+    if (interleave == null || !unquote(persister.getTableName())
+        .equalsIgnoreCase(unquote(interleave.value()))) {
+      throw new HibernateException(childPersister.getEntityName() + " is not interleaved in "
+          + persister.getTableName());
+    }
+  }
+
+  private static String unquote(String name) {
+    return name.replace("`", "");
+  }
+
+  /**
+   * Checks that the state of the entity can be loaded from the selected columns: each property
+   * is a collection, a one-to-one association without columns, or a property whose columns
+   * {@link StructEntityMapper} reads, which excludes formulas.
+   */
+  private static void checkProperties(AbstractEntityPersister persister,
+      SessionFactoryImplementor factory) {
+    Type[] types = persister.getPropertyTypes();
+    for (int i = 0; i < types.length; i++) {
+      String[] names = persister.getPropertyColumnNames(i);
+      boolean supported = names.length == 0
+          ? types[i] instanceof CollectionType || types[i] instanceof OneToOneType
+          : !Arrays.asList(names).contains(null) && StructEntityMapper
+              .isSupported(StructEntityMapper.getColumnType(types[i], factory));
+      if (!supported) {
+        throw new HibernateException("Unsupported property for interleaved fetching: "
+            + persister.getEntityName() + "." + persister.getPropertyNames()[i]);
+      }
+    }
+  }
+
+  /**
+   * Appends the identifier columns and the columns of the basic and embedded properties and of
+   * the many-to-one associations of an entity, which are the columns that
+   * {@link StructEntityMapper} reads.
+   *
+   * @return the number of appended columns
+   */
+  private static int appendColumns(StringBuilder sql, AbstractEntityPersister persister,
+      String alias, SessionFactoryImplementor factory) {
+    List<String> columns = new ArrayList<>();
+    for (String column : persister.getIdentifierColumnNames()) {
+      columns.add(column);
+    }
+    Type[] types = persister.getPropertyTypes();
+    for (int i = 0; i < types.length; i++) {
+      String[] names = persister.getPropertyColumnNames(i);
+      if (names.length > 0
+          && StructEntityMapper.isSupported(StructEntityMapper.getColumnType(types[i], factory))) {
+        for (String name : names) {
+          if (!columns.contains(name)) {
+            columns.add(name);
+          }
+        }
+      }
+    }
+    appendQualified(sql, columns.toArray(new String[0]), alias);
+    return columns.size();
+  }
+
+  private static void appendQualified(StringBuilder sql, String[] columns, String alias) {
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i == 0 ? "" : ", ").append(alias).append('.').append(columns[i]);
+    }
+  }
+
+  /**
+   * @return the SQL of the query with the given condition, which can refer to the columns of the
+   *         entity with the alias <code>p</code>, or without a condition if <code>null</code>
+   */
+  public String getSql(String condition) {
+    return condition == null ? select : select + " where " + condition;
+  }
+
+  /**
+   * @return the entity with the given identifier and its children, loaded into the session, or
+   *         <code>null</code>
+   */
+  public T find(Session session, ReadContext readContext, Object id) {
+    String[] columns = persister.getIdentifierColumnNames();
+    List<Value> values = new ArrayList<>(columns.length);
+    addValues(persister.getIdentifierType(), id, values);
+    StringBuilder condition = new StringBuilder();
+    for (int i = 0; i < columns.length; i++) {
+      condition.append(i == 0 ? "" : " and ").append(PARENT_ALIAS).append('.').append(columns[i])
+          .append(" = @id").append(i + 1);
+    }
+    Statement.Builder builder = Statement.newBuilder(getSql(condition.toString()));
+    for (int i = 0; i < columns.length; i++) {
+      builder.bind("id" + (i + 1)).to(values.get(i));
+    }
+    List<T> res = list(session, readContext, builder.build());
+    return res.isEmpty() ? null : res.get(0);
+  }
+
+  /**
+   * @return the entities that satisfy the given condition, which refers to the columns of the
+   *         entity with the alias <code>p</code> and to the parameters with <code>@name</code>,
+   *         loaded into the session
+   */
+  public List<T> list(Session session, ReadContext readContext, String condition,
+      Map<String, Value> parameters) {
+    Statement.Builder builder = Statement.newBuilder(getSql(condition));
+    for (Map.Entry<String, Value> parameter : parameters.entrySet()) {
+      builder.bind(parameter.getKey()).to(parameter.getValue());
+    }
+    return list(session, readContext, builder.build());
+  }
+
+  private List<T> list(Session session, ReadContext readContext, Statement statement) {
+    EventSource source = session.unwrap(EventSource.class);
+    PersistenceContext context = source.getPersistenceContext();
+    List<T> res = new ArrayList<>();
+    List<Object> hydrated = new ArrayList<>();
+    context.beforeLoad();
+    try (ResultSet rs = readContext.executeQuery(statement)) {
+      while (rs.next()) {
+        res.add(load(source, rs.getCurrentRowAsStruct(), hydrated));
+      }
+      initialize(source, hydrated);
+    } finally {
+      context.afterLoad();
+    }
+    context.initializeNonLazyCollections();
+    return res;
+  }
+
+  /**
+   * Adds the entity of a row and the initialized collections of its children to the persistence
+   * context, unless the session already contains the entity.
+   *
+   * @return the entity of the session
+   */
+  private T load(EventSource session, Struct row, List<Object> hydrated) {
+    int count = hydrated.size();
+    Object entity = hydrate(session, persister, mapper, row, hydrated);
+    if (hydrated.size() == count) {
+      return entityClass.cast(entity);
+    }
+    Serializable id = persister.getIdentifier(entity, (SharedSessionContractImplementor) session);
+    for (int i = 0; i < children.size(); i++) {
+      Child child = children.get(i);
+      List<Struct> structs = row.getStructList(columnCount + i);
+      @SuppressWarnings("unchecked")
+      Collection<Object> elements = (Collection<Object>) child.type.instantiate(structs.size());
+      for (Struct struct : structs) {
+        elements.add(hydrate(session, child.persister, child.mapper, struct, hydrated));
+      }
+      PersistentCollection collection = child.type.wrap(session, elements);
+      collection.setOwner(entity);
+      session.getPersistenceContext()
+          .addInitializedCollection(child.collectionPersister, collection, id);
+    }
+    return entityClass.cast(entity);
+  }
+
+  /**
+   * Adds the entity of a row with its hydrated state to the persistence context, and to the
+   * hydrated entities, unless the session already contains the entity.
+   *
+   * @return the entity of the session
+   */
+  private static Object hydrate(EventSource session, AbstractEntityPersister persister,
+      StructEntityMapper<?> mapper, Struct row, List<Object> hydrated) {
+    Object entity = mapper.map(row);
+    Serializable id = persister.getIdentifier(entity, (SharedSessionContractImplementor) session);
+    EntityKey key = session.generateEntityKey(id, persister);
+    Object existing = session.getPersistenceContext().getEntity(key);
+    if (existing != null) {
+      return existing;
+    }
+    TwoPhaseLoad.addUninitializedEntity(key, entity, persister, LockMode.NONE, session);
+    Object[] state = mapper.readState(row);
+    Type[] types = persister.getPropertyTypes();
+    for (int i = 0; i < types.length; i++) {
+      String[] names = persister.getPropertyColumnNames(i);
+      if (names.length == 0) {
+        // collections and one-to-one associations are resolved from the entity itself
+        try {
+          state[i] = types[i].hydrate(null, names, session, entity);
+        } catch (SQLException e) {
+          throw new HibernateException(e);
+        }
+      }
+    }
+    TwoPhaseLoad.postHydrate(persister, id, state, null, entity, LockMode.NONE, session);
+    hydrated.add(entity);
+    return entity;
+  }
+
+  /** Resolves the hydrated state of the entities, like the loader of a query. */
+  private static void initialize(EventSource session, List<Object> hydrated) {
+    boolean readOnly = session.isDefaultReadOnly();
+    PreLoadEvent preLoad = new PreLoadEvent(session);
+    for (Object entity : hydrated) {
+      TwoPhaseLoad.initializeEntity(entity, readOnly, session, preLoad);
+    }
+    for (Object entity : hydrated) {
+      TwoPhaseLoad.afterInitialize(entity, session);
+    }
+    PostLoadEvent postLoad = new PostLoadEvent(session);
+    for (Object entity : hydrated) {
+      TwoPhaseLoad.postLoad(entity, session, postLoad);
+    }
+  }
+
+  private static void addValues(Type type, Object value, List<Value> values) {
+    if (type instanceof ComponentType) {
+      ComponentType componentType = (ComponentType) type;
+      Type[] subtypes = componentType.getSubtypes();
+      Object[] subvalues = componentType.getPropertyValues(value, EntityMode.POJO);
+      for (int i = 0; i < subtypes.length; i++) {
+        addValues(subtypes[i], subvalues[i], values);
+      }
+      return;
+    }
+    @SuppressWarnings("unchecked")
+    AbstractStandardBasicType<Object> basicType = (AbstractStandardBasicType<Object>) type;
+    Class<?> jdbcClass =
+        SpannerStatements.getJdbcClass(basicType.getSqlTypeDescriptor().getSqlType());
+    Object jdbcValue = value == null || jdbcClass == null ? value
+        : basicType.getJavaTypeDescriptor().unwrap(value, jdbcClass, null);
+    values.add(SpannerStatements.toValue(jdbcValue, jdbcClass));
+  }
+}
@@ -0,0 +1,135 @@
+package knut.dialect;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.MetadataImplementor;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.mapping.Collection;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.PrimaryKey;
+import org.hibernate.mapping.Set;
+import org.hibernate.mapping.Table;
+
+/**
+ * Resolves the parent of tables that are interleaved in another table. Entity tables are
+ * interleaved with {@link InterleaveInParent}. The tables of element collections and of
+ * one-to-many collections with a join table are interleaved in the table of the owner of the
+ * collection if the key columns of the collection have the names of the primary key columns of
+ * the owner, which is what {@link CloudSpannerImplicitNamingStrategy} generates. The rows of
+ * such a collection are then stored with the row of their owner, and loading the collection is
+ * a range scan on the same split. Collection tables are interleaved with ON DELETE CASCADE unless
+ * {@link AbstractCloudSpannerTableExporter#COLLECTION_CASCADE_DELETE} is <code>false</code>.
+ */
+final class InterleavedTables {
+  /** The parent of an interleaved table. */
+  static final class Parent {
+    private final String name;
+    private final boolean cascadeDelete;
+
+    private Parent(String name, boolean cascadeDelete) {
+      this.name = name;
+      this.cascadeDelete = cascadeDelete;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    boolean isCascadeDelete() {
+      return cascadeDelete;
+    }
+  }
+
+  private InterleavedTables() {}
+
+  /** @return the parent of the given table, or <code>null</code> if it is not interleaved */
+  static Parent getParent(Metadata metadata, Table table) {
+    for (PersistentClass pc : metadata.getEntityBindings()) {
+      if (pc.getTable().equals(table)) {
+        Class<?> entityClass = pc.getMappedClass();
+        InterleaveInParent interleave = entityClass.getAnnotation(InterleaveInParent.class);
+        return interleave == null ? null
+            : new Parent(interleave.value(), interleave.cascadeDelete());
+      }
+    }
+    Collection collection = getCollection(metadata, table);
+    if (collection != null) {
+      // the rows of a collection belong to its owner, so they may be deleted with the owner
+      return new Parent(collection.getOwner().getTable().getName(),
+          isCollectionCascadeDelete(metadata));
+    }
+    return null;
+  }
+
+  private static boolean isCollectionCascadeDelete(Metadata metadata) {
+    return !(metadata instanceof MetadataImplementor)
+        || ((MetadataImplementor) metadata).getMetadataBuildingOptions().getServiceRegistry()
+            .getService(ConfigurationService.class).getSetting(
+                AbstractCloudSpannerTableExporter.COLLECTION_CASCADE_DELETE,
+                StandardConverters.BOOLEAN, Boolean.TRUE);
+  }
+
+  /**
+   * @return the collection that is stored in the given table if the table can be interleaved in
+   *         the table of its owner, or <code>null</code>
+   */
+  private static Collection getCollection(Metadata metadata, Table table) {
+    for (Collection collection : metadata.getCollectionBindings()) {
+      if (!collection.isOneToMany() && collection.getCollectionTable().equals(table)) {
+        Table ownerTable = collection.getOwner().getTable();
+        if (ownerTable.equals(table) || !ownerTable.hasPrimaryKey()) {
+          return null;
+        }
+        List<Column> keyColumns = getColumns(collection.getKey().getColumnIterator());
+        List<Column> ownerColumns = ownerTable.getPrimaryKey().getColumns();
+        if (keyColumns.size() != ownerColumns.size()) {
+          return null;
+        }
+        for (int i = 0; i < keyColumns.size(); i++) {
+          if (!keyColumns.get(i).getName().equalsIgnoreCase(ownerColumns.get(i).getName())) {
+            return null;
+          }
+        }
+        return collection;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the primary key of the given table, or for the table of a set that has nullable
+   *         elements, for which Hibernate does not create one, a primary key of the key and the
+   *         element columns, which Cloud Spanner allows to be nullable. The key of a set is not
+   *         added to the table. Returns <code>null</code> for other tables without a primary key.
+   */
+  static PrimaryKey getPrimaryKey(Metadata metadata, Table table) {
+    if (table.hasPrimaryKey()) {
+      return table.getPrimaryKey();
+    }
+    for (Collection collection : metadata.getCollectionBindings()) {
+      if (collection instanceof Set && !collection.isOneToMany()
+          && collection.getCollectionTable().equals(table)) {
+        PrimaryKey primaryKey = new PrimaryKey(table);
+        primaryKey.addColumns(collection.getKey().getColumnIterator());
+        primaryKey.addColumns(collection.getElement().getColumnIterator());
+        return primaryKey;
+      }
+    }
+    return null;
+  }
+
+  private static List<Column> getColumns(Iterator<?> iterator) {
+    List<Column> res = new ArrayList<>();
+    while (iterator.hasNext()) {
+      Object selectable = iterator.next();
+      if (selectable instanceof Column) {
+        res.add((Column) selectable);
+      }
+    }
+    return res;
+  }
+}
@@ -0,0 +1,103 @@
+package knut.dialect;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.CompositeType;
+import org.hibernate.type.Type;
+
+/**
+ * Samples the identifiers of inserted entities and records the leading bytes of their first key
+ * value in a {@link KeyDistributionStatistics}. Inserts are sampled at random, so periodic insert
+ * patterns do not bias the samples.
+ */
+final class KeyDistributionEventListener implements PostInsertEventListener {
+  private static final long serialVersionUID = 1L;
+  private final KeyDistributionStatistics statistics;
+  private final int sampleRate;
+
+  /** @param sampleRate the average number of inserts per sample */
+  KeyDistributionEventListener(KeyDistributionStatistics statistics, int sampleRate) {
+    this.statistics = statistics;
+    this.sampleRate = sampleRate;
+  }
+
+  KeyDistributionStatistics getStatistics() {
+    return statistics;
+  }
+
+  @Override
+  public void onPostInsert(PostInsertEvent event) {
+    if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+      return;
+    }
+    EntityPersister persister = event.getPersister();
+    Object key = event.getId();
+    Type type = persister.getIdentifierType();
+    if (type instanceof CompositeType) {
+      key = ((CompositeType) type).getPropertyValues(key, event.getSession())[0];
+    }
+    if (key != null) {
+      String table = persister instanceof AbstractEntityPersister
+          ? ((AbstractEntityPersister) persister).getRootTableName()
+          : persister.getRootEntityName();
+      statistics.record(table, encode(key));
+    }
+  }
+
+  @Override
+  public boolean requiresPostCommitHanding(EntityPersister persister) {
+    return false;
+  }
+
+  /**
+   * @return the first {@value KeyDistributionStatistics#MAX_KEY_BYTES} bytes of the given key
+   *         value, in the same order as Cloud Spanner orders the keys
+   */
+  static byte[] encode(Object value) {
+    byte[] res;
+    if (value instanceof byte[]) {
+      res = (byte[]) value;
+    } else if (value instanceof String) {
+      res = ((String) value).getBytes(StandardCharsets.UTF_8);
+    } else if (value instanceof UUID) {
+      res = UuidType.toBytes((UUID) value);
+    } else if (value instanceof Double || value instanceof Float) {
+      long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+      // negative values have all bits flipped, positive values only the sign bit
+      res = encodeUnsigned(bits ^ ((bits >> 63) | Long.MIN_VALUE));
+    } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+        || value instanceof Byte) {
+      res = encodeUnsigned(((Number) value).longValue() ^ Long.MIN_VALUE);
+    } else if (value instanceof Date) {
+      res = encodeUnsigned(((Date) value).getTime() ^ Long.MIN_VALUE);
+    } else if (value instanceof Instant) {
+      Instant instant = (Instant) value;
+      res = encodeUnsigned(
+          (instant.getEpochSecond() * 1000000L + instant.getNano() / 1000) ^ Long.MIN_VALUE);
+    } else if (value instanceof Boolean) {
+      res = new byte[] {(byte) ((Boolean) value ? 1 : 0)};
+    } else {
+      res = value.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    return res.length > KeyDistributionStatistics.MAX_KEY_BYTES
+        ? Arrays.copyOf(res, KeyDistributionStatistics.MAX_KEY_BYTES)
+        : res == value ? res.clone() : res;
+  }
+
+  private static byte[] encodeUnsigned(long value) {
+    byte[] res = new byte[8];
+    for (int i = 7; i >= 0; i--) {
+      res[i] = (byte) value;
+      value >>>= 8;
+    }
+    return res;
+  }
+}
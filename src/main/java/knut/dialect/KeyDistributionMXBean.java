@@ -0,0 +1,15 @@
+package knut.dialect;
+
+import java.util.List;
+
+/** JMX interface of {@link KeyDistributionStatistics}. */
+public interface KeyDistributionMXBean {
+  /** @return the key distribution of each table with sampled inserts, most skewed first */
+  List<TableKeyDistribution> getTables();
+
+  /** @return the highest skew score of all tables */
+  double getMaxSkewScore();
+
+  /** Clears all samples. */
+  void reset();
+}
@@ -0,0 +1,250 @@
+package knut.dialect;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.ObjectName;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.jboss.logging.Logger;
+
+/**
+ * Tracks the distribution of the primary keys that are inserted into each table, to find the
+ * tables whose inserts all go to the same key range and therefore to the same split of Cloud
+ * Spanner. The {@link CloudSpannerIntegrator} samples inserts and records the leading bytes of
+ * the first key value in the order of Cloud Spanner. The statistics are exposed over JMX as
+ * <code>knut.dialect:type=KeyDistribution,name=&lt;session factory name&gt;</code> and passed on
+ * to all registered {@link SpannerMetricsListener}s.
+ *
+ * The sketch of a table has a fixed size: for each of the 256 values of the leading key byte, it
+ * keeps the last sampled key and the direction of the last change. A key that is larger than the
+ * previous key with the same leading byte, after a key that was also larger, counts towards a
+ * monotonic pattern, and a key that is equal in its first {@value #MAX_KEY_BYTES} bytes counts
+ * towards a clustered pattern. Keys in random order change direction half of the time and have a
+ * skew score close to 0, sequences and timestamps have a skew score of 1. A key that is sharded
+ * by its leading byte is reported as skewed if the keys of each shard are monotonic, see
+ * {@link TableKeyDistribution#getLeadingByteRanges()} for the number of shards. The counts are
+ * halved after every {@value #WINDOW} observations, so the score follows recent inserts.
+ */
+public class KeyDistributionStatistics implements KeyDistributionMXBean {
+  private static final Logger LOG = Logger.getLogger(KeyDistributionStatistics.class);
+
+  /** The skew score from which a table is logged as a hotspot. */
+  public static final double SKEW_THRESHOLD = 0.8d;
+  /** The number of observations of a table before it can be logged as a hotspot. */
+  static final int MIN_OBSERVATIONS = 64;
+  /** The number of leading key bytes that are compared. */
+  static final int MAX_KEY_BYTES = 32;
+  private static final int WINDOW = 4096;
+  private static final int BUCKETS = 256;
+
+  /** The fixed size sketch of the keys of one table. */
+  static final class TableSketch {
+    private final String table;
+    private final byte[][] lastKeys = new byte[BUCKETS][];
+    /** The sign of the last change of the key of each bucket. */
+    private final byte[] lastDirections = new byte[BUCKETS];
+    private final long[] bucketSamples = new long[BUCKETS];
+    private long samples;
+    private long sameDirection;
+    private long changedDirection;
+    private long equal;
+    private long increasing;
+    private long decreasing;
+    private boolean warned;
+
+    private TableSketch(String table) {
+      this.table = table;
+    }
+
+    /** @return <code>true</code> if the table should be logged as a hotspot */
+    synchronized boolean record(byte[] key) {
+      int bucket = key.length == 0 ? 0 : key[0] & 0xff;
+      samples++;
+      bucketSamples[bucket]++;
+      byte[] last = lastKeys[bucket];
+      lastKeys[bucket] = key;
+      if (last != null) {
+        int direction = Integer.signum(compare(key, last));
+        if (direction == 0) {
+          equal++;
+        } else {
+          if (direction > 0) {
+            increasing++;
+          } else {
+            decreasing++;
+          }
+          if (lastDirections[bucket] == direction) {
+            sameDirection++;
+          } else if (lastDirections[bucket] != 0) {
+            changedDirection++;
+          }
+          lastDirections[bucket] = (byte) direction;
+        }
+        if (observations() >= WINDOW) {
+          halve();
+        }
+      }
+      if (!warned && observations() >= MIN_OBSERVATIONS && score() >= SKEW_THRESHOLD) {
+        warned = true;
+        return true;
+      }
+      return false;
+    }
+
+    private long observations() {
+      return sameDirection + changedDirection + equal;
+    }
+
+    synchronized double score() {
+      long observations = observations();
+      return observations == 0L ? 0d
+          : (equal + Math.max(0L, sameDirection - changedDirection)) / (double) observations;
+    }
+
+    private void halve() {
+      samples = 0L;
+      for (int i = 0; i < BUCKETS; i++) {
+        bucketSamples[i] >>= 1;
+        samples += bucketSamples[i];
+      }
+      sameDirection >>= 1;
+      changedDirection >>= 1;
+      equal >>= 1;
+      increasing >>= 1;
+      decreasing >>= 1;
+    }
+
+    synchronized TableKeyDistribution snapshot() {
+      int ranges = 0;
+      long top = 0L;
+      for (long count : bucketSamples) {
+        if (count > 0L) {
+          ranges++;
+          top = Math.max(top, count);
+        }
+      }
+      double score = score();
+      String pattern;
+      if (score < SKEW_THRESHOLD) {
+        pattern = TableKeyDistribution.DISTRIBUTED;
+      } else if (equal > sameDirection) {
+        pattern = TableKeyDistribution.CLUSTERED;
+      } else {
+        pattern = increasing >= decreasing ? TableKeyDistribution.INCREASING
+            : TableKeyDistribution.DECREASING;
+      }
+      return new TableKeyDistribution(table, samples, score, pattern, ranges,
+          samples == 0L ? 0d : top / (double) samples);
+    }
+  }
+
+  private final ConcurrentMap<String, TableSketch> sketches = new ConcurrentHashMap<>();
+  private final List<SpannerMetricsListener> listeners = new CopyOnWriteArrayList<>();
+  private ObjectName objectName;
+
+  /**
+   * @return the key distribution statistics of the given session factory, or <code>null</code> if
+   *         inserts are not sampled
+   */
+  public static KeyDistributionStatistics get(SessionFactory sessionFactory) {
+    for (PostInsertEventListener listener : sessionFactory.unwrap(SessionFactoryImplementor.class)
+        .getServiceRegistry().getService(EventListenerRegistry.class)
+        .getEventListenerGroup(EventType.POST_INSERT).listeners()) {
+      if (listener instanceof KeyDistributionEventListener) {
+        return ((KeyDistributionEventListener) listener).getStatistics();
+      }
+    }
+    return null;
+  }
+
+  public void addListener(SpannerMetricsListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(SpannerMetricsListener listener) {
+    listeners.remove(listener);
+  }
+
+  /** Records the leading bytes of an inserted key, see {@link KeyDistributionEventListener}. */
+  void record(String table, byte[] key) {
+    TableSketch sketch = sketches.computeIfAbsent(table, TableSketch::new);
+    if (sketch.record(key)) {
+      LOG.warnf("The keys inserted into table %s are monotonic or clustered and all go to the "
+          + "same key range, which causes a hotspot in Cloud Spanner: %s", table,
+          sketch.snapshot());
+    }
+    if (!listeners.isEmpty()) {
+      double score = sketch.score();
+      for (SpannerMetricsListener listener : listeners) {
+        try {
+          listener.insertKeySampled(table, score);
+        } catch (RuntimeException e) {
+          LOG.warnf(e, "Metrics listener %s failed", listener);
+        }
+      }
+    }
+  }
+
+  /** @return the key distribution of the given table, or <code>null</code> if unknown */
+  public TableKeyDistribution getDistribution(String table) {
+    TableSketch sketch = sketches.get(table);
+    return sketch == null ? null : sketch.snapshot();
+  }
+
+  @Override
+  public List<TableKeyDistribution> getTables() {
+    List<TableKeyDistribution> res = new ArrayList<>(sketches.size());
+    for (TableSketch sketch : sketches.values()) {
+      res.add(sketch.snapshot());
+    }
+    res.sort(Comparator.comparingDouble(TableKeyDistribution::getSkewScore).reversed());
+    return res;
+  }
+
+  @Override
+  public double getMaxSkewScore() {
+    double res = 0d;
+    for (TableSketch sketch : sketches.values()) {
+      res = Math.max(res, sketch.score());
+    }
+    return res;
+  }
+
+  @Override
+  public void reset() {
+    sketches.clear();
+  }
+
+  void registerMBean(String name) {
+    objectName = InstrumentedConnectionProvider.registerMBean(this, "KeyDistribution", name);
+  }
+
+  void unregisterMBean() {
+    InstrumentedConnectionProvider.unregisterMBean(objectName);
+    objectName = null;
+  }
+
+  /** Compares keys as unsigned bytes, like Cloud Spanner compares BYTES and STRING keys. */
+  static int compare(byte[] one, byte[] another) {
+    int length = Math.min(one.length, another.length);
+    for (int i = 0; i < length; i++) {
+      int res = (one[i] & 0xff) - (another[i] & 0xff);
+      if (res != 0) {
+        return res;
+      }
+    }
+    return one.length - another.length;
+  }
+
+  @Override
+  public String toString() {
+    return getTables().toString();
+  }
+}
@@ -0,0 +1,96 @@
+package knut.dialect;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, similar to the bucket layout of
+ * HdrHistogram. Each power of two is divided into {@link #SUB_BUCKETS} linear sub-buckets, which
+ * gives a maximum relative error of 12.5%. Values above 2^{@link #MAX_EXPONENT} nanoseconds (about
+ * 18 minutes) are recorded in the last bucket.
+ *
+ * The counters are striped by thread to reduce contention when many threads record latencies for
+ * the same statement at the same time. Each stripe is a separate region of the counter array, so
+ * two threads that record a value in the same bucket do not update the same cache line.
+ */
+final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final int MAX_EXPONENT = 40;
+  static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+  private static final int STRIPES = 4;
+
+  private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKET_COUNT);
+
+  void record(long nanos) {
+    int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+    counts.incrementAndGet(stripe * BUCKET_COUNT + bucketIndex(nanos));
+  }
+
+  /** @return the number of recorded values per bucket, summed over all stripes */
+  long[] snapshot() {
+    long[] res = new long[BUCKET_COUNT];
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+        res[bucket] += counts.get(stripe * BUCKET_COUNT + bucket);
+      }
+    }
+    return res;
+  }
+
+  void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0L);
+    }
+  }
+
+  /**
+   * @return the highest value of the bucket that contains the given percentile (0-100) of the
+   *         values in the snapshot, or 0 if the snapshot is empty
+   */
+  static long percentile(long[] snapshot, double percentile) {
+    long total = 0L;
+    for (long count : snapshot) {
+      total += count;
+    }
+    if (total == 0L) {
+      return 0L;
+    }
+    long target = Math.max(1L, (long) Math.ceil(total * percentile / 100d));
+    long seen = 0L;
+    for (int bucket = 0; bucket < snapshot.length; bucket++) {
+      seen += snapshot[bucket];
+      if (seen >= target) {
+        return highestValueInBucket(bucket);
+      }
+    }
+    return highestValueInBucket(snapshot.length - 1);
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return value < 0L ? 0 : (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent >= MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return ((shift + 1) << SUB_BUCKET_BITS) + subBucket;
+  }
+
+  static long lowestValueInBucket(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+    return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+  }
+
+  static long highestValueInBucket(int bucket) {
+    if (bucket == BUCKET_COUNT - 1) {
+      return Long.MAX_VALUE;
+    }
+    return lowestValueInBucket(bucket + 1) - 1L;
+  }
+}
@@ -0,0 +1,166 @@
+package knut.dialect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Blob;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+
+/**
+ * Type of {@link Blob} properties in <code>BYTES(MAX)</code> columns that are only read when the
+ * blob is accessed, see {@link AbstractLazyLobType}:
+ *
+ * <pre>
+ * &#64;Type(type = "knut.dialect.LazyBlobType")
+ * private Blob payload;
+ * </pre>
+ *
+ * {@link Blob#getBinaryStream()} streams the value chunk by chunk. New values can be created
+ * with {@link org.hibernate.engine.jdbc.BlobProxy}.
+ */
+public class LazyBlobType extends AbstractLazyLobType<Blob> {
+  /** A read-only blob that reads its content in chunks. */
+  private static final class LazyBlob implements Blob {
+    private final Locator locator;
+
+    private LazyBlob(Locator locator) {
+      this.locator = locator;
+    }
+
+    @Override
+    public long length() {
+      return locator.getLength();
+    }
+
+    @Override
+    public byte[] getBytes(long pos, int length) throws SQLException {
+      if (pos < 1L || length < 0) {
+        throw new SQLException("Invalid range: " + pos + ", " + length);
+      }
+      int count = (int) Math.max(Math.min(length, locator.getLength() - pos + 1L), 0L);
+      if (count == 0) {
+        return new byte[0];
+      }
+      return (byte[]) locator.read(pos, count);
+    }
+
+    @Override
+    public InputStream getBinaryStream() {
+      return new ChunkedInputStream(1L, locator.getLength());
+    }
+
+    @Override
+    public InputStream getBinaryStream(long pos, long length) throws SQLException {
+      if (pos < 1L || length < 0L || pos - 1L + length > locator.getLength()) {
+        throw new SQLException("Invalid range: " + pos + ", " + length);
+      }
+      return new ChunkedInputStream(pos, length);
+    }
+
+    @Override
+    public long position(byte[] pattern, long start) throws SQLException {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public long position(Blob pattern, long start) throws SQLException {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public int setBytes(long pos, byte[] bytes) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Lazy blobs are read-only");
+    }
+
+    @Override
+    public int setBytes(long pos, byte[] bytes, int offset, int len) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Lazy blobs are read-only");
+    }
+
+    @Override
+    public OutputStream setBinaryStream(long pos) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Lazy blobs are read-only");
+    }
+
+    @Override
+    public void truncate(long len) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Lazy blobs are read-only");
+    }
+
+    @Override
+    public void free() {}
+
+    /** Reads the chunks of a range of the blob when they are needed. */
+    private final class ChunkedInputStream extends InputStream {
+      private long position;
+      private final long end;
+      private byte[] chunk = new byte[0];
+      private int offset;
+
+      private ChunkedInputStream(long position, long length) {
+        this.position = position;
+        this.end = position + length;
+      }
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        if (offset == chunk.length) {
+          if (position >= end) {
+            return -1;
+          }
+          try {
+            chunk = getBytes(position,
+                (int) Math.min(locator.getChunkSize(), end - position));
+          } catch (SQLException e) {
+            throw new IOException(e);
+          }
+          if (chunk.length == 0) {
+            return -1;
+          }
+          position += chunk.length;
+          offset = 0;
+        }
+        int count = Math.min(len, chunk.length - offset);
+        System.arraycopy(chunk, offset, b, off, count);
+        offset += count;
+        return count;
+      }
+
+      @Override
+      public int available() {
+        return chunk.length - offset;
+      }
+    }
+  }
+
+  public LazyBlobType() {
+    super(Blob.class, Types.BLOB);
+  }
+
+  @Override
+  Blob createLazyValue(Locator locator) {
+    return new LazyBlob(locator);
+  }
+
+  @Override
+  Locator getLocator(Object value) {
+    return value instanceof LazyBlob ? ((LazyBlob) value).locator : null;
+  }
+
+  @Override
+  void bind(PreparedStatement st, Blob value, int index) throws SQLException {
+    st.setBytes(index, value.getBytes(1L, checkSize(value.length())));
+  }
+}
@@ -0,0 +1,171 @@
+package knut.dialect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+
+/**
+ * Type of {@link Clob} properties in <code>STRING(MAX)</code> columns that are only read when the
+ * clob is accessed, see {@link AbstractLazyLobType}:
+ *
+ * <pre>
+ * &#64;Type(type = "knut.dialect.LazyClobType")
+ * private Clob body;
+ * </pre>
+ *
+ * {@link Clob#getCharacterStream()} streams the value chunk by chunk. The length and the chunk
+ * size are counted in characters. New values can be created with
+ * {@link org.hibernate.engine.jdbc.ClobProxy}.
+ */
+public class LazyClobType extends AbstractLazyLobType<Clob> {
+  /** A read-only clob that reads its content in chunks. */
+  private static final class LazyClob implements Clob {
+    private final Locator locator;
+
+    private LazyClob(Locator locator) {
+      this.locator = locator;
+    }
+
+    @Override
+    public long length() {
+      return locator.getLength();
+    }
+
+    @Override
+    public String getSubString(long pos, int length) throws SQLException {
+      if (pos < 1L || length < 0) {
+        throw new SQLException("Invalid range: " + pos + ", " + length);
+      }
+      int count = (int) Math.max(Math.min(length, locator.getLength() - pos + 1L), 0L);
+      if (count == 0) {
+        return "";
+      }
+      return (String) locator.read(pos, count);
+    }
+
+    @Override
+    public Reader getCharacterStream() {
+      return new ChunkedReader(1L, locator.getLength());
+    }
+
+    @Override
+    public Reader getCharacterStream(long pos, long length) throws SQLException {
+      if (pos < 1L || length < 0L || pos - 1L + length > locator.getLength()) {
+        throw new SQLException("Invalid range: " + pos + ", " + length);
+      }
+      return new ChunkedReader(pos, length);
+    }
+
+    @Override
+    public InputStream getAsciiStream() throws SQLException {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public long position(String searchstr, long start) throws SQLException {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public long position(Clob searchstr, long start) throws SQLException {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public int setString(long pos, String str) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Lazy clobs are read-only");
+    }
+
+    @Override
+    public int setString(long pos, String str, int offset, int len) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Lazy clobs are read-only");
+    }
+
+    @Override
+    public OutputStream setAsciiStream(long pos) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Lazy clobs are read-only");
+    }
+
+    @Override
+    public Writer setCharacterStream(long pos) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Lazy clobs are read-only");
+    }
+
+    @Override
+    public void truncate(long len) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Lazy clobs are read-only");
+    }
+
+    @Override
+    public void free() {}
+
+    /** Reads the chunks of a range of the clob when they are needed. */
+    private final class ChunkedReader extends Reader {
+      private long position;
+      private final long end;
+      private String chunk = "";
+      private int offset;
+
+      private ChunkedReader(long position, long length) {
+        this.position = position;
+        this.end = position + length;
+      }
+
+      @Override
+      public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        if (offset == chunk.length()) {
+          if (position >= end) {
+            return -1;
+          }
+          try {
+            chunk = getSubString(position,
+                (int) Math.min(locator.getChunkSize(), end - position));
+          } catch (SQLException e) {
+            throw new IOException(e);
+          }
+          if (chunk.isEmpty()) {
+            return -1;
+          }
+          position += chunk.length();
+          offset = 0;
+        }
+        int count = Math.min(len, chunk.length() - offset);
+        chunk.getChars(offset, offset + count, cbuf, off);
+        offset += count;
+        return count;
+      }
+
+      @Override
+      public void close() {}
+    }
+  }
+
+  public LazyClobType() {
+    super(Clob.class, Types.CLOB);
+  }
+
+  @Override
+  Clob createLazyValue(Locator locator) {
+    return new LazyClob(locator);
+  }
+
+  @Override
+  Locator getLocator(Object value) {
+    return value instanceof LazyClob ? ((LazyClob) value).locator : null;
+  }
+
+  @Override
+  void bind(PreparedStatement st, Clob value, int index) throws SQLException {
+    st.setString(index, value.getSubString(1L, checkSize(value.length())));
+  }
+}
@@ -0,0 +1,58 @@
+package knut.dialect;
+
+import java.time.LocalDate;
+import java.util.List;
+import com.google.cloud.spanner.Struct;
+
+/**
+ * Type definition for ARRAY&lt;DATE&gt; columns in Cloud Spanner that are mapped to
+ * {@link LocalDate} arrays. NULL elements are <code>null</code>.
+ */
+public class LocalDateArrayType extends TemporalArrayType<LocalDate[]> {
+  private static final long serialVersionUID = 1L;
+  public static final LocalDateArrayType INSTANCE = new LocalDateArrayType();
+
+  public LocalDateArrayType() {
+    super(LocalDate[].class, true);
+  }
+
+  @Override
+  LocalDate[] fromJdbcArray(Object[] elements) {
+    LocalDate[] res = new LocalDate[elements.length];
+    for (int i = 0; i < res.length; i++) {
+      if (elements[i] != null) {
+        res[i] = ((java.sql.Date) elements[i]).toLocalDate();
+      }
+    }
+    return res;
+  }
+
+  @Override
+  Object[] toJdbcArray(LocalDate[] value) {
+    java.sql.Date[] res = new java.sql.Date[value.length];
+    for (int i = 0; i < res.length; i++) {
+      if (value[i] != null) {
+        res[i] = java.sql.Date.valueOf(value[i]);
+      }
+    }
+    return res;
+  }
+
+  @Override
+  public LocalDate[] fromStruct(Struct struct, int index) {
+    List<com.google.cloud.Date> list = struct.getDateList(index);
+    LocalDate[] res = new LocalDate[list.size()];
+    for (int i = 0; i < res.length; i++) {
+      com.google.cloud.Date date = list.get(i);
+      if (date != null) {
+        res[i] = LocalDate.of(date.getYear(), date.getMonth(), date.getDayOfMonth());
+      }
+    }
+    return res;
+  }
+
+  @Override
+  public String getName() {
+    return "LOCAL_DATE_ARRAY";
+  }
+}
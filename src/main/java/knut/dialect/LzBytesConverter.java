@@ -0,0 +1,11 @@
+package knut.dialect;
+
+/**
+ * Converter that stores <code>byte[]</code> attributes compressed with the fast LZ codec. Values
+ * below {@link CompressionCodec#DEFAULT_THRESHOLD} bytes are stored uncompressed.
+ */
+public class LzBytesConverter extends CompressedBytesConverter {
+  public LzBytesConverter() {
+    super(CompressionCodec.LZ, CompressionCodec.DEFAULT_THRESHOLD);
+  }
+}
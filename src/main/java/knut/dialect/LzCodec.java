@@ -0,0 +1,157 @@
+package knut.dialect;
+
+import java.util.Arrays;
+import org.hibernate.HibernateException;
+
+/**
+ * A fast pure-Java LZ77 codec in the style of LZ4. A block is a sequence of literal runs that
+ * are each followed by a back reference of at least {@link #MIN_MATCH} bytes, except for the
+ * last run. Every sequence starts with a token of which the high nibble is the number of
+ * literals and the low nibble the length of the match minus {@link #MIN_MATCH}; a nibble of 15
+ * is followed by bytes that are added to it until a byte is not 255. The literals are followed by
+ * the little-endian 16-bit offset of the match.
+ */
+final class LzCodec {
+  static final int MIN_MATCH = 4;
+  private static final int MAX_OFFSET = 0xffff;
+  static final int HASH_LOG = 14;
+
+  private LzCodec() {}
+
+  /**
+   * Compresses the first <code>length</code> bytes of <code>src</code> into <code>dst</code>
+   * between <code>dstOffset</code> and <code>dstEnd</code>.
+   *
+   * @param hashTable a table of {@code 1 << HASH_LOG} entries that is overwritten
+   * @return the end of the compressed data in <code>dst</code>, or -1 if it does not fit
+   */
+  static int compress(byte[] src, int length, byte[] dst, int dstOffset, int dstEnd,
+      int[] hashTable) {
+    Arrays.fill(hashTable, 0);
+    int dp = dstOffset;
+    int anchor = 0;
+    int ip = 0;
+    while (ip <= length - MIN_MATCH) {
+      int sequence = readInt(src, ip);
+      int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+      // the table holds positions plus one, so that zero is empty
+      int ref = hashTable[hash] - 1;
+      hashTable[hash] = ip + 1;
+      if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+        // skip faster through data that does not compress
+        ip += 1 + ((ip - anchor) >>> 6);
+        continue;
+      }
+      int matchLength = MIN_MATCH;
+      while (ip + matchLength < length && src[ref + matchLength] == src[ip + matchLength]) {
+        matchLength++;
+      }
+      dp = writeSequence(src, anchor, ip - anchor, dst, dp, dstEnd, ip - ref, matchLength);
+      if (dp < 0) {
+        return -1;
+      }
+      ip += matchLength;
+      anchor = ip;
+    }
+    return writeSequence(src, anchor, length - anchor, dst, dp, dstEnd, 0, 0);
+  }
+
+  /** @return the end of the written sequence, or -1 if it does not fit */
+  private static int writeSequence(byte[] src, int literalOffset, int literalLength, byte[] dst,
+      int dp, int dstEnd, int offset, int matchLength) {
+    int required = 1 + extraLength(literalLength) + literalLength
+        + (matchLength == 0 ? 0 : 2 + extraLength(matchLength - MIN_MATCH));
+    if (dp + required > dstEnd) {
+      return -1;
+    }
+    int matchNibble = matchLength == 0 ? 0 : Math.min(matchLength - MIN_MATCH, 15);
+    dst[dp++] = (byte) (Math.min(literalLength, 15) << 4 | matchNibble);
+    dp = writeExtraLength(dst, dp, literalLength);
+    System.arraycopy(src, literalOffset, dst, dp, literalLength);
+    dp += literalLength;
+    if (matchLength > 0) {
+      dst[dp++] = (byte) offset;
+      dst[dp++] = (byte) (offset >>> 8);
+      dp = writeExtraLength(dst, dp, matchLength - MIN_MATCH);
+    }
+    return dp;
+  }
+
+  private static int extraLength(int length) {
+    return length < 15 ? 0 : (length - 15) / 255 + 1;
+  }
+
+  private static int writeExtraLength(byte[] dst, int dp, int length) {
+    if (length >= 15) {
+      int remaining = length - 15;
+      while (remaining >= 255) {
+        dst[dp++] = (byte) 255;
+        remaining -= 255;
+      }
+      dst[dp++] = (byte) remaining;
+    }
+    return dp;
+  }
+
+  /**
+   * Decompresses the block between <code>srcOffset</code> and <code>srcEnd</code> into
+   * <code>dst</code>, which must have the length of the uncompressed data.
+   */
+  static void decompress(byte[] src, int srcOffset, int srcEnd, byte[] dst) {
+    try {
+      int sp = srcOffset;
+      int dp = 0;
+      while (sp < srcEnd) {
+        int token = src[sp++] & 0xff;
+        int literalLength = token >>> 4;
+        if (literalLength == 15) {
+          int b;
+          do {
+            b = src[sp++] & 0xff;
+            literalLength += b;
+          } while (b == 255);
+        }
+        System.arraycopy(src, sp, dst, dp, literalLength);
+        sp += literalLength;
+        dp += literalLength;
+        if (sp == srcEnd) {
+          break;
+        }
+        int offset = (src[sp] & 0xff) | (src[sp + 1] & 0xff) << 8;
+        sp += 2;
+        int matchLength = token & 15;
+        if (matchLength == 15) {
+          int b;
+          do {
+            b = src[sp++] & 0xff;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+        if (offset == 0 || offset > dp) {
+          throw new HibernateException("Invalid offset in LZ compressed value: " + offset);
+        }
+        if (offset >= matchLength) {
+          System.arraycopy(dst, dp - offset, dst, dp, matchLength);
+          dp += matchLength;
+        } else {
+          // the source and target of the match overlap
+          for (int end = dp + matchLength; dp < end; dp++) {
+            dst[dp] = dst[dp - offset];
+          }
+        }
+      }
+      if (dp != dst.length) {
+        throw new HibernateException("LZ compressed value has " + dp + " bytes instead of "
+            + dst.length);
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new HibernateException("Corrupt LZ compressed value", e);
+    }
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+        | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+  }
+}
@@ -0,0 +1,11 @@
+package knut.dialect;
+
+/**
+ * Converter that stores {@link String} attributes compressed with the fast LZ codec. Values below
+ * {@link CompressionCodec#DEFAULT_THRESHOLD} bytes are stored uncompressed.
+ */
+public class LzStringConverter extends CompressedStringConverter {
+  public LzStringConverter() {
+    super(CompressionCodec.LZ, CompressionCodec.DEFAULT_THRESHOLD);
+  }
+}
@@ -0,0 +1,22 @@
+package knut.dialect;
+
+/** JMX interface of the paged SQL cache of {@link CloudSpannerLimitHandler}. */
+public interface PagedSqlCacheMXBean {
+  /** @return the number of paged SQL strings that were served from the cache */
+  long getHitCount();
+
+  /** @return the number of paged SQL strings that had to be built */
+  long getMissCount();
+
+  /** @return the number of entries that were evicted because the cache was full */
+  long getEvictionCount();
+
+  /** @return the current number of cached paged SQL strings */
+  int getSize();
+
+  /** @return the maximum number of cached paged SQL strings */
+  int getMaxSize();
+
+  /** Removes all entries and resets the counters. */
+  void clear();
+}
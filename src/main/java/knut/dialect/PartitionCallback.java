@@ -0,0 +1,19 @@
+package knut.dialect;
+
+import java.util.stream.Stream;
+
+/**
+ * Callback that receives the rows of one partition of a {@link PartitionedQueryReader} query. The
+ * callback is invoked once per partition on the executor of the reader, and different partitions
+ * are processed concurrently.
+ */
+@FunctionalInterface
+public interface PartitionCallback<T> {
+  /**
+   * @param partition the index of the partition in the list of partitions returned by Cloud
+   *        Spanner
+   * @param rows the mapped rows of the partition. The stream is closed by the reader when the
+   *        callback returns.
+   */
+  void onPartition(int partition, Stream<T> rows) throws Exception;
+}
@@ -0,0 +1,401 @@
+package knut.dialect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import com.google.cloud.spanner.BatchClient;
+import com.google.cloud.spanner.BatchReadOnlyTransaction;
+import com.google.cloud.spanner.Partition;
+import com.google.cloud.spanner.PartitionOptions;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.TimestampBound;
+import com.google.cloud.spanner.Value;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.spi.NamedParameterInformation;
+import org.hibernate.hql.spi.ParameterInformation;
+import org.hibernate.hql.spi.ParameterTranslations;
+import org.hibernate.hql.spi.PositionalParameterInformation;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.type.AbstractStandardBasicType;
+
+/**
+ * Reads the result of a query in parallel by partitioning the query with Cloud Spanner
+ * <code>partitionQuery</code> and reading the partitions concurrently. All partitions are read in
+ * one batch read-only transaction, so all rows are read at the same timestamp.
+ *
+ * Only root-partitionable queries can be partitioned by Cloud Spanner, which means that the query
+ * may not contain an ORDER BY or LIMIT clause. Queries can be specified as HQL, which is translated
+ * to SQL using the query plan cache of the session factory, or directly as a Cloud Spanner
+ * {@link Statement}. The rows of the query are mapped using a {@link StructRowMapper}, for example
+ * the one returned by {@link #entityMapper(Class)}. Mapped entities are not associated with any
+ * session.
+ *
+ * <pre>
+ * PartitionedQueryReader reader = new PartitionedQueryReader(sessionFactory,
+ *     spanner.getBatchClient(SpannerClients.getDatabaseId(url)), executor);
+ * try (Stream&lt;Singer&gt; singers = reader.stream("from Singer where active = :active",
+ *     Collections.singletonMap("active", true), Singer.class)) {
+ *   singers.forEach(...);
+ * }
+ * </pre>
+ */
+public class PartitionedQueryReader {
+  /** The number of rows that the partitions of a stream read ahead of its consumer. */
+  private static final int BUFFERED_ROWS = 1000;
+  /** The element of the row buffer of a stream after the last row of a partition. */
+  private static final Object END_OF_PARTITION = new Object();
+  /** The element of the row buffer of a stream for a row that is mapped to null. */
+  private static final Object NULL_ROW = new Object();
+
+  private final SessionFactoryImplementor sessionFactory;
+  private final BatchClient batchClient;
+  private final ExecutorService executor;
+  private PartitionOptions partitionOptions = PartitionOptions.getDefaultInstance();
+  private TimestampBound timestampBound = TimestampBound.strong();
+
+  /**
+   * @param sessionFactory the session factory that is used to translate HQL queries and to map
+   *        rows to entities
+   * @param batchClient the batch client for the database of the session factory
+   * @param executor the executor that reads and processes the partitions
+   */
+  public PartitionedQueryReader(SessionFactory sessionFactory, BatchClient batchClient,
+      ExecutorService executor) {
+    this.sessionFactory = sessionFactory.unwrap(SessionFactoryImplementor.class);
+    this.batchClient = batchClient;
+    this.executor = executor;
+  }
+
+  /**
+   * Sets the options that are passed to <code>partitionQuery</code>, for example the desired
+   * maximum number of partitions. The default is to let Cloud Spanner decide.
+   */
+  public void setPartitionOptions(PartitionOptions partitionOptions) {
+    this.partitionOptions = partitionOptions;
+  }
+
+  /** Sets the read timestamp of the batch transaction. The default is a strong read. */
+  public void setTimestampBound(TimestampBound timestampBound) {
+    this.timestampBound = timestampBound;
+  }
+
+  /** @return a row mapper that maps rows to (detached) instances of the given entity */
+  public <T> StructRowMapper<T> entityMapper(Class<T> entityClass) {
+    return new StructEntityMapper<>(sessionFactory, entityClass);
+  }
+
+  /**
+   * The query plan cache is deprecated in favor of the query engine of Hibernate 6, which 5.4 does
+   * not have yet; it is the only way to reuse the plans of the session factory.
+   */
+  @SuppressWarnings("deprecation")
+  private HQLQueryPlan getQueryPlan(String hql) {
+    return sessionFactory.getQueryPlanCache().getHQLQueryPlan(hql, false, Collections.emptyMap());
+  }
+
+  /**
+   * Translates an HQL select query to a Cloud Spanner {@link Statement}.
+   *
+   * @param hql the query to translate
+   * @param parameters the values of the parameters of the query. Positional parameters are
+   *        specified using their label as key, i.e. the value of <code>?1</code> has key
+   *        <code>"1"</code>.
+   */
+  public Statement translate(String hql, Map<String, ?> parameters) {
+    HQLQueryPlan plan = getQueryPlan(hql);
+    QueryTranslator[] translators = plan.getTranslators();
+    if (!plan.isSelect() || translators.length != 1) {
+      throw new HibernateException("Only select queries on a single entity hierarchy can be "
+          + "partitioned: " + hql);
+    }
+    String sql = translators[0].getSQLString();
+    int parameterCount = SpannerStatements.findParameterPositions(sql).size();
+    Object[] values = new Object[parameterCount];
+    ParameterInformation[] infos = new ParameterInformation[parameterCount];
+    ParameterTranslations translations = translators[0].getParameterTranslations();
+    for (Map.Entry<String, NamedParameterInformation> entry : translations
+        .getNamedParameterInformationMap().entrySet()) {
+      setParameterValues(entry.getKey(), entry.getValue(), parameters, values, infos);
+    }
+    for (Map.Entry<Integer, PositionalParameterInformation> entry : translations
+        .getPositionalParameterInformationMap().entrySet()) {
+      setParameterValues(String.valueOf(entry.getKey()), entry.getValue(), parameters, values,
+          infos);
+    }
+    List<Value> spannerValues = new ArrayList<>(parameterCount);
+    for (int i = 0; i < parameterCount; i++) {
+      spannerValues.add(toValue(values[i], infos[i]));
+    }
+    return SpannerStatements.toStatement(sql, spannerValues);
+  }
+
+  /**
+   * Executes the given HQL query and returns the result as a stream of entities that are read in
+   * parallel. The stream must be closed after use to close the batch transaction.
+   */
+  public <T> Stream<T> stream(String hql, Map<String, ?> parameters, Class<T> entityClass) {
+    return stream(translate(hql, parameters), entityMapper(entityClass));
+  }
+
+  /**
+   * Partitions the given statement and returns the mapped rows of all partitions as a stream. The
+   * partitions are read concurrently on the executor of this reader, at most
+   * {@value #BUFFERED_ROWS} rows ahead of the consumer of the stream, and the stream returns the
+   * rows in the order in which they are read. The stream must be closed after use to stop the
+   * reads and close the batch transaction.
+   */
+  public <T> Stream<T> stream(Statement statement, StructRowMapper<T> mapper) {
+    BatchReadOnlyTransaction transaction = batchClient.batchReadOnlyTransaction(timestampBound);
+    PartitionTasks tasks = new PartitionTasks(executor);
+    try {
+      List<Partition> partitions = transaction.partitionQuery(partitionOptions, statement);
+      BlockingQueue<Object> rows = new ArrayBlockingQueue<>(BUFFERED_ROWS);
+      for (Partition partition : partitions) {
+        tasks.submit(() -> {
+          try (Stream<T> partitionRows = readPartition(transaction, partition, mapper)) {
+            for (Iterator<T> it = partitionRows.iterator(); it.hasNext();) {
+              T row = it.next();
+              rows.put(row == null ? NULL_ROW : row);
+            }
+          } catch (RuntimeException e) {
+            rows.put(new PartitionFailure(e));
+            return null;
+          }
+          rows.put(END_OF_PARTITION);
+          return null;
+        });
+      }
+      return StreamSupport.stream(new BufferSpliterator<T>(rows, partitions.size()), false)
+          .onClose(() -> {
+            try {
+              tasks.abort();
+            } finally {
+              transaction.close();
+            }
+          });
+    } catch (RuntimeException e) {
+      try {
+        tasks.abort();
+      } finally {
+        transaction.close();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Partitions the given statement and invokes the callback for each partition on the executor of
+   * this reader. This method returns when all partitions have been processed. If the callback
+   * fails for one partition, the processing of the remaining partitions is cancelled, and the
+   * batch transaction is closed when the running callbacks have returned.
+   */
+  public <T> void forEachPartition(Statement statement, StructRowMapper<T> mapper,
+      PartitionCallback<T> callback) {
+    try (BatchReadOnlyTransaction transaction =
+        batchClient.batchReadOnlyTransaction(timestampBound)) {
+      List<Partition> partitions = transaction.partitionQuery(partitionOptions, statement);
+      PartitionTasks tasks = new PartitionTasks(executor);
+      try {
+        for (int i = 0; i < partitions.size(); i++) {
+          final int index = i;
+          final Partition partition = partitions.get(i);
+          tasks.submit(() -> {
+            try (Stream<T> rows = readPartition(transaction, partition, mapper)) {
+              callback.onPartition(index, rows);
+            }
+            return null;
+          });
+        }
+      } catch (RuntimeException e) {
+        tasks.abort();
+        throw e;
+      }
+      tasks.awaitAll();
+    }
+  }
+
+  private static <T> Stream<T> readPartition(BatchReadOnlyTransaction transaction,
+      Partition partition, StructRowMapper<T> mapper) {
+    final ResultSet rs = transaction.execute(partition);
+    Spliterator<T> spliterator =
+        new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+          @Override
+          public boolean tryAdvance(Consumer<? super T> action) {
+            if (rs.next()) {
+              action.accept(mapper.map(rs.getCurrentRowAsStruct()));
+              return true;
+            }
+            return false;
+          }
+        };
+    return StreamSupport.stream(spliterator, false).onClose(rs::close);
+  }
+
+  /** A partition that could not be read, in the row buffer of a stream. */
+  private static final class PartitionFailure {
+    private final RuntimeException cause;
+
+    private PartitionFailure(RuntimeException cause) {
+      this.cause = cause;
+    }
+  }
+
+  /** Returns the rows of the row buffer of a stream until all partitions have been read. */
+  private static final class BufferSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+    private final BlockingQueue<Object> rows;
+    private int remainingPartitions;
+
+    private BufferSpliterator(BlockingQueue<Object> rows, int partitions) {
+      super(Long.MAX_VALUE, 0);
+      this.rows = rows;
+      this.remainingPartitions = partitions;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+      while (remainingPartitions > 0) {
+        Object row;
+        try {
+          row = rows.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new HibernateException("Interrupted while reading partitions", e);
+        }
+        if (row == END_OF_PARTITION) {
+          remainingPartitions--;
+        } else if (row instanceof PartitionFailure) {
+          remainingPartitions = 0;
+          throw new HibernateException("Reading a partition failed",
+              ((PartitionFailure) row).cause);
+        } else {
+          action.accept(row == NULL_ROW ? null : (T) row);
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * The tasks that read the partitions of one query on the executor. The tasks are aborted before
+   * the batch transaction is closed, which waits for the running tasks to return.
+   */
+  private static final class PartitionTasks {
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int FINISHED = 2;
+
+    private static final class Task {
+      private final AtomicInteger state = new AtomicInteger(PENDING);
+      private final CountDownLatch finished = new CountDownLatch(1);
+      private Future<?> future;
+    }
+
+    private final ExecutorService executor;
+    private final List<Task> tasks = new ArrayList<>();
+
+    private PartitionTasks(ExecutorService executor) {
+      this.executor = executor;
+    }
+
+    private void submit(Callable<?> callable) {
+      Task task = new Task();
+      task.future = executor.submit(() -> {
+        if (!task.state.compareAndSet(PENDING, RUNNING)) {
+          return null;
+        }
+        try {
+          return callable.call();
+        } finally {
+          task.state.set(FINISHED);
+          task.finished.countDown();
+        }
+      });
+      tasks.add(task);
+    }
+
+    /** Waits for all tasks, and aborts the remaining tasks if one task fails. */
+    private void awaitAll() {
+      try {
+        for (Task task : tasks) {
+          task.future.get();
+        }
+      } catch (ExecutionException e) {
+        abort();
+        throw new HibernateException("Reading a partition failed", e.getCause());
+      } catch (InterruptedException e) {
+        abort();
+        Thread.currentThread().interrupt();
+        throw new HibernateException("Interrupted while reading partitions", e);
+      }
+    }
+
+    /** Skips the tasks that have not started, and interrupts and waits for the running tasks. */
+    private void abort() {
+      boolean interrupted = false;
+      for (Task task : tasks) {
+        if (task.state.compareAndSet(PENDING, FINISHED)) {
+          task.future.cancel(false);
+          continue;
+        }
+        task.future.cancel(true);
+        while (true) {
+          try {
+            task.finished.await();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static void setParameterValues(String name, ParameterInformation info,
+      Map<String, ?> parameters, Object[] values, ParameterInformation[] infos) {
+    if (!parameters.containsKey(name)) {
+      throw new HibernateException("No value specified for query parameter " + name);
+    }
+    for (int location : info.getSourceLocations()) {
+      values[location] = parameters.get(name);
+      infos[location] = info;
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Value toValue(Object value, ParameterInformation info) {
+    Class<?> jdbcClass = null;
+    if (info != null && info.getExpectedType() instanceof AbstractStandardBasicType) {
+      // let the Hibernate type convert the value to the JDBC type of the parameter
+      AbstractStandardBasicType type = (AbstractStandardBasicType) info.getExpectedType();
+      jdbcClass = SpannerStatements.getJdbcClass(type.getSqlTypeDescriptor().getSqlType());
+      if (jdbcClass != null && value != null) {
+        value = type.getJavaTypeDescriptor().unwrap(value, jdbcClass, null);
+      }
+    }
+    return SpannerStatements.toValue(value, jdbcClass);
+  }
+}
@@ -0,0 +1,26 @@
+package knut.dialect;
+
+import com.google.cloud.spanner.ReadContext.QueryAnalyzeMode;
+import com.google.cloud.spanner.Statement;
+import com.google.spanner.v1.ResultSetStats;
+
+/**
+ * Source of the execution plans that {@link SlowQueryLog} captures for slow queries. The default
+ * implementation is {@link SpannerPlanSource}, tests can use a fake that returns canned plans.
+ */
+public interface PlanSource extends AutoCloseable {
+  /**
+   * Analyzes the given query.
+   *
+   * @param statement the query with its parameter values
+   * @param mode {@link QueryAnalyzeMode#PLAN} to only return the plan, or
+   *        {@link QueryAnalyzeMode#PROFILE} to execute the query and also return the execution
+   *        statistics
+   * @return the statistics of the query, containing at least the query plan
+   */
+  ResultSetStats analyze(Statement statement, QueryAnalyzeMode mode);
+
+  /** Releases the resources of this plan source. */
+  @Override
+  default void close() {}
+}
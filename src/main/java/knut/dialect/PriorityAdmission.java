@@ -0,0 +1,163 @@
+package knut.dialect;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admits the statements of the {@link InstrumentedConnectionProvider} to run in the order of their
+ * {@link RequestPriority}, and counts the statements of each priority that are queued and running.
+ * The counts are exposed over JMX as
+ * <code>knut.dialect:type=PriorityAdmission,name=&lt;session factory name&gt;</code>.
+ *
+ * When the number of running statements is limited, a statement waits while the limit is reached
+ * or while statements of a higher priority are queued, so that batch queries with low priority
+ * give way to user-facing queries. A statement that waits longer than its query timeout fails
+ * with a {@link SQLTimeoutException}. Statements without a priority have high priority, like in
+ * Cloud Spanner. Without a limit, statements are only counted and never take a lock.
+ *
+ * A statement runs from its execute call until that call returns: the rows of a result set are
+ * read after the statement was released, so the limit applies to the statements that wait for
+ * Cloud Spanner to execute them and not to open result sets.
+ */
+public class PriorityAdmission implements PriorityAdmissionMXBean {
+  private static final int PRIORITIES = RequestPriority.values().length;
+
+  private final int maxRunning;
+  private final LongAdder[] running = adders();
+  private final LongAdder[] admitted = adders();
+  private final LongAdder[] timedOut = adders();
+  private final LongAdder[] queueNanos = adders();
+  /** The queued statements, only with a limit and guarded by this admission. */
+  private final int[] queued = new int[PRIORITIES];
+  /** The running statements, only with a limit and guarded by this admission. */
+  private int totalRunning;
+
+  /** @param maxRunning the maximum number of running statements, or 0 for no limit */
+  public PriorityAdmission(int maxRunning) {
+    this.maxRunning = maxRunning;
+  }
+
+  private static LongAdder[] adders() {
+    LongAdder[] res = new LongAdder[PRIORITIES];
+    for (int i = 0; i < PRIORITIES; i++) {
+      res[i] = new LongAdder();
+    }
+    return res;
+  }
+
+  /**
+   * Waits until a statement with the given priority may run.
+   *
+   * @param priority the priority of the statement, or <code>null</code> for high priority
+   * @param timeoutMillis the maximum time to wait, or 0 to wait without a timeout
+   */
+  public void acquire(RequestPriority priority, long timeoutMillis) throws SQLException {
+    int index = index(priority);
+    if (maxRunning > 0) {
+      long start = System.nanoTime();
+      await(index, start, timeoutMillis);
+      queueNanos[index].add(System.nanoTime() - start);
+    }
+    running[index].increment();
+    admitted[index].increment();
+  }
+
+  private synchronized void await(int index, long start, long timeoutMillis)
+      throws SQLException {
+    queued[index]++;
+    try {
+      while (!canRun(index)) {
+        if (timeoutMillis <= 0L) {
+          wait();
+          continue;
+        }
+        long remaining = timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (remaining <= 0L) {
+          timedOut[index].increment();
+          throw new SQLTimeoutException("Statement with priority " + RequestPriority.values()[index]
+              + " was not admitted within " + timeoutMillis + " ms");
+        }
+        wait(remaining);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting to execute statement", e);
+    } finally {
+      queued[index]--;
+      // statements of a lower priority may run when this statement leaves the queue
+      notifyAll();
+    }
+    totalRunning++;
+  }
+
+  /**
+   * Releases a statement that was admitted by {@link #acquire}.
+   *
+   * @param timedOut whether the statement was cancelled because it exceeded its timeout
+   */
+  public void release(RequestPriority priority, boolean timedOut) {
+    int index = index(priority);
+    running[index].decrement();
+    if (timedOut) {
+      this.timedOut[index].increment();
+    }
+    if (maxRunning > 0) {
+      synchronized (this) {
+        totalRunning--;
+        notifyAll();
+      }
+    }
+  }
+
+  private boolean canRun(int index) {
+    if (totalRunning >= maxRunning) {
+      return false;
+    }
+    for (int i = index + 1; i < PRIORITIES; i++) {
+      if (queued[i] > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int index(RequestPriority priority) {
+    return (priority == null ? RequestPriority.HIGH : priority).ordinal();
+  }
+
+  @Override
+  public int getMaxRunning() {
+    return maxRunning;
+  }
+
+  @Override
+  public List<PriorityStatistics> getPriorities() {
+    int[] queued = new int[PRIORITIES];
+    if (maxRunning > 0) {
+      synchronized (this) {
+        System.arraycopy(this.queued, 0, queued, 0, PRIORITIES);
+      }
+    }
+    List<PriorityStatistics> res = new ArrayList<>(PRIORITIES);
+    for (int i = PRIORITIES - 1; i >= 0; i--) {
+      long admitted = this.admitted[i].sum();
+      res.add(new PriorityStatistics(RequestPriority.values()[i].name(), queued[i],
+          (int) running[i].sum(), admitted, timedOut[i].sum(),
+          admitted == 0L ? 0d : queueNanos[i].sum() / 1_000_000d / admitted));
+    }
+    return res;
+  }
+
+  @Override
+  public void reset() {
+    for (int i = 0; i < PRIORITIES; i++) {
+      admitted[i].reset();
+      timedOut[i].reset();
+      queueNanos[i].reset();
+    }
+  }
+}
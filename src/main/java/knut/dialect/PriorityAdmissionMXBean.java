@@ -0,0 +1,15 @@
+package knut.dialect;
+
+import java.util.List;
+
+/** JMX interface of {@link PriorityAdmission}. */
+public interface PriorityAdmissionMXBean {
+  /** @return the maximum number of running statements, or 0 if it is not limited */
+  int getMaxRunning();
+
+  /** @return the queued and running statements of each priority, highest priority first */
+  List<PriorityStatistics> getPriorities();
+
+  /** Clears the admitted and timed out counts and the queue times. */
+  void reset();
+}
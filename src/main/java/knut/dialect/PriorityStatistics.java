@@ -0,0 +1,60 @@
+package knut.dialect;
+
+import java.beans.ConstructorProperties;
+
+/** Snapshot of the statements with one {@link RequestPriority}. */
+public class PriorityStatistics {
+  private final String priority;
+  private final int queued;
+  private final int running;
+  private final long admitted;
+  private final long timedOut;
+  private final double averageQueueMillis;
+
+  @ConstructorProperties({"priority", "queued", "running", "admitted", "timedOut",
+      "averageQueueMillis"})
+  public PriorityStatistics(String priority, int queued, int running, long admitted,
+      long timedOut, double averageQueueMillis) {
+    this.priority = priority;
+    this.queued = queued;
+    this.running = running;
+    this.admitted = admitted;
+    this.timedOut = timedOut;
+    this.averageQueueMillis = averageQueueMillis;
+  }
+
+  public String getPriority() {
+    return priority;
+  }
+
+  /** @return the number of statements that are waiting to run */
+  public int getQueued() {
+    return queued;
+  }
+
+  /** @return the number of statements that are running */
+  public int getRunning() {
+    return running;
+  }
+
+  /** @return the number of statements that were admitted to run */
+  public long getAdmitted() {
+    return admitted;
+  }
+
+  /** @return the number of statements that timed out while queued or running */
+  public long getTimedOut() {
+    return timedOut;
+  }
+
+  /** @return the average time that admitted statements were queued */
+  public double getAverageQueueMillis() {
+    return averageQueueMillis;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s [queued=%d, running=%d, admitted=%d, timedOut=%d, queue=%.2fms]",
+        priority, queued, running, admitted, timedOut, averageQueueMillis);
+  }
+}
@@ -0,0 +1,14 @@
+package knut.dialect;
+
+/**
+ * The priority of a statement, by which the {@link PriorityAdmission} of the
+ * {@link InstrumentedConnectionProvider} orders the statements that wait to run, so that low
+ * priority statements give way to higher priority statements. Statements without a priority have
+ * high priority. The priority is only used by the client: the Cloud Spanner JDBC driver of this
+ * project does not send request priorities to Cloud Spanner.
+ *
+ * @see CloudSpannerQueryHints
+ */
+public enum RequestPriority {
+  LOW, MEDIUM, HIGH
+}
@@ -0,0 +1,42 @@
+package knut.dialect;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotates a <code>long</code> or <code>int</code> identifier field that holds the shard of a
+ * row, so that the rows of a table whose key starts with a timestamp are inserted into a number
+ * of key ranges instead of all at the end of one range. The shard is the hash of another field of
+ * the same class modulo the number of shards, see {@link ShardPrefixes#shardOf}. It is set by
+ * Hibernate when the entity is saved, persisted or merged, and the table exporter makes it the
+ * first primary key column.
+ *
+ * <pre>
+ * &#64;Embeddable
+ * public class EventId implements Serializable {
+ *   &#64;ShardPrefix(source = "deviceId", shards = 16)
+ *   private long shard;
+ *   private String deviceId;
+ *   private Date eventTime;
+ *   ...
+ * }
+ * </pre>
+ *
+ * generates the primary key <code>PRIMARY KEY (shard, deviceId, eventTime)</code>. A query with
+ * a range of the other key columns does not restrict the shard, so it would scan the whole table;
+ * {@link CloudSpannerStatementInspector} adds a condition on all shards to such queries, which
+ * Cloud Spanner executes as one range scan per shard.
+ */
+@Documented
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ShardPrefix {
+  /** @return the name of the field of the same class whose hash selects the shard */
+  String source();
+
+  /** @return the number of shards */
+  int shards() default 16;
+}
@@ -0,0 +1,64 @@
+package knut.dialect;
+
+import java.util.Map;
+import org.hibernate.HibernateException;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.MergeEvent;
+import org.hibernate.event.spi.MergeEventListener;
+import org.hibernate.event.spi.PersistEvent;
+import org.hibernate.event.spi.PersistEventListener;
+import org.hibernate.event.spi.SaveOrUpdateEvent;
+import org.hibernate.event.spi.SaveOrUpdateEventListener;
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * Sets the {@link ShardPrefix} fields of entities before they are persisted, saved or merged, so
+ * that the shard is part of the identifier that Hibernate reads from the entity.
+ */
+final class ShardPrefixEventListener
+    implements PersistEventListener, SaveOrUpdateEventListener, MergeEventListener {
+  private static final long serialVersionUID = 1L;
+  private final Map<Class<?>, ShardPrefixes.ShardedKey> keys;
+
+  /** @param keys the sharded keys by the classes of their entities */
+  ShardPrefixEventListener(Map<Class<?>, ShardPrefixes.ShardedKey> keys) {
+    this.keys = keys;
+  }
+
+  private void setShard(EventSource session, String entityName, Object entity) {
+    if (entity == null || entity instanceof HibernateProxy) {
+      return;
+    }
+    ShardPrefixes.ShardedKey key = keys.get(entity.getClass());
+    if (key != null) {
+      key.setShard(session, entityName, entity);
+    }
+  }
+
+  @Override
+  public void onPersist(PersistEvent event) throws HibernateException {
+    setShard(event.getSession(), event.getEntityName(), event.getObject());
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void onPersist(PersistEvent event, Map createdAlready) throws HibernateException {
+    onPersist(event);
+  }
+
+  @Override
+  public void onSaveOrUpdate(SaveOrUpdateEvent event) throws HibernateException {
+    setShard(event.getSession(), event.getEntityName(), event.getObject());
+  }
+
+  @Override
+  public void onMerge(MergeEvent event) throws HibernateException {
+    setShard(event.getSession(), event.getEntityName(), event.getOriginal());
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void onMerge(MergeEvent event, Map copiedAlready) throws HibernateException {
+    onMerge(event);
+  }
+}
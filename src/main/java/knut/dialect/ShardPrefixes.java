@@ -0,0 +1,251 @@
+package knut.dialect;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.boot.Metadata;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Component;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.PrimaryKey;
+import org.hibernate.mapping.Property;
+import org.hibernate.mapping.Table;
+
+/**
+ * Computes the shards of the {@link ShardPrefix} identifier fields of entities.
+ */
+public final class ShardPrefixes {
+  /** The shard prefix of the key of an entity. */
+  static final class ShardedKey implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final Class<?> declaringClass;
+    private final String field;
+    private final String source;
+    private final int shards;
+    /** Whether the field is declared by the embedded identifier instead of the entity. */
+    private final boolean embedded;
+    private final String table;
+    private final String column;
+    /** The other identifier columns, which are queried without the shard. */
+    private final List<String> keyColumns;
+    private transient volatile Field[] fields;
+
+    private ShardedKey(Field field, ShardPrefix annotation, boolean embedded, String table,
+        String column, List<String> keyColumns) {
+      this.declaringClass = field.getDeclaringClass();
+      this.field = field.getName();
+      this.source = annotation.source();
+      this.shards = annotation.shards();
+      this.embedded = embedded;
+      this.table = table;
+      this.column = column;
+      this.keyColumns = keyColumns;
+    }
+
+    int getShards() {
+      return shards;
+    }
+
+    String getTable() {
+      return table;
+    }
+
+    String getColumn() {
+      return column;
+    }
+
+    List<String> getKeyColumns() {
+      return keyColumns;
+    }
+
+    /**
+     * Sets the shard field of a new entity, or of its embedded identifier, from its source field.
+     * The shard is left alone if the source field is <code>null</code>.
+     */
+    void setShard(SessionImplementor session, String entityName, Object entity) {
+      Object target = embedded
+          ? session.getEntityPersister(entityName, entity).getIdentifier(entity, session) : entity;
+      if (target == null) {
+        return;
+      }
+      try {
+        if (fields == null) {
+          Field shard = declaringClass.getDeclaredField(field);
+          Field value = getField(declaringClass, source);
+          shard.setAccessible(true);
+          value.setAccessible(true);
+          fields = new Field[] {shard, value};
+        }
+        Object value = fields[1].get(target);
+        if (value != null) {
+          int shard = shardOf(value, shards);
+          if (fields[0].getType() == int.class || fields[0].getType() == Integer.class) {
+            fields[0].set(target, shard);
+          } else {
+            fields[0].set(target, (long) shard);
+          }
+        }
+      } catch (ReflectiveOperationException e) {
+        throw new HibernateException("Could not set shard prefix " + field, e);
+      }
+    }
+  }
+
+  private ShardPrefixes() {}
+
+  /**
+   * Returns the shard of a value, which is the hash of the value modulo the number of shards.
+   * The hash is the same in every JVM for strings, numbers, UUIDs, dates, enums, byte arrays and
+   * other values whose {@link Object#hashCode()} is defined by their value, so that the shard of
+   * a key can also be computed to read an entity by its identifier.
+   *
+   * @return the shard of the value, from 0 to shards - 1
+   */
+  public static int shardOf(Object value, int shards) {
+    int hash;
+    if (value instanceof byte[]) {
+      hash = Arrays.hashCode((byte[]) value);
+    } else if (value instanceof Enum) {
+      // the hash code of an enum is its identity
+      hash = ((Enum<?>) value).name().hashCode();
+    } else {
+      hash = value.hashCode();
+    }
+    // mix the bits, so that values that only differ in their high bits are in different shards
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return Math.floorMod(hash, shards);
+  }
+
+  /** @return the sharded keys of all entities by the classes of the entities */
+  static Map<Class<?>, ShardedKey> getShardedKeys(Metadata metadata, Dialect dialect) {
+    Map<Class<?>, ShardedKey> res = new HashMap<>();
+    for (PersistentClass entity : metadata.getEntityBindings()) {
+      ShardedKey key = getShardedKey(entity, dialect);
+      if (key != null) {
+        res.put(entity.getMappedClass(), key);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Replaces the primary key of a table whose entity has a sharded key with one that starts with
+   * the shard column.
+   */
+  static void setShardFirst(Metadata metadata, Table table, Dialect dialect) {
+    for (PersistentClass entity : metadata.getEntityBindings()) {
+      if (!entity.getRootTable().equals(table) || !table.hasPrimaryKey()) {
+        continue;
+      }
+      ShardedKey key = getShardedKey(entity, dialect);
+      if (key == null) {
+        continue;
+      }
+      PrimaryKey primaryKey = new PrimaryKey(table);
+      primaryKey.setName(table.getPrimaryKey().getName());
+      List<Column> others = new ArrayList<>();
+      for (Column column : table.getPrimaryKey().getColumns()) {
+        if (column.getName().equalsIgnoreCase(key.getColumn())) {
+          primaryKey.addColumn(column);
+        } else {
+          others.add(column);
+        }
+      }
+      others.forEach(primaryKey::addColumn);
+      table.setPrimaryKey(primaryKey);
+      return;
+    }
+  }
+
+  /** @return the sharded key of an entity, or <code>null</code> if it has no shard prefix */
+  private static ShardedKey getShardedKey(PersistentClass entity, Dialect dialect) {
+    if (entity.getMappedClass() == null) {
+      return null;
+    }
+    Component identifier = entity.getIdentifier() instanceof Component
+        ? (Component) entity.getIdentifier() : null;
+    // an @EmbeddedId declares the fields of the key, an @IdClass entity declares them itself
+    List<Class<?>> types = new ArrayList<>();
+    for (Class<?> type = entity.getMappedClass(); type != null; type = type.getSuperclass()) {
+      types.add(type);
+    }
+    Class<?> embeddedClass = identifier != null && entity.hasIdentifierProperty()
+        ? identifier.getComponentClass() : null;
+    if (embeddedClass != null) {
+      types.add(embeddedClass);
+    }
+    for (Class<?> type : types) {
+      for (Field field : type.getDeclaredFields()) {
+        ShardPrefix annotation = field.getAnnotation(ShardPrefix.class);
+        if (annotation == null) {
+          continue;
+        }
+        String description = "Shard prefix " + type.getName() + "." + field.getName();
+        Class<?> fieldType = field.getType();
+        if (fieldType != long.class && fieldType != Long.class && fieldType != int.class
+            && fieldType != Integer.class) {
+          throw new MappingException(description + " must be a long or int field");
+        }
+        if (annotation.shards() < 1) {
+          throw new MappingException(description + " must have at least one shard");
+        }
+        try {
+          getField(type, annotation.source());
+        } catch (NoSuchFieldException e) {
+          throw new MappingException(
+              description + " has an unknown source field " + annotation.source(), e);
+        }
+        String column = null;
+        List<String> keyColumns = new ArrayList<>();
+        for (Iterator<?> it = identifier == null ? Collections.emptyIterator()
+            : identifier.getPropertyIterator(); it.hasNext();) {
+          Property property = (Property) it.next();
+          for (Iterator<?> columns = property.getColumnIterator(); columns.hasNext();) {
+            Object selectable = columns.next();
+            if (!(selectable instanceof Column)) {
+              continue;
+            }
+            String name = ((Column) selectable).getQuotedName(dialect);
+            if (property.getName().equals(field.getName())) {
+              column = name;
+            } else {
+              keyColumns.add(name);
+            }
+          }
+        }
+        if (column == null || keyColumns.isEmpty()) {
+          throw new MappingException(
+              description + " must be a field of a composite identifier with other key fields");
+        }
+        return new ShardedKey(field, annotation, type == embeddedClass,
+            entity.getRootTable().getQuotedName(dialect), column, keyColumns);
+      }
+    }
+    return null;
+  }
+
+  private static Field getField(Class<?> type, String name) throws NoSuchFieldException {
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      try {
+        return c.getDeclaredField(name);
+      } catch (NoSuchFieldException e) {
+        // search the superclass
+      }
+    }
+    throw new NoSuchFieldException(name);
+  }
+}
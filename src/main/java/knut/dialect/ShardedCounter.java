@@ -0,0 +1,58 @@
+package knut.dialect;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import javax.persistence.Transient;
+
+/**
+ * Annotates a transient <code>long</code> or <code>int</code> field of an entity that is stored as
+ * a counter with a number of shard rows per entity. The shards are stored in a table that is
+ * interleaved in the table of the entity with ON DELETE CASCADE, so they are stored on the same
+ * split as the entity and are deleted with it. An increment with
+ * {@link ShardedCounters#increment} updates one random shard, so concurrent increments of the same
+ * counter only wait for each other if they pick the same shard, and
+ * {@link ShardedCounters#get} reads the sum of the shards.
+ *
+ * <pre>
+ * &#64;Entity
+ * &#64;Table(name = "Posts")
+ * public class Post {
+ *   &#64;Id
+ *   private Long postId;
+ *
+ *   &#64;Transient
+ *   &#64;ShardedCounter(shards = 16)
+ *   private long likes;
+ *   ...
+ * }
+ * </pre>
+ *
+ * generates the following table, in which a row for each shard is inserted with the entity:
+ *
+ * <pre>
+ * CREATE TABLE Posts_likes (postId INT64 NOT NULL, shard INT64 NOT NULL, count INT64 NOT NULL)
+ *              PRIMARY KEY (postId, shard),
+ *              INTERLEAVE IN PARENT Posts ON DELETE CASCADE
+ * </pre>
+ *
+ * The value of the field is the initial value of the counter when the entity is inserted. It is
+ * not updated by increments.
+ *
+ * @see Transient
+ */
+@Documented
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ShardedCounter {
+  /** @return the number of shard rows of each entity */
+  int shards() default 16;
+
+  /**
+   * @return the name of the table of the shards, defaults to the name of the table of the entity
+   *         and the name of the field, separated by an underscore
+   */
+  String table() default "";
+}
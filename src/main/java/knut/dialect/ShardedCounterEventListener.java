@@ -0,0 +1,50 @@
+package knut.dialect;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Inserts the shard rows of the {@link ShardedCounter sharded counters} of an inserted entity in
+ * the same transaction, and holds the counters of the session factory for
+ * {@link ShardedCounters}.
+ */
+final class ShardedCounterEventListener implements PostInsertEventListener {
+  private static final long serialVersionUID = 1L;
+  private final Map<String, List<ShardedCounters.Counter>> counters;
+
+  /** @param counters the sharded counters by entity name */
+  ShardedCounterEventListener(Map<String, List<ShardedCounters.Counter>> counters) {
+    this.counters = counters;
+  }
+
+  /** @return the counter with the given name of an entity, or <code>null</code> */
+  ShardedCounters.Counter getCounter(String entityName, String name) {
+    for (ShardedCounters.Counter counter : counters.getOrDefault(entityName,
+        Collections.emptyList())) {
+      if (counter.getName().equals(name)) {
+        return counter;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void onPostInsert(PostInsertEvent event) {
+    List<ShardedCounters.Counter> list = counters.get(event.getPersister().getEntityName());
+    if (list != null) {
+      for (ShardedCounters.Counter counter : list) {
+        counter.insertShards(event.getSession(), event.getPersister(), event.getId(),
+            counter.getInitialValue(event.getEntity()));
+      }
+    }
+  }
+
+  @Override
+  public boolean requiresPostCommitHanding(EntityPersister persister) {
+    return false;
+  }
+}
@@ -0,0 +1,300 @@
+package knut.dialect;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.persistence.Transient;
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.Session;
+import org.hibernate.boot.Metadata;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Table;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * Increments and reads the {@link ShardedCounter sharded counters} of entities. An increment is a
+ * single UPDATE statement of one random shard, which does not read the counter first and only
+ * locks the row of that shard. The total of a counter is the sum of its shards, which are stored
+ * in one key range with the row of the entity.
+ *
+ * <pre>
+ * ShardedCounters.increment(session, post, "likes", 1L);
+ * long likes = ShardedCounters.get(session, post, "likes");
+ * </pre>
+ */
+public final class ShardedCounters {
+  static final String SHARD_COLUMN = "shard";
+  static final String COUNT_COLUMN = "count";
+
+  /** The sharded counter of a field of an entity. */
+  static final class Counter implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final Class<?> declaringClass;
+    private final String name;
+    private final String table;
+    private final int shards;
+    private transient volatile Field field;
+    /** The update, insert and sum statements, built on first use. */
+    private transient volatile String[] statements;
+
+    private Counter(Field field, String table, int shards) {
+      this.declaringClass = field.getDeclaringClass();
+      this.name = field.getName();
+      this.table = table;
+      this.shards = shards;
+      this.field = field;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    String getTable() {
+      return table;
+    }
+
+    int getShards() {
+      return shards;
+    }
+
+    /** @return the value of the field of the given entity */
+    long getInitialValue(Object entity) {
+      try {
+        if (field == null) {
+          field = declaringClass.getDeclaredField(name);
+        }
+        field.setAccessible(true);
+        return ((Number) field.get(entity)).longValue();
+      } catch (ReflectiveOperationException e) {
+        throw new HibernateException("Could not read sharded counter " + name, e);
+      }
+    }
+
+    private String[] getStatements(EntityPersister persister, Dialect dialect) {
+      if (statements == null) {
+        if (!(persister instanceof AbstractEntityPersister)) {
+          throw new HibernateException(
+              "Sharded counters are not supported for entity " + persister.getEntityName());
+        }
+        StringBuilder key = new StringBuilder();
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (String column :
+            ((AbstractEntityPersister) persister).getIdentifierColumnNames()) {
+          key.append(column).append(" = ? and ");
+          columns.append(column).append(", ");
+          values.append("?, ");
+        }
+        String quoted = dialect.quote(table);
+        statements = new String[] {
+            "update " + quoted + " set " + COUNT_COLUMN + " = " + COUNT_COLUMN + " + ? where "
+                + key + SHARD_COLUMN + " = ?",
+            "insert into " + quoted + " (" + columns + SHARD_COLUMN + ", " + COUNT_COLUMN
+                + ") values (" + values + "?, ?)",
+            "select sum(" + COUNT_COLUMN + ") from " + quoted + " where "
+                + key.substring(0, key.length() - " and ".length())};
+      }
+      return statements;
+    }
+
+    /** Inserts the shards of a new entity, the first with the given initial value. */
+    void insertShards(SessionImplementor session, EntityPersister persister, Serializable id,
+        long initialValue) {
+      String sql = getStatements(persister, session.getJdbcServices().getDialect())[1];
+      session.doWork(connection -> {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+          for (int shard = 0; shard < shards; shard++) {
+            bindShard(statement, session, persister, id, shard, shard == 0 ? initialValue : 0L);
+            statement.addBatch();
+          }
+          statement.executeBatch();
+        }
+      });
+    }
+
+    void increment(SessionImplementor session, EntityPersister persister, Serializable id,
+        long delta) {
+      String[] sql = getStatements(persister, session.getJdbcServices().getDialect());
+      long shard = ThreadLocalRandom.current().nextInt(shards);
+      session.doWork(connection -> {
+        int updated;
+        try (PreparedStatement statement = connection.prepareStatement(sql[0])) {
+          statement.setLong(1, delta);
+          persister.getIdentifierType().nullSafeSet(statement, id, 2, session);
+          statement.setLong(2 + persister.getIdentifierType().getColumnSpan(
+              session.getFactory()), shard);
+          updated = statement.executeUpdate();
+        }
+        if (updated == 0) {
+          // the entity was inserted before the counter was added, or with fewer shards
+          try (PreparedStatement statement = connection.prepareStatement(sql[1])) {
+            bindShard(statement, session, persister, id, shard, delta);
+            statement.executeUpdate();
+          }
+        }
+      });
+    }
+
+    long sum(SessionImplementor session, EntityPersister persister, Serializable id) {
+      String sql = getStatements(persister, session.getJdbcServices().getDialect())[2];
+      return session.doReturningWork(connection -> {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+          persister.getIdentifierType().nullSafeSet(statement, id, 1, session);
+          try (ResultSet resultSet = statement.executeQuery()) {
+            // the sum of no rows is NULL
+            return resultSet.next() ? resultSet.getLong(1) : 0L;
+          }
+        }
+      });
+    }
+
+    private static void bindShard(PreparedStatement statement, SessionImplementor session,
+        EntityPersister persister, Serializable id, long shard, long count) throws SQLException {
+      persister.getIdentifierType().nullSafeSet(statement, id, 1, session);
+      int index = 1 + persister.getIdentifierType().getColumnSpan(session.getFactory());
+      statement.setLong(index, shard);
+      statement.setLong(index + 1, count);
+    }
+  }
+
+  private ShardedCounters() {}
+
+  /**
+   * Adds a value to a random shard of a counter of an entity. The entity must have been inserted,
+   * so the session must be flushed after a new entity has been saved.
+   *
+   * @param counter the name of the {@link ShardedCounter} field
+   */
+  public static void increment(Session session, Object entity, String counter, long delta) {
+    SessionImplementor implementor = session.unwrap(SessionImplementor.class);
+    EntityPersister persister = getPersister(implementor, entity);
+    getCounter(implementor, persister, counter).increment(implementor, persister,
+        getIdentifier(implementor, persister, entity), delta);
+  }
+
+  /**
+   * @param counter the name of the {@link ShardedCounter} field
+   * @return the sum of the shards of a counter of an entity
+   */
+  public static long get(Session session, Object entity, String counter) {
+    SessionImplementor implementor = session.unwrap(SessionImplementor.class);
+    EntityPersister persister = getPersister(implementor, entity);
+    return getCounter(implementor, persister, counter).sum(implementor, persister,
+        getIdentifier(implementor, persister, entity));
+  }
+
+  private static EntityPersister getPersister(SessionImplementor session, Object entity) {
+    String entityName = entity instanceof HibernateProxy
+        ? ((HibernateProxy) entity).getHibernateLazyInitializer().getEntityName()
+        : session.bestGuessEntityName(entity);
+    return session.getEntityPersister(entityName, entity);
+  }
+
+  private static Serializable getIdentifier(SessionImplementor session,
+      EntityPersister persister, Object entity) {
+    if (entity instanceof HibernateProxy) {
+      return ((HibernateProxy) entity).getHibernateLazyInitializer().getIdentifier();
+    }
+    EntityEntry entry = session.getPersistenceContext().getEntry(entity);
+    if (entry != null && !entry.isExistsInDatabase()) {
+      throw new HibernateException("Entity " + persister.getEntityName()
+          + " has not been inserted yet, flush the session before using its sharded counters");
+    }
+    return entry == null ? persister.getIdentifier(entity, session) : entry.getId();
+  }
+
+  private static Counter getCounter(SessionImplementor session, EntityPersister persister,
+      String name) {
+    for (PostInsertEventListener listener : session.getFactory().getServiceRegistry()
+        .getService(EventListenerRegistry.class).getEventListenerGroup(EventType.POST_INSERT)
+        .listeners()) {
+      if (listener instanceof ShardedCounterEventListener) {
+        Counter counter = ((ShardedCounterEventListener) listener)
+            .getCounter(persister.getEntityName(), name);
+        if (counter != null) {
+          return counter;
+        }
+      }
+    }
+    throw new HibernateException(
+        "Entity " + persister.getEntityName() + " has no sharded counter " + name);
+  }
+
+  /** @return the sharded counters of all entities by entity name */
+  static Map<String, List<Counter>> getCounters(Metadata metadata) {
+    Map<String, List<Counter>> res = new HashMap<>();
+    for (PersistentClass entity : metadata.getEntityBindings()) {
+      List<Counter> counters = getCounters(entity);
+      if (!counters.isEmpty()) {
+        res.put(entity.getEntityName(), counters);
+      }
+    }
+    return res;
+  }
+
+  /** @return the names of the shard tables that are interleaved in the given table */
+  static Set<String> getTables(Metadata metadata, Table table) {
+    Set<String> res = new LinkedHashSet<>();
+    for (PersistentClass entity : metadata.getEntityBindings()) {
+      if (entity.getRootTable().equals(table)) {
+        for (Counter counter : getCounters(entity)) {
+          res.add(counter.getTable());
+        }
+      }
+    }
+    return res;
+  }
+
+  /** @return the sharded counters of the fields of an entity and its superclasses */
+  private static List<Counter> getCounters(PersistentClass entity) {
+    if (entity.getMappedClass() == null) {
+      return Collections.emptyList();
+    }
+    List<Counter> res = new ArrayList<>();
+    for (Class<?> type = entity.getMappedClass(); type != null; type = type.getSuperclass()) {
+      for (Field field : type.getDeclaredFields()) {
+        ShardedCounter annotation = field.getAnnotation(ShardedCounter.class);
+        if (annotation == null) {
+          continue;
+        }
+        String description = "Sharded counter " + type.getName() + "." + field.getName();
+        Class<?> fieldType = field.getType();
+        if (fieldType != long.class && fieldType != Long.class && fieldType != int.class
+            && fieldType != Integer.class) {
+          throw new MappingException(description + " must be a long or int field");
+        }
+        if (!Modifier.isTransient(field.getModifiers())
+            && !field.isAnnotationPresent(Transient.class)) {
+          throw new MappingException(description + " must be transient");
+        }
+        if (annotation.shards() < 1) {
+          throw new MappingException(description + " must have at least one shard");
+        }
+        String table = annotation.table().isEmpty()
+            ? entity.getRootTable().getName() + "_" + field.getName() : annotation.table();
+        res.add(new Counter(field, table, annotation.shards()));
+      }
+    }
+    return res;
+  }
+}
@@ -0,0 +1,323 @@
+package knut.dialect;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.google.cloud.spanner.ReadContext.QueryAnalyzeMode;
+import com.google.cloud.spanner.Value;
+import com.google.spanner.v1.PlanNode;
+import com.google.spanner.v1.QueryPlan;
+import com.google.spanner.v1.ResultSetStats;
+import org.jboss.logging.Logger;
+
+/**
+ * Logs statements that take longer than a threshold, together with their Cloud Spanner query
+ * plan and the HQL or entity that generated them. Slow statements are handed off to a single
+ * background thread that analyzes them with a {@link PlanSource}, so capturing a plan never adds
+ * latency to the statement itself. The number of captures is limited by a token bucket, and slow
+ * statements are dropped when the capture queue is full.
+ *
+ * The origin of a statement is only known when Hibernate adds it as a comment to the SQL, which
+ * requires <code>hibernate.use_sql_comments=true</code>. Only queries are analyzed, other slow
+ * statements are logged without a plan.
+ *
+ * Besides the threshold check, the log adds one cost to the thread of each statement: the
+ * parameter values of prepared statements are stored in an array on each <code>set</code> call,
+ * because they cannot be read back from JDBC once a statement turns out to be slow. The values
+ * are only copied for the statements that are captured.
+ */
+public class SlowQueryLog implements AutoCloseable {
+  private static final Logger LOG = Logger.getLogger(SlowQueryLog.class);
+  private static final long MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1L);
+  private static final int MAX_PLAN_DEPTH = 64;
+
+  /** Matches the comments of Hibernate operations, such as <code>load com.example.Singer</code>. */
+  private static final Pattern OPERATION_ENTITY =
+      Pattern.compile("^[a-z][a-z -]*\\s((?:[\\w$]+\\.)+[\\w$]+)$");
+  private static final Pattern HQL_ENTITY = Pattern.compile(
+      "^(?:select\\s.*?\\s)?from\\s+([\\w$.]+)|^(?:update|delete)\\s+(?:from\\s+)?([\\w$.]+)",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  private static final Pattern QUERY = Pattern.compile("^(?:select|with|@\\{|\\()",
+      Pattern.CASE_INSENSITIVE);
+
+  /** The JDBC parameter values of a statement. */
+  static final class Parameters {
+    private Object[] values = new Object[8];
+    private int[] nullTypes = new int[8];
+    private int count;
+
+    void set(int index, Object value) {
+      ensureCapacity(index);
+      values[index - 1] = value;
+      nullTypes[index - 1] = Types.NULL;
+    }
+
+    void setNull(int index, int sqlType) {
+      ensureCapacity(index);
+      values[index - 1] = null;
+      nullTypes[index - 1] = sqlType;
+    }
+
+    void clear() {
+      Arrays.fill(values, 0, count, null);
+      Arrays.fill(nullTypes, 0, count, Types.NULL);
+      count = 0;
+    }
+
+    Parameters copy() {
+      Parameters res = new Parameters();
+      res.values = Arrays.copyOf(values, count);
+      res.nullTypes = Arrays.copyOf(nullTypes, count);
+      res.count = count;
+      return res;
+    }
+
+    List<Value> toValues(int parameterCount) {
+      List<Value> res = new ArrayList<>(parameterCount);
+      for (int i = 0; i < parameterCount; i++) {
+        res.add(i < count
+            ? SpannerStatements.toValue(values[i], SpannerStatements.getJdbcClass(nullTypes[i]))
+            : Value.string(null));
+      }
+      return res;
+    }
+
+    private void ensureCapacity(int index) {
+      if (index > values.length) {
+        int length = Math.max(index, values.length * 2);
+        values = Arrays.copyOf(values, length);
+        nullTypes = Arrays.copyOf(nullTypes, length);
+      }
+      count = Math.max(count, index);
+    }
+  }
+
+  private final PlanSource planSource;
+  private final QueryAnalyzeMode mode;
+  private final long thresholdNanos;
+  private final int maxCapturesPerMinute;
+  private final List<SpannerMetricsListener> listeners;
+  private final ThreadPoolExecutor executor;
+  private final LongAdder captured = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private double tokens;
+  private long lastRefill = System.nanoTime();
+
+  /**
+   * @param planSource the source of the query plans
+   * @param mode the mode in which slow queries are analyzed. PROFILE executes the query again.
+   * @param thresholdMillis the execution time above which a statement is considered slow
+   * @param maxCapturesPerMinute the maximum number of slow statements that are captured per
+   *        minute
+   * @param listeners the listeners that are notified of each captured plan
+   */
+  public SlowQueryLog(PlanSource planSource, QueryAnalyzeMode mode, long thresholdMillis,
+      int maxCapturesPerMinute, List<SpannerMetricsListener> listeners) {
+    this.planSource = planSource;
+    this.mode = mode;
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.maxCapturesPerMinute = maxCapturesPerMinute;
+    this.tokens = maxCapturesPerMinute;
+    this.listeners = listeners;
+    this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(Math.max(1, maxCapturesPerMinute)), runnable -> {
+          Thread thread = new Thread(runnable, "knut-slow-query-log");
+          thread.setDaemon(true);
+          return thread;
+        }, (runnable, executor) -> dropped.increment());
+  }
+
+  /** @return the number of slow statements that have been captured */
+  public long getCapturedCount() {
+    return captured.sum();
+  }
+
+  /**
+   * @return the number of slow statements that were not captured because of the rate limit or
+   *         because the capture queue was full
+   */
+  public long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  boolean isSlow(long latencyNanos) {
+    return latencyNanos > thresholdNanos;
+  }
+
+  /**
+   * Captures the plan of the given slow statement in the background, unless the rate limit has
+   * been reached.
+   */
+  void submit(String sql, Parameters parameters, long latencyNanos) {
+    if (!tryAcquire()) {
+      dropped.increment();
+      return;
+    }
+    Parameters values = parameters == null ? new Parameters() : parameters.copy();
+    executor.execute(() -> capture(sql, values, latencyNanos));
+  }
+
+  private synchronized boolean tryAcquire() {
+    long now = System.nanoTime();
+    tokens = Math.min(maxCapturesPerMinute,
+        tokens + (double) (now - lastRefill) * maxCapturesPerMinute / MINUTE_NANOS);
+    lastRefill = now;
+    if (tokens >= 1d) {
+      tokens -= 1d;
+      return true;
+    }
+    return false;
+  }
+
+  private void capture(String sql, Parameters parameters, long latencyNanos) {
+    ResultSetStats stats = null;
+    String planTree = "";
+    if (isQuery(sql)) {
+      try {
+        List<Value> values =
+            parameters.toValues(SpannerStatements.findParameterPositions(sql).size());
+        stats = planSource.analyze(SpannerStatements.toStatement(sql, values), mode);
+        planTree = formatPlan(stats.getQueryPlan());
+      } catch (RuntimeException e) {
+        LOG.debugf(e, "Could not analyze slow query %s", sql);
+      }
+    }
+    String origin = getOrigin(sql);
+    SlowQueryPlan plan = new SlowQueryPlan(sql, origin, getEntityName(origin), latencyNanos, mode,
+        stats, planTree);
+    captured.increment();
+    LOG.warn(plan);
+    for (SpannerMetricsListener listener : listeners) {
+      try {
+        listener.slowQueryCaptured(plan);
+      } catch (RuntimeException e) {
+        LOG.warnf(e, "Metrics listener %s failed", listener);
+      }
+    }
+  }
+
+  /**
+   * Stops the capture thread, waiting for at most the given time for queued captures, and closes
+   * the plan source.
+   */
+  public void close(long timeout, TimeUnit unit) throws InterruptedException {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(timeout, unit)) {
+        executor.shutdownNow();
+      }
+    } finally {
+      planSource.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    planSource.close();
+  }
+
+  /** @return the text of the comment that Hibernate added in front of the SQL, or null */
+  static String getOrigin(String sql) {
+    String trimmed = sql.trim();
+    if (trimmed.startsWith("/*")) {
+      int end = trimmed.indexOf("*/");
+      if (end > 0) {
+        return trimmed.substring(2, end).trim();
+      }
+    }
+    return null;
+  }
+
+  /** @return the entity name or collection role in the given origin, or null */
+  static String getEntityName(String origin) {
+    if (origin == null) {
+      return null;
+    }
+    Matcher matcher = OPERATION_ENTITY.matcher(origin);
+    if (matcher.find()) {
+      return matcher.group(1);
+    }
+    matcher = HQL_ENTITY.matcher(origin);
+    if (matcher.find()) {
+      return matcher.group(1) == null ? matcher.group(2) : matcher.group(1);
+    }
+    return null;
+  }
+
+  static boolean isQuery(String sql) {
+    String trimmed = sql.trim();
+    while (trimmed.startsWith("/*") && trimmed.indexOf("*/") > 0) {
+      trimmed = trimmed.substring(trimmed.indexOf("*/") + 2).trim();
+    }
+    return QUERY.matcher(trimmed).find();
+  }
+
+  /** @return the relational operators of the given plan as an indented tree */
+  static String formatPlan(QueryPlan plan) {
+    StringBuilder res = new StringBuilder();
+    if (plan.getPlanNodesCount() > 0) {
+      appendNode(plan, 0, 1, res);
+    }
+    return res.toString();
+  }
+
+  private static void appendNode(QueryPlan plan, int index, int depth, StringBuilder res) {
+    PlanNode node = plan.getPlanNodes(index);
+    for (int i = 0; i < depth; i++) {
+      res.append("  ");
+    }
+    res.append(node.getDisplayName());
+    appendFields(node.getMetadata(), " (", ")", res);
+    appendFields(node.getExecutionStats(), " [", "]", res);
+    res.append('\n');
+    if (depth >= MAX_PLAN_DEPTH) {
+      return;
+    }
+    for (PlanNode.ChildLink link : node.getChildLinksList()) {
+      int child = link.getChildIndex();
+      if (child > index && child < plan.getPlanNodesCount()
+          && plan.getPlanNodes(child).getKind() == PlanNode.Kind.RELATIONAL) {
+        appendNode(plan, child, depth + 1, res);
+      }
+    }
+  }
+
+  /**
+   * Appends the string fields of the metadata of a node, and the totals of its execution
+   * statistics, which are structs of the form <code>{"total": "10", "unit": "rows"}</code>.
+   */
+  private static void appendFields(com.google.protobuf.Struct struct, String open, String close,
+      StringBuilder res) {
+    boolean first = true;
+    for (Map.Entry<String, com.google.protobuf.Value> field : struct.getFieldsMap().entrySet()) {
+      com.google.protobuf.Value value = field.getValue();
+      String text = null;
+      if (value.getKindCase() == com.google.protobuf.Value.KindCase.STRING_VALUE) {
+        text = value.getStringValue();
+      } else if (value.getKindCase() == com.google.protobuf.Value.KindCase.STRUCT_VALUE
+          && value.getStructValue().containsFields("total")) {
+        Map<String, com.google.protobuf.Value> total = value.getStructValue().getFieldsMap();
+        text = total.get("total").getStringValue();
+        if (total.containsKey("unit")) {
+          text = text + " " + total.get("unit").getStringValue();
+        }
+      }
+      if (text != null) {
+        res.append(first ? open : ", ").append(field.getKey()).append(": ").append(text);
+        first = false;
+      }
+    }
+    if (!first) {
+      res.append(close);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package knut.dialect;
+
+import com.google.cloud.spanner.ReadContext.QueryAnalyzeMode;
+import com.google.spanner.v1.ResultSetStats;
+
+/**
+ * The execution plan and statistics of a slow statement that were captured by
+ * {@link SlowQueryLog}.
+ */
+public class SlowQueryPlan {
+  private final String sql;
+  private final String origin;
+  private final String entityName;
+  private final long latencyNanos;
+  private final QueryAnalyzeMode mode;
+  private final ResultSetStats stats;
+  private final String planTree;
+
+  SlowQueryPlan(String sql, String origin, String entityName, long latencyNanos,
+      QueryAnalyzeMode mode, ResultSetStats stats, String planTree) {
+    this.sql = sql;
+    this.origin = origin;
+    this.entityName = entityName;
+    this.latencyNanos = latencyNanos;
+    this.mode = mode;
+    this.stats = stats;
+    this.planTree = planTree;
+  }
+
+  /** @return the SQL of the slow statement */
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * @return the HQL or the description of the Hibernate operation that generated the statement,
+   *         or <code>null</code> if unknown. Hibernate only adds this information to the SQL when
+   *         <code>hibernate.use_sql_comments</code> is enabled.
+   */
+  public String getOrigin() {
+    return origin;
+  }
+
+  /** @return the name of the entity that was queried, or <code>null</code> if unknown */
+  public String getEntityName() {
+    return entityName;
+  }
+
+  /** @return the execution time of the slow statement in nanoseconds */
+  public long getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  /** @return the mode that was used to analyze the statement */
+  public QueryAnalyzeMode getMode() {
+    return mode;
+  }
+
+  /**
+   * @return the statistics that were returned by Cloud Spanner, or <code>null</code> if the
+   *         statement is not a query or could not be analyzed
+   */
+  public ResultSetStats getStats() {
+    return stats;
+  }
+
+  /** @return the relational operators of the query plan as an indented tree */
+  public String getPlanTree() {
+    return planTree;
+  }
+
+  /** @return the number of rows that were scanned, or <code>null</code> in PLAN mode */
+  public String getRowsScanned() {
+    return getQueryStat("rows_scanned");
+  }
+
+  /** @return the CPU time of the query, for example <code>1.2 msecs</code>, or null */
+  public String getCpuTime() {
+    return getQueryStat("cpu_time");
+  }
+
+  /** @return the elapsed time of the analyzed query, or <code>null</code> in PLAN mode */
+  public String getElapsedTime() {
+    return getQueryStat("elapsed_time");
+  }
+
+  private String getQueryStat(String name) {
+    if (stats == null || !stats.getQueryStats().containsFields(name)) {
+      return null;
+    }
+    return stats.getQueryStats().getFieldsOrThrow(name).getStringValue();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder res = new StringBuilder("Slow statement (")
+        .append(latencyNanos / 1000000L).append(" ms)");
+    if (entityName != null) {
+      res.append(" on ").append(entityName);
+    }
+    if (origin != null) {
+      res.append("\n  origin: ").append(origin);
+    }
+    res.append("\n  sql: ").append(sql);
+    if (stats != null) {
+      if (mode == QueryAnalyzeMode.PROFILE) {
+        res.append("\n  rows scanned: ").append(getRowsScanned())
+            .append(", cpu time: ").append(getCpuTime())
+            .append(", elapsed time: ").append(getElapsedTime());
+      }
+      res.append("\n  plan:\n").append(planTree);
+    }
+    return res.toString();
+  }
+}
@@ -0,0 +1,47 @@
+package knut.dialect;
+
+import com.google.cloud.spanner.DatabaseId;
+import com.google.cloud.spanner.Spanner;
+import com.google.cloud.spanner.SpannerOptions;
+import com.google.cloud.spanner.connection.ConnectionOptions;
+
+/**
+ * Creates Cloud Spanner client objects for the database that a Cloud Spanner JDBC URL points to.
+ * This is used by the features of the dialect that need the client library directly, because the
+ * JDBC API does not expose them.
+ */
+public final class SpannerClients {
+  private static final String JDBC_PREFIX = "jdbc:";
+
+  private SpannerClients() {}
+
+  /** @return the id of the database of the given JDBC URL */
+  public static DatabaseId getDatabaseId(String jdbcUrl) {
+    ConnectionOptions options = getConnectionOptions(jdbcUrl);
+    return DatabaseId.of(options.getProjectId(), options.getInstanceId(),
+        options.getDatabaseName());
+  }
+
+  /**
+   * Creates a new {@link Spanner} instance using the project and credentials of the given JDBC
+   * URL. The caller is responsible for closing the instance.
+   */
+  public static Spanner createSpanner(String jdbcUrl) {
+    ConnectionOptions options = getConnectionOptions(jdbcUrl);
+    SpannerOptions.Builder builder =
+        SpannerOptions.newBuilder().setProjectId(options.getProjectId());
+    if (options.getCredentials() != null) {
+      builder.setCredentials(options.getCredentials());
+    }
+    if (options.getHost() != null) {
+      builder.setHost(options.getHost());
+    }
+    return builder.build().getService();
+  }
+
+  private static ConnectionOptions getConnectionOptions(String jdbcUrl) {
+    String uri =
+        jdbcUrl.startsWith(JDBC_PREFIX) ? jdbcUrl.substring(JDBC_PREFIX.length()) : jdbcUrl;
+    return ConnectionOptions.newBuilder().setUri(uri).build();
+  }
+}
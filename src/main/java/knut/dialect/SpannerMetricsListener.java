@@ -0,0 +1,52 @@
+package knut.dialect;
+
+/**
+ * Service provider interface for receiving the metrics that the Cloud Spanner dialect integration
+ * records. Implementations can be registered with {@link StatementStatistics#addListener} or
+ * through a <code>META-INF/services/knut.dialect.SpannerMetricsListener</code> file, in which case
+ * they are registered with every {@link InstrumentedConnectionProvider}.
+ *
+ * Listeners are invoked synchronously on the thread that executes the statement and should
+ * therefore return quickly and never block. All methods have an empty default implementation so
+ * that new metrics can be added without breaking existing listeners.
+ */
+public interface SpannerMetricsListener {
+  /**
+   * Called when a statement has been executed, and for queries, when the result set has been
+   * closed.
+   *
+   * @param sqlShape the normalized SQL of the statement
+   * @param latencyNanos the execution time of the statement in nanoseconds. For queries this is
+   *        the time until the first result was available.
+   * @param rows the number of rows returned by a query or the update count of a DML statement
+   * @param bytes the approximate number of bytes of the values that were read from a query result
+   * @param failed <code>true</code> if the statement failed
+   */
+  default void statementExecuted(String sqlShape, long latencyNanos, long rows, long bytes,
+      boolean failed) {}
+
+  /**
+   * Called when the JDBC driver retries an aborted transaction. The retry is attributed to the
+   * last statement that was executed on the connection.
+   *
+   * @param sqlShape the normalized SQL of the last statement of the transaction
+   * @param successful <code>true</code> if the retry succeeded
+   */
+  default void transactionRetried(String sqlShape, boolean successful) {}
+
+  /**
+   * Called on the background thread of {@link SlowQueryLog} when the plan of a slow statement has
+   * been captured.
+   */
+  default void slowQueryCaptured(SlowQueryPlan plan) {}
+
+  /**
+   * Called when the key of an inserted row has been sampled by a
+   * {@link KeyDistributionStatistics}.
+   *
+   * @param table the table of the row
+   * @param skewScore the current skew score of the keys of the table, between 0 for keys in
+   *        random order and 1 for monotonic or clustered keys
+   */
+  default void insertKeySampled(String table, double skewScore) {}
+}
@@ -0,0 +1,47 @@
+package knut.dialect;
+
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.ReadContext.QueryAnalyzeMode;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Spanner;
+import com.google.cloud.spanner.Statement;
+import com.google.spanner.v1.ResultSetStats;
+
+/**
+ * {@link PlanSource} that analyzes queries with <code>analyzeQuery</code> in a single-use
+ * read-only transaction. In PROFILE mode the query is executed again and all rows are read, but
+ * not returned.
+ */
+public class SpannerPlanSource implements PlanSource {
+  private final Spanner spanner;
+  private final DatabaseClient client;
+
+  /** Creates a plan source that uses the given client, which is not closed by this plan source. */
+  public SpannerPlanSource(DatabaseClient client) {
+    this.spanner = null;
+    this.client = client;
+  }
+
+  /** Creates a plan source with its own client for the database of the given JDBC URL. */
+  public SpannerPlanSource(String jdbcUrl) {
+    this.spanner = SpannerClients.createSpanner(jdbcUrl);
+    this.client = spanner.getDatabaseClient(SpannerClients.getDatabaseId(jdbcUrl));
+  }
+
+  @Override
+  public ResultSetStats analyze(Statement statement, QueryAnalyzeMode mode) {
+    try (ResultSet rs = client.singleUse().analyzeQuery(statement, mode)) {
+      while (rs.next()) {
+        // the statistics are only available when all rows have been consumed
+      }
+      return rs.getStats();
+    }
+  }
+
+  @Override
+  public void close() {
+    if (spanner != null) {
+      spanner.close();
+    }
+  }
+}
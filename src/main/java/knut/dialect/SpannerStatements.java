@@ -0,0 +1,170 @@
+package knut.dialect;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import com.google.cloud.ByteArray;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Value;
+import org.hibernate.HibernateException;
+
+/**
+ * Converts JDBC SQL strings with positional parameters and JDBC parameter values to Cloud Spanner
+ * {@link Statement}s, for the features of the dialect that execute statements generated by
+ * Hibernate directly on the client library.
+ */
+final class SpannerStatements {
+  private static final String PARAMETER_PREFIX = "p";
+  private static final BigDecimalToStringConverter BIG_DECIMALS =
+      new BigDecimalToStringConverter();
+
+  private SpannerStatements() {}
+
+  /**
+   * @return a statement where the positional parameters of the given SQL string are replaced by
+   *         the named parameters <code>@p1, @p2, ...</code> that are bound to the given values
+   */
+  static Statement toStatement(String sql, List<Value> values) {
+    List<Integer> positions = findParameterPositions(sql);
+    if (positions.size() != values.size()) {
+      throw new HibernateException("Expected " + positions.size() + " parameter values but got "
+          + values.size() + " for: " + sql);
+    }
+    StringBuilder res = new StringBuilder(sql.length() + positions.size() * 3);
+    int start = 0;
+    for (int i = 0; i < positions.size(); i++) {
+      res.append(sql, start, positions.get(i)).append('@').append(PARAMETER_PREFIX).append(i + 1);
+      start = positions.get(i) + 1;
+    }
+    res.append(sql, start, sql.length());
+    Statement.Builder builder = Statement.newBuilder(res.toString());
+    for (int i = 0; i < values.size(); i++) {
+      builder.bind(PARAMETER_PREFIX + (i + 1)).to(values.get(i));
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the positions of all JDBC parameters in the given SQL string, skipping string
+   *         literals, quoted identifiers and comments
+   */
+  static List<Integer> findParameterPositions(String sql) {
+    List<Integer> res = new ArrayList<>();
+    int i = 0;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"' || c == '`') {
+        i++;
+        while (i < sql.length() && sql.charAt(i) != c) {
+          if (sql.charAt(i) == '\\') {
+            i++;
+          }
+          i++;
+        }
+      } else if (c == '-' && sql.startsWith("--", i)) {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? sql.length() : end;
+      } else if (c == '/' && sql.startsWith("/*", i)) {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? sql.length() : end + 1;
+      } else if (c == '?') {
+        res.add(i);
+      }
+      i++;
+    }
+    return res;
+  }
+
+  /**
+   * Converts a JDBC parameter value to a Cloud Spanner value.
+   *
+   * @param value the value, or <code>null</code>
+   * @param jdbcClass the JDBC class of the parameter, which determines the type of a
+   *        <code>null</code> value. May be <code>null</code>, in which case a <code>null</code>
+   *        value is bound as a STRING.
+   */
+  static Value toValue(Object value, Class<?> jdbcClass) {
+    if (value == null) {
+      return toNullValue(jdbcClass);
+    } else if (value instanceof Boolean) {
+      return Value.bool((Boolean) value);
+    } else if (value instanceof BigDecimal) {
+      // BigDecimal attributes are stored in STRING columns, see BigDecimalToStringConverter
+      return Value.string(BIG_DECIMALS.convertToDatabaseColumn((BigDecimal) value));
+    } else if (value instanceof Double || value instanceof Float) {
+      return Value.float64(((Number) value).doubleValue());
+    } else if (value instanceof Number) {
+      return Value.int64(((Number) value).longValue());
+    } else if (value instanceof String || value instanceof Character) {
+      return Value.string(value.toString());
+    } else if (value instanceof byte[]) {
+      return Value.bytes(ByteArray.copyFrom((byte[]) value));
+    } else if (value instanceof java.sql.Date) {
+      LocalDate date = ((java.sql.Date) value).toLocalDate();
+      return Value.date(com.google.cloud.Date.fromYearMonthDay(date.getYear(),
+          date.getMonthValue(), date.getDayOfMonth()));
+    } else if (value instanceof java.sql.Timestamp) {
+      return Value.timestamp(Timestamp.of((java.sql.Timestamp) value));
+    } else if (value instanceof java.util.Date) {
+      return Value.timestamp(
+          Timestamp.of(new java.sql.Timestamp(((java.util.Date) value).getTime())));
+    }
+    throw new HibernateException(
+        "Unsupported parameter type for Cloud Spanner: " + value.getClass().getName());
+  }
+
+  private static Value toNullValue(Class<?> jdbcClass) {
+    if (jdbcClass == Boolean.class) {
+      return Value.bool(null);
+    } else if (jdbcClass == Long.class) {
+      return Value.int64(null);
+    } else if (jdbcClass == Double.class) {
+      return Value.float64(null);
+    } else if (jdbcClass == byte[].class) {
+      return Value.bytes(null);
+    } else if (jdbcClass == java.sql.Date.class) {
+      return Value.date(null);
+    } else if (jdbcClass == java.sql.Timestamp.class) {
+      return Value.timestamp(null);
+    }
+    return Value.string(null);
+  }
+
+  /** @return the Java class that JDBC uses for the given {@link Types} code, or null */
+  static Class<?> getJdbcClass(int sqlType) {
+    switch (sqlType) {
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return Boolean.class;
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return Long.class;
+      case Types.FLOAT:
+      case Types.REAL:
+      case Types.DOUBLE:
+        return Double.class;
+      case Types.CHAR:
+      case Types.NCHAR:
+      case Types.VARCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGVARCHAR:
+        return String.class;
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+        return byte[].class;
+      case Types.DATE:
+        return java.sql.Date.class;
+      case Types.TIME:
+      case Types.TIMESTAMP:
+        return java.sql.Timestamp.class;
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package knut.dialect;
+
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes SQL strings to their shape, so that statements that only differ in literal values,
+ * comments, whitespace or the length of an IN list are recorded as the same statement.
+ */
+final class SqlShapes {
+  private static final Pattern IN_LIST = Pattern.compile("\\(\\?(?:\\s*,\\s*\\?)+\\)");
+
+  private SqlShapes() {}
+
+  static String normalize(String sql) {
+    StringBuilder res = new StringBuilder(sql.length());
+    int i = 0;
+    boolean whitespace = false;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if (c == '-' && sql.startsWith("--", i)) {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? sql.length() : end;
+        whitespace = true;
+        continue;
+      }
+      if (c == '/' && sql.startsWith("/*", i)) {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? sql.length() : end + 2;
+        whitespace = true;
+        continue;
+      }
+      if (Character.isWhitespace(c)) {
+        whitespace = true;
+        i++;
+        continue;
+      }
+      if (whitespace && res.length() > 0) {
+        res.append(' ');
+      }
+      whitespace = false;
+      if (c == '\'' || c == '"') {
+        // string or bytes literal, a doubled quote continues the literal
+        do {
+          i = skipQuoted(sql, i, c);
+        } while (i < sql.length() && sql.charAt(i) == c);
+        appendParameter(res);
+      } else if (c == '`') {
+        int end = skipQuoted(sql, i, c);
+        res.append(sql, i, end);
+        i = end;
+      } else if (Character.isDigit(c) && !isIdentifierPart(res)) {
+        while (i < sql.length()
+            && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+          i++;
+        }
+        appendParameter(res);
+      } else {
+        res.append(c);
+        i++;
+      }
+    }
+    return IN_LIST.matcher(res).replaceAll("(?)");
+  }
+
+  private static void appendParameter(StringBuilder res) {
+    // bytes literals are prefixed with b or B
+    int last = res.length() - 1;
+    if (last >= 0 && (res.charAt(last) == 'b' || res.charAt(last) == 'B')
+        && (last == 0 || !Character.isLetterOrDigit(res.charAt(last - 1)))) {
+      res.setLength(last);
+    }
+    res.append('?');
+  }
+
+  private static boolean isIdentifierPart(StringBuilder res) {
+    if (res.length() == 0) {
+      return false;
+    }
+    char last = res.charAt(res.length() - 1);
+    return Character.isLetterOrDigit(last) || last == '_';
+  }
+
+  /** @return the index after the closing quote of the quoted string that starts at start */
+  static int skipQuoted(String sql, int start, char quote) {
+    int i = start + 1;
+    while (i < sql.length() && sql.charAt(i) != quote) {
+      if (sql.charAt(i) == '\\') {
+        i++;
+      }
+      i++;
+    }
+    return Math.min(i + 1, sql.length());
+  }
+}
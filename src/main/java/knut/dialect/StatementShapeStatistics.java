@@ -0,0 +1,89 @@
+package knut.dialect;
+
+import java.beans.ConstructorProperties;
+
+/** Snapshot of the statistics of one statement shape. All latencies are in microseconds. */
+public class StatementShapeStatistics {
+  private final String sql;
+  private final long count;
+  private final long errorCount;
+  private final long rows;
+  private final long bytes;
+  private final long retries;
+  private final long totalLatencyMicros;
+  private final long p50LatencyMicros;
+  private final long p90LatencyMicros;
+  private final long p99LatencyMicros;
+  private final long maxLatencyMicros;
+
+  @ConstructorProperties({"sql", "count", "errorCount", "rows", "bytes", "retries",
+      "totalLatencyMicros", "p50LatencyMicros", "p90LatencyMicros", "p99LatencyMicros",
+      "maxLatencyMicros"})
+  public StatementShapeStatistics(String sql, long count, long errorCount, long rows, long bytes,
+      long retries, long totalLatencyMicros, long p50LatencyMicros, long p90LatencyMicros,
+      long p99LatencyMicros, long maxLatencyMicros) {
+    this.sql = sql;
+    this.count = count;
+    this.errorCount = errorCount;
+    this.rows = rows;
+    this.bytes = bytes;
+    this.retries = retries;
+    this.totalLatencyMicros = totalLatencyMicros;
+    this.p50LatencyMicros = p50LatencyMicros;
+    this.p90LatencyMicros = p90LatencyMicros;
+    this.p99LatencyMicros = p99LatencyMicros;
+    this.maxLatencyMicros = maxLatencyMicros;
+  }
+
+  /** @return the normalized SQL of the statement */
+  public String getSql() {
+    return sql;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getErrorCount() {
+    return errorCount;
+  }
+
+  public long getRows() {
+    return rows;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public long getRetries() {
+    return retries;
+  }
+
+  public long getTotalLatencyMicros() {
+    return totalLatencyMicros;
+  }
+
+  public long getP50LatencyMicros() {
+    return p50LatencyMicros;
+  }
+
+  public long getP90LatencyMicros() {
+    return p90LatencyMicros;
+  }
+
+  public long getP99LatencyMicros() {
+    return p99LatencyMicros;
+  }
+
+  public long getMaxLatencyMicros() {
+    return maxLatencyMicros;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s [count=%d, errors=%d, rows=%d, bytes=%d, retries=%d, p50=%dus, "
+        + "p90=%dus, p99=%dus, max=%dus]", sql, count, errorCount, rows, bytes, retries,
+        p50LatencyMicros, p90LatencyMicros, p99LatencyMicros, maxLatencyMicros);
+  }
+}
@@ -0,0 +1,202 @@
+package knut.dialect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.jboss.logging.Logger;
+
+/**
+ * Per statement shape execution statistics that are recorded by
+ * {@link InstrumentedConnectionProvider}. Statements are grouped by their normalized SQL, see
+ * {@link SqlShapes}. Recording is lock-free: the shape of a SQL string is cached after the first
+ * execution, and all counters are {@link LongAdder}s or striped histogram buckets.
+ *
+ * The number of distinct shapes is limited. Statements with a new shape are recorded under
+ * {@link #OTHER_STATEMENTS} when the limit has been reached.
+ */
+public class StatementStatistics implements StatementStatisticsMXBean {
+  private static final Logger LOG = Logger.getLogger(StatementStatistics.class);
+
+  /** The default maximum number of distinct statement shapes. */
+  public static final int DEFAULT_MAX_SHAPES = 500;
+  /** The shape under which statements are recorded when the maximum number has been reached. */
+  public static final String OTHER_STATEMENTS = "<other statements>";
+
+  /** The counters of one statement shape. */
+  static final class ShapeRecorder {
+    private final String shape;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+    private ShapeRecorder(String shape) {
+      this.shape = shape;
+    }
+
+    String getShape() {
+      return shape;
+    }
+
+    private StatementShapeStatistics snapshot() {
+      long[] buckets = histogram.snapshot();
+      return new StatementShapeStatistics(shape, count.sum(), errors.sum(), rows.sum(),
+          bytes.sum(), retries.sum(), toMicros(totalNanos.sum()),
+          toMicros(LatencyHistogram.percentile(buckets, 50d)),
+          toMicros(LatencyHistogram.percentile(buckets, 90d)),
+          toMicros(LatencyHistogram.percentile(buckets, 99d)), toMicros(maxNanos.get()));
+    }
+
+    private void reset() {
+      histogram.reset();
+      count.reset();
+      errors.reset();
+      rows.reset();
+      bytes.reset();
+      retries.reset();
+      totalNanos.reset();
+      maxNanos.reset();
+    }
+  }
+
+  private final int maxShapes;
+  /** Cache from raw SQL string to the recorder of its shape. */
+  private final ConcurrentMap<String, ShapeRecorder> recordersBySql = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, ShapeRecorder> recordersByShape = new ConcurrentHashMap<>();
+  private final ShapeRecorder other = new ShapeRecorder(OTHER_STATEMENTS);
+  private final List<SpannerMetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+  public StatementStatistics() {
+    this(DEFAULT_MAX_SHAPES);
+  }
+
+  public StatementStatistics(int maxShapes) {
+    this.maxShapes = maxShapes;
+  }
+
+  public void addListener(SpannerMetricsListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(SpannerMetricsListener listener) {
+    listeners.remove(listener);
+  }
+
+  List<SpannerMetricsListener> getListeners() {
+    return listeners;
+  }
+
+  ShapeRecorder getRecorder(String sql) {
+    ShapeRecorder recorder = recordersBySql.get(sql);
+    if (recorder == null) {
+      String shape = SqlShapes.normalize(sql);
+      recorder = recordersByShape.get(shape);
+      if (recorder == null) {
+        if (recordersByShape.size() >= maxShapes) {
+          return other;
+        }
+        recorder = recordersByShape.computeIfAbsent(shape, ShapeRecorder::new);
+      }
+      // different SQL strings can have the same shape, so the raw SQL cache is bounded as well
+      if (recordersBySql.size() < maxShapes * 4) {
+        recordersBySql.put(sql, recorder);
+      }
+    }
+    return recorder;
+  }
+
+  void record(ShapeRecorder recorder, long latencyNanos, long rows, long bytes, boolean failed) {
+    recorder.count.increment();
+    recorder.totalNanos.add(latencyNanos);
+    recorder.maxNanos.accumulate(latencyNanos);
+    recorder.histogram.record(latencyNanos);
+    if (rows > 0L) {
+      recorder.rows.add(rows);
+    }
+    if (bytes > 0L) {
+      recorder.bytes.add(bytes);
+    }
+    if (failed) {
+      recorder.errors.increment();
+    }
+    for (SpannerMetricsListener listener : listeners) {
+      try {
+        listener.statementExecuted(recorder.shape, latencyNanos, rows, bytes, failed);
+      } catch (RuntimeException e) {
+        LOG.warnf(e, "Metrics listener %s failed", listener);
+      }
+    }
+  }
+
+  void recordRetry(ShapeRecorder recorder, boolean successful) {
+    recorder.retries.increment();
+    for (SpannerMetricsListener listener : listeners) {
+      try {
+        listener.transactionRetried(recorder.shape, successful);
+      } catch (RuntimeException e) {
+        LOG.warnf(e, "Metrics listener %s failed", listener);
+      }
+    }
+  }
+
+  /** @return the statistics of the given SQL statement, or <code>null</code> if unknown */
+  public StatementShapeStatistics getStatistics(String sql) {
+    ShapeRecorder recorder = recordersByShape.get(SqlShapes.normalize(sql));
+    return recorder == null ? null : recorder.snapshot();
+  }
+
+  @Override
+  public long getStatementCount() {
+    long res = other.count.sum();
+    for (ShapeRecorder recorder : recordersByShape.values()) {
+      res += recorder.count.sum();
+    }
+    return res;
+  }
+
+  @Override
+  public int getShapeCount() {
+    return recordersByShape.size();
+  }
+
+  @Override
+  public List<StatementShapeStatistics> getStatements() {
+    List<StatementShapeStatistics> res = new ArrayList<>(recordersByShape.size() + 1);
+    for (ShapeRecorder recorder : recordersByShape.values()) {
+      res.add(recorder.snapshot());
+    }
+    if (other.count.sum() > 0L) {
+      res.add(other.snapshot());
+    }
+    res.sort(Comparator.comparingLong(StatementShapeStatistics::getTotalLatencyMicros).reversed());
+    return res;
+  }
+
+  @Override
+  public void reset() {
+    other.reset();
+    for (ShapeRecorder recorder : recordersByShape.values()) {
+      recorder.reset();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(getStatements().toArray());
+  }
+
+  private static long toMicros(long nanos) {
+    return nanos == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+}
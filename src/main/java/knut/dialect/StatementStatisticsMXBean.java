@@ -0,0 +1,18 @@
+package knut.dialect;
+
+import java.util.List;
+
+/** JMX interface of {@link StatementStatistics}. */
+public interface StatementStatisticsMXBean {
+  /** @return the total number of statements that have been recorded */
+  long getStatementCount();
+
+  /** @return the number of distinct statement shapes that have been recorded */
+  int getShapeCount();
+
+  /** @return the statistics per statement shape, ordered by total execution time */
+  List<StatementShapeStatistics> getStatements();
+
+  /** Clears all recorded statistics. */
+  void reset();
+}
@@ -0,0 +1,279 @@
+package knut.dialect;
+
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TimeZone;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Type.StructField;
+import org.hibernate.EntityMode;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.jdbc.LobCreator;
+import org.hibernate.engine.jdbc.NonContextualLobCreator;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.metamodel.model.convert.spi.JpaAttributeConverter;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.AbstractStandardBasicType;
+import org.hibernate.type.ComponentType;
+import org.hibernate.type.ManyToOneType;
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.converter.AttributeConverterTypeAdapter;
+import org.hibernate.type.descriptor.sql.SqlTypeDescriptor;
+
+/**
+ * {@link StructRowMapper} that maps rows to (detached) entity instances. Columns are matched by
+ * the column aliases that Hibernate generates for an HQL query, or by the column names of the
+ * entity if the row does not contain those aliases (for example for native queries). Only the
+ * identifier, basic and embedded attributes of the entity are populated; associations and
+ * collections are left untouched. {@link #readState} also reads the keys of the many-to-one
+ * associations, for loading the entity into a session.
+ */
+final class StructEntityMapper<T> implements StructRowMapper<T> {
+  private static final class Layout {
+    private final Type rowType;
+    private final int[] identifierColumns;
+    private final int[][] propertyColumns;
+
+    private Layout(Type rowType, int[] identifierColumns, int[][] propertyColumns) {
+      this.rowType = rowType;
+      this.identifierColumns = identifierColumns;
+      this.propertyColumns = propertyColumns;
+    }
+  }
+
+  private static final class StructWrapperOptions implements WrapperOptions {
+    private final TimeZone jdbcTimeZone;
+
+    private StructWrapperOptions(TimeZone jdbcTimeZone) {
+      this.jdbcTimeZone = jdbcTimeZone;
+    }
+
+    @Override
+    public boolean useStreamForLobBinding() {
+      return false;
+    }
+
+    @Override
+    public LobCreator getLobCreator() {
+      return NonContextualLobCreator.INSTANCE;
+    }
+
+    @Override
+    public SqlTypeDescriptor remapSqlTypeDescriptor(SqlTypeDescriptor sqlTypeDescriptor) {
+      return sqlTypeDescriptor;
+    }
+
+    @Override
+    public TimeZone getJdbcTimeZone() {
+      return jdbcTimeZone;
+    }
+  }
+
+  private final Class<T> entityClass;
+  private final AbstractEntityPersister persister;
+  private final org.hibernate.type.Type[] propertyTypes;
+  /** The types of the columns of the properties, which are the key types of associations. */
+  private final org.hibernate.type.Type[] columnTypes;
+  private final WrapperOptions options;
+  /** The layout is resolved for the first row and reused as long as the row type is the same. */
+  private volatile Layout layout;
+
+  StructEntityMapper(SessionFactoryImplementor sessionFactory, Class<T> entityClass) {
+    EntityPersister entityPersister = sessionFactory.getMetamodel().entityPersister(entityClass);
+    if (!(entityPersister instanceof AbstractEntityPersister)) {
+      throw new HibernateException("Unsupported persister for entity " + entityClass.getName());
+    }
+    this.entityClass = entityClass;
+    this.persister = (AbstractEntityPersister) entityPersister;
+    this.propertyTypes = persister.getPropertyTypes();
+    this.columnTypes = new org.hibernate.type.Type[propertyTypes.length];
+    for (int i = 0; i < propertyTypes.length; i++) {
+      columnTypes[i] = getColumnType(propertyTypes[i], sessionFactory);
+    }
+    this.options =
+        new StructWrapperOptions(sessionFactory.getSessionFactoryOptions().getJdbcTimeZone());
+  }
+
+  @Override
+  public T map(Struct row) {
+    Layout current = getLayout(row);
+    Serializable id = (Serializable) readValue(persister.getIdentifierType(), row,
+        current.identifierColumns, 0, false);
+    Object entity = persister.instantiate(id, (SharedSessionContractImplementor) null);
+    for (int i = 0; i < propertyTypes.length; i++) {
+      int[] columns = current.propertyColumns[i];
+      if (columns != null && !propertyTypes[i].isAssociationType()) {
+        persister.setPropertyValue(entity, i,
+            readValue(propertyTypes[i], row, columns, 0, false));
+      }
+    }
+    return entityClass.cast(entity);
+  }
+
+  /**
+   * @return the hydrated state of the properties of the entity of a row, as it is passed to
+   *         {@link org.hibernate.type.Type#resolve}: the values of embedded properties are arrays,
+   *         many-to-one associations are the keys that they reference, and properties without
+   *         columns are <code>null</code>
+   */
+  Object[] readState(Struct row) {
+    Layout current = getLayout(row);
+    Object[] state = new Object[propertyTypes.length];
+    for (int i = 0; i < propertyTypes.length; i++) {
+      int[] columns = current.propertyColumns[i];
+      if (columns != null) {
+        state[i] = readValue(columnTypes[i], row, columns, 0,
+            !propertyTypes[i].isAssociationType());
+      }
+    }
+    return state;
+  }
+
+  private Layout getLayout(Struct row) {
+    Layout current = layout;
+    if (current == null || !current.rowType.equals(row.getType())) {
+      current = resolveLayout(row.getType());
+      layout = current;
+    }
+    return current;
+  }
+
+  /**
+   * @param hydrated whether the value of an embedded property is returned as the array of the
+   *        values of its properties instead of an instance of the embeddable
+   */
+  private Object readValue(org.hibernate.type.Type type, Struct row, int[] columns, int offset,
+      boolean hydrated) {
+    if (type instanceof ComponentType) {
+      ComponentType componentType = (ComponentType) type;
+      org.hibernate.type.Type[] subtypes = componentType.getSubtypes();
+      Object[] values = new Object[subtypes.length];
+      int column = offset;
+      boolean allNull = true;
+      for (int i = 0; i < subtypes.length; i++) {
+        values[i] = readValue(subtypes[i], row, columns, column, hydrated);
+        allNull = allNull && values[i] == null;
+        column += subtypes[i].getColumnSpan(null);
+      }
+      if (allNull) {
+        return null;
+      }
+      if (hydrated) {
+        return values;
+      }
+      Object component = componentType.instantiate(EntityMode.POJO);
+      componentType.setPropertyValues(component, values, EntityMode.POJO);
+      return component;
+    }
+    if (type instanceof StructValueReader) {
+      // decoded from the values of the struct without creating JDBC values first
+      return row.isNull(columns[offset]) ? null
+          : ((StructValueReader<?>) type).fromStruct(row, columns[offset]);
+    }
+    Object value = StructValues.getValue(row, columns[offset]);
+    if (value == null) {
+      return null;
+    }
+    if (type instanceof AttributeConverterTypeAdapter) {
+      @SuppressWarnings("unchecked")
+      AttributeConverterTypeAdapter<Object> adapter = (AttributeConverterTypeAdapter<Object>) type;
+      @SuppressWarnings("unchecked")
+      JpaAttributeConverter<Object, Object> converter =
+          (JpaAttributeConverter<Object, Object>) adapter.getAttributeConverter();
+      return converter.toDomainValue(value);
+    }
+    return ((AbstractStandardBasicType<?>) type).getJavaTypeDescriptor().wrap(value, options);
+  }
+
+  private Layout resolveLayout(Type rowType) {
+    Map<String, Integer> fields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    int index = 0;
+    for (StructField field : rowType.getStructFields()) {
+      fields.put(field.getName(), index++);
+    }
+    String suffix = findAliasSuffix(fields);
+    int[] identifierColumns = suffix == null ? null
+        : findColumns(fields, persister.getIdentifierAliases(suffix));
+    if (identifierColumns == null) {
+      identifierColumns = findColumns(fields, persister.getIdentifierColumnNames());
+    }
+    if (identifierColumns == null || !isSupported(persister.getIdentifierType())) {
+      throw new HibernateException("The query result does not contain the identifier columns of "
+          + persister.getEntityName());
+    }
+    int[][] propertyColumns = new int[propertyTypes.length][];
+    for (int i = 0; i < propertyTypes.length; i++) {
+      if (isSupported(columnTypes[i])) {
+        int[] columns = suffix == null ? null
+            : findColumns(fields, persister.getPropertyAliases(suffix, i));
+        propertyColumns[i] =
+            columns == null ? findColumns(fields, persister.getPropertyColumnNames(i)) : columns;
+      }
+    }
+    return new Layout(rowType, identifierColumns, propertyColumns);
+  }
+
+  /**
+   * HQL queries select the columns of an entity using aliases like <code>id1_0_</code>, where
+   * <code>0_</code> is a suffix that depends on the position of the entity in the query.
+   */
+  private String findAliasSuffix(Map<String, Integer> fields) {
+    String prefix = persister.getIdentifierAliases("")[0].toLowerCase(Locale.ROOT);
+    for (String field : fields.keySet()) {
+      if (field.toLowerCase(Locale.ROOT).startsWith(prefix)) {
+        return field.substring(prefix.length());
+      }
+    }
+    return null;
+  }
+
+  private static int[] findColumns(Map<String, Integer> fields, String[] names) {
+    if (names == null || names.length == 0) {
+      return null;
+    }
+    int[] res = new int[names.length];
+    for (int i = 0; i < names.length; i++) {
+      Integer index = fields.get(unquote(names[i]));
+      if (index == null) {
+        return null;
+      }
+      res[i] = index;
+    }
+    return res;
+  }
+
+  private static String unquote(String name) {
+    if (name.length() > 1 && name.charAt(0) == '`' && name.charAt(name.length() - 1) == '`') {
+      return name.substring(1, name.length() - 1);
+    }
+    return name;
+  }
+
+  /**
+   * @return the type of the columns of a property, which is the type of the key that a
+   *         many-to-one association references, or <code>null</code> for collections
+   */
+  static org.hibernate.type.Type getColumnType(org.hibernate.type.Type type,
+      SessionFactoryImplementor sessionFactory) {
+    if (type instanceof ManyToOneType) {
+      return ((ManyToOneType) type).getIdentifierOrUniqueKeyType(sessionFactory);
+    }
+    return type.isAssociationType() ? null : type;
+  }
+
+  static boolean isSupported(org.hibernate.type.Type type) {
+    if (type instanceof ComponentType) {
+      for (org.hibernate.type.Type subtype : ((ComponentType) type).getSubtypes()) {
+        if (!isSupported(subtype)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return type instanceof AbstractStandardBasicType;
+  }
+}
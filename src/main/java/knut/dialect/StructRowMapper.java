@@ -0,0 +1,14 @@
+package knut.dialect;
+
+import com.google.cloud.spanner.Struct;
+
+/**
+ * Maps one row of a Cloud Spanner result set to an entity or a DTO. Implementations are called
+ * concurrently from the threads that read the partitions of a {@link PartitionedQueryReader} query
+ * and must therefore be thread safe.
+ */
+@FunctionalInterface
+public interface StructRowMapper<T> {
+  /** @return the object for the given row */
+  T map(Struct row);
+}
@@ -0,0 +1,12 @@
+package knut.dialect;
+
+import com.google.cloud.spanner.Struct;
+
+/**
+ * A type that {@link StructEntityMapper} uses to decode the values of a {@link Struct} directly,
+ * without first creating the values that the JDBC driver would return.
+ */
+interface StructValueReader<T> {
+  /** @return the value of the given non-null column of the given struct */
+  T fromStruct(Struct struct, int index);
+}
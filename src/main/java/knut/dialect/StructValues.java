@@ -0,0 +1,93 @@
+package knut.dialect;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.List;
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+
+/**
+ * Converts the values of a Cloud Spanner {@link Struct} to the same Java types that the JDBC driver
+ * returns for the corresponding column types, so that Hibernate type descriptors can be used to
+ * wrap them into entity attribute values.
+ */
+final class StructValues {
+
+  private StructValues() {}
+
+  static Object getValue(Struct struct, int index) {
+    if (struct.isNull(index)) {
+      return null;
+    }
+    Type type = struct.getColumnType(index);
+    switch (type.getCode()) {
+      case BOOL:
+        return struct.getBoolean(index);
+      case INT64:
+        return struct.getLong(index);
+      case FLOAT64:
+        return struct.getDouble(index);
+      case STRING:
+        return struct.getString(index);
+      case BYTES:
+        return struct.getBytes(index).toByteArray();
+      case TIMESTAMP:
+        return struct.getTimestamp(index).toSqlTimestamp();
+      case DATE:
+        return toSqlDate(struct.getDate(index));
+      case ARRAY:
+        return getArrayValue(struct, index, type.getArrayElementType());
+      case STRUCT:
+        return struct.getStruct(index);
+      default:
+        throw new IllegalArgumentException("Unsupported column type: " + type);
+    }
+  }
+
+  private static Object getArrayValue(Struct struct, int index, Type elementType) {
+    switch (elementType.getCode()) {
+      case BOOL:
+        return struct.getBooleanList(index).toArray(new Boolean[0]);
+      case INT64:
+        return struct.getLongList(index).toArray(new Long[0]);
+      case FLOAT64:
+        return struct.getDoubleList(index).toArray(new Double[0]);
+      case STRING:
+        return struct.getStringList(index).toArray(new String[0]);
+      case BYTES: {
+        List<ByteArray> list = struct.getBytesList(index);
+        byte[][] res = new byte[list.size()][];
+        for (int i = 0; i < res.length; i++) {
+          res[i] = list.get(i) == null ? null : list.get(i).toByteArray();
+        }
+        return res;
+      }
+      case TIMESTAMP: {
+        List<com.google.cloud.Timestamp> list = struct.getTimestampList(index);
+        Timestamp[] res = new Timestamp[list.size()];
+        for (int i = 0; i < res.length; i++) {
+          res[i] = list.get(i) == null ? null : list.get(i).toSqlTimestamp();
+        }
+        return res;
+      }
+      case DATE: {
+        List<com.google.cloud.Date> list = struct.getDateList(index);
+        Date[] res = new Date[list.size()];
+        for (int i = 0; i < res.length; i++) {
+          res[i] = list.get(i) == null ? null : toSqlDate(list.get(i));
+        }
+        return res;
+      }
+      case STRUCT:
+        return struct.getStructList(index);
+      default:
+        throw new IllegalArgumentException("Unsupported array element type: " + elementType);
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private static Date toSqlDate(com.google.cloud.Date date) {
+    return new Date(date.getYear() - 1900, date.getMonth() - 1, date.getDayOfMonth());
+  }
+}
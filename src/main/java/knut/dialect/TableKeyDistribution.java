@@ -0,0 +1,75 @@
+package knut.dialect;
+
+import java.beans.ConstructorProperties;
+
+/** Snapshot of the distribution of the primary keys that were inserted into one table. */
+public class TableKeyDistribution {
+  /** The keys are evenly distributed over the key space. */
+  public static final String DISTRIBUTED = "DISTRIBUTED";
+  /** Each key is larger than the previous key, like sequences and timestamps. */
+  public static final String INCREASING = "INCREASING";
+  /** Each key is smaller than the previous key, like reversed timestamps. */
+  public static final String DECREASING = "DECREASING";
+  /** The keys share long prefixes, so they are written to the same small key range. */
+  public static final String CLUSTERED = "CLUSTERED";
+
+  private final String table;
+  private final long samples;
+  private final double skewScore;
+  private final String pattern;
+  private final int leadingByteRanges;
+  private final double topRangeShare;
+
+  @ConstructorProperties({"table", "samples", "skewScore", "pattern", "leadingByteRanges",
+      "topRangeShare"})
+  public TableKeyDistribution(String table, long samples, double skewScore, String pattern,
+      int leadingByteRanges, double topRangeShare) {
+    this.table = table;
+    this.samples = samples;
+    this.skewScore = skewScore;
+    this.pattern = pattern;
+    this.leadingByteRanges = leadingByteRanges;
+    this.topRangeShare = topRangeShare;
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  /** @return the number of sampled keys, with older samples counting half after each window */
+  public long getSamples() {
+    return samples;
+  }
+
+  /**
+   * @return the skew score between 0, for keys that are inserted in random order, and 1, for keys
+   *         that are monotonic or clustered within each range of their leading byte
+   */
+  public double getSkewScore() {
+    return skewScore;
+  }
+
+  /**
+   * @return one of {@link #DISTRIBUTED}, {@link #INCREASING}, {@link #DECREASING} or
+   *         {@link #CLUSTERED}
+   */
+  public String getPattern() {
+    return pattern;
+  }
+
+  /** @return the number of distinct leading key bytes of the samples, at most 256 */
+  public int getLeadingByteRanges() {
+    return leadingByteRanges;
+  }
+
+  /** @return the share of the samples that have the most frequent leading key byte */
+  public double getTopRangeShare() {
+    return topRangeShare;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s [samples=%d, skew=%.2f, pattern=%s, ranges=%d, topRange=%.2f]",
+        table, samples, skewScore, pattern, leadingByteRanges, topRangeShare);
+  }
+}
@@ -0,0 +1,215 @@
+package knut.dialect;
+
+import java.sql.Array;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Objects;
+import com.google.cloud.spanner.Struct;
+import org.hibernate.HibernateException;
+import org.hibernate.type.AbstractSingleColumnStandardBasicType;
+import org.hibernate.type.descriptor.ValueBinder;
+import org.hibernate.type.descriptor.ValueExtractor;
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.java.AbstractTypeDescriptor;
+import org.hibernate.type.descriptor.java.JavaTypeDescriptor;
+import org.hibernate.type.descriptor.java.MutableMutabilityPlan;
+import org.hibernate.type.descriptor.sql.BasicExtractor;
+import org.hibernate.type.descriptor.sql.SqlTypeDescriptor;
+
+/**
+ * Base class of the types of ARRAY&lt;TIMESTAMP&gt; and ARRAY&lt;DATE&gt; columns that are
+ * mapped to arrays of <code>java.time</code> values or of primitive epoch values. The JDBC driver
+ * returns arrays of {@link Timestamp} or {@link java.sql.Date}, which are converted in a single
+ * pass. {@link StructEntityMapper} decodes the values of a {@link Struct} directly, without the
+ * JDBC values in between.
+ */
+abstract class TemporalArrayType<T> extends AbstractSingleColumnStandardBasicType<T>
+    implements StructValueReader<T> {
+  private static final long serialVersionUID = 1L;
+
+  static final class TemporalArrayTypeDescriptor<T> extends AbstractTypeDescriptor<T> {
+    private static final long serialVersionUID = 1L;
+    private TemporalArrayType<T> type;
+
+    private TemporalArrayTypeDescriptor(Class<T> arrayClass) {
+      super(arrayClass, new MutableMutabilityPlan<T>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected T deepCopyNotNull(T value) {
+          int length = java.lang.reflect.Array.getLength(value);
+          @SuppressWarnings("unchecked")
+          T res = (T) java.lang.reflect.Array.newInstance(arrayClass.getComponentType(), length);
+          // the elements are immutable or primitive
+          System.arraycopy(value, 0, res, 0, length);
+          return res;
+        }
+      });
+    }
+
+    @Override
+    public boolean areEqual(T one, T another) {
+      return Objects.deepEquals(one, another);
+    }
+
+    @Override
+    public int extractHashCode(T value) {
+      return Arrays.deepHashCode(new Object[] {value});
+    }
+
+    @Override
+    public T fromString(String string) {
+      throw new UnsupportedOperationException();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <X> X unwrap(T value, Class<X> type, WrapperOptions options) {
+      return value == null ? null : (X) this.type.toJdbcArray(value);
+    }
+
+    @Override
+    public <X> T wrap(X value, WrapperOptions options) {
+      if (value == null || getJavaType().isInstance(value)) {
+        return getJavaType().cast(value);
+      }
+      Object data = value;
+      if (value instanceof Array) {
+        try {
+          data = ((Array) value).getArray();
+        } catch (SQLException e) {
+          throw new HibernateException(e);
+        }
+      }
+      if (data instanceof Object[]) {
+        return type.fromJdbcArray((Object[]) data);
+      }
+      throw new IllegalArgumentException(data.getClass().getName()
+          + " is not a valid type for a " + type.getName());
+    }
+
+    @Override
+    public String toString(T value) {
+      return value == null ? "null" : Arrays.deepToString(new Object[] {value});
+    }
+  }
+
+  static class TemporalArraySqlTypeDescriptor implements SqlTypeDescriptor {
+    private static final long serialVersionUID = 1L;
+    private final String elementTypeName;
+
+    private TemporalArraySqlTypeDescriptor(String elementTypeName) {
+      this.elementTypeName = elementTypeName;
+    }
+
+    @Override
+    public int getSqlType() {
+      return Types.ARRAY;
+    }
+
+    @Override
+    public boolean canBeRemapped() {
+      return false;
+    }
+
+    @Override
+    public <X> ValueBinder<X> getBinder(final JavaTypeDescriptor<X> javaTypeDescriptor) {
+      return new ValueBinder<X>() {
+        @Override
+        public void bind(PreparedStatement st, X value, int index, WrapperOptions options)
+            throws SQLException {
+          if (value == null) {
+            st.setNull(index, Types.ARRAY);
+          } else {
+            st.setArray(index, st.getConnection().createArrayOf(elementTypeName,
+                javaTypeDescriptor.unwrap(value, Object[].class, options)));
+          }
+        }
+
+        @Override
+        public void bind(CallableStatement st, X value, String name, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+      };
+    }
+
+    @Override
+    public <X> ValueExtractor<X> getExtractor(final JavaTypeDescriptor<X> javaTypeDescriptor) {
+      return new BasicExtractor<X>(javaTypeDescriptor, this) {
+        @Override
+        protected X doExtract(ResultSet rs, String name, WrapperOptions options)
+            throws SQLException {
+          return javaTypeDescriptor.wrap(rs.getArray(name), options);
+        }
+
+        @Override
+        protected X doExtract(CallableStatement statement, int index, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+
+        @Override
+        protected X doExtract(CallableStatement statement, String name, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+      };
+    }
+  }
+
+  private final boolean date;
+
+  TemporalArrayType(Class<T> arrayClass, boolean date) {
+    super(new TemporalArraySqlTypeDescriptor(date ? "DATE" : "TIMESTAMP"),
+        new TemporalArrayTypeDescriptor<>(arrayClass));
+    ((TemporalArrayTypeDescriptor<T>) getJavaTypeDescriptor()).type = this;
+    this.date = date;
+  }
+
+  /** @return the value of the elements, which are {@link Timestamp}s or {@link java.sql.Date}s */
+  abstract T fromJdbcArray(Object[] elements);
+
+  /** @return the elements of the given value for the JDBC driver */
+  abstract Object[] toJdbcArray(T value);
+
+  /** @return the type of ARRAY columns of this type */
+  String getColumnTypeName(AbstractCloudSpannerDialect dialect) {
+    return dialect.getArrayTypeName(date ? Types.DATE : Types.TIMESTAMP);
+  }
+
+  static HibernateException nullElement(String type) {
+    return new HibernateException("Arrays with NULL elements cannot be read as " + type);
+  }
+
+  static long toEpochMicros(long epochSecond, int nanos) {
+    return epochSecond * 1000000L + nanos / 1000;
+  }
+
+  static Timestamp toTimestamp(long epochSecond, int nanos) {
+    Timestamp res = new Timestamp(epochSecond * 1000L);
+    res.setNanos(nanos);
+    return res;
+  }
+
+  /** @return the days since the epoch of the given date of the proleptic Gregorian calendar */
+  static int toEpochDay(int year, int month, int day) {
+    int y = month <= 2 ? year - 1 : year;
+    int era = Math.floorDiv(y, 400);
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  @SuppressWarnings("deprecation")
+  static int toEpochDay(java.sql.Date date) {
+    return toEpochDay(date.getYear() + 1900, date.getMonth() + 1, date.getDate());
+  }
+}
@@ -0,0 +1,22 @@
+package knut.dialect;
+
+/** JMX interface of the per-tenant connection pools of a multi-tenant connection provider. */
+public interface TenantConnectionPoolsMXBean {
+  /** @return the number of tenants that currently have a connection pool */
+  int getTenantCount();
+
+  /** @return the number of connections that are currently in use */
+  int getBorrowedConnectionCount();
+
+  /** @return the number of open connections that are currently not in use */
+  int getIdleConnectionCount();
+
+  /** @return the number of connections that have been opened */
+  long getCreatedConnectionCount();
+
+  /** @return the number of tenant pools that have been closed because they were idle */
+  long getEvictedTenantCount();
+
+  /** Closes the pools of all tenants that have been idle for longer than the idle timeout. */
+  void evictIdleTenants();
+}
@@ -0,0 +1,182 @@
+package knut.dialect;
+
+import java.sql.Array;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.UUID;
+import org.hibernate.HibernateException;
+import org.hibernate.type.AbstractSingleColumnStandardBasicType;
+import org.hibernate.type.descriptor.ValueBinder;
+import org.hibernate.type.descriptor.ValueExtractor;
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.java.AbstractTypeDescriptor;
+import org.hibernate.type.descriptor.java.JavaTypeDescriptor;
+import org.hibernate.type.descriptor.java.MutableMutabilityPlan;
+import org.hibernate.type.descriptor.sql.BasicExtractor;
+import org.hibernate.type.descriptor.sql.SqlTypeDescriptor;
+
+/**
+ * Type definition for ARRAY&lt;BYTES(16)&gt; columns in Cloud Spanner that are mapped to
+ * {@link UUID} arrays, with the elements in the format of {@link UuidType}. NULL elements are
+ * <code>null</code>.
+ */
+public class UuidArrayType extends AbstractSingleColumnStandardBasicType<UUID[]> {
+  private static final long serialVersionUID = 1L;
+  public static final UuidArrayType INSTANCE = new UuidArrayType();
+
+  static final class UuidArrayTypeDescriptor extends AbstractTypeDescriptor<UUID[]> {
+    private static final long serialVersionUID = 1L;
+    private static final UuidArrayTypeDescriptor INSTANCE = new UuidArrayTypeDescriptor();
+
+    private UuidArrayTypeDescriptor() {
+      super(UUID[].class, new MutableMutabilityPlan<UUID[]>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected UUID[] deepCopyNotNull(UUID[] value) {
+          // the elements are immutable
+          return value.clone();
+        }
+      });
+    }
+
+    @Override
+    public boolean areEqual(UUID[] one, UUID[] another) {
+      return Arrays.equals(one, another);
+    }
+
+    @Override
+    public int extractHashCode(UUID[] value) {
+      return Arrays.hashCode(value);
+    }
+
+    @Override
+    public UUID[] fromString(String string) {
+      throw new UnsupportedOperationException();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <X> X unwrap(UUID[] value, Class<X> type, WrapperOptions options) {
+      if (value == null) {
+        return null;
+      }
+      byte[][] res = new byte[value.length][];
+      for (int i = 0; i < res.length; i++) {
+        res[i] = value[i] == null ? null : UuidType.toBytes(value[i]);
+      }
+      return (X) res;
+    }
+
+    @Override
+    public <X> UUID[] wrap(X value, WrapperOptions options) {
+      if (value == null || value instanceof UUID[]) {
+        return (UUID[]) value;
+      }
+      Object data = value;
+      if (value instanceof Array) {
+        try {
+          data = ((Array) value).getArray();
+        } catch (SQLException e) {
+          throw new HibernateException(e);
+        }
+      }
+      if (data instanceof Object[]) {
+        Object[] elements = (Object[]) data;
+        UUID[] res = new UUID[elements.length];
+        for (int i = 0; i < res.length; i++) {
+          res[i] = elements[i] == null ? null : UuidType.fromBytes((byte[]) elements[i]);
+        }
+        return res;
+      }
+      throw new IllegalArgumentException(
+          data.getClass().getName() + " is not a valid type for a UUID array");
+    }
+
+    @Override
+    public String toString(UUID[] value) {
+      return value == null ? "null" : Arrays.toString(value);
+    }
+  }
+
+  static class UuidArraySqlTypeDescriptor implements SqlTypeDescriptor {
+    private static final long serialVersionUID = 1L;
+    private static final UuidArraySqlTypeDescriptor INSTANCE = new UuidArraySqlTypeDescriptor();
+
+    private UuidArraySqlTypeDescriptor() {}
+
+    @Override
+    public int getSqlType() {
+      return Types.ARRAY;
+    }
+
+    @Override
+    public boolean canBeRemapped() {
+      return false;
+    }
+
+    @Override
+    public <X> ValueBinder<X> getBinder(final JavaTypeDescriptor<X> javaTypeDescriptor) {
+      return new ValueBinder<X>() {
+        @Override
+        public void bind(PreparedStatement st, X value, int index, WrapperOptions options)
+            throws SQLException {
+          if (value == null) {
+            st.setNull(index, Types.ARRAY);
+          } else {
+            st.setArray(index, st.getConnection().createArrayOf("BYTES",
+                javaTypeDescriptor.unwrap(value, byte[][].class, options)));
+          }
+        }
+
+        @Override
+        public void bind(CallableStatement st, X value, String name, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+      };
+    }
+
+    @Override
+    public <X> ValueExtractor<X> getExtractor(final JavaTypeDescriptor<X> javaTypeDescriptor) {
+      return new BasicExtractor<X>(javaTypeDescriptor, this) {
+        @Override
+        protected X doExtract(ResultSet rs, String name, WrapperOptions options)
+            throws SQLException {
+          return javaTypeDescriptor.wrap(rs.getArray(name), options);
+        }
+
+        @Override
+        protected X doExtract(CallableStatement statement, int index, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+
+        @Override
+        protected X doExtract(CallableStatement statement, String name, WrapperOptions options)
+            throws SQLException {
+          throw new SQLFeatureNotSupportedException("Callable statements are not supported.");
+        }
+      };
+    }
+  }
+
+  public UuidArrayType() {
+    super(UuidArraySqlTypeDescriptor.INSTANCE, UuidArrayTypeDescriptor.INSTANCE);
+  }
+
+  @Override
+  public String getName() {
+    return "UUID_BYTES_ARRAY";
+  }
+
+  /** @return the type of the columns of this type, ARRAY&lt;BYTES(16)&gt; */
+  String getColumnTypeName(AbstractCloudSpannerDialect dialect) {
+    return "ARRAY<" + UuidType.INSTANCE.getColumnTypeName(dialect) + ">";
+  }
+}
@@ -0,0 +1,214 @@
+package knut.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Migrates UUIDs that are stored as STRING(36) to BYTES(16) columns of {@link UuidType} in batches.
+ * The rows are read in the order of their primary key, and each batch starts after the last key
+ * of the previous batch, so every row is only read once. Each batch is written with one JDBC batch
+ * and committed on its own if the connection is not in auto-commit mode, so that a batch stays
+ * below the mutation limit of a transaction.
+ *
+ * Key columns cannot be updated in Cloud Spanner, so tables with UUID keys, including the tables
+ * that are interleaved in them, are copied to new tables with {@link #copyTable}. Other columns
+ * are converted in place with {@link #convertColumn}.
+ *
+ * <pre>
+ * UuidMigration migration = new UuidMigration(connection, 1000);
+ * migration.copyTable("Singers", "Singers2", Arrays.asList("SingerId"),
+ *     Arrays.asList("FirstName", "LastName", "LabelId"), Arrays.asList("SingerId", "LabelId"));
+ * migration.convertColumn("Albums", Arrays.asList("AlbumId"), "ProducerId", "ProducerUuid");
+ * </pre>
+ */
+public class UuidMigration {
+  private final Connection connection;
+  private final int batchSize;
+
+  /**
+   * @param connection the connection to the database
+   * @param batchSize the number of rows that are read and written in each batch
+   */
+  public UuidMigration(Connection connection, int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+    }
+    this.connection = connection;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Copies all rows of a table to a table with the same columns, in which the given UUID columns
+   * are BYTES(16) instead of STRING(36).
+   *
+   * @param keyColumns the primary key columns of the source table
+   * @param columns the other columns that are copied
+   * @param uuidColumns the key columns and other columns that are converted
+   * @return the number of rows that were copied
+   */
+  public long copyTable(String sourceTable, String targetTable, List<String> keyColumns,
+      List<String> columns, Collection<String> uuidColumns) throws SQLException {
+    List<String> all = new ArrayList<>(keyColumns);
+    all.addAll(columns);
+    boolean[] convert = new boolean[all.size()];
+    StringBuilder insert = new StringBuilder("insert into ").append(quote(targetTable))
+        .append(" (");
+    for (int i = 0; i < all.size(); i++) {
+      convert[i] = uuidColumns.contains(all.get(i));
+      insert.append(i == 0 ? "" : ", ").append(quote(all.get(i)));
+    }
+    insert.append(") values (");
+    for (int i = 0; i < all.size(); i++) {
+      insert.append(i == 0 ? "?" : ", ?");
+    }
+    insert.append(')');
+    try (PreparedStatement statement = connection.prepareStatement(insert.toString())) {
+      return migrate(sourceTable, keyColumns, columns, null, rows -> {
+        for (Object[] row : rows) {
+          for (int i = 0; i < row.length; i++) {
+            bind(statement, i + 1, row[i], convert[i]);
+          }
+          statement.addBatch();
+        }
+        statement.executeBatch();
+      });
+    }
+  }
+
+  /**
+   * Sets a BYTES(16) column of each row to the UUID in a STRING(36) column of the same row. Rows
+   * in which the BYTES(16) column is already set are skipped, so a conversion that was interrupted
+   * can be continued by calling this method again.
+   *
+   * @param keyColumns the primary key columns of the table
+   * @return the number of rows that were converted
+   */
+  public long convertColumn(String table, List<String> keyColumns, String stringColumn,
+      String bytesColumn) throws SQLException {
+    StringBuilder update = new StringBuilder("update ").append(quote(table)).append(" set ")
+        .append(quote(bytesColumn)).append(" = ? where ");
+    for (int i = 0; i < keyColumns.size(); i++) {
+      update.append(i == 0 ? "" : " and ").append(quote(keyColumns.get(i))).append(" = ?");
+    }
+    String condition = quote(stringColumn) + " is not null and " + quote(bytesColumn) + " is null";
+    try (PreparedStatement statement = connection.prepareStatement(update.toString())) {
+      return migrate(table, keyColumns, Collections.singletonList(stringColumn), condition,
+          rows -> {
+            for (Object[] row : rows) {
+              bind(statement, 1, row[keyColumns.size()], true);
+              for (int i = 0; i < keyColumns.size(); i++) {
+                statement.setObject(i + 2, row[i]);
+              }
+              statement.addBatch();
+            }
+            statement.executeBatch();
+          });
+    }
+  }
+
+  private interface BatchWriter {
+    void write(List<Object[]> rows) throws SQLException;
+  }
+
+  /**
+   * Reads the key columns and the given columns of all rows that match the condition in batches
+   * and writes each batch.
+   */
+  private long migrate(String table, List<String> keyColumns, List<String> columns,
+      String condition, BatchWriter writer) throws SQLException {
+    if (keyColumns.isEmpty()) {
+      throw new IllegalArgumentException("No key columns for table " + table);
+    }
+    StringBuilder select = new StringBuilder("select ");
+    int count = keyColumns.size() + columns.size();
+    for (int i = 0; i < count; i++) {
+      String column = i < keyColumns.size() ? keyColumns.get(i)
+          : columns.get(i - keyColumns.size());
+      select.append(i == 0 ? "" : ", ").append(quote(column));
+    }
+    select.append(" from ").append(quote(table));
+    StringBuilder order = new StringBuilder(" order by ");
+    for (int i = 0; i < keyColumns.size(); i++) {
+      order.append(i == 0 ? "" : ", ").append(quote(keyColumns.get(i)));
+    }
+    order.append(" limit ").append(batchSize);
+    String first = select + (condition == null ? "" : " where " + condition) + order;
+    String next = select + " where " + (condition == null ? "" : condition + " and ")
+        + afterKey(keyColumns) + order;
+
+    long res = 0L;
+    Object[] lastKey = null;
+    List<Object[]> rows = new ArrayList<>(batchSize);
+    while (true) {
+      rows.clear();
+      try (PreparedStatement statement = connection.prepareStatement(
+          lastKey == null ? first : next)) {
+        if (lastKey != null) {
+          // (k1 > ?) or (k1 = ? and k2 > ?) or ...
+          int index = 1;
+          for (int i = 0; i < keyColumns.size(); i++) {
+            for (int j = 0; j <= i; j++) {
+              statement.setObject(index++, lastKey[j]);
+            }
+          }
+        }
+        try (ResultSet resultSet = statement.executeQuery()) {
+          while (resultSet.next()) {
+            Object[] row = new Object[count];
+            for (int i = 0; i < count; i++) {
+              row[i] = resultSet.getObject(i + 1);
+            }
+            rows.add(row);
+          }
+        }
+      }
+      if (rows.isEmpty()) {
+        return res;
+      }
+      writer.write(rows);
+      if (!connection.getAutoCommit()) {
+        connection.commit();
+      }
+      res += rows.size();
+      if (rows.size() < batchSize) {
+        return res;
+      }
+      lastKey = rows.get(rows.size() - 1);
+    }
+  }
+
+  /** @return the condition for the rows after a key, in the order of the key columns */
+  private static String afterKey(List<String> keyColumns) {
+    StringBuilder res = new StringBuilder("(");
+    for (int i = 0; i < keyColumns.size(); i++) {
+      res.append(i == 0 ? "(" : " or (");
+      for (int j = 0; j < i; j++) {
+        res.append(quote(keyColumns.get(j))).append(" = ? and ");
+      }
+      res.append(quote(keyColumns.get(i))).append(" > ?)");
+    }
+    return res.append(')').toString();
+  }
+
+  private static void bind(PreparedStatement statement, int index, Object value, boolean uuid)
+      throws SQLException {
+    if (!uuid) {
+      statement.setObject(index, value);
+    } else if (value == null) {
+      statement.setNull(index, Types.BINARY);
+    } else {
+      statement.setBytes(index, UuidType.toBytes(UuidType.parse(value.toString())));
+    }
+  }
+
+  private static String quote(String identifier) {
+    return '`' + identifier + '`';
+  }
+}
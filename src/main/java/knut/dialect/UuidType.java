@@ -0,0 +1,174 @@
+package knut.dialect;
+
+import java.sql.Types;
+import java.util.UUID;
+import org.hibernate.HibernateException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.type.AbstractSingleColumnStandardBasicType;
+import org.hibernate.type.LiteralType;
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.java.AbstractTypeDescriptor;
+import org.hibernate.type.descriptor.sql.BinaryTypeDescriptor;
+
+/**
+ * Type definition for {@link UUID}s in BYTES(16) columns in Cloud Spanner. The bytes are the most
+ * significant bits followed by the least significant bits in big-endian order, which is the same
+ * format as the <code>uuid-binary</code> type of Hibernate. Values are encoded and decoded without
+ * intermediate strings, and literals are rendered as BYTES literals. The dialects register this
+ * type as the default type of {@link UUID} attributes if
+ * {@link AbstractCloudSpannerDialect#UUID_AS_BYTES} is set.
+ */
+public class UuidType extends AbstractSingleColumnStandardBasicType<UUID>
+    implements LiteralType<UUID> {
+  private static final long serialVersionUID = 1L;
+  /** The number of bytes of a UUID */
+  public static final int LENGTH = 16;
+  public static final UuidType INSTANCE = new UuidType();
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  static final class UuidTypeDescriptor extends AbstractTypeDescriptor<UUID> {
+    private static final long serialVersionUID = 1L;
+    private static final UuidTypeDescriptor INSTANCE = new UuidTypeDescriptor();
+
+    private UuidTypeDescriptor() {
+      super(UUID.class);
+    }
+
+    @Override
+    public String toString(UUID value) {
+      return value.toString();
+    }
+
+    @Override
+    public UUID fromString(String string) {
+      return parse(string);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <X> X unwrap(UUID value, Class<X> type, WrapperOptions options) {
+      if (value == null) {
+        return null;
+      }
+      if (type == byte[].class || type == Object.class) {
+        return (X) toBytes(value);
+      }
+      if (type == UUID.class) {
+        return (X) value;
+      }
+      if (type == String.class) {
+        return (X) value.toString();
+      }
+      throw unknownUnwrap(type);
+    }
+
+    @Override
+    public <X> UUID wrap(X value, WrapperOptions options) {
+      if (value == null || value instanceof UUID) {
+        return (UUID) value;
+      }
+      if (value instanceof byte[]) {
+        return fromBytes((byte[]) value);
+      }
+      if (value instanceof String) {
+        return parse((String) value);
+      }
+      throw unknownWrap(value.getClass());
+    }
+  }
+
+  public UuidType() {
+    super(BinaryTypeDescriptor.INSTANCE, UuidTypeDescriptor.INSTANCE);
+  }
+
+  @Override
+  public String getName() {
+    return "UUID_BYTES";
+  }
+
+  @Override
+  protected boolean registerUnderJavaType() {
+    return true;
+  }
+
+  /** @return a BYTES literal, for example <code>b'\x12\x3e...'</code> */
+  @Override
+  public String objectToSQLString(UUID value, Dialect dialect) {
+    StringBuilder res = new StringBuilder(4 * LENGTH + 3).append("b'");
+    for (byte b : toBytes(value)) {
+      res.append("\\x").append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+    }
+    return res.append('\'').toString();
+  }
+
+  /** @return the type of the columns of this type, BYTES(16) */
+  String getColumnTypeName(AbstractCloudSpannerDialect dialect) {
+    return dialect.getTypeName(Types.BINARY, LENGTH, 0, 0);
+  }
+
+  static byte[] toBytes(UUID value) {
+    byte[] res = new byte[LENGTH];
+    putLong(res, 0, value.getMostSignificantBits());
+    putLong(res, 8, value.getLeastSignificantBits());
+    return res;
+  }
+
+  static UUID fromBytes(byte[] bytes) {
+    if (bytes.length != LENGTH) {
+      throw new HibernateException("A UUID has 16 bytes, not " + bytes.length);
+    }
+    return new UUID(getLong(bytes, 0), getLong(bytes, 8));
+  }
+
+  private static void putLong(byte[] bytes, int offset, long value) {
+    for (int i = 7; i >= 0; i--) {
+      bytes[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  private static long getLong(byte[] bytes, int offset) {
+    long res = 0L;
+    for (int i = 0; i < 8; i++) {
+      res = (res << 8) | (bytes[offset + i] & 0xff);
+    }
+    return res;
+  }
+
+  /**
+   * Parses the canonical form of a UUID, with 32 hexadecimal digits in groups of 8, 4, 4, 4 and 12
+   * digits separated by hyphens. Unlike {@link UUID#fromString(String)} this does not split the
+   * string, and rejects other forms.
+   */
+  static UUID parse(String value) {
+    if (value.length() != 36 || value.charAt(8) != '-' || value.charAt(13) != '-'
+        || value.charAt(18) != '-' || value.charAt(23) != '-') {
+      throw new HibernateException("Invalid UUID: " + value);
+    }
+    long msb = parseHex(value, 0, 8, 0L);
+    msb = parseHex(value, 9, 13, msb);
+    msb = parseHex(value, 14, 18, msb);
+    long lsb = parseHex(value, 19, 23, 0L);
+    lsb = parseHex(value, 24, 36, lsb);
+    return new UUID(msb, lsb);
+  }
+
+  private static long parseHex(String value, int from, int to, long res) {
+    for (int i = from; i < to; i++) {
+      char c = value.charAt(i);
+      int digit;
+      if (c >= '0' && c <= '9') {
+        digit = c - '0';
+      } else if (c >= 'a' && c <= 'f') {
+        digit = c - 'a' + 10;
+      } else if (c >= 'A' && c <= 'F') {
+        digit = c - 'A' + 10;
+      } else {
+        throw new HibernateException("Invalid UUID: " + value);
+      }
+      res = (res << 4) | digit;
+    }
+    return res;
+  }
+}
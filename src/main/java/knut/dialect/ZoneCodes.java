@@ -0,0 +1,109 @@
+package knut.dialect;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import org.hibernate.HibernateException;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZoneOffset;
+
+/**
+ * Caches parsed {@link ZoneId}s and maps them to compact numeric codes. The code of a fixed
+ * offset is its total number of seconds. The code of a region id of the time zone database is the
+ * CRC32 of the id plus 2^32, which does not collide with the offsets; the codes of all available
+ * region ids are unique. A region code can be decoded by every JVM whose time zone database
+ * contains the id, so a code of a region that a later version of the database removes cannot be
+ * decoded by that version. Region ids that are not in the database but have a fixed offset, like
+ * <code>UTC+01:00</code>, are encoded as that offset, and other unknown regions are rejected.
+ */
+final class ZoneCodes {
+  private static final long REGION = 1L << 32;
+  private static final int MAX_OFFSET_SECONDS = 18 * 60 * 60;
+
+  private static final ConcurrentHashMap<String, ZoneId> BY_ID = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<ZoneId, Long> CODES = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<Long, ZoneId> BY_CODE = new ConcurrentHashMap<>();
+  static {
+    registerAvailableZones();
+  }
+
+  private ZoneCodes() {}
+
+  /**
+   * Registers the codes of the region ids of the time zone database, including those of providers
+   * that were registered after this class was initialized.
+   */
+  private static void registerAvailableZones() {
+    for (String id : ZoneId.getAvailableZoneIds()) {
+      ZoneId zone = of(id);
+      long code = regionCode(id);
+      ZoneId previous = BY_CODE.putIfAbsent(code, zone);
+      if (previous != null && !previous.equals(zone)) {
+        throw new IllegalStateException("Zones " + previous + " and " + zone + " have code "
+            + code);
+      }
+    }
+  }
+
+  /** @return the zone with the given id, which is only parsed once */
+  static ZoneId of(String id) {
+    ZoneId zone = BY_ID.get(id);
+    return zone == null ? BY_ID.computeIfAbsent(id, ZoneId::of) : zone;
+  }
+
+  /**
+   * @return the code of the given zone
+   * @throws HibernateException if the zone is a region that is not in the time zone database and
+   *         has no fixed offset
+   */
+  static long code(ZoneId zone) {
+    Long code = CODES.get(zone);
+    return code == null ? CODES.computeIfAbsent(zone, ZoneCodes::computeCode) : code;
+  }
+
+  private static long computeCode(ZoneId zone) {
+    if (zone instanceof ZoneOffset) {
+      return ((ZoneOffset) zone).getTotalSeconds();
+    }
+    long code = regionCode(zone.getId());
+    if (zone.equals(BY_CODE.get(code))) {
+      return code;
+    }
+    if (ZoneId.getAvailableZoneIds().contains(zone.getId())) {
+      registerAvailableZones();
+      return code;
+    }
+    // ids like UTC+01:00 are parsed as regions, but only the offset can be decoded elsewhere
+    if (zone.getRules().isFixedOffset()) {
+      return ((ZoneOffset) zone.normalized()).getTotalSeconds();
+    }
+    throw new HibernateException("The time zone " + zone.getId()
+        + " is not in the time zone database and cannot be stored");
+  }
+
+  private static long regionCode(String id) {
+    CRC32 crc = new CRC32();
+    crc.update(id.getBytes(StandardCharsets.UTF_8));
+    return REGION + crc.getValue();
+  }
+
+  /** @return the zone of the given code */
+  static ZoneId zone(long code) {
+    ZoneId zone = BY_CODE.get(code);
+    if (zone == null) {
+      if (code >= REGION) {
+        registerAvailableZones();
+        zone = BY_CODE.get(code);
+        if (zone != null) {
+          return zone;
+        }
+      }
+      if (Math.abs(code) > MAX_OFFSET_SECONDS) {
+        throw new HibernateException("Unknown zone code " + code);
+      }
+      zone = ZoneOffset.ofTotalSeconds((int) code);
+      BY_CODE.putIfAbsent(code, zone);
+    }
+    return zone;
+  }
+}
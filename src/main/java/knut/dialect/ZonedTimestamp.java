@@ -20,13 +20,13 @@ import java.sql.Timestamp;
 import javax.persistence.Column;
 import javax.persistence.Embeddable;
 import org.threeten.bp.Instant;
-import org.threeten.bp.ZoneId;
 import org.threeten.bp.ZonedDateTime;
 
 /**
  * Cloud Spanner does not store timezone information together with a timestamp. This embeddable
  * class uses two columns to store both a timestamp and timezone information. Use this in an entity
- * when you want a timestamp with timezone.
+ * when you want a timestamp with timezone. {@link CompactZonedTimestamp} stores the same in two
+ * INT64 columns and converts faster.
  */
 @Embeddable
 public class ZonedTimestamp {
@@ -39,9 +39,10 @@ public class ZonedTimestamp {
   public ZonedTimestamp() {}
 
   public ZonedDateTime getZonedDateTime() {
+    // getTime() includes the milliseconds, which getNanos() contains as well
     return ZonedDateTime.ofInstant(
-        Instant.ofEpochSecond(timestamp.getTime() * 1000L, timestamp.getNanos()),
-        ZoneId.of(timezone));
+        Instant.ofEpochSecond(Math.floorDiv(timestamp.getTime(), 1000L), timestamp.getNanos()),
+        ZoneCodes.of(timezone));
   }
 
   public void setZonedDateTime(ZonedDateTime dateTime) {
@@ -21,6 +21,7 @@ package com.google.cloud.spanner.hibernate;
 import static org.junit.Assert.assertEquals;
 
 import com.google.cloud.spanner.hibernate.util.TestEntity;
+import com.google.cloud.spanner.hibernate.util.TestEntityWithCollection;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -35,6 +36,7 @@ import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.tool.hbm2ddl.SchemaExport;
 import org.hibernate.tool.schema.TargetType;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -66,6 +68,14 @@ public class SpannerTableExporterTests {
         new MetadataSources(this.registry).addAnnotatedClass(TestEntity.class).buildMetadata();
   }
 
+  /**
+   * Release the service registry.
+   */
+  @After
+  public void tearDown() {
+    StandardServiceRegistryBuilder.destroy(this.registry);
+  }
+
   @Test
   public void generateDropStringsTest() throws IOException {
     String testFileName = UUID.randomUUID().toString();
@@ -96,6 +106,23 @@ public class SpannerTableExporterTests {
         + ") PRIMARY KEY (id1,id2)", statements.get(0));
   }
 
+  @Test
+  public void generateCreateStringsInterleavedCollectionTest() throws IOException {
+    String testFileName = UUID.randomUUID().toString();
+    new SchemaExport().setOutputFile(testFileName)
+        .createOnly(EnumSet.of(TargetType.STDOUT, TargetType.SCRIPT),
+            new MetadataSources(this.registry).addAnnotatedClass(TestEntityWithCollection.class)
+                .buildMetadata());
+    File scriptFile = new File(testFileName);
+    scriptFile.deleteOnExit();
+    List<String> statements = Files.readAllLines(scriptFile.toPath());
+    assertEquals("create table test_owner_tags "
+        + "(id bigint not null,"
+        + "tags varchar(255),"
+        + "position integer not null"
+        + ") PRIMARY KEY (id,position), INTERLEAVE IN PARENT test_owner", statements.get(1));
+  }
+
   @Test
   public void generateCreateStringsEmptyEntityTest() {
     this.expectedException.expect(AnnotationException.class);
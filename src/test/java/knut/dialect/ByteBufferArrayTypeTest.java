@@ -0,0 +1,65 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Struct;
+import org.hibernate.type.descriptor.java.JavaTypeDescriptor;
+import org.junit.Test;
+
+/** Tests for {@link ByteBufferArrayType}. */
+public class ByteBufferArrayTypeTest {
+  private static final JavaTypeDescriptor<ByteBuffer[]> DESCRIPTOR =
+      ByteBufferArrayType.INSTANCE.getJavaTypeDescriptor();
+
+  @Test
+  public void testWrapWithoutCopies() {
+    byte[] first = {1, 2, 3};
+    byte[] second = {4, 5};
+    ByteBuffer[] value = DESCRIPTOR.wrap(new Object[] {first, null, second}, null);
+    assertEquals(3, value.length);
+    assertTrue(value[0].isReadOnly());
+    assertEquals(ByteBuffer.wrap(first), value[0]);
+    assertNull(value[1]);
+    // the elements are views of the bytes of the driver
+    second[0] = 9;
+    assertEquals(9, value[2].get(0));
+
+    byte[][] unwrapped = DESCRIPTOR.unwrap(value, byte[][].class, null);
+    assertArrayEquals(new byte[][] {first, null, second}, unwrapped);
+    assertNotSame(first, unwrapped[0]);
+    assertEquals(0, value[0].position());
+  }
+
+  @Test
+  public void testFromStruct() {
+    Struct struct = Struct.newBuilder().set("thumbnails").toBytesArray(Arrays.asList(
+        ByteArray.copyFrom(new byte[] {1, 2}), null, ByteArray.copyFrom(new byte[0]))).build();
+    ByteBuffer[] value = ByteBufferArrayType.INSTANCE.fromStruct(struct, 0);
+    assertEquals(3, value.length);
+    assertEquals(ByteBuffer.wrap(new byte[] {1, 2}), value[0]);
+    assertTrue(value[0].isReadOnly());
+    assertNull(value[1]);
+    assertEquals(0, value[2].remaining());
+  }
+
+  @Test
+  public void testDirtyChecking() {
+    ByteBuffer[] value = DESCRIPTOR.wrap(new byte[][] {{1, 2}, {3}}, null);
+    ByteBuffer[] snapshot = DESCRIPTOR.getMutabilityPlan().deepCopy(value);
+    assertTrue(DESCRIPTOR.areEqual(value, snapshot));
+    // reading an element does not change the snapshot
+    value[0].get();
+    assertEquals(2, snapshot[0].remaining());
+    value[0].rewind();
+    value[1] = ByteBuffer.wrap(new byte[] {4});
+    assertFalse(DESCRIPTOR.areEqual(value, snapshot));
+  }
+}
@@ -0,0 +1,38 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.type.StandardBasicTypes;
+import org.junit.Test;
+
+/** Tests for the shared function registry of the dialect. */
+public class CloudSpannerFunctionsTest {
+
+  @Test
+  public void testFunctionsAreShared() {
+    SQLFunction substr = new CloudSpannerDialect().getFunctions().get("substr");
+    assertSame(substr, new CloudSpannerDialect().getFunctions().get("substr"));
+    assertSame(CloudSpannerFunctions.FUNCTIONS.get("SUBSTR"), substr);
+  }
+
+  @Test
+  public void testStringOrBytesReturnTypes() {
+    SQLFunction substr = CloudSpannerFunctions.FUNCTIONS.get("SUBSTR");
+    assertEquals(StandardBasicTypes.STRING, substr.getReturnType(null, null));
+    assertEquals(StandardBasicTypes.STRING,
+        substr.getReturnType(StandardBasicTypes.STRING, null));
+    assertEquals(StandardBasicTypes.BINARY,
+        substr.getReturnType(StandardBasicTypes.BINARY, null));
+    SQLFunction split = CloudSpannerFunctions.FUNCTIONS.get("SPLIT");
+    assertEquals(StringArrayType.INSTANCE, split.getReturnType(StandardBasicTypes.STRING, null));
+    assertEquals(BytesArrayType.INSTANCE, split.getReturnType(StandardBasicTypes.BINARY, null));
+  }
+
+  @Test
+  public void testArrayFunctionsReturnTheFirstArgumentType() {
+    assertEquals(Int64ArrayType.INSTANCE, CloudSpannerFunctions.FUNCTIONS.get("ARRAY_CONCAT")
+        .getReturnType(Int64ArrayType.INSTANCE, null));
+  }
+}
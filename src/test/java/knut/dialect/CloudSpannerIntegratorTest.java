@@ -0,0 +1,280 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import javax.persistence.CascadeType;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.Table;
+import knut.harness.FakeDatabase;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.CascadingActions;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for {@link CloudSpannerIntegrator} with the fake JDBC driver. */
+public class CloudSpannerIntegratorTest {
+  @Entity
+  @Table(name = "Albums")
+  public static class Album {
+    @Id
+    private Long albumId;
+    @OneToMany(mappedBy = "album", cascade = CascadeType.ALL, orphanRemoval = true)
+    private List<Track> tracks = new ArrayList<>();
+  }
+
+  @Entity
+  @Table(name = "Tracks")
+  @InterleaveInParent(value = "Albums", cascadeDelete = true)
+  @IdClass(Track.Key.class)
+  public static class Track {
+    public static class Key implements Serializable {
+      private static final long serialVersionUID = 1L;
+      private Long albumId;
+      private Long trackNo;
+
+      @Override
+      public boolean equals(Object obj) {
+        return obj instanceof Key && Objects.equals(albumId, ((Key) obj).albumId)
+            && Objects.equals(trackNo, ((Key) obj).trackNo);
+      }
+
+      @Override
+      public int hashCode() {
+        return Objects.hash(albumId, trackNo);
+      }
+    }
+
+    @Id
+    private Long albumId;
+    @Id
+    private Long trackNo;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "albumId", insertable = false, updatable = false)
+    private Album album;
+  }
+
+  /** A second-level cache that keeps its entries in maps. */
+  public static class MapRegionFactory extends RegionFactoryTemplate {
+    private static final long serialVersionUID = 1L;
+
+    private static class MapStorageAccess implements DomainDataStorageAccess {
+      private final Map<Object, Object> entries = new ConcurrentHashMap<>();
+
+      @Override
+      public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+        return entries.get(key);
+      }
+
+      @Override
+      public void putIntoCache(Object key, Object value,
+          SharedSessionContractImplementor session) {
+        entries.put(key, value);
+      }
+
+      @Override
+      public boolean contains(Object key) {
+        return entries.containsKey(key);
+      }
+
+      @Override
+      public void evictData() {
+        entries.clear();
+      }
+
+      @Override
+      public void evictData(Object key) {
+        entries.remove(key);
+      }
+
+      @Override
+      public void release() {
+        entries.clear();
+      }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    protected void prepareForUse(SessionFactoryOptions settings, Map configValues) {
+      // nothing to prepare
+    }
+
+    @Override
+    protected void releaseFromUse() {
+      // nothing to release
+    }
+
+    @Override
+    protected DomainDataStorageAccess createDomainDataStorageAccess(
+        DomainDataRegionConfig regionConfig, DomainDataRegionBuildingContext buildingContext) {
+      return new MapStorageAccess();
+    }
+
+    @Override
+    protected StorageAccess createQueryResultsRegionStorageAccess(String regionName,
+        SessionFactoryImplementor sessionFactory) {
+      return new MapStorageAccess();
+    }
+
+    @Override
+    protected StorageAccess createTimestampsRegionStorageAccess(String regionName,
+        SessionFactoryImplementor sessionFactory) {
+      return new MapStorageAccess();
+    }
+  }
+
+  private TestSessionFactory factory;
+  private FakeDatabase database;
+  private Metadata metadata;
+  private SessionFactory sessionFactory;
+
+  @Before
+  public void setup() throws SQLException {
+    open(TestSessionFactory.builder("integrator"));
+  }
+
+  private void open(TestSessionFactory.Builder builder) throws SQLException {
+    factory = builder.annotatedClasses(Album.class, Track.class).build();
+    database = factory.getDatabase();
+    metadata = factory.getMetadata();
+    sessionFactory = factory.getSessionFactory();
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      Album album = new Album();
+      album.albumId = 1L;
+      for (long i = 1L; i <= 3L; i++) {
+        Track track = new Track();
+        track.albumId = 1L;
+        track.trackNo = i;
+        track.album = album;
+        album.tracks.add(track);
+      }
+      session.save(album);
+      transaction.commit();
+    }
+    assertEquals(3, database.getRowCount("Tracks"));
+    database.clearLog();
+  }
+
+  @After
+  public void tearDown() {
+    if (factory != null) {
+      factory.close();
+      factory = null;
+    }
+  }
+
+  private List<String> getExecutedDeletes() {
+    return database.getExecutedStatements().stream()
+        .filter(sql -> sql.toLowerCase().startsWith("delete")).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testDeleteWithLoadedChildren() throws SQLException {
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      Album album = session.get(Album.class, 1L);
+      Track track = album.tracks.get(0);
+      session.delete(album);
+      assertFalse(session.contains(track));
+      transaction.commit();
+    }
+    assertEquals(1, getExecutedDeletes().size());
+    assertEquals(0, database.getRowCount("Albums"));
+    assertEquals(0, database.getRowCount("Tracks"));
+  }
+
+  @Test
+  public void testDeleteWithoutLoadingChildren() throws SQLException {
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      Track.Key key = new Track.Key();
+      key.albumId = 1L;
+      key.trackNo = 2L;
+      Track track = session.get(Track.class, key);
+      database.clearLog();
+      session.delete(session.get(Album.class, 1L));
+      assertFalse(session.contains(track));
+      transaction.commit();
+    }
+    assertEquals(1, getExecutedDeletes().size());
+    assertFalse(database.getExecutedStatements().stream()
+        .anyMatch(sql -> sql.toLowerCase().contains("from tracks")));
+    assertEquals(0, database.getRowCount("Tracks"));
+  }
+
+  @Test
+  public void testMappingNotChanged() {
+    // the delete cascade is only removed from the persister of the session factory
+    assertTrue(metadata.getEntityBinding(Album.class.getName()).getProperty("tracks")
+        .getCascadeStyle().doCascade(CascadingActions.DELETE));
+    EntityPersister persister = sessionFactory.unwrap(SessionFactoryImplementor.class)
+        .getMetamodel().entityPersister(Album.class);
+    assertFalse(persister.getPropertyCascadeStyles()[persister.getEntityMetamodel()
+        .getPropertyIndex("tracks")].doCascade(CascadingActions.DELETE));
+  }
+
+  @Test
+  public void testDeleteWithCachedChildren() throws SQLException {
+    tearDown();
+    open(TestSessionFactory.builder("integrator")
+        .setting(AvailableSettings.CACHE_REGION_FACTORY, MapRegionFactory.class.getName())
+        .setting(AvailableSettings.JPA_SHARED_CACHE_MODE, "ALL"));
+    Track.Key key = new Track.Key();
+    key.albumId = 1L;
+    key.trackNo = 2L;
+    assertTrue(sessionFactory.getCache().containsEntity(Track.class, key));
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      session.delete(session.get(Album.class, 1L));
+      transaction.commit();
+    }
+    assertEquals(0, database.getRowCount("Tracks"));
+    try (Session session = sessionFactory.openSession()) {
+      assertNull(session.get(Track.class, key));
+    }
+  }
+
+  @Test
+  public void testOrphanRemoval() throws SQLException {
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      Album album = session.get(Album.class, 1L);
+      album.tracks.remove(0);
+      transaction.commit();
+      assertTrue(session.contains(album));
+    }
+    assertEquals(1, getExecutedDeletes().size());
+    assertEquals(2, database.getRowCount("Tracks"));
+  }
+}
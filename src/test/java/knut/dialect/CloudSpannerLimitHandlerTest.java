@@ -0,0 +1,73 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.hibernate.engine.spi.RowSelection;
+import org.junit.Test;
+
+/** Tests for the paged SQL cache of {@link CloudSpannerLimitHandler}. */
+public class CloudSpannerLimitHandlerTest {
+  private static final String SQL = "select id from Singers order by id";
+
+  @Test
+  public void testProcessSql() {
+    CloudSpannerLimitHandler handler = new CloudSpannerLimitHandler(10);
+    RowSelection firstPage = new RowSelection();
+    firstPage.setMaxRows(20);
+    RowSelection nextPage = new RowSelection();
+    nextPage.setFirstRow(20);
+    nextPage.setMaxRows(20);
+    String first = handler.processSql(SQL, firstPage);
+    assertEquals(SQL + " limit ?", first);
+    assertEquals(SQL + " limit ? offset ?", handler.processSql(SQL, nextPage));
+    assertSame(first, handler.processSql(SQL, firstPage));
+    assertEquals(1L, handler.getHitCount());
+    assertEquals(2L, handler.getMissCount());
+    assertEquals(2, handler.getSize());
+  }
+
+  @Test
+  public void testEviction() {
+    CloudSpannerLimitHandler handler = new CloudSpannerLimitHandler(4);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(SQL + i + " limit ?", handler.getLimitString(SQL + i, false));
+      assertEquals(SQL + i + " limit ? offset ?", handler.getLimitString(SQL + i, true));
+    }
+    assertEquals(4, handler.getSize());
+    assertEquals(16L, handler.getEvictionCount());
+    handler.clear();
+    assertEquals(0, handler.getSize());
+    assertEquals(0L, handler.getMissCount());
+  }
+
+  @Test
+  public void testDisabledCache() {
+    CloudSpannerLimitHandler handler = new CloudSpannerLimitHandler(0);
+    assertEquals(SQL + " limit ?", handler.getLimitString(SQL, false));
+    assertEquals(0, handler.getSize());
+  }
+
+  @Test
+  public void testMBeanRegistration() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(
+        "knut.dialect:type=PagedSqlCache,name=" + ObjectName.quote("limit-handler-test"));
+    CloudSpannerLimitHandler handler = new CloudSpannerLimitHandler(10);
+    // registered by two session factories, and unregistered when both are closed
+    handler.registerMBean("limit-handler-test");
+    handler.registerMBean("limit-handler-test");
+    assertTrue(server.isRegistered(name));
+    handler.unregisterMBean();
+    assertTrue(server.isRegistered(name));
+    handler.unregisterMBean();
+    assertFalse(server.isRegistered(name));
+    handler.unregisterMBean();
+    assertFalse(server.isRegistered(name));
+  }
+}
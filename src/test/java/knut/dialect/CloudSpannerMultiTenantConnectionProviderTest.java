@@ -0,0 +1,153 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import knut.harness.FakeSpannerDriver;
+import knut.harness.Singer;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.engine.jdbc.connections.spi.MultiTenantConnectionProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for {@link CloudSpannerMultiTenantConnectionProvider} with the fake JDBC driver. */
+public class CloudSpannerMultiTenantConnectionProviderTest {
+  private static final String[] TENANTS = {"mt-template", "mt-tenant1", "mt-tenant2"};
+
+  private final Map<String, Object> settings = new HashMap<>();
+  private CloudSpannerMultiTenantConnectionProvider provider;
+
+  @Before
+  public void setup() throws SQLException {
+    FakeSpannerDriver.register();
+    provider = new CloudSpannerMultiTenantConnectionProvider();
+    settings.put("hibernate.connection.url", FakeSpannerDriver.URL_PREFIX + "{tenant}");
+    settings.put(CloudSpannerMultiTenantConnectionProvider.DEFAULT_TENANT, TENANTS[0]);
+    settings.put(CloudSpannerMultiTenantConnectionProvider.MAX_IDLE_CONNECTIONS, "1");
+    settings.put(CloudSpannerMultiTenantConnectionProvider.MAX_TENANTS, "2");
+    settings.put(InstrumentedConnectionProvider.JMX_ENABLED, "false");
+    provider.configure(settings);
+  }
+
+  @After
+  public void tearDown() {
+    provider.stop();
+    for (String tenant : TENANTS) {
+      FakeSpannerDriver.dropDatabase(tenant);
+    }
+  }
+
+  @Test
+  public void testPoolsAndEviction() throws SQLException {
+    Connection first = provider.getConnection(TENANTS[1]);
+    Connection second = provider.getConnection(TENANTS[1]);
+    provider.releaseConnection(TENANTS[1], first);
+    provider.releaseConnection(TENANTS[1], second);
+    assertFalse(first.isClosed());
+    assertTrue(second.isClosed());
+    assertSame(first, provider.getConnection(TENANTS[1]));
+    assertEquals(1, provider.getBorrowedConnectionCount());
+
+    // the least recently used tenant without borrowed connections is evicted
+    provider.releaseAnyConnection(provider.getAnyConnection());
+    provider.releaseConnection(TENANTS[2], provider.getConnection(TENANTS[2]));
+    assertEquals(2, provider.getTenantCount());
+    assertEquals(1L, provider.getEvictedTenantCount());
+
+    provider.evictIdleTenants(System.nanoTime() + 1L);
+    assertEquals(1, provider.getTenantCount());
+    assertEquals(0, provider.getIdleConnectionCount());
+    provider.releaseConnection(TENANTS[1], first);
+    provider.evictIdleTenants(System.nanoTime() + 1L);
+    assertTrue(first.isClosed());
+    assertEquals(0, provider.getTenantCount());
+    assertEquals(4L, provider.getCreatedConnectionCount());
+  }
+
+  @Test
+  public void testResetReleasedConnection() throws SQLException {
+    Connection connection = provider.getConnection(TENANTS[1]);
+    connection.setAutoCommit(false);
+    connection.setReadOnly(true);
+    provider.releaseConnection(TENANTS[1], connection);
+    assertSame(connection, provider.getConnection(TENANTS[1]));
+    assertTrue(connection.getAutoCommit());
+    assertFalse(connection.isReadOnly());
+  }
+
+  @Test
+  public void testInvalidTenantIdentifier() throws SQLException {
+    for (String tenant : new String[] {null, "Tenant", "t", "tenant;credentials=x"}) {
+      try {
+        provider.getConnection(tenant);
+        fail("Expected an exception for " + tenant);
+      } catch (HibernateException e) {
+        // expected
+      }
+    }
+    assertEquals(0, provider.getTenantCount());
+  }
+
+  @Test
+  public void testSharedSessionFactory() throws SQLException {
+    provider.stop();
+    StandardServiceRegistry registry = new StandardServiceRegistryBuilder().applySettings(settings)
+        .applySetting("hibernate.dialect", CloudSpannerDialect.class.getName())
+        .applySetting("hibernate.multiTenancy", "DATABASE")
+        .applySetting("hibernate.multi_tenant_connection_provider",
+            CloudSpannerMultiTenantConnectionProvider.class.getName())
+        .applySetting("hibernate.hbm2ddl.auto", "create").build();
+    provider = registry.getService(MultiTenantConnectionProvider.class)
+        .unwrap(CloudSpannerMultiTenantConnectionProvider.class);
+    try (SessionFactory sessionFactory = new MetadataSources(registry)
+        .addAnnotatedClass(Singer.class).buildMetadata().buildSessionFactory()) {
+      // the schema management tool only runs for the default tenant
+      assertEquals(1, FakeSpannerDriver.getDatabase(TENANTS[0]).getTableNames().size());
+      for (int i = 1; i < TENANTS.length; i++) {
+        createSingersTable(TENANTS[i]);
+        try (Session session =
+            sessionFactory.withOptions().tenantIdentifier(TENANTS[i]).openSession()) {
+          Transaction transaction = session.beginTransaction();
+          for (long id = 1L; id <= i; id++) {
+            Singer singer = new Singer();
+            singer.setSingerId(id);
+            singer.setLastName("Last" + id);
+            session.save(singer);
+          }
+          transaction.commit();
+        }
+      }
+    } finally {
+      StandardServiceRegistryBuilder.destroy(registry);
+    }
+    assertEquals(0, FakeSpannerDriver.getDatabase(TENANTS[0]).getRowCount("Singers"));
+    assertEquals(1, FakeSpannerDriver.getDatabase(TENANTS[1]).getRowCount("Singers"));
+    assertEquals(2, FakeSpannerDriver.getDatabase(TENANTS[2]).getRowCount("Singers"));
+  }
+
+  private void createSingersTable(String tenant) throws SQLException {
+    Connection connection = provider.getConnection(tenant);
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("create table Singers (singerId INT64 not null, active BOOL not null, "
+          + "birthDate DATE, firstName STRING(100), lastName STRING(100) not null) "
+          + "primary key (singerId)");
+    } finally {
+      provider.releaseConnection(tenant, connection);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/** Tests for {@link CloudSpannerStatementInspector}. */
+public class CloudSpannerStatementInspectorTest {
+  @Test
+  public void testShardConditions() {
+    CloudSpannerStatementInspector inspector = new CloudSpannerStatementInspector();
+    assertEquals("select 1", inspector.inspect("select 1"));
+    inspector.addShardedTable("`Events`", "shard", 2, Arrays.asList("deviceId", "eventTime"));
+    assertEquals("select e.payload from Events e where e.shard in (0, 1) and "
+        + "(e.eventTime > ? or e.deviceId = 'x') order by e.eventTime limit 10",
+        inspector.inspect("select e.payload from Events e where e.eventTime > ? "
+            + "or e.deviceId = 'x' order by e.eventTime limit 10"));
+    assertEquals("select * from Events where Events.shard in (0, 1) and (eventTime > ?)",
+        inspector.inspect("select * from Events where eventTime > ?"));
+    assertEquals("select * from Other o join Events as e on e.deviceId = o.id "
+        + "where e.shard in (0, 1) and (e.eventTime > ?)",
+        inspector.inspect("select * from Other o join Events as e on e.deviceId = o.id "
+            + "where e.eventTime > ?"));
+    // statements that select a shard, have no key condition, or only use it in a subquery
+    for (String sql : Arrays.asList(
+        "select * from Events e where e.shard = ? and e.eventTime > ?",
+        "select * from Events e where e.payload = 'eventTime > 0'",
+        "select * from Events e",
+        "select * from Other o where o.id in (select e.deviceId from Events e "
+            + "where e.eventTime > ?)",
+        "delete from Events where eventTime < ?")) {
+      assertEquals(sql, inspector.inspect(sql));
+    }
+  }
+
+  @Test
+  public void testGeneratedColumns() {
+    CloudSpannerStatementInspector inspector = new CloudSpannerStatementInspector();
+    List<String> columns = Arrays.asList("id", "email", "payload");
+    inspector.addGeneratedColumn("Users", "emailLower", "LOWER(email)", columns);
+    inspector.addGeneratedColumn("Users", "type", "JSON_VALUE(payload, '$.type')", columns);
+    assertEquals("select u.id from Users u where u.emailLower=? and u.type = 'a'",
+        inspector.inspect("select u.id from Users u where lower(u.email)=? "
+            + "and json_value(u.payload, '$.type') = 'a'"));
+    assertEquals("update Users set payload=? where emailLower = ?",
+        inspector.inspect("update Users set payload=? where LOWER(email) = ?"));
+    assertEquals("select o.id from Other o where o.userId in (select u.id from Users u "
+        + "where u.emailLower = ?)", inspector.inspect("select o.id from Other o where "
+            + "o.userId in (select u.id from Users u where lower(u.email) = ?)"));
+    // expressions of other tables, other arguments and writes are not replaced
+    for (String sql : Arrays.asList(
+        "select o.id from Other o where lower(o.email) = ?",
+        "select u.id from Users u where lower(u.payload) = ?",
+        "select u.id from Users u where json_value(u.payload, '$.name') = ?",
+        "select u.id from Users u where upper(u.email) = ?",
+        "insert into Users (id, email) values (?, lower(email))")) {
+      assertEquals(sql, inspector.inspect(sql));
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import knut.harness.FakeDatabase;
+import org.hibernate.SessionFactory;
+import org.hibernate.annotations.Type;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests for {@link CollectionArrayType}. */
+public class CollectionArrayTypeTest {
+  @Entity
+  @Table(name = "Posts")
+  public static class Post {
+    @Id
+    private Long postId;
+    @Type(type = "knut.dialect.CollectionArrayType")
+    private List<String> tags = new ArrayList<>();
+    @Type(type = "knut.dialect.CollectionArrayType")
+    private Set<Long> labels = new LinkedHashSet<>();
+    @Type(type = "knut.dialect.CollectionArrayType")
+    private List<byte[]> hashes = new ArrayList<>();
+  }
+
+  private static TestSessionFactory factory;
+  private static FakeDatabase database;
+  private static SessionFactory sessionFactory;
+  private static EntityPersister persister;
+
+  @BeforeClass
+  public static void setup() throws SQLException {
+    factory = TestSessionFactory.builder("collection-array").annotatedClasses(Post.class).build();
+    database = factory.getDatabase();
+    sessionFactory = factory.getSessionFactory();
+    persister = sessionFactory.unwrap(SessionFactoryImplementor.class).getMetamodel()
+        .entityPersister(Post.class);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (factory != null) {
+      factory.close();
+    }
+  }
+
+  @Test
+  public void testColumnTypes() {
+    String create = database.getExecutedStatements().stream()
+        .filter(sql -> sql.startsWith("create table Posts")).findFirst().get();
+    assertTrue(create, create.contains("tags ARRAY<STRING(MAX)>"));
+    assertTrue(create, create.contains("labels ARRAY<INT64>"));
+    assertTrue(create, create.contains("hashes ARRAY<BYTES(MAX)>"));
+    assertEquals("STRING_COLLECTION_ARRAY", persister.getPropertyType("tags").getName());
+  }
+
+  @Test
+  public void testDirtyChecking() {
+    CollectionArrayType type = (CollectionArrayType) persister.getPropertyType("hashes");
+    List<byte[]> hashes = new ArrayList<>(Arrays.asList(new byte[] {1, 2}, new byte[] {3}));
+    @SuppressWarnings("unchecked")
+    List<byte[]> snapshot = (List<byte[]>) type.deepCopy(hashes, null);
+    assertNotSame(hashes.get(0), snapshot.get(0));
+    assertTrue(type.isEqual(hashes, snapshot));
+    hashes.get(0)[0] = 5;
+    assertFalse(type.isEqual(hashes, snapshot));
+
+    CollectionArrayType setType = (CollectionArrayType) persister.getPropertyType("labels");
+    Collection<?> labels = setType.getJavaTypeDescriptor().wrap(new Object[] {3L, 1L, 2L}, null);
+    assertTrue(labels instanceof Set);
+    assertEquals(Arrays.asList(3L, 1L, 2L), new ArrayList<>(labels));
+    assertTrue(setType.isEqual(labels, new HashSet<>(Arrays.asList(1L, 2L, 3L))));
+    assertFalse(setType.isEqual(labels, new HashSet<>(Arrays.asList(1L, 2L))));
+
+    // sets of arrays hold their elements by identity: the arrays are compared by content
+    CollectionArrayType bytesSetType =
+        new CollectionArrayType(CollectionArrayType.ElementType.BYTES, true);
+    Set<byte[]> digests = new LinkedHashSet<>(Arrays.asList(new byte[] {1}, new byte[] {2}));
+    assertTrue(bytesSetType.isEqual(digests,
+        new LinkedHashSet<>(Arrays.asList(new byte[] {2}, new byte[] {1}))));
+    assertFalse(bytesSetType.isEqual(digests,
+        new LinkedHashSet<>(Arrays.asList(new byte[] {2}, new byte[] {2}))));
+  }
+}
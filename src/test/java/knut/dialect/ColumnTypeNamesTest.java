@@ -0,0 +1,47 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Types;
+import org.hibernate.MappingException;
+import org.junit.Test;
+
+/** Tests for the precomputed type names of {@link AbstractCloudSpannerDialect}. */
+public class ColumnTypeNamesTest {
+
+  @Test
+  public void testCastTypeNames() {
+    CloudSpannerDialect dialect = new CloudSpannerDialect();
+    assertEquals("INT64", dialect.getCastTypeName(Types.INTEGER));
+    assertEquals("STRING", dialect.getCastTypeName(Types.CHAR));
+    // VARCHAR and VARBINARY are only registered with a maximum length
+    assertEquals("STRING", dialect.getCastTypeName(Types.VARCHAR));
+    assertEquals("BYTES", dialect.getCastTypeName(Types.VARBINARY));
+    assertEquals("BYTES", dialect.getCastTypeName(Types.BLOB));
+    assertEquals("TIMESTAMP", dialect.getCastTypeName(Types.TIMESTAMP));
+  }
+
+  @Test
+  public void testMaxLengthAndArrayTypeNames() {
+    CloudSpannerDialect dialect = new CloudSpannerDialect();
+    assertEquals("STRING(MAX)", dialect.getMaxLengthTypeName(Types.VARCHAR));
+    assertEquals("BOOL", dialect.getMaxLengthTypeName(Types.BOOLEAN));
+    assertEquals("ARRAY<BYTES(MAX)>", dialect.getArrayTypeName(Types.BINARY));
+    assertEquals("ARRAY<INT64>", dialect.getArrayTypeName(Types.BIGINT));
+  }
+
+  @Test
+  public void testRegisterColumnTypeInSubclass() {
+    CloudSpannerDialect dialect = new CloudSpannerDialect() {
+      {
+        registerColumnType(Types.REAL, "FLOAT64");
+      }
+    };
+    assertEquals("FLOAT64", dialect.getCastTypeName(Types.REAL));
+  }
+
+  @Test(expected = MappingException.class)
+  public void testUnregisteredType() {
+    new CloudSpannerDialect().getCastTypeName(Types.STRUCT);
+  }
+}
@@ -0,0 +1,289 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import knut.harness.FakeDatabase;
+import knut.harness.FakeSpannerDriver;
+import knut.harness.Singer;
+import org.hibernate.MappingException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.junit.Test;
+
+/** Tests for {@link CommitTimestampRegionFactory} and its storage. */
+public class CommitTimestampRegionFactoryTest {
+  private static final long SECOND = 1000000L;
+  private static final long READ = 1000L * SECOND;
+
+  @Entity
+  @Table(name = "Products", indexes = @Index(columnList = "CommitTimestamp DESC"))
+  public static class Product {
+    @Id
+    private Long id;
+    private String name;
+    @Column(name = "CommitTimestamp", insertable = false, updatable = false,
+        columnDefinition = "TIMESTAMP OPTIONS (allow_commit_timestamp=true)")
+    private Timestamp commitTimestamp;
+  }
+
+  @Entity
+  @Table(name = "Orders", indexes = @Index(columnList = "CommitTimestamp"))
+  public static class Order {
+    @Id
+    private Long id;
+    @Column(name = "CommitTimestamp", insertable = false, updatable = false,
+        columnDefinition = "TIMESTAMP OPTIONS (allow_commit_timestamp=true)")
+    private Timestamp commitTimestamp;
+  }
+
+  private final Map<String, Long> commitTimestamps = new HashMap<>();
+  private final CommitTimestampWatermarks watermarks = new CommitTimestampWatermarks(table -> {
+    Long res = commitTimestamps.get(table);
+    if (res == null) {
+      throw new SQLException("Column not found: CommitTimestamp");
+    }
+    return res;
+  });
+
+  private CommitTimestampStorageAccess createStorage(int maxEntries) {
+    return new CommitTimestampStorageAccess(watermarks, () -> Collections.singletonList("Singers"),
+        10000L, 600000L, maxEntries, 1000L);
+  }
+
+  @Test
+  public void testWatermarkValidation() {
+    CommitTimestampStorageAccess storage = createStorage(100);
+    storage.put(1L, "one", READ);
+    // within the staleness window without a watermark query
+    assertEquals("one", storage.get(1L, READ + 5 * SECOND));
+    // the watermark has not been queried yet, so the entry cannot be validated
+    storage.put(1L, "one", READ);
+    assertNull(storage.get(1L, READ + 20 * SECOND));
+    assertEquals(0L, watermarks.getQueryCount());
+    assertEquals(0L, storage.getStaleCount());
+
+    // the watermarks are only queried in the background, for recently requested tables
+    commitTimestamps.put("Singers", READ - SECOND);
+    watermarks.refreshAll(READ + 21 * SECOND, READ + 11 * SECOND);
+    storage.put(1L, "one", READ);
+    assertEquals("one", storage.get(1L, READ + 25 * SECOND));
+    assertEquals("one", storage.get(1L, READ + 30 * SECOND));
+    assertEquals(1L, watermarks.getQueryCount());
+    // a watermark that is older than the staleness window does not validate entries
+    assertNull(storage.get(1L, READ + 40 * SECOND));
+
+    storage.put(1L, "one", READ);
+    commitTimestamps.put("Singers", READ + 2 * SECOND);
+    watermarks.refreshAll(READ + 41 * SECOND, READ + 31 * SECOND);
+    assertNull(storage.get(1L, READ + 42 * SECOND));
+    assertEquals(2L, watermarks.getQueryCount());
+    assertEquals(1L, storage.getStaleCount());
+    assertEquals(3L, storage.getHitCount());
+    assertEquals(3L, storage.getMissCount());
+
+    // tables without recent requests are not queried
+    watermarks.refreshAll(READ + 100 * SECOND, READ + 90 * SECOND);
+    assertEquals(2L, watermarks.getQueryCount());
+  }
+
+  @Test
+  public void testUnknownWatermark() {
+    CommitTimestampStorageAccess storage = createStorage(100);
+    storage.put(1L, "one", READ);
+    storage.put(2L, "two", READ);
+    assertEquals("one", storage.get(1L, READ + 5 * SECOND));
+    assertNull(storage.get(1L, READ + 20 * SECOND));
+    watermarks.refreshAll(READ + 20 * SECOND, READ + 10 * SECOND);
+    assertNull(storage.get(2L, READ + 21 * SECOND));
+    assertEquals(1L, watermarks.getQueryCount());
+  }
+
+  @Test
+  public void testEviction() {
+    CommitTimestampStorageAccess storage = createStorage(4);
+    for (int i = 0; i < 10; i++) {
+      storage.put(i, "value" + i, READ + i * SECOND);
+    }
+    assertEquals(4, storage.size());
+    assertEquals(6L, storage.getEvictionCount());
+    assertNotNull(storage.get(9, READ + 10 * SECOND));
+
+    storage.evictExpired(READ + 607 * SECOND);
+    assertEquals(3, storage.size());
+    storage.evictExpired(READ + 700 * SECOND);
+    assertEquals(0, storage.size());
+  }
+
+  @Test
+  public void testCommitTimestampStatements() {
+    CloudSpannerStatementInspector inspector = new CloudSpannerStatementInspector();
+    inspector.addCommitTimestampColumn("`Products`", "CommitTimestamp");
+    assertEquals("/* insert */ insert into Products (name, id, CommitTimestamp) "
+        + "values (?, ?, PENDING_COMMIT_TIMESTAMP())",
+        inspector.inspect("/* insert */ insert into Products (name, id) values (?, ?)"));
+    assertEquals("update Products set name=?, CommitTimestamp = PENDING_COMMIT_TIMESTAMP() "
+        + "where id=?", inspector.inspect("update Products set name=? where id=?"));
+    assertEquals("update Products p set p.name=concat(p.name, ?), "
+        + "CommitTimestamp = PENDING_COMMIT_TIMESTAMP()",
+        inspector.inspect("update Products p set p.name=concat(p.name, ?)"));
+    for (String sql : new String[] {"insert into Others (id) values (?)",
+        "insert into Products (id, CommitTimestamp) values (?, PENDING_COMMIT_TIMESTAMP())",
+        "delete from Products where id=?", "select name from Products where id=?"}) {
+      assertEquals(sql, inspector.inspect(sql));
+    }
+  }
+
+  @Test
+  public void testSecondLevelCache() throws Exception {
+    try (TestSessionFactory factory = builder("commit-timestamp-cache")
+        .setting(CommitTimestampRegionFactory.MAX_STALENESS, "500")
+        .setting(CommitTimestampRegionFactory.WATERMARK_REFRESH_INTERVAL, "20")
+        .setting(CommitTimestampRegionFactory.MAX_CLOCK_SKEW, "0")
+        .annotatedClasses(Product.class).build()) {
+      FakeDatabase database = factory.getDatabase();
+      assertTrue(database.getExecutedStatements().toString(), database.getExecutedStatements()
+          .stream().anyMatch(sql -> sql.startsWith("create index")
+              && sql.endsWith("on Products (CommitTimestamp desc)")));
+      SessionFactory sessionFactory = factory.getSessionFactory();
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        Product product = new Product();
+        product.id = 1L;
+        product.name = "first";
+        session.save(product);
+        transaction.commit();
+      }
+      assertTrue(database.getExecutedStatements().toString(), database.getExecutedStatements()
+          .stream().anyMatch(sql -> sql.startsWith("insert into Products")
+              && sql.endsWith(", PENDING_COMMIT_TIMESTAMP())")));
+      Thread.sleep(10L);
+      database.clearLog();
+      for (int i = 0; i < 2; i++) {
+        try (Session session = sessionFactory.openSession()) {
+          assertEquals("first", session.get(Product.class, 1L).name);
+        }
+      }
+      assertEquals(Collections.emptyList(), database.getExecutedStatements());
+      CommitTimestampRegionFactory regionFactory = (CommitTimestampRegionFactory) sessionFactory
+          .unwrap(SessionFactoryImplementor.class).getCache().getRegionFactory();
+      assertEquals(2L, regionFactory.getHitCount());
+      assertEquals(1, regionFactory.getSize());
+
+      // beyond the staleness window, the first lookup starts the watermark queries of the table
+      Thread.sleep(700L);
+      assertEquals("first", get(sessionFactory, 1L).name);
+      Thread.sleep(700L);
+      long hits = regionFactory.getHitCount();
+      assertEquals("first", get(sessionFactory, 1L).name);
+      assertEquals(hits + 1L, regionFactory.getHitCount());
+      assertTrue(regionFactory.getWatermarkQueryCount() > 0L);
+      assertTrue(database.getExecutedStatements().toString(), database.getExecutedStatements()
+          .contains("select `CommitTimestamp` from Products order by `CommitTimestamp` desc "
+              + "limit 1"));
+
+      // a change of another node moves the watermark past the cached entry
+      try (Connection connection = DriverManager.getConnection(
+          FakeSpannerDriver.URL_PREFIX + database.getName());
+          Statement statement = connection.createStatement()) {
+        statement.executeUpdate("update Products set name = 'changed', "
+            + "CommitTimestamp = PENDING_COMMIT_TIMESTAMP() where id = 1");
+      }
+      Thread.sleep(700L);
+      assertEquals("changed", get(sessionFactory, 1L).name);
+      assertEquals(1L, regionFactory.getStaleCount());
+    }
+  }
+
+  @Test
+  public void testCommitTimestampNotWritten() throws Exception {
+    // the registry is destroyed and the database dropped when the build fails
+    try {
+      builder("commit-timestamp-not-written").annotatedClasses(Singer.class).build().close();
+      fail("expected a missing commit timestamp column");
+    } catch (MappingException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("CommitTimestamp"));
+    }
+  }
+
+  @Test
+  public void testQueryResultsExpire() throws Exception {
+    try (TestSessionFactory factory = builder("commit-timestamp-query-cache")
+        .setting(CommitTimestampRegionFactory.MAX_STALENESS, "200")
+        .setting("hibernate.cache.use_query_cache", "true")
+        .annotatedClasses(Product.class).build()) {
+      FakeDatabase database = factory.getDatabase();
+      SessionFactory sessionFactory = factory.getSessionFactory();
+      database.clearLog();
+      for (int i = 0; i < 2; i++) {
+        assertEquals(Collections.emptyList(), queryNames(sessionFactory));
+      }
+      assertEquals(1L, database.getExecutedStatements().stream()
+          .filter(sql -> sql.startsWith("select")).count());
+
+      // another node inserts a row, which the cached result does not show until it expires
+      try (Connection connection = DriverManager.getConnection(
+          FakeSpannerDriver.URL_PREFIX + database.getName());
+          Statement statement = connection.createStatement()) {
+        statement.executeUpdate("insert into Products (id, name, CommitTimestamp) "
+            + "values (1, 'other', PENDING_COMMIT_TIMESTAMP())");
+      }
+      assertEquals(Collections.emptyList(), queryNames(sessionFactory));
+      Thread.sleep(300L);
+      assertEquals(Collections.singletonList("other"), queryNames(sessionFactory));
+    }
+  }
+
+  @Test
+  public void testCommitTimestampIndexMissing() throws Exception {
+    try {
+      builder("commit-timestamp-index-missing").annotatedClasses(Order.class).build().close();
+      fail("expected a missing descending index");
+    } catch (MappingException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("CommitTimestamp DESC"));
+    }
+  }
+
+  private static List<String> queryNames(SessionFactory sessionFactory) {
+    try (Session session = sessionFactory.openSession()) {
+      return session.createQuery("select p.name from " + Product.class.getName() + " p",
+          String.class).setCacheable(true).list();
+    }
+  }
+
+  private static TestSessionFactory.Builder builder(String databaseName) {
+    return TestSessionFactory.builder(databaseName)
+        .setting("hibernate.cache.use_second_level_cache", "true")
+        .setting("hibernate.cache.region.factory_class",
+            CommitTimestampRegionFactory.class.getName())
+        .setting("hibernate.session_factory.statement_inspector",
+            CloudSpannerStatementInspector.class.getName())
+        .setting("hibernate.cache.default_cache_concurrency_strategy", "read-write")
+        .setting("javax.persistence.sharedCache.mode", "ALL");
+  }
+
+  private static Product get(SessionFactory sessionFactory, long id) {
+    try (Session session = sessionFactory.openSession()) {
+      return session.get(Product.class, id);
+    }
+  }
+}
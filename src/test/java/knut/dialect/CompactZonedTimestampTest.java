@@ -0,0 +1,149 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import knut.harness.FakeDatabase;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.Test;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZoneOffset;
+import org.threeten.bp.ZonedDateTime;
+
+/** Tests for {@link CompactZonedTimestamp} and {@link ZonedTimestamp}. */
+public class CompactZonedTimestampTest {
+  @Entity
+  @Table(name = "Concerts")
+  public static class Concert {
+    @Id
+    private Long concertId;
+    private CompactZonedTimestamp startTime;
+  }
+
+  private static final Instant[] INSTANTS = {Instant.ofEpochSecond(-5000000000L, 123456000),
+      Instant.EPOCH, Instant.ofEpochSecond(1553994000L), Instant.ofEpochSecond(1572138000L, 1000),
+      Instant.parse("9999-12-31T23:59:59.999999Z")};
+
+  @Test
+  public void testAllZones() {
+    Map<Long, ZoneId> codes = new HashMap<>();
+    for (String id : ZoneId.getAvailableZoneIds()) {
+      ZoneId zone = ZoneCodes.of(id);
+      long code = ZoneCodes.code(zone);
+      assertNull(id, codes.put(code, zone));
+      assertTrue(id, code > Integer.MAX_VALUE);
+      for (Instant instant : INSTANTS) {
+        ZonedDateTime dateTime = ZonedDateTime.ofInstant(instant, zone);
+        CompactZonedTimestamp written = new CompactZonedTimestamp(dateTime);
+        CompactZonedTimestamp read =
+            new CompactZonedTimestamp(written.getEpochMicros(), code);
+        assertEquals(dateTime, read.getZonedDateTime());
+        assertEquals(written, read);
+      }
+    }
+    for (int seconds = -18 * 3600; seconds <= 18 * 3600; seconds += 900) {
+      ZoneOffset offset = ZoneOffset.ofTotalSeconds(seconds);
+      assertEquals(seconds, ZoneCodes.code(offset));
+      assertEquals(offset, ZoneCodes.zone(seconds));
+    }
+    assertSame(ZoneCodes.of("Europe/Amsterdam"), ZoneCodes.of("Europe/Amsterdam"));
+  }
+
+  @Test
+  public void testFixedOffsetRegions() {
+    ZonedDateTime dateTime = ZonedDateTime.ofInstant(INSTANTS[2], ZoneId.of("UTC+01:00"));
+    CompactZonedTimestamp timestamp = new CompactZonedTimestamp(dateTime);
+    assertEquals(3600L, ZoneCodes.code(ZoneId.of("UTC+01:00")));
+    assertEquals(7200L, ZoneCodes.code(ZoneId.of("GMT+2")));
+    assertEquals(dateTime.withZoneSameInstant(ZoneOffset.ofHours(1)),
+        timestamp.getZonedDateTime());
+  }
+
+  @Test
+  public void testDecodeWithoutCache() throws Exception {
+    String[] ids = {"Europe/Amsterdam", "America/Argentina/Buenos_Aires", "UTC+01:00", "GMT-3"};
+    List<URL> urls = new ArrayList<>();
+    for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      urls.add(new File(path).toURI().toURL());
+    }
+    // a class loader of its own decodes with new caches, like another JVM would
+    try (URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]),
+        ClassLoader.getSystemClassLoader().getParent())) {
+      Method zone = Class.forName(ZoneCodes.class.getName(), true, loader)
+          .getDeclaredMethod("zone", long.class);
+      zone.setAccessible(true);
+      for (String id : ids) {
+        ZoneId expected = ZoneId.of(id).normalized();
+        assertEquals(id, expected.getId(),
+            zone.invoke(null, ZoneCodes.code(ZoneId.of(id))).toString());
+      }
+    }
+  }
+
+  @Test
+  public void testMicrosecondPrecision() {
+    ZonedDateTime dateTime = ZonedDateTime.ofInstant(Instant.ofEpochSecond(-1L, 999999999),
+        ZoneCodes.of("America/New_York"));
+    CompactZonedTimestamp timestamp = new CompactZonedTimestamp(dateTime);
+    assertEquals(-1L, timestamp.getEpochMicros());
+    assertEquals(dateTime.withNano(999999000), timestamp.getZonedDateTime());
+    // the zone in the zone code is kept instead of its offset
+    assertEquals(dateTime.getZone(), new CompactZonedTimestamp(-1L, ZoneCodes.code(
+        dateTime.getZone())).getZonedDateTime().getZone());
+  }
+
+  @Test
+  public void testZonedTimestampUnits() {
+    ZonedDateTime dateTime = ZonedDateTime.ofInstant(Instant.ofEpochSecond(1553994000L, 1234567),
+        ZoneCodes.of("Europe/Amsterdam"));
+    ZonedTimestamp timestamp = new ZonedTimestamp();
+    timestamp.setZonedDateTime(dateTime);
+    assertEquals(dateTime, timestamp.getZonedDateTime());
+  }
+
+  @Test
+  public void testPersist() throws SQLException {
+    try (TestSessionFactory factory = TestSessionFactory.builder("compact-zoned-timestamp")
+        .annotatedClasses(Concert.class).build()) {
+      FakeDatabase database = factory.getDatabase();
+      SessionFactory sessionFactory = factory.getSessionFactory();
+      String create = database.getExecutedStatements().stream()
+          .filter(sql -> sql.startsWith("create table Concerts")).findFirst().get();
+      assertTrue(create, create.contains("epochMicros INT64"));
+      assertTrue(create, create.contains("zoneCode INT64"));
+      ZonedDateTime dateTime = ZonedDateTime.ofInstant(INSTANTS[3], ZoneCodes.of("Asia/Tokyo"));
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        Concert concert = new Concert();
+        concert.concertId = 1L;
+        concert.startTime = new CompactZonedTimestamp(dateTime);
+        session.save(concert);
+        Concert unscheduled = new Concert();
+        unscheduled.concertId = 2L;
+        session.save(unscheduled);
+        transaction.commit();
+      }
+      try (Session session = sessionFactory.openSession()) {
+        assertEquals(dateTime, session.get(Concert.class, 1L).startTime.getZonedDateTime());
+        assertNull(session.get(Concert.class, 2L).startTime);
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.hibernate.HibernateException;
+import org.junit.Test;
+
+/** Tests for the compressing attribute converters and {@link CompressionCodec}. */
+public class CompressionConverterTest {
+  private static String json(int records) {
+    Random random = new Random(42L);
+    StringBuilder res = new StringBuilder("[");
+    for (int i = 0; i < records; i++) {
+      res.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"singer-")
+          .append(random.nextInt(100)).append("\",\"active\":").append(random.nextBoolean())
+          .append(",\"tags\":[\"rock\",\"pop\"]}");
+    }
+    return res.append(']').toString();
+  }
+
+  @Test
+  public void testRoundTrip() {
+    Random random = new Random(1L);
+    for (CompressedBytesConverter converter : Arrays.asList(new DeflateBytesConverter(),
+        new LzBytesConverter())) {
+      for (int size : new int[] {0, 1, 100, 255, 256, 1000, 70000, 300000}) {
+        byte[] noise = new byte[size];
+        random.nextBytes(noise);
+        byte[] runs = new byte[size];
+        for (int i = 0; i < size; i++) {
+          runs[i] = (byte) (i / 37 % 5);
+        }
+        for (byte[] value : Arrays.asList(noise, runs)) {
+          byte[] encoded = converter.convertToDatabaseColumn(value);
+          assertArrayEquals(converter.getClass().getSimpleName() + " " + size, value,
+              converter.convertToEntityAttribute(encoded));
+          // incompressible values are stored with a header of at most four bytes
+          assertTrue(encoded.length <= size + 4);
+        }
+      }
+    }
+    String text = json(1000) + "\u00e9\u20ac\ud83d\ude00";
+    for (CompressedStringConverter converter : Arrays.asList(new DeflateStringConverter(),
+        new LzStringConverter())) {
+      assertEquals(text, converter.convertToEntityAttribute(
+          converter.convertToDatabaseColumn(text)));
+      assertEquals("", converter.convertToEntityAttribute(converter.convertToDatabaseColumn("")));
+      assertNull(converter.convertToDatabaseColumn(null));
+      assertNull(converter.convertToEntityAttribute(null));
+    }
+  }
+
+  @Test
+  public void testHeader() {
+    String text = json(1000);
+    byte[] deflated = new DeflateStringConverter().convertToDatabaseColumn(text);
+    byte[] lz = new LzStringConverter().convertToDatabaseColumn(text);
+    assertEquals(0x10 | CompressionCodec.DEFLATE.getId(), deflated[0]);
+    assertEquals(0x10 | CompressionCodec.LZ.getId(), lz[0]);
+    // JSON compresses well, and deflate better than the LZ codec
+    assertTrue(deflated.length * 6 < text.length());
+    assertTrue(lz.length * 3 < text.length());
+    assertTrue(deflated.length < lz.length);
+    // values are decoded with the codec of their header
+    assertEquals(text, new LzStringConverter().convertToEntityAttribute(deflated));
+    assertEquals(text, new DeflateStringConverter().convertToEntityAttribute(lz));
+
+    byte[] small = new LzStringConverter().convertToDatabaseColumn("short");
+    assertEquals(0x10 | CompressionCodec.NONE.getId(), small[0]);
+    assertArrayEquals(new byte[] {0x10, 5, 's', 'h', 'o', 'r', 't'}, small);
+  }
+
+  @Test
+  public void testCorruptValues() {
+    byte[] lz = new LzBytesConverter()
+        .convertToDatabaseColumn(json(100).getBytes(StandardCharsets.UTF_8));
+    for (byte[] value : Arrays.asList(new byte[0], new byte[] {0x20, 0},
+        new byte[] {0x1f, 0}, Arrays.copyOf(lz, lz.length / 2))) {
+      try {
+        new LzBytesConverter().convertToEntityAttribute(value);
+        fail("Expected an exception for " + Arrays.toString(value));
+      } catch (HibernateException e) {
+        // expected
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import knut.harness.FakeDatabase;
+import org.hibernate.MappingException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.Test;
+
+/** Tests for {@link GeneratedColumn}. */
+public class GeneratedColumnTest {
+  @Entity
+  @Table(name = "Users")
+  @GeneratedColumn(name = "emailLower", expression = "LOWER(email)", type = "STRING(255)",
+      index = true, unique = true)
+  public static class User {
+    @Id
+    private Long id;
+    private String email;
+  }
+
+  @Test
+  public void testGeneratedColumn() throws Exception {
+    try (TestSessionFactory factory = TestSessionFactory.builder("generated-column")
+        .setting("hibernate.session_factory.statement_inspector",
+            CloudSpannerStatementInspector.class.getName())
+        .annotatedClasses(User.class).build()) {
+      FakeDatabase database = factory.getDatabase();
+      SessionFactory sessionFactory = factory.getSessionFactory();
+      String statements = database.getExecutedStatements().toString();
+      assertTrue(statements, statements.contains("create table Users (id INT64 not null, "
+          + "email STRING(255), emailLower STRING(255) AS (LOWER(email)) STORED) "));
+      assertTrue(statements, statements.matches(
+          ".*create unique index IDX_\\w+ on Users \\(emailLower\\).*"));
+
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        for (long id = 1L; id <= 3L; id++) {
+          User user = new User();
+          user.id = id;
+          user.email = "User" + id + "@Example.com";
+          session.persist(user);
+        }
+        transaction.commit();
+      }
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        database.clearLog();
+        User user = session.createQuery("from GeneratedColumnTest$User u "
+            + "where lower(u.email) = :email", User.class)
+            .setParameter("email", "user2@example.com").uniqueResult();
+        assertEquals(Long.valueOf(2L), user.id);
+        String select = database.getExecutedStatements().get(0);
+        assertTrue(select, select.contains(".emailLower=?"));
+
+        // the column is computed again when the row is updated
+        user.email = "Second@Example.com";
+        transaction.commit();
+      }
+      try (Session session = sessionFactory.openSession()) {
+        assertEquals(Long.valueOf(1L), session.createQuery("select count(u) from "
+            + "GeneratedColumnTest$User u where lower(u.email) = 'second@example.com'",
+            Long.class).uniqueResult());
+      }
+    }
+  }
+
+  @Test(expected = MappingException.class)
+  public void testMappedColumn() {
+    StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", CloudSpannerDialect.class.getName()).build();
+    try {
+      new MetadataSources(registry).addAnnotatedClass(MappedUser.class).buildMetadata()
+          .getEntityBindings().forEach(GeneratedColumns::getColumns);
+    } finally {
+      StandardServiceRegistryBuilder.destroy(registry);
+    }
+  }
+
+  @Entity
+  @Table(name = "MappedUsers")
+  @GeneratedColumn(name = "email", expression = "LOWER(name)", type = "STRING(MAX)")
+  public static class MappedUser {
+    @Id
+    private Long id;
+    private String email;
+    private String name;
+  }
+}
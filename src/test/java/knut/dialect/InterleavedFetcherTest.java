@@ -0,0 +1,197 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OrderBy;
+import javax.persistence.Table;
+import com.google.cloud.spanner.ReadContext;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Type.StructField;
+import com.google.cloud.spanner.Value;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests for {@link InterleavedFetcher}. */
+public class InterleavedFetcherTest {
+  @Entity
+  @Table(name = "Orders")
+  public static class Order {
+    @Id
+    private Long orderId;
+    private String customer;
+    @OneToMany(mappedBy = "order")
+    @OrderBy("lineNo")
+    private List<OrderLine> lines = new ArrayList<>();
+    @OneToMany
+    @JoinColumn(name = "orderId")
+    private List<Note> notes = new ArrayList<>();
+  }
+
+  @Entity
+  @Table(name = "OrderLines")
+  @InterleaveInParent("Orders")
+  @IdClass(OrderLine.Key.class)
+  public static class OrderLine {
+    public static class Key implements Serializable {
+      private static final long serialVersionUID = 1L;
+      private Long orderId;
+      private Long lineNo;
+
+      @Override
+      public boolean equals(Object obj) {
+        return obj instanceof Key && Objects.equals(orderId, ((Key) obj).orderId)
+            && Objects.equals(lineNo, ((Key) obj).lineNo);
+      }
+
+      @Override
+      public int hashCode() {
+        return Objects.hash(orderId, lineNo);
+      }
+    }
+
+    @Id
+    private Long orderId;
+    @Id
+    private Long lineNo;
+    private String product;
+    @ManyToOne
+    @JoinColumn(name = "orderId", insertable = false, updatable = false)
+    private Order order;
+  }
+
+  /** Not interleaved in <code>Orders</code>. */
+  @Entity
+  @Table(name = "Notes")
+  public static class Note {
+    @Id
+    private Long noteId;
+  }
+
+  private static TestSessionFactory factory;
+  private static SessionFactory sessionFactory;
+
+  @BeforeClass
+  public static void setup() throws SQLException {
+    factory = TestSessionFactory.builder("interleaved").setting("hibernate.hbm2ddl.auto", "none")
+        .annotatedClasses(Order.class, OrderLine.class, Note.class).build();
+    sessionFactory = factory.getSessionFactory();
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (factory != null) {
+      factory.close();
+    }
+  }
+
+  @Test
+  public void testSql() {
+    InterleavedFetcher<Order> fetcher =
+        new InterleavedFetcher<>(sessionFactory, Order.class, "lines");
+    assertEquals("select p.orderId, p.customer, ARRAY(select as struct c.lineNo, c.orderId, "
+        + "c.product from OrderLines c where c.orderId = p.orderId order by c.lineNo) "
+        + "as _children0 from Orders p where p.customer = @customer",
+        fetcher.getSql("p.customer = @customer"));
+  }
+
+  @Test
+  public void testNotInterleaved() {
+    try {
+      new InterleavedFetcher<>(sessionFactory, Order.class, "notes");
+      fail("Notes are not interleaved in Orders");
+    } catch (HibernateException e) {
+      assertEquals(Note.class.getName() + " is not interleaved in Orders", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testFind() {
+    InterleavedFetcher<Order> fetcher =
+        new InterleavedFetcher<>(sessionFactory, Order.class, "lines");
+    Type lineType = Type.struct(Arrays.asList(StructField.of("lineNo", Type.int64()),
+        StructField.of("orderId", Type.int64()), StructField.of("product", Type.string())));
+    List<Struct> lines = Arrays.asList(
+        Struct.newBuilder().set("lineNo").to(1L).set("orderId").to(7L).set("product").to("a")
+            .build(),
+        Struct.newBuilder().set("lineNo").to(2L).set("orderId").to(7L).set("product").to("b")
+            .build());
+    Struct row = Struct.newBuilder().set("orderId").to(7L).set("customer").to("c")
+        .set("_children0").to(Value.structArray(lineType, lines)).build();
+    List<Statement> statements = new ArrayList<>();
+
+    try (Session session = sessionFactory.openSession()) {
+      Order order = fetcher.find(session, readContext(row, statements), 7L);
+      assertEquals(Value.int64(7L), statements.get(0).getParameters().get("id1"));
+      assertEquals(Long.valueOf(7L), order.orderId);
+      assertEquals("c", order.customer);
+      assertTrue(order.lines instanceof PersistentCollection);
+      assertTrue(Hibernate.isInitialized(order.lines));
+      assertEquals(2, order.lines.size());
+      assertEquals(Long.valueOf(1L), order.lines.get(0).lineNo);
+      assertEquals("b", order.lines.get(1).product);
+      assertSame(order, order.lines.get(1).order);
+      assertFalse(Hibernate.isInitialized(order.notes));
+      // the database has no tables: the entities are managed and unchanged without queries
+      assertTrue(session.contains(order.lines.get(0)));
+      assertSame(order, session.get(Order.class, 7L));
+      assertFalse(session.isDirty());
+
+      Order other = fetcher.find(session, readContext(row, statements), 7L);
+      assertSame(order, other);
+    }
+  }
+
+  /** @return a read context whose queries return the given row */
+  private static ReadContext readContext(Struct row, List<Statement> statements) {
+    return proxy(ReadContext.class, (proxy, method, args) -> {
+      statements.add((Statement) args[0]);
+      boolean[] read = {false};
+      return proxy(ResultSet.class, (resultSet, resultSetMethod, resultSetArgs) -> {
+        switch (resultSetMethod.getName()) {
+          case "next":
+            boolean next = !read[0];
+            read[0] = true;
+            return next;
+          case "getCurrentRowAsStruct":
+            return row;
+          case "close":
+            return null;
+          default:
+            throw new UnsupportedOperationException(resultSetMethod.getName());
+        }
+      });
+    });
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(InterleavedFetcherTest.class.getClassLoader(),
+        new Class<?>[] {type}, handler));
+  }
+}
@@ -0,0 +1,89 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import knut.harness.FakeDatabase;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.boot.Metadata;
+import org.junit.Test;
+
+/** Tests for the interleaving of collection tables in the table of their owner. */
+public class InterleavedTablesTest {
+  @Entity
+  @Table(name = "Owners")
+  public static class Owner {
+    @Id
+    private Long ownerId;
+    @ElementCollection
+    private Set<String> tags = new LinkedHashSet<>();
+  }
+
+  @Test
+  public void testElementCollection() throws SQLException {
+    try (TestSessionFactory factory = builder("interleaved-tables").build()) {
+      FakeDatabase database = factory.getDatabase();
+      Metadata metadata = factory.getMetadata();
+      SessionFactory sessionFactory = factory.getSessionFactory();
+      List<String> creates = getCreates(database);
+      assertEquals(2, creates.size());
+      assertTrue(creates.get(0), creates.get(0).startsWith("create table Owners "));
+      assertTrue(creates.get(1), creates.get(1).endsWith(
+          " primary key (ownerId, tags), INTERLEAVE IN PARENT Owners ON DELETE CASCADE"));
+      // the primary key of the set is not added to the mapping
+      assertFalse(metadata.getCollectionBindings().iterator().next().getCollectionTable()
+          .hasPrimaryKey());
+
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        Owner owner = new Owner();
+        owner.ownerId = 1L;
+        owner.tags.addAll(Arrays.asList("a", "b"));
+        session.save(owner);
+        transaction.commit();
+      }
+      try (Session session = sessionFactory.openSession()) {
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")),
+            session.get(Owner.class, 1L).tags);
+      }
+    }
+  }
+
+  @Test
+  public void testCollectionCascadeDeleteDisabled() throws SQLException {
+    try (TestSessionFactory factory = builder("interleaved-tables-no-cascade")
+        .setting(AbstractCloudSpannerTableExporter.COLLECTION_CASCADE_DELETE, "false").build()) {
+      List<String> creates = getCreates(factory.getDatabase());
+      assertTrue(creates.get(1), creates.get(1).endsWith(
+          " primary key (ownerId, tags), INTERLEAVE IN PARENT Owners"));
+    }
+  }
+
+  private static TestSessionFactory.Builder builder(String databaseName) {
+    return TestSessionFactory.builder(databaseName)
+        .setting("hibernate.schema_management_tool",
+            CloudSpannerSchemaManagementTool.class.getName())
+        .setting("hibernate.implicit_naming_strategy",
+            CloudSpannerImplicitNamingStrategy.class.getName())
+        .annotatedClasses(Owner.class);
+  }
+
+  private static List<String> getCreates(FakeDatabase database) {
+    return database.getExecutedStatements().stream()
+        .filter(sql -> sql.startsWith("create table")).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,170 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.Test;
+
+/** Tests for {@link KeyDistributionStatistics} and the hotspot check of the table exporter. */
+public class KeyDistributionStatisticsTest {
+  @Entity
+  @Table(name = "Events")
+  public static class Event {
+    @Id
+    private Long eventId;
+  }
+
+  @Entity
+  @Table(name = "Readings")
+  public static class Reading {
+    @Id
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date readAt;
+  }
+
+  @Entity
+  @Table(name = "Orders")
+  public static class Order {
+    @Id
+    @GeneratedValue
+    private Long orderId;
+  }
+
+  @Entity
+  @Table(name = "Customers")
+  public static class Customer {
+    @Id
+    private UUID customerId;
+  }
+
+  @Test
+  public void testPatterns() {
+    KeyDistributionStatistics statistics = new KeyDistributionStatistics();
+    AtomicInteger sampled = new AtomicInteger();
+    statistics.addListener(new SpannerMetricsListener() {
+      @Override
+      public void insertKeySampled(String table, double skewScore) {
+        sampled.incrementAndGet();
+      }
+    });
+    for (long i = 0L; i < 1000L; i++) {
+      statistics.record("Sequence", KeyDistributionEventListener.encode(i * 7L));
+      statistics.record("Reversed",
+          KeyDistributionEventListener.encode(new Date(1553994000000L - i * 1000L)));
+      statistics.record("Random", KeyDistributionEventListener.encode(UUID.randomUUID()));
+      statistics.record("Prefixed", KeyDistributionEventListener.encode(
+          "tenant-0001/2019-03-31/events/inbox/" + UUID.randomUUID()));
+    }
+    assertEquals(4000, sampled.get());
+
+    TableKeyDistribution sequence = statistics.getDistribution("Sequence");
+    assertEquals(1d, sequence.getSkewScore(), 0.01d);
+    assertEquals(TableKeyDistribution.INCREASING, sequence.getPattern());
+    assertEquals(1, sequence.getLeadingByteRanges());
+    assertEquals(1d, sequence.getTopRangeShare(), 0d);
+    assertEquals(TableKeyDistribution.DECREASING,
+        statistics.getDistribution("Reversed").getPattern());
+    assertEquals(TableKeyDistribution.CLUSTERED,
+        statistics.getDistribution("Prefixed").getPattern());
+    TableKeyDistribution random = statistics.getDistribution("Random");
+    assertTrue(random.toString(), random.getSkewScore() < 0.3d);
+    assertEquals(TableKeyDistribution.DISTRIBUTED, random.getPattern());
+    assertTrue(random.toString(), random.getLeadingByteRanges() > 200);
+
+    assertEquals("Random", statistics.getTables().get(3).getTable());
+    assertEquals(1d, statistics.getMaxSkewScore(), 0.01d);
+    statistics.reset();
+    assertNull(statistics.getDistribution("Sequence"));
+  }
+
+  @Test
+  public void testKeyOrder() {
+    Object[][] ordered = {{-5L, -1L, 0L, 1L, Long.MAX_VALUE}, {-2.5d, -1d, 0d, 0.5d, 3d},
+        {"", "a", "ab", "b", "\u00e9"}};
+    for (Object[] values : ordered) {
+      for (int i = 1; i < values.length; i++) {
+        assertTrue(values[i - 1] + " < " + values[i], KeyDistributionStatistics.compare(
+            KeyDistributionEventListener.encode(values[i - 1]),
+            KeyDistributionEventListener.encode(values[i])) < 0);
+      }
+    }
+    assertEquals(KeyDistributionStatistics.MAX_KEY_BYTES,
+        KeyDistributionEventListener.encode(new String(new char[100])).length);
+  }
+
+  @Test
+  public void testSampledInserts() throws Exception {
+    ObjectName objectName = new ObjectName(InstrumentedConnectionProvider.JMX_DOMAIN
+        + ":type=KeyDistribution,name=" + ObjectName.quote("key-distribution-test"));
+    try (TestSessionFactory factory = TestSessionFactory.builder("key-distribution")
+        .setting("hibernate.session_factory_name", "key-distribution-test")
+        .setting("hibernate.session_factory_name_is_jndi", "false")
+        .setting(CloudSpannerIntegrator.KEY_SAMPLE_RATE, "1")
+        .setting(InstrumentedConnectionProvider.JMX_ENABLED, "true")
+        .annotatedClasses(Event.class).build()) {
+      SessionFactory sessionFactory = factory.getSessionFactory();
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        for (long i = 1L; i <= 100L; i++) {
+          Event event = new Event();
+          event.eventId = i;
+          session.save(event);
+        }
+        transaction.commit();
+      }
+      KeyDistributionStatistics statistics = KeyDistributionStatistics.get(sessionFactory);
+      assertNotNull(statistics);
+      TableKeyDistribution events = statistics.getDistribution("Events");
+      assertEquals(100L, events.getSamples());
+      assertEquals(TableKeyDistribution.INCREASING, events.getPattern());
+      assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+      sessionFactory.close();
+      assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+    }
+  }
+
+  @Test
+  public void testHotspotReason() throws SQLException {
+    StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", CloudSpannerDialect.class.getName()).build();
+    try {
+      Metadata metadata = new MetadataSources(registry).addAnnotatedClass(Event.class)
+          .addAnnotatedClass(Reading.class).addAnnotatedClass(Order.class)
+          .addAnnotatedClass(Customer.class).buildMetadata();
+      assertNull(reason(metadata, Event.class));
+      assertNull(reason(metadata, Customer.class));
+      assertEquals("its first key column readAt is a timestamp", reason(metadata, Reading.class));
+      assertTrue(reason(metadata, Order.class),
+          reason(metadata, Order.class).startsWith("its first key column orderId is generated"));
+    } finally {
+      StandardServiceRegistryBuilder.destroy(registry);
+    }
+  }
+
+  private static String reason(Metadata metadata, Class<?> entity) {
+    return AbstractCloudSpannerTableExporter.getHotspotReason(
+        metadata.getEntityBinding(entity.getName()).getTable(), metadata);
+  }
+}
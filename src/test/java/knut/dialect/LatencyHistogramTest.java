@@ -0,0 +1,54 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/** Tests for {@link LatencyHistogram}. */
+public class LatencyHistogramTest {
+  @Test
+  public void testBucketEdges() {
+    assertEquals(0, LatencyHistogram.bucketIndex(-1L));
+    for (int value = 0; value < LatencyHistogram.SUB_BUCKETS; value++) {
+      assertEquals(value, LatencyHistogram.bucketIndex(value));
+    }
+    assertEquals(8, LatencyHistogram.bucketIndex(8L));
+    assertEquals(15, LatencyHistogram.bucketIndex(15L));
+    assertEquals(16, LatencyHistogram.bucketIndex(16L));
+    assertEquals(16, LatencyHistogram.bucketIndex(17L));
+    assertEquals(17, LatencyHistogram.bucketIndex(18L));
+    int last = LatencyHistogram.BUCKET_COUNT - 1;
+    for (int bucket = 0; bucket < last; bucket++) {
+      long lowest = LatencyHistogram.lowestValueInBucket(bucket);
+      long highest = LatencyHistogram.highestValueInBucket(bucket);
+      assertEquals(bucket, LatencyHistogram.bucketIndex(lowest));
+      assertEquals(bucket, LatencyHistogram.bucketIndex(highest));
+      assertEquals(bucket + 1, LatencyHistogram.bucketIndex(highest + 1L));
+      // the width of a bucket is at most 1/8 of its lowest value
+      assertEquals(true, highest - lowest <= Math.max(0L, lowest / 8L));
+    }
+    assertEquals(last, LatencyHistogram.bucketIndex(1L << LatencyHistogram.MAX_EXPONENT));
+    assertEquals(last, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueInBucket(last));
+  }
+
+  @Test
+  public void testPercentile() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0L, LatencyHistogram.percentile(histogram.snapshot(), 50d));
+    for (long value = 1L; value <= 100L; value++) {
+      histogram.record(value);
+    }
+    long[] snapshot = histogram.snapshot();
+    assertEquals(1L, LatencyHistogram.percentile(snapshot, 0d));
+    assertEquals(1L, LatencyHistogram.percentile(snapshot, 1d));
+    // 50 is in the bucket 48-51, 90 in 88-95 and 100 in 96-103
+    assertEquals(51L, LatencyHistogram.percentile(snapshot, 50d));
+    assertEquals(95L, LatencyHistogram.percentile(snapshot, 90d));
+    assertEquals(103L, LatencyHistogram.percentile(snapshot, 100d));
+
+    histogram.reset();
+    histogram.record(1L << 50);
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.percentile(histogram.snapshot(), 99d));
+  }
+}
@@ -0,0 +1,169 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.persistence.Cacheable;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import knut.harness.FakeDatabase;
+import org.hibernate.MappingException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.annotations.Type;
+import org.hibernate.engine.jdbc.BlobProxy;
+import org.hibernate.engine.jdbc.ClobProxy;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests for {@link LazyBlobType} and {@link LazyClobType}. */
+public class LazyLobTypeTest {
+  @Entity
+  @Table(name = "Documents")
+  public static class Document {
+    @Id
+    private Long documentId;
+    private String title;
+    @Type(type = "knut.dialect.LazyBlobType", parameters = @Parameter(name = "chunkSize",
+        value = "4"))
+    private Blob payload;
+    @Type(type = "knut.dialect.LazyClobType")
+    private Clob body;
+  }
+
+  @Entity
+  @Table(name = "Attachments")
+  @Cacheable
+  @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+  public static class Attachment {
+    @Id
+    private Long attachmentId;
+    @Type(type = "knut.dialect.LazyBlobType")
+    private Blob content;
+  }
+
+  private static final byte[] PAYLOAD = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+  private static TestSessionFactory factory;
+  private static FakeDatabase database;
+  private static SessionFactory sessionFactory;
+
+  @BeforeClass
+  public static void setup() throws SQLException {
+    factory = TestSessionFactory.builder("lazy-lob").annotatedClasses(Document.class).build();
+    database = factory.getDatabase();
+    sessionFactory = factory.getSessionFactory();
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      Document document = new Document();
+      document.documentId = 1L;
+      document.title = "report";
+      document.payload = BlobProxy.generateProxy(PAYLOAD);
+      document.body = ClobProxy.generateProxy("lazy text");
+      session.save(document);
+      transaction.commit();
+    }
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (factory != null) {
+      factory.close();
+    }
+  }
+
+  private static List<String> getStatements(String prefix) {
+    return database.getExecutedStatements().stream().filter(sql -> sql.startsWith(prefix))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void testColumnTypes() {
+    String create = getStatements("create table Documents").get(0);
+    assertTrue(create, create.contains("payload BYTES(MAX)"));
+    assertTrue(create, create.contains("body STRING(MAX)"));
+  }
+
+  @Test
+  public void testLazyRead() throws SQLException, IOException {
+    Document document;
+    try (Session session = sessionFactory.openSession()) {
+      document = session.get(Document.class, 1L);
+    }
+    String load = getStatements("select").get(getStatements("select").size() - 1);
+    assertTrue(load, load.matches(".*, length\\(\\w+\\.payload\\) as .*"));
+    assertTrue(load, load.matches(".*, length\\(\\w+\\.body\\) as .*"));
+    assertEquals(PAYLOAD.length, document.payload.length());
+    assertEquals(9L, document.body.length());
+
+    int reads = getStatements("select substr").size();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream stream = document.payload.getBinaryStream()) {
+      byte[] buffer = new byte[3];
+      for (int n; (n = stream.read(buffer)) >= 0;) {
+        bytes.write(buffer, 0, n);
+      }
+    }
+    assertArrayEquals(PAYLOAD, bytes.toByteArray());
+    // ten bytes in chunks of four
+    assertEquals(reads + 3, getStatements("select substr").size());
+    assertArrayEquals(new byte[] {9, 10}, document.payload.getBytes(9L, 5));
+
+    StringBuilder text = new StringBuilder();
+    try (Reader reader = document.body.getCharacterStream(6L, 4L)) {
+      for (int c; (c = reader.read()) >= 0;) {
+        text.append((char) c);
+      }
+    }
+    assertEquals("text", text.toString());
+  }
+
+  @Test
+  public void testUpdateWithoutPayload() throws SQLException {
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      session.get(Document.class, 1L).title = "final report";
+      transaction.commit();
+    }
+    List<String> updates = getStatements("update Documents");
+    String update = updates.get(updates.size() - 1);
+    assertFalse(update, update.contains("payload"));
+    try (Session session = sessionFactory.openSession()) {
+      Document document = session.get(Document.class, 1L);
+      assertEquals("final report", document.title);
+      assertArrayEquals(PAYLOAD, document.payload.getBytes(1L, PAYLOAD.length));
+    }
+  }
+
+  @Test
+  public void testCachedEntity() throws SQLException {
+    try {
+      TestSessionFactory.builder("lazy-lob-cached")
+          .setting("hibernate.cache.use_second_level_cache", "true")
+          .setting("hibernate.cache.region.factory_class",
+              CommitTimestampRegionFactory.class.getName())
+          .annotatedClasses(Attachment.class).build().close();
+      fail("expected a cached lazy LOB property");
+    } catch (MappingException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("content"));
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import com.google.cloud.spanner.BatchClient;
+import com.google.cloud.spanner.BatchReadOnlyTransaction;
+import com.google.cloud.spanner.Partition;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Value;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests for {@link PartitionedQueryReader}, using a fake batch client. */
+public class PartitionedQueryReaderTest {
+  private static final Statement QUERY = Statement.of("select id from Things");
+  private static final String DATABASE = "partitioned-query-reader";
+
+  private static TestSessionFactory factory;
+  private static SessionFactory sessionFactory;
+
+  @Entity
+  @Table(name = "Things")
+  public static class Thing {
+    @Id
+    private Long id;
+    private String name;
+  }
+
+  /** A batch client whose partitions each return the given number of rows. */
+  private static class FakeBatchClient {
+    private final int partitions;
+    private final int rowsPerPartition;
+    private final AtomicInteger executed = new AtomicInteger();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /** The number of open partitions when the transaction was closed. */
+    private volatile int openAtClose = -1;
+
+    private FakeBatchClient(int partitions, int rowsPerPartition) {
+      this.partitions = partitions;
+      this.rowsPerPartition = rowsPerPartition;
+    }
+
+    private BatchClient client() {
+      BatchReadOnlyTransaction transaction = proxy(BatchReadOnlyTransaction.class,
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "partitionQuery":
+                return Arrays.asList(new Partition[partitions]);
+              case "execute":
+                return resultSet(executed.getAndIncrement());
+              case "close":
+                openAtClose = open.get();
+                closed.set(true);
+                return null;
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          });
+      return proxy(BatchClient.class, (proxy, method, args) -> transaction);
+    }
+
+    private ResultSet resultSet(int partition) {
+      open.incrementAndGet();
+      int[] row = {-1};
+      return proxy(ResultSet.class, (proxy, method, args) -> {
+        switch (method.getName()) {
+          case "next":
+            return ++row[0] < rowsPerPartition;
+          case "getCurrentRowAsStruct":
+            return Struct.newBuilder()
+                .set("id").to((long) partition * rowsPerPartition + row[0]).build();
+          case "close":
+            open.decrementAndGet();
+            return null;
+          default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+      });
+    }
+  }
+
+  @BeforeClass
+  public static void createSessionFactory() throws Exception {
+    factory = TestSessionFactory.builder(DATABASE).annotatedClasses(Thing.class).build();
+    sessionFactory = factory.getSessionFactory();
+  }
+
+  @AfterClass
+  public static void closeSessionFactory() {
+    if (factory != null) {
+      factory.close();
+    }
+  }
+
+  @Test
+  public void testStream() throws Exception {
+    FakeBatchClient batchClient = new FakeBatchClient(4, 600);
+    ExecutorService executor = Executors.newFixedThreadPool(2, r -> new Thread(r, "reader"));
+    try {
+      PartitionedQueryReader reader = new PartitionedQueryReader(sessionFactory,
+          batchClient.client(), executor);
+      Map<String, Integer> threads = new HashMap<>();
+      long sum;
+      try (Stream<Long> ids = reader.stream(QUERY, row -> {
+        synchronized (threads) {
+          threads.merge(Thread.currentThread().getName(), 1, Integer::sum);
+        }
+        return row.getLong("id");
+      })) {
+        sum = ids.mapToLong(Long::longValue).sum();
+      }
+      assertEquals(2400L * 2399L / 2L, sum);
+      assertEquals(Collections.singletonMap("reader", 2400), threads);
+      assertTrue(batchClient.closed.get());
+      assertEquals(0, batchClient.openAtClose);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testCloseStreamEarly() throws Exception {
+    FakeBatchClient batchClient = new FakeBatchClient(3, 5000);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      PartitionedQueryReader reader = new PartitionedQueryReader(sessionFactory,
+          batchClient.client(), executor);
+      try (Stream<Long> ids = reader.stream(QUERY, row -> row.getLong("id"))) {
+        assertEquals(10L, ids.limit(10L).count());
+      }
+      // the reads are stopped before the transaction is closed
+      assertTrue(batchClient.closed.get());
+      assertEquals(0, batchClient.openAtClose);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testForEachPartitionFailure() throws Exception {
+    FakeBatchClient batchClient = new FakeBatchClient(3, 10);
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger runningAtClose = new AtomicInteger(-1);
+    try {
+      PartitionedQueryReader reader = new PartitionedQueryReader(sessionFactory,
+          batchClient.client(), executor);
+      try {
+        reader.forEachPartition(QUERY, row -> row.getLong("id"), (partition, rows) -> {
+          running.incrementAndGet();
+          try {
+            if (partition == 0) {
+              throw new IllegalStateException("failed");
+            }
+            // a running callback that ignores the interrupt
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200L);
+            while (System.nanoTime() < end) {
+              Thread.yield();
+            }
+            rows.count();
+          } finally {
+            running.decrementAndGet();
+            if (batchClient.closed.get()) {
+              runningAtClose.set(1);
+            }
+          }
+        });
+        fail("expected the failure of partition 0");
+      } catch (HibernateException e) {
+        assertEquals("failed", e.getCause().getMessage());
+      }
+      assertTrue(batchClient.closed.get());
+      assertEquals(0, running.get());
+      assertEquals(-1, runningAtClose.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testTranslate() {
+    PartitionedQueryReader reader = new PartitionedQueryReader(sessionFactory, null, null);
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put("name", "a");
+    parameters.put("1", 5L);
+    Statement statement = reader.translate("from PartitionedQueryReaderTest$Thing t "
+        + "where t.name = :name and t.id > ?1 and t.name <> 'what?'", parameters);
+    assertTrue(statement.getSql(), statement.getSql().matches(
+        "select .* from Things \\w+ where \\w+\\.name=@p1 and \\w+\\.id>@p2 "
+            + "and \\w+\\.name<>'what\\?'"));
+    assertEquals(Value.string("a"), statement.getParameters().get("p1"));
+    assertEquals(Value.int64(5L), statement.getParameters().get("p2"));
+    try {
+      reader.translate("from PartitionedQueryReaderTest$Thing t where t.id = :id",
+          Collections.emptyMap());
+      fail("expected a missing parameter");
+    } catch (HibernateException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("id"));
+    }
+  }
+
+  private static <T> T proxy(Class<T> type, java.lang.reflect.InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(PartitionedQueryReaderTest.class.getClassLoader(),
+        new Class<?>[] {type}, handler));
+  }
+}
@@ -0,0 +1,245 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
+import knut.harness.FakeDatabase;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PriorityAdmission}, {@link CloudSpannerQueryHints} and the priorities of
+ * {@link InstrumentedJdbc} connections.
+ */
+public class PriorityAdmissionTest {
+  @Entity
+  @Table(name = "Items")
+  public static class Item {
+    @Id
+    private Long id;
+    private String name;
+  }
+
+  @Test
+  public void testPriorityOrder() throws Exception {
+    PriorityAdmission admission = new PriorityAdmission(1);
+    admission.acquire(RequestPriority.LOW, 0L);
+    List<RequestPriority> admitted = new CopyOnWriteArrayList<>();
+    Thread low = start(admission, RequestPriority.LOW, admitted);
+    awaitQueued(admission, RequestPriority.LOW);
+    Thread high = start(admission, RequestPriority.HIGH, admitted);
+    awaitQueued(admission, RequestPriority.HIGH);
+
+    PriorityStatistics statistics = admission.getPriorities().get(2);
+    assertEquals("LOW", statistics.getPriority());
+    assertEquals(1, statistics.getQueued());
+    assertEquals(1, statistics.getRunning());
+    admission.release(RequestPriority.LOW, false);
+    high.join(10000L);
+    low.join(10000L);
+    assertEquals(Arrays.asList(RequestPriority.HIGH, RequestPriority.LOW), admitted);
+    assertEquals(1L, admission.getPriorities().get(0).getAdmitted());
+    assertEquals(2L, admission.getPriorities().get(2).getAdmitted());
+    assertEquals(0, admission.getPriorities().get(2).getRunning());
+  }
+
+  @Test
+  public void testQueueTimeout() throws Exception {
+    PriorityAdmission admission = new PriorityAdmission(1);
+    admission.acquire(null, 0L);
+    try {
+      admission.acquire(RequestPriority.LOW, 50L);
+      fail("expected a timeout");
+    } catch (SQLTimeoutException e) {
+      // expected
+    }
+    admission.release(null, true);
+    assertEquals(1L, admission.getPriorities().get(0).getTimedOut());
+    assertEquals(1L, admission.getPriorities().get(2).getTimedOut());
+    assertEquals(0, admission.getPriorities().get(2).getQueued());
+    admission.acquire(RequestPriority.LOW, 50L);
+  }
+
+  @Test
+  public void testUnlimited() throws Exception {
+    PriorityAdmission admission = new PriorityAdmission(0);
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        try {
+          for (int j = 0; j < 1000; j++) {
+            admission.acquire(RequestPriority.MEDIUM, 0L);
+            admission.release(RequestPriority.MEDIUM, j % 100 == 0);
+          }
+        } catch (SQLException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      threads[i].start();
+    }
+    admission.acquire(null, 0L);
+    for (Thread thread : threads) {
+      thread.join(10000L);
+    }
+    PriorityStatistics medium = admission.getPriorities().get(1);
+    assertEquals(4000L, medium.getAdmitted());
+    assertEquals(40L, medium.getTimedOut());
+    assertEquals(0, medium.getRunning());
+    assertEquals(0, medium.getQueued());
+    assertEquals(1, admission.getPriorities().get(0).getRunning());
+  }
+
+  @Test
+  public void testConnectionPriority() throws Exception {
+    List<String> executed = new ArrayList<>();
+    PriorityAdmission admission = new PriorityAdmission(0);
+    Connection connection = InstrumentedJdbc.wrap(spannerConnection(executed),
+        new StatementStatistics(), null, admission, RequestPriority.LOW, 0);
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("/* RPC_PRIORITY=MEDIUM */ select 1");
+      statement.execute("select 2");
+      statement.execute("select 3");
+    }
+    InstrumentedJdbc.unwrap(connection);
+    // the priority only orders the admission and is not sent to the driver
+    assertEquals(Arrays.asList("/* RPC_PRIORITY=MEDIUM */ select 1", "select 2", "select 3"),
+        executed);
+    assertEquals(1L, admission.getPriorities().get(1).getAdmitted());
+    assertEquals(2L, admission.getPriorities().get(2).getAdmitted());
+  }
+
+  @Test
+  public void testHints() {
+    assertEquals("/* RPC_PRIORITY=LOW */ select 1", new CloudSpannerDialect()
+        .getQueryHintString("select 1", Arrays.asList("other", "RPC_PRIORITY=LOW")));
+    assertEquals("select 1",
+        new CloudSpannerDialect().getQueryHintString("select 1", Collections.emptyList()));
+    assertEquals(RequestPriority.MEDIUM,
+        CloudSpannerQueryHints.getPriority("/* comment */ /* RPC_PRIORITY=MEDIUM */ select 1"));
+    assertNull(CloudSpannerQueryHints.getPriority("select '/* RPC_PRIORITY=LOW */'"));
+    CloudSpannerStatementInspector inspector =
+        new CloudSpannerStatementInspector().withPriority(RequestPriority.LOW);
+    assertEquals("/* RPC_PRIORITY=LOW */ select 1", inspector.inspect("select 1"));
+    assertEquals("/* RPC_PRIORITY=HIGH */ select 1",
+        inspector.inspect("/* RPC_PRIORITY=HIGH */ select 1"));
+  }
+
+  @Test
+  public void testQueryPriority() throws Exception {
+    try (TestSessionFactory factory = TestSessionFactory.builder("query-priority")
+        .setting("hibernate.connection.provider_class",
+            InstrumentedConnectionProvider.class.getName())
+        .setting(InstrumentedConnectionProvider.STATEMENT_TIMEOUT, "30")
+        .annotatedClasses(Item.class).build()) {
+      SessionFactory sessionFactory = factory.getSessionFactory();
+      FakeDatabase database = factory.getDatabase();
+      PriorityAdmission admission = sessionFactory.getSessionFactoryOptions().getServiceRegistry()
+          .getService(ConnectionProvider.class).unwrap(InstrumentedConnectionProvider.class)
+          .getAdmission();
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        Item item = new Item();
+        item.id = 1L;
+        item.name = "first";
+        session.persist(item);
+        transaction.commit();
+      }
+      admission.reset();
+      database.clearLog();
+      try (Session session = sessionFactory.openSession()) {
+        assertEquals(1, session.createQuery("from PriorityAdmissionTest$Item", Item.class)
+            .addQueryHint(CloudSpannerQueryHints.priority(RequestPriority.LOW))
+            .setHint("javax.persistence.query.timeout", 5000).list().size());
+      }
+      try (Session session =
+          CloudSpannerQueryHints.openSession(sessionFactory, RequestPriority.MEDIUM)) {
+        assertEquals("first", session.get(Item.class, 1L).name);
+      }
+      List<String> statements = database.getExecutedStatements();
+      assertTrue(statements.toString(), statements.get(0).startsWith("/* RPC_PRIORITY=LOW */"));
+      assertTrue(statements.toString(),
+          statements.get(1).startsWith("/* RPC_PRIORITY=MEDIUM */"));
+      List<PriorityStatistics> priorities = admission.getPriorities();
+      assertEquals(0L, priorities.get(0).getAdmitted());
+      assertEquals(1L, priorities.get(1).getAdmitted());
+      assertEquals(1L, priorities.get(2).getAdmitted());
+    }
+  }
+
+  /** @return a connection of the Cloud Spanner driver that logs the executed statements */
+  private static Connection spannerConnection(List<String> executed) {
+    Statement statement = proxy(Statement.class, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "execute":
+          executed.add((String) args[0]);
+          return false;
+        case "getUpdateCount":
+          return 0;
+        default:
+          return null;
+      }
+    });
+    CloudSpannerJdbcConnection spanner = proxy(CloudSpannerJdbcConnection.class,
+        (proxy, method, args) -> method.getReturnType() == boolean.class ? false : null);
+    return proxy(Connection.class, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "createStatement":
+          return statement;
+        case "isWrapperFor":
+          return args[0] == CloudSpannerJdbcConnection.class;
+        case "unwrap":
+          return spanner;
+        default:
+          return null;
+      }
+    });
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(PriorityAdmissionTest.class.getClassLoader(),
+        new Class<?>[] {type}, handler));
+  }
+
+  private static Thread start(PriorityAdmission admission, RequestPriority priority,
+      List<RequestPriority> admitted) {
+    Thread thread = new Thread(() -> {
+      try {
+        admission.acquire(priority, 10000L);
+        admitted.add(priority);
+        admission.release(priority, false);
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private static void awaitQueued(PriorityAdmission admission, RequestPriority priority)
+      throws InterruptedException {
+    int index = RequestPriority.values().length - 1 - priority.ordinal();
+    for (int i = 0; i < 1000 && admission.getPriorities().get(index).getQueued() == 0; i++) {
+      Thread.sleep(10L);
+    }
+  }
+}
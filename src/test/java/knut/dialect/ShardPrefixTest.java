@@ -0,0 +1,113 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.Embeddable;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import knut.harness.FakeDatabase;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.Test;
+
+/** Tests for {@link ShardPrefix}. */
+public class ShardPrefixTest {
+  @Embeddable
+  public static class EventId implements Serializable {
+    private static final long serialVersionUID = 1L;
+    @ShardPrefix(source = "deviceId", shards = 4)
+    private long shard;
+    private String deviceId;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date eventTime;
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof EventId)) {
+        return false;
+      }
+      EventId other = (EventId) o;
+      return shard == other.shard && deviceId.equals(other.deviceId)
+          && eventTime.equals(other.eventTime);
+    }
+
+    @Override
+    public int hashCode() {
+      return deviceId.hashCode() ^ eventTime.hashCode();
+    }
+  }
+
+  @Entity
+  @Table(name = "Events")
+  public static class Event {
+    @EmbeddedId
+    private EventId id;
+    private String payload;
+  }
+
+  @Test
+  public void testShardPrefix() throws Exception {
+    try (TestSessionFactory factory = TestSessionFactory.builder("shard-prefix")
+        .setting("hibernate.session_factory.statement_inspector",
+            CloudSpannerStatementInspector.class.getName())
+        .annotatedClasses(Event.class).build()) {
+      FakeDatabase database = factory.getDatabase();
+      SessionFactory sessionFactory = factory.getSessionFactory();
+      assertTrue(database.getExecutedStatements().toString(), database.getExecutedStatements()
+          .stream().anyMatch(sql -> sql.startsWith("create table Events")
+              && sql.endsWith("primary key (shard, deviceId, eventTime)")));
+
+      Set<Long> shards = new HashSet<>();
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        for (int i = 0; i < 20; i++) {
+          Event event = new Event();
+          event.id = new EventId();
+          event.id.deviceId = "device-" + (i % 10);
+          event.id.eventTime = new Date(1_000_000L + i * 1000L);
+          event.payload = "event " + i;
+          if (i % 2 == 0) {
+            session.persist(event);
+          } else {
+            session.save(event);
+          }
+          assertEquals(ShardPrefixes.shardOf(event.id.deviceId, 4), event.id.shard);
+          shards.add(event.id.shard);
+        }
+        transaction.commit();
+      }
+      assertTrue(shards.toString(), shards.size() > 1);
+
+      try (Session session = sessionFactory.openSession()) {
+        database.clearLog();
+        List<Event> events = session.createQuery(
+            "from ShardPrefixTest$Event e where e.id.eventTime >= :from order by e.id.eventTime",
+            Event.class).setParameter("from", new Date(1_010_000L)).list();
+        assertEquals(10, events.size());
+        assertEquals("event 10", events.get(0).payload);
+        String select = database.getExecutedStatements().get(0);
+        assertTrue(select, select.contains(".shard in (0, 1, 2, 3) and ("));
+
+        // reads by identifier contain the shard
+        database.clearLog();
+        EventId id = new EventId();
+        id.deviceId = "device-3";
+        id.eventTime = new Date(1_003_000L);
+        id.shard = ShardPrefixes.shardOf(id.deviceId, 4);
+        assertEquals("event 3", session.get(Event.class, id).payload);
+        select = database.getExecutedStatements().get(0);
+        assertTrue(select, !select.contains(" in ("));
+      }
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import knut.harness.FakeDatabase;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.junit.Test;
+
+/** Tests for {@link ShardedCounter} and {@link ShardedCounters}. */
+public class ShardedCounterTest {
+  @Entity
+  @Table(name = "Posts")
+  public static class Post {
+    @Id
+    private Long postId;
+    private String title;
+    @Transient
+    @ShardedCounter(shards = 4)
+    private long likes;
+  }
+
+  @Test
+  public void testCounter() throws Exception {
+    try (TestSessionFactory factory = TestSessionFactory.builder("sharded-counter")
+        .annotatedClasses(Post.class).build()) {
+      FakeDatabase database = factory.getDatabase();
+      SessionFactory sessionFactory = factory.getSessionFactory();
+      assertTrue(database.getExecutedStatements().toString(), database.getExecutedStatements()
+          .contains("create table Posts_likes (postId INT64 not null, shard INT64 not null, "
+              + "count INT64 not null) PRIMARY KEY (postId, shard), "
+              + "INTERLEAVE IN PARENT Posts ON DELETE CASCADE"));
+
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        Post post = new Post();
+        post.postId = 1L;
+        post.likes = 5L;
+        session.save(post);
+        try {
+          ShardedCounters.increment(session, post, "likes", 1L);
+          throw new AssertionError("the post has not been inserted");
+        } catch (HibernateException e) {
+          // expected
+        }
+        session.flush();
+        ShardedCounters.increment(session, post, "likes", 1L);
+        transaction.commit();
+      }
+      assertEquals(4, database.getRowCount("Posts_likes"));
+
+      // increments do not load the entity
+      database.setCommitLatency(2L, TimeUnit.MILLISECONDS);
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+          futures.add(executor.submit(() -> {
+            for (int j = 0; j < 10; j++) {
+              try (Session session = sessionFactory.openSession()) {
+                Transaction transaction = session.beginTransaction();
+                Post post = session.load(Post.class, 1L);
+                ShardedCounters.increment(session, post, "likes", 1L);
+                assertFalse(Hibernate.isInitialized(post));
+                transaction.commit();
+              }
+            }
+          }));
+        }
+        for (Future<?> future : futures) {
+          future.get(30L, TimeUnit.SECONDS);
+        }
+      } finally {
+        executor.shutdown();
+        database.setCommitLatency(0L, TimeUnit.MILLISECONDS);
+      }
+      try (Session session = sessionFactory.openSession()) {
+        Post post = session.get(Post.class, 1L);
+        assertEquals(86L, ShardedCounters.get(session, post, "likes"));
+        try {
+          ShardedCounters.get(session, post, "title");
+          throw new AssertionError("title is not a sharded counter");
+        } catch (HibernateException e) {
+          // expected
+        }
+      }
+
+      // shards of entities that were inserted without them are inserted by an increment
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        session.createNativeQuery("insert into Posts (postId, title) values (2, 'Old')")
+            .executeUpdate();
+        Post post = session.load(Post.class, 2L);
+        assertEquals(0L, ShardedCounters.get(session, post, "likes"));
+        ShardedCounters.increment(session, post, "likes", 3L);
+        assertEquals(3L, ShardedCounters.get(session, post, "likes"));
+        transaction.commit();
+      }
+
+      // the shards are deleted with the entity
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        session.delete(session.get(Post.class, 1L));
+        transaction.commit();
+      }
+      assertEquals(1, database.getRowCount("Posts_likes"));
+    }
+  }
+
+  @Test(expected = HibernateException.class)
+  public void testMappedField() throws SQLException {
+    StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", CloudSpannerDialect.class.getName()).build();
+    try {
+      ShardedCounters.getCounters(new MetadataSources(registry)
+          .addAnnotatedClass(MappedCounter.class).buildMetadata());
+    } finally {
+      StandardServiceRegistryBuilder.destroy(registry);
+    }
+  }
+
+  @Entity
+  @Table(name = "MappedCounters")
+  public static class MappedCounter {
+    @Id
+    private Long id;
+    @ShardedCounter
+    private long value;
+  }
+}
@@ -0,0 +1,201 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import com.google.cloud.spanner.ReadContext.QueryAnalyzeMode;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Value;
+import com.google.protobuf.Struct;
+import com.google.spanner.v1.PlanNode;
+import com.google.spanner.v1.QueryPlan;
+import com.google.spanner.v1.ResultSetStats;
+import org.junit.Test;
+
+/**
+ * Tests for SlowQueryLog, using a fake plan source that returns a canned plan and a fake JDBC
+ * connection.
+ */
+public class SlowQueryLogTest {
+
+  private static final ResultSetStats CANNED_STATS = ResultSetStats.newBuilder()
+      .setQueryPlan(QueryPlan.newBuilder()
+          .addPlanNodes(PlanNode.newBuilder().setIndex(0).setKind(PlanNode.Kind.RELATIONAL)
+              .setDisplayName("Distributed Union").addChildLinks(childLink(1))
+              .setMetadata(struct("call_type", stringValue("Local"))))
+          .addPlanNodes(PlanNode.newBuilder().setIndex(1).setKind(PlanNode.Kind.RELATIONAL)
+              .setDisplayName("Table Scan").addChildLinks(childLink(2))
+              .setMetadata(struct("scan_target", stringValue("Singers")))
+              .setExecutionStats(struct("rows", com.google.protobuf.Value.newBuilder()
+                  .setStructValue(Struct.newBuilder()
+                      .putFields("total", stringValue("10"))
+                      .putFields("unit", stringValue("rows")))
+                  .build())))
+          .addPlanNodes(PlanNode.newBuilder().setIndex(2).setKind(PlanNode.Kind.SCALAR)
+              .setDisplayName("Reference")))
+      .setQueryStats(Struct.newBuilder()
+          .putFields("rows_scanned", stringValue("10"))
+          .putFields("cpu_time", stringValue("1.5 msecs"))
+          .putFields("elapsed_time", stringValue("2 msecs")))
+      .build();
+
+  private static class FakePlanSource implements PlanSource {
+    private final List<Statement> statements = new CopyOnWriteArrayList<>();
+    private boolean closed;
+
+    @Override
+    public ResultSetStats analyze(Statement statement, QueryAnalyzeMode mode) {
+      statements.add(statement);
+      return CANNED_STATS;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private final FakePlanSource planSource = new FakePlanSource();
+  private final List<SlowQueryPlan> plans = new CopyOnWriteArrayList<>();
+  private final List<SpannerMetricsListener> listeners =
+      Collections.singletonList(new SpannerMetricsListener() {
+        @Override
+        public void slowQueryCaptured(SlowQueryPlan plan) {
+          plans.add(plan);
+        }
+      });
+
+  @Test
+  public void capturesPlanOfSlowQueryTest() throws Exception {
+    SlowQueryLog log = new SlowQueryLog(planSource, QueryAnalyzeMode.PROFILE, 0L, 10, listeners);
+    Connection connection =
+        InstrumentedJdbc.wrap(fakeConnection(), new StatementStatistics(), log);
+    try (PreparedStatement statement = connection.prepareStatement(
+        "/* select s from Singer s where s.id = :id */ select id from Singers where id = ?")) {
+      statement.setLong(1, 1L);
+      statement.executeQuery().close();
+    }
+    log.close(10L, TimeUnit.SECONDS);
+
+    assertEquals(1, planSource.statements.size());
+    Statement analyzed = planSource.statements.get(0);
+    assertTrue(analyzed.getSql().endsWith("where id = @p1"));
+    assertEquals(Value.int64(1L), analyzed.getParameters().get("p1"));
+
+    assertEquals(1, plans.size());
+    SlowQueryPlan plan = plans.get(0);
+    assertEquals("select s from Singer s where s.id = :id", plan.getOrigin());
+    assertEquals("Singer", plan.getEntityName());
+    assertEquals("10", plan.getRowsScanned());
+    assertEquals("1.5 msecs", plan.getCpuTime());
+    assertEquals("  Distributed Union (call_type: Local)\n"
+        + "    Table Scan (scan_target: Singers) [rows: 10 rows]\n", plan.getPlanTree());
+    assertTrue(planSource.closed);
+  }
+
+  @Test
+  public void rateLimitsCapturesTest() throws Exception {
+    SlowQueryLog log = new SlowQueryLog(planSource, QueryAnalyzeMode.PLAN, 0L, 2, listeners);
+    for (int i = 0; i < 5; i++) {
+      log.submit("select * from Singers", null, 1000L);
+    }
+    log.close(10L, TimeUnit.SECONDS);
+
+    assertEquals(2L, log.getCapturedCount());
+    assertEquals(3L, log.getDroppedCount());
+    assertEquals(2, plans.size());
+  }
+
+  @Test
+  public void ignoresFastStatementsTest() throws Exception {
+    SlowQueryLog log =
+        new SlowQueryLog(planSource, QueryAnalyzeMode.PLAN, 60000L, 10, listeners);
+    Connection connection =
+        InstrumentedJdbc.wrap(fakeConnection(), new StatementStatistics(), log);
+    connection.prepareStatement("select id from Singers").executeQuery().close();
+    log.close(10L, TimeUnit.SECONDS);
+
+    assertEquals(0L, log.getCapturedCount());
+    assertTrue(planSource.statements.isEmpty());
+  }
+
+  @Test
+  public void doesNotAnalyzeDmlTest() throws Exception {
+    SlowQueryLog log = new SlowQueryLog(planSource, QueryAnalyzeMode.PLAN, 0L, 10, listeners);
+    log.submit("/* update knut.Singer */ update Singers set name = ? where id = ?", null, 1000L);
+    log.close(10L, TimeUnit.SECONDS);
+
+    assertTrue(planSource.statements.isEmpty());
+    assertEquals(1, plans.size());
+    assertNull(plans.get(0).getStats());
+    assertEquals("knut.Singer", plans.get(0).getEntityName());
+  }
+
+  @Test
+  public void clearParametersTest() {
+    SlowQueryLog.Parameters parameters = new SlowQueryLog.Parameters();
+    parameters.setNull(1, Types.BIGINT);
+    parameters.setNull(2, Types.TIMESTAMP);
+    assertEquals(Arrays.asList(Value.int64(null), Value.timestamp(null)),
+        parameters.toValues(2));
+    // the types of null values are not kept after the parameters are cleared or set
+    parameters.clear();
+    parameters.set(1, "a");
+    parameters.set(2, null);
+    assertEquals(Arrays.asList(Value.string("a"), Value.string(null)), parameters.toValues(2));
+  }
+
+  @Test
+  public void getEntityNameTest() {
+    assertEquals("knut.Singer", SlowQueryLog.getEntityName("load knut.Singer"));
+    assertEquals("knut.Singer.albums",
+        SlowQueryLog.getEntityName("load collection knut.Singer.albums"));
+    assertEquals("Singer", SlowQueryLog.getEntityName("from Singer where name = :name"));
+    assertEquals("Album", SlowQueryLog.getEntityName("delete from Album where id = 1"));
+    assertNull(SlowQueryLog.getEntityName("criteria query"));
+    assertNull(SlowQueryLog.getOrigin("select 1"));
+  }
+
+  private static Connection fakeConnection() {
+    ResultSet resultSet = (ResultSet) Proxy.newProxyInstance(
+        SlowQueryLogTest.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+        (proxy, method, args) -> method.getName().equals("next") ? false : null);
+    PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(
+        SlowQueryLogTest.class.getClassLoader(), new Class<?>[] {PreparedStatement.class},
+        (proxy, method, args) -> method.getName().equals("executeQuery") ? resultSet : null);
+    return (Connection) Proxy.newProxyInstance(SlowQueryLogTest.class.getClassLoader(),
+        new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "prepareStatement":
+              return statement;
+            case "isWrapperFor":
+              return false;
+            default:
+              return null;
+          }
+        });
+  }
+
+  private static PlanNode.ChildLink childLink(int index) {
+    return PlanNode.ChildLink.newBuilder().setChildIndex(index).build();
+  }
+
+  private static Struct struct(String name, com.google.protobuf.Value value) {
+    return Struct.newBuilder().putFields(name, value).build();
+  }
+
+  private static com.google.protobuf.Value stringValue(String value) {
+    return com.google.protobuf.Value.newBuilder().setStringValue(value).build();
+  }
+}
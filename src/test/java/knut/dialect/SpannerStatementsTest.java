@@ -0,0 +1,68 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Value;
+import org.hibernate.HibernateException;
+import org.junit.Test;
+
+/** Tests for {@link SpannerStatements}. */
+public class SpannerStatementsTest {
+  @Test
+  public void testFindParameterPositions() {
+    assertEquals(Arrays.asList(7, 10),
+        SpannerStatements.findParameterPositions("select ?, ? from T"));
+    // question marks in literals, quoted identifiers and comments are not parameters
+    assertEquals(Collections.singletonList(35), SpannerStatements.findParameterPositions(
+        "select '?', \"?\", `a?` from T where ? = 'it\\'s?'"));
+    assertEquals(Collections.singletonList(35), SpannerStatements.findParameterPositions(
+        "/* where id = ? */ select 1 -- ?\n, ?"));
+    assertEquals(Collections.emptyList(),
+        SpannerStatements.findParameterPositions("select 1 -- ?"));
+    assertEquals(Collections.emptyList(),
+        SpannerStatements.findParameterPositions("select 1 /* ? unterminated"));
+    assertEquals(Collections.emptyList(),
+        SpannerStatements.findParameterPositions("select 'unterminated ?"));
+  }
+
+  @Test
+  public void testToStatement() {
+    Statement statement = SpannerStatements.toStatement(
+        "select '?' from T where id = ? and name = ? -- ?",
+        Arrays.asList(Value.int64(1L), Value.string("a")));
+    assertEquals("select '?' from T where id = @p1 and name = @p2 -- ?", statement.getSql());
+    assertEquals(Value.int64(1L), statement.getParameters().get("p1"));
+    assertEquals(Value.string("a"), statement.getParameters().get("p2"));
+  }
+
+  @Test(expected = HibernateException.class)
+  public void testParameterCountMismatch() {
+    SpannerStatements.toStatement("select ? from T", Collections.emptyList());
+  }
+
+  @Test
+  public void testToValue() {
+    assertEquals(Value.bool(true), SpannerStatements.toValue(true, null));
+    assertEquals(Value.int64(3L), SpannerStatements.toValue(3, null));
+    assertEquals(Value.float64(1.5d), SpannerStatements.toValue(1.5f, null));
+    // in the format of BigDecimalToStringConverter, without the precision loss of FLOAT64
+    assertEquals(Value.string("000000000000000001.100000000000000001"),
+        SpannerStatements.toValue(new BigDecimal("1.100000000000000001"), null));
+    assertEquals(Value.string("x"), SpannerStatements.toValue('x', null));
+    assertEquals(Value.bytes(ByteArray.copyFrom(new byte[] {1, 2})),
+        SpannerStatements.toValue(new byte[] {1, 2}, null));
+    assertEquals(Value.date(com.google.cloud.Date.fromYearMonthDay(2019, 3, 31)),
+        SpannerStatements.toValue(java.sql.Date.valueOf("2019-03-31"), null));
+    assertEquals(Value.int64(null), SpannerStatements.toValue(null,
+        SpannerStatements.getJdbcClass(Types.BIGINT)));
+    assertEquals(Value.timestamp(null), SpannerStatements.toValue(null,
+        SpannerStatements.getJdbcClass(Types.TIMESTAMP)));
+    assertEquals(Value.string(null), SpannerStatements.toValue(null, null));
+  }
+}
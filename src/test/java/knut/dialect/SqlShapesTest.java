@@ -0,0 +1,35 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/** Tests for {@link SqlShapes}. */
+public class SqlShapesTest {
+  @Test
+  public void testLiterals() {
+    assertEquals("select * from T where id = ? and name = ?",
+        SqlShapes.normalize("select * from T where id = 42 and name = 'it''s'"));
+    assertEquals("select ?, ?, ?, ?, ?",
+        SqlShapes.normalize("select 1.5e3, 0x1F, b'abc', B\"x\", 'a\\'b'"));
+    // digits in identifiers and quoted identifiers are kept
+    assertEquals("select t1.col_2 from `Table 3` t1 where t1.id = ?",
+        SqlShapes.normalize("select t1.col_2 from `Table 3` t1 where t1.id = 3"));
+  }
+
+  @Test
+  public void testInLists() {
+    assertEquals("select * from T where id in (?) and x in (?)",
+        SqlShapes.normalize("select * from T where id in (1, 2, 3) and x in (?,?)"));
+    assertEquals("select * from T where id in (?)",
+        SqlShapes.normalize("select * from T where id in (?)"));
+  }
+
+  @Test
+  public void testCommentsAndWhitespace() {
+    assertEquals("select ? from T where id = ?", SqlShapes.normalize(
+        "/* load Singer */ select  1\n\tfrom T -- all rows\nwhere id = ? /* unterminated"));
+    assertEquals(SqlShapes.normalize("select a from T where b = 'x'"),
+        SqlShapes.normalize("  select a   from T where b = 'y'  -- other"));
+  }
+}
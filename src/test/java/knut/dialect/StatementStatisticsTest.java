@@ -0,0 +1,87 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import knut.dialect.StatementStatistics.ShapeRecorder;
+import org.junit.Test;
+
+/** Tests for {@link StatementStatistics}. */
+public class StatementStatisticsTest {
+  @Test
+  public void testRecord() {
+    StatementStatistics statistics = new StatementStatistics();
+    ShapeRecorder recorder = statistics.getRecorder("select * from T where id = 1");
+    assertSame(recorder, statistics.getRecorder("select * from T where id = 2"));
+    for (long millis = 1L; millis <= 10L; millis++) {
+      statistics.record(recorder, TimeUnit.MILLISECONDS.toNanos(millis), 2L, 10L, millis == 10L);
+    }
+    StatementShapeStatistics shape = statistics.getStatistics("select * from T where id = 3");
+    assertEquals("select * from T where id = ?", shape.getSql());
+    assertEquals(10L, shape.getCount());
+    assertEquals(1L, shape.getErrorCount());
+    assertEquals(20L, shape.getRows());
+    assertEquals(100L, shape.getBytes());
+    assertEquals(55000L, shape.getTotalLatencyMicros());
+    assertEquals(10000L, shape.getMaxLatencyMicros());
+    // the percentiles are the upper bounds of their buckets, at most 12.5% above the value
+    assertEquals(true, shape.getP50LatencyMicros() >= 5000L
+        && shape.getP50LatencyMicros() <= 5625L);
+    assertEquals(true, shape.getP99LatencyMicros() >= 10000L
+        && shape.getP99LatencyMicros() <= 11250L);
+
+    statistics.reset();
+    assertEquals(0L, statistics.getStatementCount());
+    assertNull(statistics.getStatistics("select 1 from Unknown"));
+  }
+
+  @Test
+  public void testShapeCap() {
+    StatementStatistics statistics = new StatementStatistics(2);
+    ShapeRecorder first = statistics.getRecorder("select a from T");
+    ShapeRecorder second = statistics.getRecorder("select b from T");
+    ShapeRecorder third = statistics.getRecorder("select c from T");
+    assertEquals(StatementStatistics.OTHER_STATEMENTS, third.getShape());
+    assertSame(third, statistics.getRecorder("select d from T"));
+    // the recorded shapes are kept after the cap has been reached
+    assertSame(first, statistics.getRecorder("select a from T"));
+    assertSame(second, statistics.getRecorder("select  b  from T"));
+    assertEquals(2, statistics.getShapeCount());
+
+    statistics.record(first, 1000L, 0L, 0L, false);
+    statistics.record(third, 3000L, 0L, 0L, false);
+    statistics.record(third, 3000L, 0L, 0L, false);
+    List<StatementShapeStatistics> statements = statistics.getStatements();
+    assertEquals(3, statements.size());
+    assertEquals(StatementStatistics.OTHER_STATEMENTS, statements.get(0).getSql());
+    assertEquals(2L, statements.get(0).getCount());
+    assertEquals(3L, statistics.getStatementCount());
+  }
+
+  @Test
+  public void testDuplicateMBeanName() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName first = InstrumentedConnectionProvider.registerMBean(new StatementStatistics(),
+        "StatementStatistics", "duplicate");
+    ObjectName second = InstrumentedConnectionProvider.registerMBean(new StatementStatistics(),
+        "StatementStatistics", "duplicate");
+    try {
+      // the MBean of the first session factory is not replaced
+      assertNotEquals(first, second);
+      assertTrue(server.isRegistered(first));
+      assertTrue(server.isRegistered(second));
+      assertEquals("\"duplicate-2\"", second.getKeyProperty("name"));
+    } finally {
+      InstrumentedConnectionProvider.unregisterMBean(first);
+      InstrumentedConnectionProvider.unregisterMBean(second);
+    }
+  }
+}
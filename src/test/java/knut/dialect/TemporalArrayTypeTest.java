@@ -0,0 +1,138 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import com.google.cloud.spanner.Struct;
+import knut.harness.FakeDatabase;
+import org.hibernate.HibernateException;
+import org.hibernate.annotations.Type;
+import org.hibernate.type.descriptor.java.JavaTypeDescriptor;
+import org.junit.Test;
+
+/** Tests for the <code>java.time</code> and epoch array types. */
+public class TemporalArrayTypeTest {
+  @Entity
+  @Table(name = "Series")
+  public static class Series {
+    @Id
+    private Long seriesId;
+    @Type(type = "knut.dialect.InstantArrayType")
+    private Instant[] instants;
+    @Type(type = "knut.dialect.EpochMicrosArrayType")
+    private long[] micros;
+    @Type(type = "knut.dialect.LocalDateArrayType")
+    private LocalDate[] dates;
+    @Type(type = "knut.dialect.EpochDaysArrayType")
+    private int[] days;
+  }
+
+  private static final Instant[] INSTANTS = {Instant.ofEpochSecond(-86401L, 123456789),
+      Instant.EPOCH, Instant.ofEpochSecond(1553994000L, 999999999)};
+
+  private static Timestamp[] timestamps() {
+    Timestamp[] res = new Timestamp[INSTANTS.length];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = Timestamp.from(INSTANTS[i]);
+    }
+    return res;
+  }
+
+  @Test
+  public void testColumnTypes() throws SQLException {
+    try (TestSessionFactory factory = TestSessionFactory.builder("temporal-array")
+        .annotatedClasses(Series.class).build()) {
+      FakeDatabase database = factory.getDatabase();
+      String create = database.getExecutedStatements().stream()
+          .filter(sql -> sql.startsWith("create table Series")).findFirst().get();
+      assertTrue(create, create.contains("instants ARRAY<TIMESTAMP>"));
+      assertTrue(create, create.contains("micros ARRAY<TIMESTAMP>"));
+      assertTrue(create, create.contains("dates ARRAY<DATE>"));
+      assertTrue(create, create.contains("days ARRAY<DATE>"));
+    }
+  }
+
+  @Test
+  public void testTimestamps() {
+    long[] micros = {-86401000000L + 123456, 0L, 1553994000999999L};
+    assertArrayEquals(INSTANTS, InstantArrayType.INSTANCE.getJavaTypeDescriptor()
+        .wrap(timestamps(), null));
+    assertArrayEquals(micros, EpochMicrosArrayType.INSTANCE.getJavaTypeDescriptor()
+        .wrap(timestamps(), null));
+    assertArrayEquals(timestamps(), InstantArrayType.INSTANCE.toJdbcArray(INSTANTS));
+    assertEquals(Timestamp.from(INSTANTS[0].minusNanos(789)),
+        EpochMicrosArrayType.INSTANCE.toJdbcArray(micros)[0]);
+
+    com.google.cloud.Timestamp[] values = new com.google.cloud.Timestamp[INSTANTS.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = com.google.cloud.Timestamp.ofTimeSecondsAndNanos(INSTANTS[i].getEpochSecond(),
+          INSTANTS[i].getNano());
+    }
+    Struct struct = Struct.newBuilder().set("t").toTimestampArray(Arrays.asList(values)).build();
+    assertArrayEquals(INSTANTS, InstantArrayType.INSTANCE.fromStruct(struct, 0));
+    assertArrayEquals(micros, EpochMicrosArrayType.INSTANCE.fromStruct(struct, 0));
+
+    Timestamp[] withNull = {null};
+    assertArrayEquals(new Instant[1],
+        InstantArrayType.INSTANCE.getJavaTypeDescriptor().wrap(withNull, null));
+    try {
+      EpochMicrosArrayType.INSTANCE.getJavaTypeDescriptor().wrap(withNull, null);
+      throw new AssertionError("NULL elements cannot be read as long[]");
+    } catch (HibernateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testDates() {
+    LocalDate[] dates = {LocalDate.of(1582, 10, 15), LocalDate.of(1969, 12, 31),
+        LocalDate.of(2000, 2, 29), LocalDate.of(9999, 12, 31)};
+    java.sql.Date[] sqlDates = new java.sql.Date[dates.length];
+    int[] days = new int[dates.length];
+    for (int i = 0; i < dates.length; i++) {
+      sqlDates[i] = java.sql.Date.valueOf(dates[i]);
+      days[i] = (int) dates[i].toEpochDay();
+    }
+    assertArrayEquals(dates, LocalDateArrayType.INSTANCE.getJavaTypeDescriptor()
+        .wrap(sqlDates, null));
+    assertArrayEquals(days, EpochDaysArrayType.INSTANCE.getJavaTypeDescriptor()
+        .wrap(sqlDates, null));
+    assertArrayEquals(sqlDates, EpochDaysArrayType.INSTANCE.toJdbcArray(days));
+
+    Struct struct = Struct.newBuilder().set("d").toDateArray(Arrays.asList(
+        com.google.cloud.Date.fromYearMonthDay(1582, 10, 15),
+        com.google.cloud.Date.fromYearMonthDay(1969, 12, 31),
+        com.google.cloud.Date.fromYearMonthDay(2000, 2, 29),
+        com.google.cloud.Date.fromYearMonthDay(9999, 12, 31))).build();
+    assertArrayEquals(dates, LocalDateArrayType.INSTANCE.fromStruct(struct, 0));
+    assertArrayEquals(days, EpochDaysArrayType.INSTANCE.fromStruct(struct, 0));
+
+    for (LocalDate date = LocalDate.of(-1000, 1, 1); date.getYear() < 3000;
+        date = date.plusDays(13)) {
+      assertEquals(date.toString(), date.toEpochDay(), TemporalArrayType.toEpochDay(
+          date.getYear(), date.getMonthValue(), date.getDayOfMonth()));
+    }
+  }
+
+  @Test
+  public void testDirtyChecking() {
+    long[] micros = {1L, 2L};
+    JavaTypeDescriptor<long[]> descriptor = EpochMicrosArrayType.INSTANCE.getJavaTypeDescriptor();
+    long[] snapshot = descriptor.getMutabilityPlan().deepCopy(micros);
+    assertNotSame(micros, snapshot);
+    assertTrue(descriptor.areEqual(micros, snapshot));
+    micros[1] = 3L;
+    assertFalse(descriptor.areEqual(micros, snapshot));
+  }
+}
@@ -0,0 +1,122 @@
+package knut.dialect;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import knut.harness.FakeDatabase;
+import knut.harness.FakeSpannerDriver;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+
+/**
+ * A session factory on a database of the {@link FakeSpannerDriver} for tests. By default it uses
+ * the {@link CloudSpannerDialect}, creates the tables of the entities and does not register
+ * MBeans. Closing it closes the session factory, destroys its service registry and drops the
+ * database.
+ *
+ * <pre>
+ * try (TestSessionFactory factory = TestSessionFactory.builder("items")
+ *     .annotatedClasses(Item.class).build()) {
+ *   ...
+ * }
+ * </pre>
+ */
+final class TestSessionFactory implements AutoCloseable {
+  /** Builds a {@link TestSessionFactory}. */
+  static final class Builder {
+    private final String databaseName;
+    private final Map<String, Object> settings = new LinkedHashMap<>();
+    private final List<Class<?>> annotatedClasses = new ArrayList<>();
+
+    private Builder(String databaseName) {
+      this.databaseName = databaseName;
+      settings.put("hibernate.dialect", CloudSpannerDialect.class.getName());
+      settings.put("hibernate.connection.url", FakeSpannerDriver.URL_PREFIX + databaseName);
+      settings.put("hibernate.hbm2ddl.auto", "create");
+      settings.put(InstrumentedConnectionProvider.JMX_ENABLED, "false");
+    }
+
+    /** Sets or replaces a setting of the service registry. */
+    Builder setting(String name, Object value) {
+      settings.put(name, value);
+      return this;
+    }
+
+    Builder annotatedClasses(Class<?>... classes) {
+      annotatedClasses.addAll(Arrays.asList(classes));
+      return this;
+    }
+
+    /**
+     * Builds the session factory. If that fails, the service registry is destroyed and the
+     * database is dropped before the exception is thrown.
+     */
+    TestSessionFactory build() throws SQLException {
+      FakeSpannerDriver.register();
+      FakeDatabase database = FakeSpannerDriver.getDatabase(databaseName);
+      StandardServiceRegistry registry =
+          new StandardServiceRegistryBuilder().applySettings(settings).build();
+      try {
+        MetadataSources sources = new MetadataSources(registry);
+        annotatedClasses.forEach(sources::addAnnotatedClass);
+        Metadata metadata = sources.buildMetadata();
+        return new TestSessionFactory(database, registry, metadata,
+            metadata.buildSessionFactory());
+      } catch (RuntimeException e) {
+        StandardServiceRegistryBuilder.destroy(registry);
+        FakeSpannerDriver.dropDatabase(databaseName);
+        throw e;
+      }
+    }
+  }
+
+  private final FakeDatabase database;
+  private final StandardServiceRegistry registry;
+  private final Metadata metadata;
+  private final SessionFactory sessionFactory;
+
+  private TestSessionFactory(FakeDatabase database, StandardServiceRegistry registry,
+      Metadata metadata, SessionFactory sessionFactory) {
+    this.database = database;
+    this.registry = registry;
+    this.metadata = metadata;
+    this.sessionFactory = sessionFactory;
+  }
+
+  /** @return a builder of a session factory on the fake database with the given name */
+  static Builder builder(String databaseName) {
+    return new Builder(databaseName);
+  }
+
+  FakeDatabase getDatabase() {
+    return database;
+  }
+
+  StandardServiceRegistry getRegistry() {
+    return registry;
+  }
+
+  Metadata getMetadata() {
+    return metadata;
+  }
+
+  SessionFactory getSessionFactory() {
+    return sessionFactory;
+  }
+
+  @Override
+  public void close() {
+    try {
+      sessionFactory.close();
+    } finally {
+      StandardServiceRegistryBuilder.destroy(registry);
+      FakeSpannerDriver.dropDatabase(database.getName());
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package knut.dialect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import knut.harness.FakeDatabase;
+import knut.harness.FakeSpannerDriver;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.annotations.Type;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.type.descriptor.java.UUIDTypeDescriptor;
+import org.junit.Test;
+
+/** Tests for {@link UuidType}, {@link UuidArrayType} and {@link UuidMigration}. */
+public class UuidTypeTest {
+  public static final UUID KNOWN_ID = UUID.fromString("123e4567-e89b-12d3-a456-426655440000");
+
+  @Entity
+  @Table(name = "Accounts")
+  public static class Account {
+    @Id
+    private UUID accountId;
+    private String name;
+    @Type(type = "knut.dialect.UuidArrayType")
+    private UUID[] devices;
+  }
+
+  @Entity
+  @Table(name = "Logins")
+  public static class Login {
+    @Id
+    private UUID loginId;
+    @ManyToOne
+    private Account account;
+  }
+
+  @Entity
+  @Table(name = "Devices")
+  public static class Device {
+    @Id
+    private UUID deviceId;
+    @Type(type = "knut.dialect.UuidType")
+    private UUID ownerId;
+  }
+
+  @Test
+  public void testEncoding() {
+    UUID uuid = UUID.randomUUID();
+    byte[] bytes = UuidType.toBytes(uuid);
+    assertArrayEquals(UUIDTypeDescriptor.INSTANCE.unwrap(uuid, byte[].class, null), bytes);
+    assertEquals(uuid, UuidType.fromBytes(bytes));
+    assertEquals(uuid, UuidType.parse(uuid.toString()));
+    assertEquals(KNOWN_ID, UuidType.parse(KNOWN_ID.toString().toUpperCase()));
+    for (String invalid : new String[] {"123e4567-e89b-12d3-a456-42665544000",
+        "123e4567e89b-12d3-a456-4266554400000", "123e4567-e89b-12d3-a456-42665544000g"}) {
+      try {
+        UuidType.parse(invalid);
+        throw new AssertionError(invalid);
+      } catch (HibernateException e) {
+        // expected
+      }
+    }
+    assertEquals("b'\\x12\\x3e\\x45\\x67\\xe8\\x9b\\x12\\xd3\\xa4\\x56\\x42\\x66\\x55\\x44\\x00"
+        + "\\x00'", UuidType.INSTANCE.objectToSQLString(KNOWN_ID, null));
+
+    UUID[] uuids = {uuid, null, KNOWN_ID};
+    byte[][] elements = UuidArrayType.INSTANCE.getJavaTypeDescriptor().unwrap(uuids,
+        byte[][].class, null);
+    assertArrayEquals(uuids, UuidArrayType.INSTANCE.getJavaTypeDescriptor().wrap(elements, null));
+  }
+
+  @Test
+  public void testNotDefault() {
+    StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", CloudSpannerDialect.class.getName()).build();
+    try {
+      PersistentClass device = new MetadataSources(registry).addAnnotatedClass(Device.class)
+          .buildMetadata().getEntityBinding(Device.class.getName());
+      assertFalse(device.getIdentifier().getType() instanceof UuidType);
+      assertSame(UuidType.class, device.getProperty("ownerId").getType().getClass());
+    } finally {
+      StandardServiceRegistryBuilder.destroy(registry);
+    }
+  }
+
+  @Test
+  public void testMapping() throws SQLException {
+    try (TestSessionFactory factory = TestSessionFactory.builder("uuid-type")
+        .setting(AbstractCloudSpannerDialect.UUID_AS_BYTES, "true")
+        .annotatedClasses(Account.class, Login.class).build()) {
+      FakeDatabase database = factory.getDatabase();
+      SessionFactory sessionFactory = factory.getSessionFactory();
+      String accounts = database.getExecutedStatements().stream()
+          .filter(sql -> sql.startsWith("create table Accounts")).findFirst().get();
+      assertTrue(accounts, accounts.contains("accountId BYTES(16)"));
+      assertTrue(accounts, accounts.contains("devices ARRAY<BYTES(16)>"));
+      String logins = database.getExecutedStatements().stream()
+          .filter(sql -> sql.startsWith("create table Logins")).findFirst().get();
+      assertTrue(logins, logins.contains("account_accountId BYTES(16)"));
+
+      try (Session session = sessionFactory.openSession()) {
+        Transaction transaction = session.beginTransaction();
+        Account account = new Account();
+        account.accountId = KNOWN_ID;
+        account.name = "known";
+        session.save(account);
+        transaction.commit();
+      }
+      try (Session session = sessionFactory.openSession()) {
+        assertEquals("known", session.get(Account.class, KNOWN_ID).name);
+        // the constant is rendered as a BYTES literal
+        Account account = session.createQuery(
+            "from UuidTypeTest$Account where accountId = knut.dialect.UuidTypeTest.KNOWN_ID",
+            Account.class).getSingleResult();
+        assertEquals(KNOWN_ID, account.accountId);
+      }
+      assertTrue(database.getExecutedStatements().stream()
+          .anyMatch(sql -> sql.contains("accountId=b'\\x12\\x3e")));
+    }
+  }
+
+  @Test
+  public void testMigration() throws SQLException {
+    FakeSpannerDriver.register();
+    FakeDatabase database = FakeSpannerDriver.getDatabase("uuid-migration");
+    List<UUID> ids = Arrays.asList(KNOWN_ID, UUID.randomUUID(), UUID.randomUUID(),
+        UUID.randomUUID(), UUID.randomUUID());
+    try (Connection connection =
+        DriverManager.getConnection(FakeSpannerDriver.URL_PREFIX + database.getName());
+        Statement statement = connection.createStatement()) {
+      statement.execute("create table Orders (orderId STRING(36) not null, line INT64 not null, "
+          + "customerId STRING(36), customerUuid BYTES(16)) PRIMARY KEY (orderId, line)");
+      statement.execute("create table Orders2 (orderId BYTES(16) not null, line INT64 not null, "
+          + "customerId BYTES(16)) PRIMARY KEY (orderId, line)");
+      for (UUID id : ids) {
+        for (int line = 1; line <= 2; line++) {
+          statement.execute("insert into Orders (orderId, line, customerId) values ('" + id
+              + "', " + line + ", " + (line == 1 ? "'" + id + "'" : "null") + ")");
+        }
+      }
+
+      UuidMigration migration = new UuidMigration(connection, 3);
+      assertEquals(10L, migration.copyTable("Orders", "Orders2", Arrays.asList("orderId", "line"),
+          Collections.singletonList("customerId"), Arrays.asList("orderId", "customerId")));
+      assertEquals(5L, migration.convertColumn("Orders", Arrays.asList("orderId", "line"),
+          "customerId", "customerUuid"));
+      assertEquals(0L, migration.convertColumn("Orders", Arrays.asList("orderId", "line"),
+          "customerId", "customerUuid"));
+
+      try (ResultSet resultSet = statement.executeQuery(
+          "select orderId, line, customerId from Orders2 where line = 1")) {
+        int count = 0;
+        while (resultSet.next()) {
+          UUID id = UuidType.fromBytes(resultSet.getBytes(1));
+          assertTrue(ids.contains(id));
+          assertEquals(id, UuidType.fromBytes(resultSet.getBytes(3)));
+          count++;
+        }
+        assertEquals(5, count);
+      }
+      try (ResultSet resultSet = statement.executeQuery(
+          "select customerUuid from Orders where line = 2")) {
+        while (resultSet.next()) {
+          assertNull(resultSet.getBytes(1));
+        }
+      }
+      try (ResultSet resultSet = statement.executeQuery(
+          "select customerUuid from Orders where orderId = '" + KNOWN_ID + "' and line = 1")) {
+        assertTrue(resultSet.next());
+        assertArrayEquals(UuidType.toBytes(KNOWN_ID), resultSet.getBytes(1));
+      }
+    } finally {
+      FakeSpannerDriver.dropDatabase(database.getName());
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package knut.harness;
+
+import java.io.Serializable;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import knut.dialect.InterleaveInParent;
+
+/** Interleaved child entity of the workloads of {@link DialectComparison}. */
+@Entity
+@Table(name = "Albums", indexes = {@Index(columnList = "albumTitle")})
+@InterleaveInParent(value = "Singers", cascadeDelete = true)
+public class Album {
+  @Embeddable
+  public static class AlbumId implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Long singerId;
+    private Long albumId;
+
+    public AlbumId() {}
+
+    public AlbumId(Long singerId, Long albumId) {
+      this.singerId = singerId;
+      this.albumId = albumId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof AlbumId)) {
+        return false;
+      }
+      AlbumId other = (AlbumId) obj;
+      return Objects.equals(singerId, other.singerId) && Objects.equals(albumId, other.albumId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(singerId, albumId);
+    }
+  }
+
+  @EmbeddedId
+  private AlbumId id;
+
+  @Column(length = 200)
+  private String albumTitle;
+
+  private Double marketingBudget;
+
+  public AlbumId getId() {
+    return id;
+  }
+
+  public void setId(AlbumId id) {
+    this.id = id;
+  }
+
+  public String getAlbumTitle() {
+    return albumTitle;
+  }
+
+  public void setAlbumTitle(String albumTitle) {
+    this.albumTitle = albumTitle;
+  }
+
+  public Double getMarketingBudget() {
+    return marketingBudget;
+  }
+
+  public void setMarketingBudget(Double marketingBudget) {
+    this.marketingBudget = marketingBudget;
+  }
+}
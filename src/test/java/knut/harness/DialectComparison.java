@@ -0,0 +1,283 @@
+package knut.harness;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.cloud.spanner.hibernate.SpannerDialect;
+import knut.dialect.CloudSpannerDialect;
+import knut.dialect.CloudSpannerSchemaManagementTool;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+import org.hibernate.tool.schema.TargetType;
+
+/**
+ * Runs identical schema, CRUD and query workloads through {@link CloudSpannerDialect} and the
+ * {@link SpannerDialect} against an in-process {@link FakeDatabase}, and reports the throughput,
+ * the allocated bytes per operation and the differences in the SQL that the dialects generate.
+ * As the fake database keeps all data in memory and executes primary key lookups as point
+ * lookups, the numbers are dominated by Hibernate and the dialect, which makes it possible to
+ * measure the overhead of a dialect without a Cloud Spanner instance.
+ *
+ * <pre>
+ * java knut.harness.DialectComparison [--iterations 2000] [--warmup 500] [--rounds 2]
+ * </pre>
+ *
+ * The dialects are run alternately for a number of rounds, and only the last round is reported,
+ * so that the dialect that runs first is not penalized by the JIT compilation of Hibernate.
+ */
+public class DialectComparison {
+  private static final Map<String, String> DIALECTS = new LinkedHashMap<>();
+
+  static {
+    DIALECTS.put("knut", CloudSpannerDialect.class.getName());
+    DIALECTS.put("ours", SpannerDialect.class.getName());
+  }
+
+  /** An operation of a workload. */
+  @FunctionalInterface
+  interface Operation {
+    void run(long iteration) throws Exception;
+  }
+
+  /** The measurements of one workload for one dialect. */
+  static final class Result {
+    final String workload;
+    final double opsPerSecond;
+    /** The allocated bytes per operation, or -1 if the JVM does not support measuring this. */
+    final long bytesPerOp;
+    final List<String> statements;
+
+    Result(String workload, double opsPerSecond, long bytesPerOp, List<String> statements) {
+      this.workload = workload;
+      this.opsPerSecond = opsPerSecond;
+      this.bytesPerOp = bytesPerOp;
+      this.statements = statements;
+    }
+  }
+
+  private final int warmup;
+  private final int iterations;
+
+  public DialectComparison(int warmup, int iterations) {
+    this.warmup = warmup;
+    this.iterations = iterations;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int warmup = 500;
+    int iterations = 2000;
+    int rounds = 2;
+    for (int i = 0; i < args.length; i++) {
+      if ("--warmup".equals(args[i]) && i + 1 < args.length) {
+        warmup = Integer.parseInt(args[++i]);
+      } else if ("--iterations".equals(args[i]) && i + 1 < args.length) {
+        iterations = Integer.parseInt(args[++i]);
+      } else if ("--rounds".equals(args[i]) && i + 1 < args.length) {
+        rounds = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: DialectComparison [--iterations n] [--warmup n] [--rounds n]");
+        System.exit(2);
+      }
+    }
+    DialectComparison comparison = new DialectComparison(warmup, iterations);
+    Map<String, List<Result>> results = new LinkedHashMap<>();
+    for (int round = 0; round < Math.max(1, rounds); round++) {
+      for (String dialect : DIALECTS.keySet()) {
+        results.put(dialect, comparison.run(dialect));
+      }
+    }
+    print(results);
+  }
+
+  /** Runs all workloads with the given dialect, which must be <code>knut</code> or ours. */
+  public List<Result> run(String dialect) throws SQLException {
+    FakeSpannerDriver.register();
+    String databaseName = "comparison-" + dialect;
+    FakeSpannerDriver.dropDatabase(databaseName);
+    FakeDatabase database = FakeSpannerDriver.getDatabase(databaseName);
+    StandardServiceRegistryBuilder builder = new StandardServiceRegistryBuilder()
+        .applySetting("hibernate.dialect", DIALECTS.get(dialect))
+        .applySetting("hibernate.connection.driver_class", FakeSpannerDriver.class.getName())
+        .applySetting("hibernate.connection.url", FakeSpannerDriver.URL_PREFIX + databaseName)
+        .applySetting("hibernate.hbm2ddl.auto", "create")
+        .applySetting("hibernate.jdbc.lob.non_contextual_creation", "true");
+    if ("knut".equals(dialect)) {
+      // creates interleaved tables after their parents
+      builder.applySetting("hibernate.schema_management_tool",
+          CloudSpannerSchemaManagementTool.class.getName());
+    } else {
+      // SpannerDialect does not map the column types to those of Cloud Spanner yet
+      database.setGenericTypesAccepted(true);
+    }
+    StandardServiceRegistry registry = builder.build();
+    try {
+      Metadata metadata = new MetadataSources(registry).addAnnotatedClass(Singer.class)
+          .addAnnotatedClass(Album.class).buildMetadata();
+      try (SessionFactory sessionFactory = metadata.buildSessionFactory()) {
+        List<Result> res = new ArrayList<>();
+        for (Map.Entry<String, Operation> workload : createWorkloads(metadata, sessionFactory)
+            .entrySet()) {
+          res.add(measure(database, workload.getKey(), workload.getValue()));
+        }
+        return res;
+      }
+    } finally {
+      StandardServiceRegistryBuilder.destroy(registry);
+      FakeSpannerDriver.dropDatabase(databaseName);
+    }
+  }
+
+  /**
+   * @return the workloads by name, in the order in which they must be executed. Each workload
+   *         runs the same number of times, so that the delete workload deletes exactly the rows
+   *         that the insert workload inserted.
+   */
+  private Map<String, Operation> createWorkloads(Metadata metadata,
+      SessionFactory sessionFactory) {
+    int rows = warmup + iterations;
+    Map<String, Operation> res = new LinkedHashMap<>();
+    res.put("schema", i -> new SchemaExport().setHaltOnError(true)
+        .create(EnumSet.of(TargetType.DATABASE), metadata));
+    res.put("insert", i -> inTransaction(sessionFactory, session -> {
+      Singer singer = new Singer();
+      singer.setSingerId(i + 1);
+      singer.setFirstName("First" + i);
+      singer.setLastName("Last" + (i % 100));
+      singer.setBirthDate(new java.sql.Date(i * 86400000L));
+      singer.setActive(i % 2 == 0);
+      session.save(singer);
+      for (long a = 1; a <= 2; a++) {
+        Album album = new Album();
+        album.setId(new Album.AlbumId(i + 1, a));
+        album.setAlbumTitle("Album" + a);
+        album.setMarketingBudget(1000d * a);
+        session.save(album);
+      }
+    }));
+    res.put("load", i -> inTransaction(sessionFactory,
+        session -> session.get(Singer.class, i % rows + 1)));
+    res.put("update", i -> inTransaction(sessionFactory, session -> {
+      Singer singer = session.get(Singer.class, i % rows + 1);
+      singer.setFirstName("Updated" + i);
+    }));
+    res.put("query", i -> inTransaction(sessionFactory, session -> session
+        .createQuery("from Singer s where s.lastName like :name order by s.firstName",
+            Singer.class)
+        .setParameter("name", "Last" + (i % 10) + "%").setFirstResult(2).setMaxResults(5)
+        .getResultList()));
+    res.put("count", i -> inTransaction(sessionFactory, session -> session
+        .createQuery("select count(s) from Singer s where s.active = :active", Long.class)
+        .setParameter("active", i % 2 == 0).getSingleResult()));
+    res.put("delete", i -> inTransaction(sessionFactory, session -> {
+      Singer singer = session.get(Singer.class, i + 1);
+      if (singer != null) {
+        session.delete(singer);
+      }
+    }));
+    return res;
+  }
+
+  @FunctionalInterface
+  private interface SessionWork {
+    void run(Session session);
+  }
+
+  private static void inTransaction(SessionFactory sessionFactory, SessionWork work) {
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      work.run(session);
+      transaction.commit();
+    }
+  }
+
+  /**
+   * Runs the warmup and the measured iterations of a workload. The statements of the first
+   * warmup iteration are recorded as the SQL of the workload.
+   */
+  private Result measure(FakeDatabase database, String workload, Operation operation)
+      throws SQLException {
+    long iteration = 0L;
+    try {
+      database.clearLog();
+      database.setLogStatements(true);
+      operation.run(iteration++);
+      List<String> statements = database.getExecutedStatements();
+      database.setLogStatements(false);
+      for (int i = 1; i < warmup; i++) {
+        operation.run(iteration++);
+      }
+      long allocatedBefore = getAllocatedBytes();
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        operation.run(iteration++);
+      }
+      long elapsed = System.nanoTime() - start;
+      long allocatedAfter = getAllocatedBytes();
+      return new Result(workload, iterations * 1e9d / Math.max(1L, elapsed),
+          allocatedBefore < 0L ? -1L : (allocatedAfter - allocatedBefore) / iterations,
+          statements);
+    } catch (SQLException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new SQLException("Workload " + workload + " failed", e);
+    } finally {
+      database.setLogStatements(true);
+    }
+  }
+
+  /** @return the bytes allocated by the current thread, or -1 if this is not supported */
+  private static long getAllocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1L;
+  }
+
+  private static void print(Map<String, List<Result>> results) {
+    List<String> dialects = new ArrayList<>(results.keySet());
+    List<Result> first = results.get(dialects.get(0));
+    StringBuilder header = new StringBuilder(String.format("%-10s", "workload"));
+    for (String dialect : dialects) {
+      header.append(String.format(" %14s %12s", dialect + " ops/s", dialect + " B/op"));
+    }
+    System.out.println(header);
+    for (int w = 0; w < first.size(); w++) {
+      StringBuilder line = new StringBuilder(String.format("%-10s", first.get(w).workload));
+      for (String dialect : dialects) {
+        Result result = results.get(dialect).get(w);
+        line.append(String.format(" %14.0f %12s", result.opsPerSecond,
+            result.bytesPerOp < 0L ? "n/a" : Long.toString(result.bytesPerOp)));
+      }
+      System.out.println(line);
+    }
+    for (int w = 0; w < first.size(); w++) {
+      boolean same = true;
+      for (String dialect : dialects) {
+        same &= results.get(dialect).get(w).statements.equals(first.get(w).statements);
+      }
+      System.out.println();
+      System.out.println(first.get(w).workload + ": "
+          + (same ? "identical SQL" : "different SQL"));
+      if (!same) {
+        for (String dialect : dialects) {
+          for (String statement : results.get(dialect).get(w).statements) {
+            System.out.println("  " + dialect + ": " + statement);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package knut.harness;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory database that executes the subset of Cloud Spanner SQL and DDL that is supported
+ * by {@link FakeSql}. Statements are applied immediately; there is no isolation between
+ * connections and rollbacks are not supported. All executed statements are logged, so that the
+ * SQL that different dialects generate for the same operation can be compared.
+ *
+ * A {@link #setCommitLatency commit latency} simulates the lock contention of Cloud Spanner: rows
+ * that a transaction writes stay locked until its commit has returned, so concurrent transactions
+ * that write the same row are serialized.
+ */
+public class FakeDatabase {
+  private static final int MAX_CACHED_STATEMENTS = 1000;
+  private static final long LOCK_TIMEOUT_MILLIS = 10000L;
+
+  private final String name;
+  private final Map<String, FakeTable> tables = new LinkedHashMap<>();
+  private final Map<String, FakeSql.Command> commands = new ConcurrentHashMap<>();
+  private final List<String> executedStatements = new ArrayList<>();
+  private boolean logStatements = true;
+  private volatile long commitLatencyNanos;
+  private volatile boolean genericTypesAccepted;
+  /** The transaction that holds the lock of each row, by table name and primary key. */
+  private final Map<List<Object>, Object> locks = new HashMap<>();
+  private final Map<Object, List<List<Object>>> lockedRows = new HashMap<>();
+  private final ThreadLocal<Object> transaction = new ThreadLocal<>();
+
+  public FakeDatabase(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** @return the names of the tables in this database */
+  public synchronized List<String> getTableNames() {
+    List<String> res = new ArrayList<>();
+    for (FakeTable table : tables.values()) {
+      res.add(table.getName());
+    }
+    return res;
+  }
+
+  /** @return the number of rows in the given table */
+  public synchronized int getRowCount(String table) throws SQLException {
+    return getTable(table).size();
+  }
+
+  /** Sets whether executed statements should be logged. Defaults to <code>true</code>. */
+  public synchronized void setLogStatements(boolean logStatements) {
+    this.logStatements = logStatements;
+  }
+
+  /**
+   * Sets the time that each commit of a transaction that has written rows takes. Defaults to 0,
+   * which does not lock rows.
+   */
+  public void setCommitLatency(long latency, TimeUnit unit) {
+    commitLatencyNanos = unit.toNanos(latency);
+  }
+
+  /**
+   * Sets whether tables may have columns with the generic types of other dialects, such as
+   * <code>bigint</code>, which Cloud Spanner rejects. Defaults to <code>false</code>.
+   */
+  public void setGenericTypesAccepted(boolean genericTypesAccepted) {
+    this.genericTypesAccepted = genericTypesAccepted;
+  }
+
+  boolean isGenericTypesAccepted() {
+    return genericTypesAccepted;
+  }
+
+  /** @return the statements that have been executed since the last {@link #clearLog()} */
+  public synchronized List<String> getExecutedStatements() {
+    return Collections.unmodifiableList(new ArrayList<>(executedStatements));
+  }
+
+  public synchronized void clearLog() {
+    executedStatements.clear();
+  }
+
+  /** Removes all tables and data from this database. */
+  public synchronized void reset() {
+    tables.clear();
+    executedStatements.clear();
+    locks.clear();
+    lockedRows.clear();
+    notifyAll();
+  }
+
+  /**
+   * Executes the given statement.
+   *
+   * @param sql the SQL statement with JDBC positional parameters
+   * @param parameters the values of the parameters, with <code>Long</code> for all integer types
+   *        and <code>Double</code> for all floating point types
+   * @param owner the transaction of the statement, or <code>null</code> if it is committed
+   *        on its own
+   */
+  FakeSql.Result execute(String sql, Object[] parameters, Object owner) throws SQLException {
+    Object statementTransaction = owner == null ? new Object() : owner;
+    FakeSql.Result res;
+    transaction.set(statementTransaction);
+    try {
+      res = execute(sql, parameters);
+    } catch (SQLException | RuntimeException e) {
+      if (owner == null) {
+        rollback(statementTransaction);
+      }
+      throw e;
+    } finally {
+      transaction.remove();
+    }
+    if (owner == null) {
+      commit(statementTransaction);
+    }
+    return res;
+  }
+
+  private synchronized FakeSql.Result execute(String sql, Object[] parameters)
+      throws SQLException {
+    if (logStatements) {
+      executedStatements.add(sql);
+    }
+    return parse(sql).execute(this, parameters);
+  }
+
+  /**
+   * Locks the row with the key of the given row for the transaction of the current statement if
+   * commits have a latency, and waits for the transaction that holds the lock to commit.
+   *
+   * @return the current row with the key of the given row, or <code>null</code>
+   */
+  Object[] lock(FakeTable table, Object[] row) throws SQLException {
+    List<Object> key = table.getKey(row);
+    Object owner = transaction.get();
+    if (commitLatencyNanos > 0L && owner != null) {
+      List<Object> lock = new ArrayList<>(key);
+      lock.add(0, table.getName().toLowerCase(Locale.ENGLISH));
+      long deadline = System.currentTimeMillis() + LOCK_TIMEOUT_MILLIS;
+      Object holder;
+      while ((holder = locks.get(lock)) != null && holder != owner) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0L) {
+          throw new SQLException("Transaction was aborted after waiting for the lock of row "
+              + key + " in table " + table.getName());
+        }
+        try {
+          // releases the monitor of the database until the lock is released
+          wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SQLException("Interrupted while waiting for a lock", e);
+        }
+      }
+      if (holder == null) {
+        locks.put(lock, owner);
+        lockedRows.computeIfAbsent(owner, o -> new ArrayList<>()).add(lock);
+      }
+    }
+    return table.find(key.toArray());
+  }
+
+  /** Commits a transaction, which takes the commit latency if it has locked rows. */
+  void commit(Object owner) throws SQLException {
+    boolean locked;
+    synchronized (this) {
+      locked = lockedRows.containsKey(owner);
+    }
+    if (locked) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(commitLatencyNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while committing", e);
+      } finally {
+        rollback(owner);
+      }
+    }
+  }
+
+  /** Releases the locks of a transaction; its changes are not undone. */
+  synchronized void rollback(Object owner) {
+    List<List<Object>> rows = lockedRows.remove(owner);
+    if (rows != null) {
+      for (List<Object> row : rows) {
+        locks.remove(row);
+      }
+      notifyAll();
+    }
+  }
+
+  private FakeSql.Command parse(String sql) throws SQLException {
+    FakeSql.Command command = commands.get(sql);
+    if (command == null) {
+      command = FakeSql.parse(sql);
+      if (commands.size() < MAX_CACHED_STATEMENTS) {
+        commands.put(sql, command);
+      }
+    }
+    return command;
+  }
+
+  FakeTable getTable(String table) throws SQLException {
+    FakeTable res = tables.get(table.toLowerCase(Locale.ENGLISH));
+    if (res == null) {
+      throw new SQLException("Table not found: " + table);
+    }
+    return res;
+  }
+
+  void createTable(FakeTable table) throws SQLException {
+    String key = table.getName().toLowerCase(Locale.ENGLISH);
+    if (tables.containsKey(key)) {
+      throw new SQLException("Duplicate name in schema: " + table.getName());
+    }
+    if (table.getParent() != null) {
+      getTable(table.getParent());
+    }
+    tables.put(key, table);
+  }
+
+  void dropTable(String table) {
+    tables.remove(table.toLowerCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Deletes a row and all rows of tables that are interleaved in its table with ON DELETE CASCADE.
+   * The primary key of an interleaved row starts with the primary key of its parent row.
+   */
+  void delete(FakeTable table, Object[] row) throws SQLException {
+    List<Object> key = table.getKey(row);
+    for (FakeTable child : new ArrayList<>(tables.values())) {
+      if (child.getParent() != null && child.getParent().equalsIgnoreCase(table.getName())) {
+        for (Object[] childRow : child.findByKeyPrefix(key)) {
+          if (!child.isCascadeDelete()) {
+            throw new SQLException("Row " + key + " in table " + table.getName()
+                + " has child rows in table " + child.getName());
+          }
+          delete(child, childRow);
+        }
+      }
+    }
+    table.delete(row);
+  }
+}
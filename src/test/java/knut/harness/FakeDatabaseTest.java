@@ -0,0 +1,188 @@
+package knut.harness;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the SQL subset of the fake database, executed through the fake JDBC driver. */
+public class FakeDatabaseTest {
+  private static final String NAME = "fake-database-test";
+
+  private Connection connection;
+
+  @Before
+  public void setup() throws SQLException {
+    FakeSpannerDriver.register();
+    connection = DriverManager.getConnection(FakeSpannerDriver.URL_PREFIX + NAME);
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("START BATCH DDL");
+      statement.execute("create table Singers (singerId INT64 not null, "
+          + "name STRING(100)) primary key (singerId)");
+      statement.execute("create table Albums (singerId INT64 not null, albumId INT64 not null, "
+          + "title STRING(100)) primary key (singerId, albumId), "
+          + "INTERLEAVE IN PARENT Singers ON DELETE CASCADE");
+      statement.execute("create index IDX_Title on Albums (title)");
+      statement.execute("RUN BATCH");
+    }
+    try (PreparedStatement singers =
+        connection.prepareStatement("insert into Singers (singerId, name) values (?, ?)");
+        PreparedStatement albums = connection
+            .prepareStatement("insert into Albums (singerId, albumId, title) values (?, ?, ?)")) {
+      for (int i = 1; i <= 10; i++) {
+        singers.setInt(1, i);
+        singers.setString(2, "Singer" + i);
+        singers.addBatch();
+        albums.setLong(1, i);
+        albums.setLong(2, 1L);
+        albums.setString(3, "Title" + i);
+        albums.addBatch();
+      }
+      assertEquals(10, singers.executeBatch().length);
+      assertEquals(10, albums.executeBatch().length);
+    }
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    connection.close();
+    FakeSpannerDriver.dropDatabase(NAME);
+  }
+
+  @Test
+  public void testPointLookup() throws SQLException {
+    try (PreparedStatement statement = connection
+        .prepareStatement("select s.name as n from Singers s where s.singerId = ?")) {
+      statement.setInt(1, 3);
+      try (ResultSet rs = statement.executeQuery()) {
+        assertTrue(rs.next());
+        assertEquals("Singer3", rs.getString("n"));
+        assertFalse(rs.next());
+      }
+    }
+  }
+
+  @Test
+  public void testLimitOffset() throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(
+        "select singerId from Singers where name like ? order by singerId desc limit ? offset ?")) {
+      statement.setString(1, "Singer%");
+      statement.setInt(2, 2);
+      statement.setInt(3, 1);
+      try (ResultSet rs = statement.executeQuery()) {
+        assertTrue(rs.next());
+        assertEquals(9L, rs.getLong(1));
+        assertTrue(rs.next());
+        assertEquals(8L, rs.getLong(1));
+        assertFalse(rs.next());
+      }
+    }
+  }
+
+  @Test
+  public void testCount() throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery(
+            "select count(*) from Singers where singerId between 2 and 4 or name is null")) {
+      assertTrue(rs.next());
+      assertEquals(3, rs.getInt(1));
+    }
+  }
+
+  @Test
+  public void testUpdateAndCascadeDelete() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      assertEquals(1,
+          statement.executeUpdate("update Singers set name = 'O''Brien' where singerId = 1"));
+      assertEquals(2, statement.executeUpdate("delete from Singers where singerId in (1, 2)"));
+    }
+    FakeDatabase database = FakeSpannerDriver.getDatabase(NAME);
+    assertEquals(8, database.getRowCount("Singers"));
+    assertEquals(8, database.getRowCount("Albums"));
+  }
+
+  @Test
+  public void testArithmeticAndSum() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      assertEquals(10, statement.executeUpdate("update Albums set albumId = albumId + 0, "
+          + "title = 'T' where singerId - 1 < 10"));
+      try (ResultSet rs = statement.executeQuery(
+          "select sum(singerId + 1), sum(albumId), count(title) from Albums where singerId > 7")) {
+        assertTrue(rs.next());
+        assertEquals(30L, rs.getLong(1));
+        assertEquals(3L, rs.getLong(2));
+        assertEquals(3L, rs.getLong(3));
+      }
+      try (ResultSet rs = statement.executeQuery("select sum(singerId) from Singers "
+          + "where singerId > 10")) {
+        assertTrue(rs.next());
+        assertEquals(0L, rs.getLong(1));
+        assertTrue(rs.wasNull());
+      }
+    }
+  }
+
+  @Test
+  public void testRowLocks() throws Exception {
+    FakeDatabase database = FakeSpannerDriver.getDatabase(NAME);
+    database.setCommitLatency(20L, TimeUnit.MILLISECONDS);
+    connection.setAutoCommit(false);
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("update Singers set name = 'Locked' where singerId = 1");
+      // another transaction waits for the lock of the row, but not for other rows
+      CompletableFuture<Integer> other = CompletableFuture.supplyAsync(() -> {
+        try (Connection second =
+            DriverManager.getConnection(FakeSpannerDriver.URL_PREFIX + NAME);
+            Statement update = second.createStatement()) {
+          assertEquals(1, update.executeUpdate("update Singers set name = 'Free' "
+              + "where singerId = 2"));
+          return update.executeUpdate("update Singers set name = name where singerId = 1");
+        } catch (SQLException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      Thread.sleep(50L);
+      assertFalse(other.isDone());
+      connection.commit();
+      assertEquals(1, (int) other.get(10L, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test(expected = SQLException.class)
+  public void testDuplicateKey() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("insert into Singers (singerId, name) values (1, 'Duplicate')");
+    }
+  }
+
+  @Test
+  public void testColumnTypes() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("create table Tracks (id INT64 not null, length FLOAT64, live BOOL, "
+          + "price NUMERIC, released DATE, "
+          + "updated TIMESTAMP OPTIONS (allow_commit_timestamp=true), data BYTES(MAX), tags ARRAY<STRING(50)>, title STRING(MAX), "
+          + "upper STRING(MAX) AS (title) STORED) primary key (id)");
+      for (String type : new String[] {"bigint", "varchar(255)", "double precision", "STRING",
+          "ARRAY<ARRAY<INT64>>", "STRING(-1)"}) {
+        try {
+          statement.execute("create table Invalid (id " + type + " not null) primary key (id)");
+          fail("expected the type " + type + " to be rejected");
+        } catch (SQLException e) {
+          assertTrue(e.getMessage(), e.getMessage().contains("Invalid"));
+        }
+      }
+    }
+  }
+}
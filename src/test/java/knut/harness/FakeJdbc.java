@@ -0,0 +1,585 @@
+package knut.harness;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dynamic proxies that implement the parts of JDBC that Hibernate uses on top of a
+ * {@link FakeDatabase}. Parameter values are normalized when they are set, so that the fake
+ * database only has to compare values of a small number of types.
+ */
+final class FakeJdbc {
+
+  private FakeJdbc() {}
+
+  static Connection connect(FakeDatabase database, String url) {
+    return (Connection) Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(),
+        new Class<?>[] {Connection.class}, new ConnectionHandler(database, url));
+  }
+
+  /** @return the default value for methods that are not implemented by the fakes */
+  private static Object defaultValue(Object proxy, Method method, Object[] args)
+      throws SQLException {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return method.getDeclaringClass().getSimpleName() + "@"
+            + Integer.toHexString(System.identityHashCode(proxy));
+      case "isWrapperFor":
+        return ((Class<?>) args[0]).isInstance(proxy);
+      case "unwrap":
+        if (((Class<?>) args[0]).isInstance(proxy)) {
+          return proxy;
+        }
+        throw new SQLException("Not a wrapper for " + args[0]);
+      case "getWarnings":
+      case "clearWarnings":
+        return null;
+      default:
+        break;
+    }
+    Class<?> type = method.getReturnType();
+    if (type == void.class) {
+      return null;
+    } else if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    throw new SQLFeatureNotSupportedException(
+        "Not supported by the fake driver: " + method.getDeclaringClass().getSimpleName() + "."
+            + method.getName());
+  }
+
+  /** Converts a JDBC parameter value to the representation of the fake database. */
+  static Object normalize(Object value) {
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return ((Number) value).longValue();
+    } else if (value instanceof Float) {
+      return ((Float) value).doubleValue();
+    } else if (value instanceof Character) {
+      return value.toString();
+    } else if (value instanceof byte[]) {
+      return ((byte[]) value).clone();
+    }
+    return value;
+  }
+
+  private static final class ConnectionHandler implements InvocationHandler {
+    private final FakeDatabase database;
+    private final String url;
+    private boolean autoCommit = true;
+    private boolean readOnly;
+    private boolean closed;
+
+    private ConnectionHandler(FakeDatabase database, String url) {
+      this.database = database;
+      this.url = url;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if (closed && !method.getName().equals("close") && !method.getName().equals("isClosed")) {
+        throw new SQLException("Connection is closed");
+      }
+      switch (method.getName()) {
+        case "createStatement":
+          return createStatement((Connection) proxy, Statement.class, null);
+        case "prepareStatement":
+          return createStatement((Connection) proxy, method.getReturnType(), (String) args[0]);
+        case "prepareCall":
+          throw new SQLFeatureNotSupportedException("Stored procedures are not supported");
+        case "getMetaData":
+          return Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(),
+              new Class<?>[] {DatabaseMetaData.class}, new MetaDataHandler((Connection) proxy));
+        case "getAutoCommit":
+          return autoCommit;
+        case "setAutoCommit":
+          if ((Boolean) args[0] && !autoCommit) {
+            database.commit(this);
+          }
+          autoCommit = (Boolean) args[0];
+          return null;
+        case "isReadOnly":
+          return readOnly;
+        case "setReadOnly":
+          readOnly = (Boolean) args[0];
+          return null;
+        case "commit":
+          // statements are applied immediately, only the locks of the rows are released
+          database.commit(this);
+          return null;
+        case "rollback":
+          database.rollback(this);
+          return null;
+        case "getTransactionIsolation":
+          return Connection.TRANSACTION_SERIALIZABLE;
+        case "getHoldability":
+          return ResultSet.CLOSE_CURSORS_AT_COMMIT;
+        case "isValid":
+          return !closed;
+        case "isClosed":
+          return closed;
+        case "close":
+          if (!closed) {
+            database.rollback(this);
+          }
+          closed = true;
+          return null;
+        case "getCatalog":
+        case "getSchema":
+          return "";
+        case "nativeSQL":
+          return args[0];
+        default:
+          return defaultValue(proxy, method, args);
+      }
+    }
+
+    private Object createStatement(Connection connection, Class<?> type, String sql) {
+      return Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class<?>[] {type},
+          new StatementHandler(connection, database, sql));
+    }
+
+    private final class MetaDataHandler implements InvocationHandler {
+      private final Connection connection;
+
+      private MetaDataHandler(Connection connection) {
+        this.connection = connection;
+      }
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+          case "getConnection":
+            return connection;
+          case "getURL":
+            return url;
+          case "getUserName":
+          case "getSQLKeywords":
+          case "getSearchStringEscape":
+          case "getExtraNameCharacters":
+          case "getNumericFunctions":
+          case "getStringFunctions":
+          case "getSystemFunctions":
+          case "getTimeDateFunctions":
+            return "";
+          case "getDatabaseProductName":
+            return "Google Cloud Spanner";
+          case "getDatabaseProductVersion":
+          case "getDriverVersion":
+            return "1.0";
+          case "getDriverName":
+            return FakeSpannerDriver.class.getName();
+          case "getIdentifierQuoteString":
+            return "`";
+          case "getCatalogSeparator":
+            return ".";
+          case "getCatalogTerm":
+            return "CATALOG";
+          case "getSchemaTerm":
+            return "SCHEMA";
+          case "getDatabaseMajorVersion":
+          case "getDriverMajorVersion":
+            return 1;
+          case "getJDBCMajorVersion":
+            return 4;
+          case "getJDBCMinorVersion":
+            return 1;
+          case "getDefaultTransactionIsolation":
+            return Connection.TRANSACTION_SERIALIZABLE;
+          case "getSQLStateType":
+            return DatabaseMetaData.sqlStateSQL;
+          case "storesMixedCaseIdentifiers":
+          case "storesMixedCaseQuotedIdentifiers":
+          case "supportsMixedCaseQuotedIdentifiers":
+          case "supportsTransactions":
+          case "supportsBatchUpdates":
+          case "dataDefinitionCausesTransactionCommit":
+            return true;
+          case "supportsResultSetType":
+            return (Integer) args[0] == ResultSet.TYPE_FORWARD_ONLY;
+          case "getTables":
+          case "getColumns":
+          case "getIndexInfo":
+          case "getPrimaryKeys":
+          case "getImportedKeys":
+          case "getExportedKeys":
+          case "getTypeInfo":
+          case "getSchemas":
+          case "getCatalogs":
+          case "getTableTypes":
+          case "getSequences":
+            return createResultSet(null, Collections.emptyList(), Collections.emptyList(), 0);
+          default:
+            return defaultValue(proxy, method, args);
+        }
+      }
+    }
+  }
+
+  private static final class StatementHandler implements InvocationHandler {
+    private final Connection connection;
+    private final FakeDatabase database;
+    private final String sql;
+    private Object[] parameters = new Object[8];
+    private final List<String> batchSql = new ArrayList<>();
+    private final List<Object[]> batchParameters = new ArrayList<>();
+    private ResultSet resultSet;
+    private long updateCount = -1L;
+    private int maxRows;
+    private boolean closed;
+
+    private StatementHandler(Connection connection, FakeDatabase database, String sql) {
+      this.connection = connection;
+      this.database = database;
+      this.sql = sql;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (closed && !name.equals("close") && !name.equals("isClosed")) {
+        throw new SQLException("Statement is closed");
+      }
+      if (name.startsWith("set") && args != null && args.length >= 2
+          && args[0] instanceof Integer && method.getParameterTypes()[0] == int.class
+          && sql != null) {
+        setParameter((Integer) args[0], name.equals("setNull") ? null : normalize(args[1]));
+        return null;
+      }
+      switch (name) {
+        case "executeQuery":
+          execute((Statement) proxy, args == null ? sql : (String) args[0], parameters);
+          if (resultSet == null) {
+            throw new SQLException("Statement did not return a result set");
+          }
+          return resultSet;
+        case "executeUpdate":
+        case "executeLargeUpdate":
+          execute((Statement) proxy, args == null ? sql : (String) args[0], parameters);
+          if (resultSet != null) {
+            throw new SQLException("Statement returned a result set");
+          }
+          return name.equals("executeUpdate") ? (Object) (int) updateCount : (Object) updateCount;
+        case "execute":
+          execute((Statement) proxy, args == null ? sql : (String) args[0], parameters);
+          return resultSet != null;
+        case "addBatch":
+          if (args == null) {
+            batchParameters.add(parameters.clone());
+          } else {
+            batchSql.add((String) args[0]);
+          }
+          return null;
+        case "clearBatch":
+          batchSql.clear();
+          batchParameters.clear();
+          return null;
+        case "executeBatch":
+        case "executeLargeBatch":
+          return executeBatch((Statement) proxy, name.equals("executeLargeBatch"));
+        case "clearParameters":
+          Arrays.fill(parameters, null);
+          return null;
+        case "getResultSet":
+          return resultSet;
+        case "getUpdateCount":
+          return (int) updateCount;
+        case "getLargeUpdateCount":
+          return updateCount;
+        case "getMoreResults":
+          resultSet = null;
+          updateCount = -1L;
+          return false;
+        case "getGeneratedKeys":
+          return createResultSet((Statement) proxy, Collections.emptyList(),
+              Collections.emptyList(), 0);
+        case "setMaxRows":
+          maxRows = (Integer) args[0];
+          return null;
+        case "getMaxRows":
+          return maxRows;
+        case "getConnection":
+          return connection;
+        case "isClosed":
+          return closed;
+        case "close":
+          closed = true;
+          return null;
+        default:
+          return defaultValue(proxy, method, args);
+      }
+    }
+
+    private void setParameter(int index, Object value) throws SQLException {
+      if (index < 1) {
+        throw new SQLException("Invalid parameter index: " + index);
+      }
+      if (index > parameters.length) {
+        parameters = Arrays.copyOf(parameters, Math.max(index, parameters.length * 2));
+      }
+      parameters[index - 1] = value;
+    }
+
+    private void execute(Statement statement, String statementSql, Object[] values)
+        throws SQLException {
+      FakeSql.Result result = database.execute(statementSql, values,
+          connection.getAutoCommit() ? null : Proxy.getInvocationHandler(connection));
+      if (result.isQuery()) {
+        resultSet = createResultSet(statement, result.labels, result.rows, maxRows);
+        updateCount = -1L;
+      } else {
+        resultSet = null;
+        updateCount = result.updateCount;
+      }
+    }
+
+    private Object executeBatch(Statement statement, boolean large) throws SQLException {
+      int size = sql == null ? batchSql.size() : batchParameters.size();
+      long[] counts = new long[size];
+      try {
+        for (int i = 0; i < size; i++) {
+          if (sql == null) {
+            execute(statement, batchSql.get(i), parameters);
+          } else {
+            execute(statement, sql, batchParameters.get(i));
+          }
+          counts[i] = updateCount;
+        }
+      } finally {
+        batchSql.clear();
+        batchParameters.clear();
+        resultSet = null;
+        updateCount = -1L;
+      }
+      if (large) {
+        return counts;
+      }
+      int[] res = new int[size];
+      for (int i = 0; i < size; i++) {
+        res[i] = (int) counts[i];
+      }
+      return res;
+    }
+  }
+
+  static ResultSet createResultSet(Statement statement, List<String> labels, List<Object[]> rows,
+      int maxRows) {
+    List<Object[]> limited =
+        maxRows > 0 && rows.size() > maxRows ? rows.subList(0, maxRows) : rows;
+    return (ResultSet) Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(),
+        new Class<?>[] {ResultSet.class}, new ResultSetHandler(statement, labels, limited));
+  }
+
+  private static final class ResultSetHandler implements InvocationHandler {
+    private final Statement statement;
+    private final List<String> labels;
+    private final List<Object[]> rows;
+    private int index = -1;
+    private boolean wasNull;
+    private boolean closed;
+
+    private ResultSetHandler(Statement statement, List<String> labels, List<Object[]> rows) {
+      this.statement = statement;
+      this.labels = labels;
+      this.rows = rows;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (closed && !name.equals("close") && !name.equals("isClosed")) {
+        throw new SQLException("Result set is closed");
+      }
+      // column getters, except the getObject variants with a type map or class
+      if (name.startsWith("get") && args != null && args.length == 1
+          && (args[0] instanceof Integer || args[0] instanceof String)) {
+        Object value = getValue(args[0]);
+        wasNull = value == null;
+        return convert(value, method.getReturnType(), name);
+      }
+      switch (name) {
+        case "next":
+          index++;
+          return index < rows.size();
+        case "isBeforeFirst":
+          return index < 0 && !rows.isEmpty();
+        case "isAfterLast":
+          return index >= rows.size() && !rows.isEmpty();
+        case "getRow":
+          return index < rows.size() ? index + 1 : 0;
+        case "wasNull":
+          return wasNull;
+        case "findColumn":
+          return findColumn((String) args[0]);
+        case "getMetaData":
+          return Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(),
+              new Class<?>[] {ResultSetMetaData.class}, this::invokeMetaData);
+        case "getStatement":
+          return statement;
+        case "getType":
+          return ResultSet.TYPE_FORWARD_ONLY;
+        case "getConcurrency":
+          return ResultSet.CONCUR_READ_ONLY;
+        case "isClosed":
+          return closed;
+        case "close":
+          closed = true;
+          return null;
+        default:
+          return defaultValue(proxy, method, args);
+      }
+    }
+
+    private Object invokeMetaData(Object proxy, Method method, Object[] args)
+        throws SQLException {
+      switch (method.getName()) {
+        case "getColumnCount":
+          return labels.size();
+        case "getColumnLabel":
+        case "getColumnName":
+          return labels.get((Integer) args[0] - 1);
+        case "getColumnType":
+          return getColumnType((Integer) args[0]);
+        case "isNullable":
+          return ResultSetMetaData.columnNullableUnknown;
+        case "getTableName":
+        case "getSchemaName":
+        case "getCatalogName":
+          return "";
+        default:
+          return defaultValue(proxy, method, args);
+      }
+    }
+
+    private int getColumnType(int column) {
+      for (Object[] row : rows) {
+        Object value = row[column - 1];
+        if (value instanceof Long) {
+          return Types.BIGINT;
+        } else if (value instanceof Double) {
+          return Types.DOUBLE;
+        } else if (value instanceof BigDecimal) {
+          return Types.NUMERIC;
+        } else if (value instanceof Boolean) {
+          return Types.BOOLEAN;
+        } else if (value instanceof byte[]) {
+          return Types.BINARY;
+        } else if (value instanceof java.sql.Date) {
+          return Types.DATE;
+        } else if (value instanceof java.util.Date) {
+          return Types.TIMESTAMP;
+        } else if (value != null) {
+          return Types.NVARCHAR;
+        }
+      }
+      return Types.NVARCHAR;
+    }
+
+    private int findColumn(String label) throws SQLException {
+      for (int i = 0; i < labels.size(); i++) {
+        if (labels.get(i).equalsIgnoreCase(label)) {
+          return i + 1;
+        }
+      }
+      throw new SQLException("Column not found: " + label);
+    }
+
+    private Object getValue(Object column) throws SQLException {
+      if (index < 0 || index >= rows.size()) {
+        throw new SQLException("Result set is not positioned on a row");
+      }
+      int columnIndex =
+          column instanceof Integer ? (Integer) column : findColumn((String) column);
+      if (columnIndex < 1 || columnIndex > labels.size()) {
+        throw new SQLException("Invalid column index: " + columnIndex);
+      }
+      return rows.get(index)[columnIndex - 1];
+    }
+
+    private static Object convert(Object value, Class<?> type, String getter)
+        throws SQLException {
+      if (type == Object.class) {
+        return value;
+      }
+      if (value == null) {
+        if (type == boolean.class) {
+          return false;
+        } else if (type.isPrimitive()) {
+          return convertNumber(0L, type);
+        }
+        return null;
+      }
+      if (type == String.class) {
+        return value instanceof byte[] ? new String((byte[]) value,
+            java.nio.charset.StandardCharsets.UTF_8) : value.toString();
+      } else if (type == boolean.class) {
+        return value instanceof Boolean ? (Boolean) value
+            : value instanceof Number ? ((Number) value).longValue() != 0L
+                : Boolean.parseBoolean(value.toString());
+      } else if (type.isPrimitive() || type == BigDecimal.class) {
+        if (value instanceof Boolean) {
+          return convertNumber((Boolean) value ? 1L : 0L, type);
+        } else if (value instanceof Number) {
+          return convertNumber((Number) value, type);
+        }
+        try {
+          return convertNumber(new BigDecimal(value.toString()), type);
+        } catch (NumberFormatException e) {
+          throw new SQLException("Not a number: " + value, e);
+        }
+      } else if (type == byte[].class && value instanceof byte[]) {
+        return ((byte[]) value).clone();
+      } else if (type == byte[].class && value instanceof String) {
+        return ((String) value).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+      } else if (type == java.sql.Timestamp.class && value instanceof java.util.Date) {
+        return new java.sql.Timestamp(((java.util.Date) value).getTime());
+      } else if (type == java.sql.Date.class && value instanceof java.util.Date) {
+        return new java.sql.Date(((java.util.Date) value).getTime());
+      } else if (type == java.sql.Time.class && value instanceof java.util.Date) {
+        return new java.sql.Time(((java.util.Date) value).getTime());
+      } else if (type.isInstance(value)) {
+        return value;
+      }
+      throw new SQLException("Cannot convert " + value.getClass().getSimpleName() + " to "
+          + type.getSimpleName() + " in " + getter);
+    }
+
+    private static Object convertNumber(Number value, Class<?> type) {
+      if (type == long.class) {
+        return value.longValue();
+      } else if (type == int.class) {
+        return value.intValue();
+      } else if (type == short.class) {
+        return value.shortValue();
+      } else if (type == byte.class) {
+        return value.byteValue();
+      } else if (type == double.class) {
+        return value.doubleValue();
+      } else if (type == float.class) {
+        return value.floatValue();
+      }
+      return value instanceof BigDecimal ? value : new BigDecimal(value.toString());
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package knut.harness;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver for in-process {@link FakeDatabase}s, so that the dialects can be exercised without
+ * a Cloud Spanner instance. The URL of a database is <code>jdbc:fakespanner:&lt;name&gt;</code>;
+ * a database is created on the first connection and lives until {@link #dropDatabase(String)} is
+ * called.
+ */
+public class FakeSpannerDriver implements Driver {
+  public static final String URL_PREFIX = "jdbc:fakespanner:";
+
+  private static final FakeSpannerDriver INSTANCE = new FakeSpannerDriver();
+  private static final Map<String, FakeDatabase> DATABASES = new ConcurrentHashMap<>();
+  private static boolean registered;
+
+  /** Registers the driver with the {@link DriverManager}, if it has not been registered yet. */
+  public static synchronized void register() throws SQLException {
+    if (!registered) {
+      DriverManager.registerDriver(INSTANCE);
+      registered = true;
+    }
+  }
+
+  /** @return the database with the given name, which is created if it does not exist */
+  public static FakeDatabase getDatabase(String name) {
+    return DATABASES.computeIfAbsent(name, FakeDatabase::new);
+  }
+
+  public static void dropDatabase(String name) {
+    DATABASES.remove(name);
+  }
+
+  @Override
+  public Connection connect(String url, Properties info) throws SQLException {
+    if (!acceptsURL(url)) {
+      return null;
+    }
+    String name = url.substring(URL_PREFIX.length());
+    int parameters = name.indexOf(';');
+    if (parameters >= 0) {
+      name = name.substring(0, parameters);
+    }
+    return FakeJdbc.connect(getDatabase(name), url);
+  }
+
+  @Override
+  public boolean acceptsURL(String url) {
+    return url != null && url.startsWith(URL_PREFIX);
+  }
+
+  @Override
+  public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+    return new DriverPropertyInfo[0];
+  }
+
+  @Override
+  public int getMajorVersion() {
+    return 1;
+  }
+
+  @Override
+  public int getMinorVersion() {
+    return 0;
+  }
+
+  @Override
+  public boolean jdbcCompliant() {
+    return false;
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException();
+  }
+}
@@ -0,0 +1,1435 @@
+package knut.harness;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Parser and interpreter for the subset of Cloud Spanner SQL and DDL that Hibernate generates for
+ * single table entities: CREATE/DROP TABLE and INDEX, INSERT with values, UPDATE and DELETE with a
+ * WHERE clause, and SELECT from one table with WHERE, ORDER BY, LIMIT and OFFSET and COUNT. Other
+ * statements are rejected with a {@link SQLFeatureNotSupportedException}.
+ *
+ * Both the syntax of Cloud Spanner and the more generic syntax of other dialects are accepted, so
+ * that the statements of different dialects can be executed on the same fake database. Column
+ * types must be types of Cloud Spanner, so that DDL that Cloud Spanner would reject, such as
+ * <code>bigint</code> or <code>varchar(255)</code>, fails here too, unless the database
+ * {@link FakeDatabase#setGenericTypesAccepted accepts generic types}.
+ */
+final class FakeSql {
+  private FakeSql() {}
+
+  /** The result of a statement: either an update count or the rows of a query. */
+  static final class Result {
+    final long updateCount;
+    final List<String> labels;
+    final List<Object[]> rows;
+
+    private Result(long updateCount, List<String> labels, List<Object[]> rows) {
+      this.updateCount = updateCount;
+      this.labels = labels;
+      this.rows = rows;
+    }
+
+    static Result updateCount(long count) {
+      return new Result(count, null, null);
+    }
+
+    static Result rows(List<String> labels, List<Object[]> rows) {
+      return new Result(-1L, labels, rows);
+    }
+
+    boolean isQuery() {
+      return rows != null;
+    }
+  }
+
+  /** A parsed statement that can be executed repeatedly with different parameter values. */
+  abstract static class Command {
+    abstract Result execute(FakeDatabase database, Object[] parameters) throws SQLException;
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Tokenizer
+  // ---------------------------------------------------------------------------------------------
+
+  private enum TokenType {
+    IDENTIFIER, QUOTED_IDENTIFIER, STRING, BYTES, NUMBER, PARAMETER, SYMBOL, END
+  }
+
+  private static final class Token {
+    private final TokenType type;
+    private final String text;
+
+    private Token(TokenType type, String text) {
+      this.type = type;
+      this.text = text;
+    }
+
+    private boolean is(String keyword) {
+      return type == TokenType.IDENTIFIER && text.equalsIgnoreCase(keyword)
+          || type == TokenType.SYMBOL && text.equals(keyword);
+    }
+
+    @Override
+    public String toString() {
+      return text;
+    }
+  }
+
+  private static final Pattern NUMBER = Pattern.compile("[0-9]+(\\.[0-9]*)?([eE][-+]?[0-9]+)?");
+
+  private static List<Token> tokenize(String sql) throws SQLException {
+    List<Token> res = new ArrayList<>();
+    int i = 0;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c) || c == ';') {
+        i++;
+      } else if (c == '-' && sql.startsWith("--", i)) {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? sql.length() : end;
+      } else if (c == '/' && sql.startsWith("/*", i)) {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? sql.length() : end + 2;
+      } else if (c == '`' || c == '"') {
+        int end = sql.indexOf(c, i + 1);
+        if (end < 0) {
+          throw new SQLException("Unterminated quoted identifier: " + sql);
+        }
+        res.add(new Token(TokenType.QUOTED_IDENTIFIER, sql.substring(i + 1, end)));
+        i = end + 1;
+      } else if (c == '\'') {
+        StringBuilder value = new StringBuilder();
+        i++;
+        while (true) {
+          if (i >= sql.length()) {
+            throw new SQLException("Unterminated string literal: " + sql);
+          }
+          char ch = sql.charAt(i);
+          if (ch == '\\' && i + 1 < sql.length()) {
+            value.append(sql.charAt(i + 1));
+            i += 2;
+          } else if (ch == '\'' && sql.startsWith("''", i)) {
+            value.append('\'');
+            i += 2;
+          } else if (ch == '\'') {
+            i++;
+            break;
+          } else {
+            value.append(ch);
+            i++;
+          }
+        }
+        res.add(new Token(TokenType.STRING, value.toString()));
+      } else if ((c == 'b' || c == 'B') && i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+        // BYTES literal with \xhh escapes, kept as a string of ISO-8859-1 characters
+        StringBuilder value = new StringBuilder();
+        i += 2;
+        while (true) {
+          if (i >= sql.length()) {
+            throw new SQLException("Unterminated bytes literal: " + sql);
+          }
+          char ch = sql.charAt(i);
+          if (ch == '\\' && sql.startsWith("x", i + 1) && i + 4 <= sql.length()) {
+            value.append((char) Integer.parseInt(sql.substring(i + 2, i + 4), 16));
+            i += 4;
+          } else if (ch == '\\' && i + 1 < sql.length()) {
+            value.append(sql.charAt(i + 1));
+            i += 2;
+          } else if (ch == '\'') {
+            i++;
+            break;
+          } else {
+            value.append(ch);
+            i++;
+          }
+        }
+        res.add(new Token(TokenType.BYTES, value.toString()));
+      } else if (Character.isDigit(c)) {
+        java.util.regex.Matcher matcher = NUMBER.matcher(sql);
+        matcher.find(i);
+        res.add(new Token(TokenType.NUMBER, matcher.group()));
+        i = matcher.end();
+      } else if (Character.isLetter(c) || c == '_') {
+        int start = i;
+        while (i < sql.length()
+            && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_'
+                || sql.charAt(i) == '$')) {
+          i++;
+        }
+        res.add(new Token(TokenType.IDENTIFIER, sql.substring(start, i)));
+      } else if (c == '?') {
+        res.add(new Token(TokenType.PARAMETER, "?"));
+        i++;
+      } else if ((c == '<' || c == '>' || c == '!') && i + 1 < sql.length()
+          && (sql.charAt(i + 1) == '=' || c == '<' && sql.charAt(i + 1) == '>')) {
+        res.add(new Token(TokenType.SYMBOL, sql.substring(i, i + 2)));
+        i += 2;
+      } else {
+        res.add(new Token(TokenType.SYMBOL, String.valueOf(c)));
+        i++;
+      }
+    }
+    res.add(new Token(TokenType.END, ""));
+    return res;
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Expressions
+  // ---------------------------------------------------------------------------------------------
+
+  /** Resolves column references against the table of a statement. */
+  private interface Expression {
+    Object evaluate(FakeTable table, Object[] row, Object[] parameters) throws SQLException;
+  }
+
+  private static final class Literal implements Expression {
+    private final Object value;
+
+    private Literal(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters) {
+      return value;
+    }
+  }
+
+  private static final class Parameter implements Expression {
+    private final int index;
+
+    private Parameter(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters)
+        throws SQLException {
+      if (index >= parameters.length) {
+        throw new SQLException("No value specified for parameter " + (index + 1));
+      }
+      return parameters[index];
+    }
+  }
+
+  private static final class ColumnReference implements Expression {
+    private final String column;
+
+    private ColumnReference(String column) {
+      this.column = column;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters)
+        throws SQLException {
+      return row[table.getColumnIndex(column)];
+    }
+  }
+
+  private interface Operator {
+    Object apply(Object left, Object right);
+  }
+
+  private static final class Binary implements Expression {
+    private final Expression left;
+    private final Expression right;
+    private final Operator operator;
+
+    private Binary(Expression left, Expression right, Operator operator) {
+      this.left = left;
+      this.right = right;
+      this.operator = operator;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters)
+        throws SQLException {
+      return operator.apply(left.evaluate(table, row, parameters),
+          right.evaluate(table, row, parameters));
+    }
+  }
+
+  /** Addition and subtraction of numbers, which fails on INT64 overflow like Cloud Spanner. */
+  private static final class Arithmetic implements Expression {
+    private final Expression left;
+    private final Expression right;
+    private final boolean subtract;
+
+    private Arithmetic(Expression left, Expression right, boolean subtract) {
+      this.left = left;
+      this.right = right;
+      this.subtract = subtract;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters)
+        throws SQLException {
+      Object l = left.evaluate(table, row, parameters);
+      Object r = right.evaluate(table, row, parameters);
+      if (l == null || r == null) {
+        return null;
+      }
+      if (!(l instanceof Number) || !(r instanceof Number)) {
+        throw new SQLException("Cannot add or subtract " + l + " and " + r);
+      }
+      return add((Number) l, subtract ? negate((Number) r) : (Number) r);
+    }
+
+    private static Number negate(Number value) throws SQLException {
+      if (value instanceof Long) {
+        if ((Long) value == Long.MIN_VALUE) {
+          throw new SQLException("INT64 overflow: -" + value);
+        }
+        return -(Long) value;
+      }
+      return -value.doubleValue();
+    }
+  }
+
+  /** @return the sum of two numbers, an INT64 if both are INT64 values */
+  private static Number add(Number left, Number right) throws SQLException {
+    if (left instanceof Long && right instanceof Long) {
+      try {
+        return Math.addExact((Long) left, (Long) right);
+      } catch (ArithmeticException e) {
+        throw new SQLException("INT64 overflow: " + left + " + " + right, e);
+      }
+    }
+    return left.doubleValue() + right.doubleValue();
+  }
+
+  private static final class And implements Expression {
+    private final Expression left;
+    private final Expression right;
+
+    private And(Expression left, Expression right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters)
+        throws SQLException {
+      return isTrue(left.evaluate(table, row, parameters))
+          && isTrue(right.evaluate(table, row, parameters));
+    }
+  }
+
+  private static final class Or implements Expression {
+    private final Expression left;
+    private final Expression right;
+
+    private Or(Expression left, Expression right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters)
+        throws SQLException {
+      return isTrue(left.evaluate(table, row, parameters))
+          || isTrue(right.evaluate(table, row, parameters));
+    }
+  }
+
+  private static final class Not implements Expression {
+    private final Expression expression;
+
+    private Not(Expression expression) {
+      this.expression = expression;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters)
+        throws SQLException {
+      Object value = expression.evaluate(table, row, parameters);
+      return value == null ? null : !isTrue(value);
+    }
+  }
+
+  private static final class IsNull implements Expression {
+    private final Expression expression;
+
+    private IsNull(Expression expression) {
+      this.expression = expression;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters)
+        throws SQLException {
+      return expression.evaluate(table, row, parameters) == null;
+    }
+  }
+
+  private static final class In implements Expression {
+    private final Expression expression;
+    private final List<Expression> values;
+
+    private In(Expression expression, List<Expression> values) {
+      this.expression = expression;
+      this.values = values;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters)
+        throws SQLException {
+      Object value = expression.evaluate(table, row, parameters);
+      if (value == null) {
+        return null;
+      }
+      for (Expression candidate : values) {
+        if (compare(value, candidate.evaluate(table, row, parameters)) == 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class Function implements Expression {
+    private final String name;
+    private final List<Expression> arguments;
+
+    private Function(String name, List<Expression> arguments) {
+      this.name = name;
+      this.arguments = arguments;
+    }
+
+    @Override
+    public Object evaluate(FakeTable table, Object[] row, Object[] parameters)
+        throws SQLException {
+      Object[] values = new Object[arguments.size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = arguments.get(i).evaluate(table, row, parameters);
+      }
+      switch (name) {
+        case "lower":
+          return values[0] == null ? null : values[0].toString().toLowerCase(Locale.ENGLISH);
+        case "upper":
+          return values[0] == null ? null : values[0].toString().toUpperCase(Locale.ENGLISH);
+        case "length":
+        case "char_length":
+          if (values[0] instanceof byte[]) {
+            return (long) ((byte[]) values[0]).length;
+          }
+          return values[0] == null ? null : (long) values[0].toString().length();
+        case "substr":
+          return substr(values);
+        case "pending_commit_timestamp":
+          return new java.sql.Timestamp(System.currentTimeMillis());
+        case "coalesce":
+        case "ifnull":
+          for (Object value : values) {
+            if (value != null) {
+              return value;
+            }
+          }
+          return null;
+        default:
+          throw new SQLFeatureNotSupportedException("Unsupported function: " + name);
+      }
+    }
+
+    /** SUBSTR(value, position[, length]) with a 1-based position, of strings and bytes. */
+    private static Object substr(Object[] values) {
+      for (Object value : values) {
+        if (value == null) {
+          return null;
+        }
+      }
+      int size = values[0] instanceof byte[] ? ((byte[]) values[0]).length
+          : values[0].toString().length();
+      int from = (int) Math.min(Math.max(((Number) values[1]).longValue() - 1L, 0L), size);
+      int to = values.length < 3 ? size
+          : (int) Math.min(from + Math.max(((Number) values[2]).longValue(), 0L), size);
+      return values[0] instanceof byte[] ? Arrays.copyOfRange((byte[]) values[0], from, to)
+          : values[0].toString().substring(from, to);
+    }
+  }
+
+  private static boolean isTrue(Object value) {
+    return Boolean.TRUE.equals(value);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static int compare(Object left, Object right) {
+    if (left instanceof Number && right instanceof Number) {
+      if (left instanceof Long && right instanceof Long) {
+        return Long.compare((Long) left, (Long) right);
+      }
+      return toBigDecimal((Number) left).compareTo(toBigDecimal((Number) right));
+    }
+    if (left instanceof byte[] && right instanceof byte[]) {
+      return Arrays.equals((byte[]) left, (byte[]) right) ? 0
+          : Arrays.toString((byte[]) left).compareTo(Arrays.toString((byte[]) right));
+    }
+    if (left instanceof java.util.Date && right instanceof java.util.Date) {
+      return Long.compare(((java.util.Date) left).getTime(), ((java.util.Date) right).getTime());
+    }
+    if (left instanceof Comparable && left.getClass().isInstance(right)) {
+      return ((Comparable) left).compareTo(right);
+    }
+    return Objects.equals(left, right) ? 0 : String.valueOf(left).compareTo(String.valueOf(right));
+  }
+
+  private static BigDecimal toBigDecimal(Number number) {
+    return number instanceof BigDecimal ? (BigDecimal) number : new BigDecimal(number.toString());
+  }
+
+  private static final Operator EQUALS =
+      (l, r) -> l == null || r == null ? null : compare(l, r) == 0;
+
+  private static Operator comparison(String operator) {
+    switch (operator) {
+      case "=":
+        return EQUALS;
+      case "<>":
+      case "!=":
+        return (l, r) -> l == null || r == null ? null : compare(l, r) != 0;
+      case "<":
+        return (l, r) -> l == null || r == null ? null : compare(l, r) < 0;
+      case "<=":
+        return (l, r) -> l == null || r == null ? null : compare(l, r) <= 0;
+      case ">":
+        return (l, r) -> l == null || r == null ? null : compare(l, r) > 0;
+      case ">=":
+        return (l, r) -> l == null || r == null ? null : compare(l, r) >= 0;
+      default:
+        return null;
+    }
+  }
+
+  /** The LIKE operator, which caches the regular expression of the last pattern. */
+  private static final class Like implements Operator {
+    private String lastPattern;
+    private Pattern lastRegex;
+
+    @Override
+    public synchronized Object apply(Object left, Object right) {
+      if (left == null || right == null) {
+        return null;
+      }
+      if (!right.toString().equals(lastPattern)) {
+        lastPattern = right.toString();
+        lastRegex = toRegex(lastPattern);
+      }
+      return lastRegex.matcher(left.toString()).matches();
+    }
+  }
+
+  private static Pattern toRegex(String pattern) {
+    StringBuilder regex = new StringBuilder();
+    for (char c : pattern.toCharArray()) {
+      if (c == '%') {
+        regex.append(".*");
+      } else if (c == '_') {
+        regex.append('.');
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  /**
+   * @return the rows of the table that match the WHERE clause. A WHERE clause that specifies the
+   *         values of all primary key columns is executed as a point lookup.
+   */
+  private static List<Object[]> findRows(FakeTable table, Expression where,
+      Object[] parameters) throws SQLException {
+    List<Object[]> candidates = null;
+    if (where != null) {
+      Map<String, Expression> equalities = new HashMap<>();
+      collectEqualities(where, equalities);
+      List<String> primaryKey = table.getPrimaryKey();
+      Object[] key = new Object[primaryKey.size()];
+      for (int i = 0; i < key.length && key.length == equalities.size(); i++) {
+        Expression value = equalities.get(primaryKey.get(i).toLowerCase(Locale.ENGLISH));
+        if (value == null) {
+          key = null;
+          break;
+        }
+        key[i] = value.evaluate(table, null, parameters);
+      }
+      if (key != null && key.length > 0 && key.length == equalities.size()) {
+        Object[] row = table.find(key);
+        candidates = row == null ? Collections.emptyList() : Collections.singletonList(row);
+      }
+    }
+    if (candidates == null) {
+      candidates = table.snapshot();
+    }
+    List<Object[]> res = new ArrayList<>();
+    for (Object[] row : candidates) {
+      if (where == null || isTrue(where.evaluate(table, row, parameters))) {
+        res.add(row);
+      }
+    }
+    return res;
+  }
+
+  /** Collects the <code>column = value</code> conditions of a conjunction. */
+  private static void collectEqualities(Expression expression, Map<String, Expression> res) {
+    if (expression instanceof And) {
+      collectEqualities(((And) expression).left, res);
+      collectEqualities(((And) expression).right, res);
+    } else if (expression instanceof Binary && ((Binary) expression).operator == EQUALS) {
+      Binary binary = (Binary) expression;
+      if (binary.left instanceof ColumnReference
+          && (binary.right instanceof Parameter || binary.right instanceof Literal)) {
+        res.put(((ColumnReference) binary.left).column.toLowerCase(Locale.ENGLISH), binary.right);
+      }
+    }
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Statements
+  // ---------------------------------------------------------------------------------------------
+
+  private static final class NoOp extends Command {
+    @Override
+    Result execute(FakeDatabase database, Object[] parameters) {
+      return Result.updateCount(0L);
+    }
+  }
+
+  private static final class CreateTable extends Command {
+    private final String table;
+    private final List<String> columns;
+    private final List<String> primaryKey;
+    private final String parent;
+    private final boolean cascadeDelete;
+    /** The expressions of the stored generated columns. */
+    private final Map<String, Expression> generated;
+    /** The first column type that is not a type of Cloud Spanner, or <code>null</code>. */
+    private final String unsupportedType;
+
+    private CreateTable(String table, List<String> columns, List<String> primaryKey,
+        String parent, boolean cascadeDelete, Map<String, Expression> generated,
+        String unsupportedType) {
+      this.table = table;
+      this.columns = columns;
+      this.primaryKey = primaryKey;
+      this.parent = parent;
+      this.cascadeDelete = cascadeDelete;
+      this.generated = generated;
+      this.unsupportedType = unsupportedType;
+    }
+
+    @Override
+    Result execute(FakeDatabase database, Object[] parameters) throws SQLException {
+      if (unsupportedType != null && !database.isGenericTypesAccepted()) {
+        throw new SQLException(
+            "Unsupported column type " + unsupportedType + " in table " + table);
+      }
+      FakeTable fakeTable = new FakeTable(table, columns, primaryKey, parent, cascadeDelete);
+      for (Map.Entry<String, Expression> entry : generated.entrySet()) {
+        Expression expression = entry.getValue();
+        fakeTable.setGenerator(entry.getKey(),
+            (t, row) -> expression.evaluate(t, row, new Object[0]));
+      }
+      database.createTable(fakeTable);
+      return Result.updateCount(0L);
+    }
+  }
+
+  private static final class DropTable extends Command {
+    private final String table;
+
+    private DropTable(String table) {
+      this.table = table;
+    }
+
+    @Override
+    Result execute(FakeDatabase database, Object[] parameters) {
+      database.dropTable(table);
+      return Result.updateCount(0L);
+    }
+  }
+
+  private static final class Insert extends Command {
+    private final String table;
+    private final List<String> columns;
+    private final List<Expression> values;
+
+    private Insert(String table, List<String> columns, List<Expression> values) {
+      this.table = table;
+      this.columns = columns;
+      this.values = values;
+    }
+
+    @Override
+    Result execute(FakeDatabase database, Object[] parameters) throws SQLException {
+      FakeTable fakeTable = database.getTable(table);
+      Object[] row = new Object[fakeTable.getColumns().size()];
+      for (int i = 0; i < columns.size(); i++) {
+        checkNotGenerated(fakeTable, columns.get(i));
+        row[fakeTable.getColumnIndex(columns.get(i))] =
+            values.get(i).evaluate(fakeTable, row, parameters);
+      }
+      database.lock(fakeTable, row);
+      fakeTable.insert(row);
+      return Result.updateCount(1L);
+    }
+  }
+
+  private static final class Update extends Command {
+    private final String table;
+    private final List<String> columns;
+    private final List<Expression> values;
+    private final Expression where;
+
+    private Update(String table, List<String> columns, List<Expression> values,
+        Expression where) {
+      this.table = table;
+      this.columns = columns;
+      this.values = values;
+      this.where = where;
+    }
+
+    @Override
+    Result execute(FakeDatabase database, Object[] parameters) throws SQLException {
+      FakeTable fakeTable = database.getTable(table);
+      long count = 0L;
+      for (Object[] found : findRows(fakeTable, where, parameters)) {
+        // the row may have been changed by the transaction that held its lock
+        Object[] row = database.lock(fakeTable, found);
+        if (row == null) {
+          continue;
+        }
+        Object[] updated = row.clone();
+        for (int i = 0; i < columns.size(); i++) {
+          checkNotGenerated(fakeTable, columns.get(i));
+          updated[fakeTable.getColumnIndex(columns.get(i))] =
+              values.get(i).evaluate(fakeTable, row, parameters);
+        }
+        fakeTable.update(row, updated);
+        count++;
+      }
+      return Result.updateCount(count);
+    }
+  }
+
+  private static void checkNotGenerated(FakeTable table, String column) throws SQLException {
+    if (table.isGenerated(column)) {
+      throw new SQLException("Cannot write to generated column " + column);
+    }
+  }
+
+  private static final class Delete extends Command {
+    private final String table;
+    private final Expression where;
+
+    private Delete(String table, Expression where) {
+      this.table = table;
+      this.where = where;
+    }
+
+    @Override
+    Result execute(FakeDatabase database, Object[] parameters) throws SQLException {
+      FakeTable fakeTable = database.getTable(table);
+      long count = 0L;
+      for (Object[] found : findRows(fakeTable, where, parameters)) {
+        Object[] row = database.lock(fakeTable, found);
+        if (row != null) {
+          database.delete(fakeTable, row);
+          count++;
+        }
+      }
+      return Result.updateCount(count);
+    }
+  }
+
+  private static final class SelectItem {
+    private final Expression expression;
+    private final String label;
+    /** The aggregate function of the item, <code>count</code>, <code>sum</code> or null. */
+    private final String aggregate;
+
+    private SelectItem(Expression expression, String label, String aggregate) {
+      this.expression = expression;
+      this.label = label;
+      this.aggregate = aggregate;
+    }
+
+    private Object aggregate(FakeTable table, List<Object[]> rows, Object[] parameters)
+        throws SQLException {
+      if (aggregate.equals("count")) {
+        long count = 0L;
+        for (Object[] row : rows) {
+          if (expression == null || expression.evaluate(table, row, parameters) != null) {
+            count++;
+          }
+        }
+        return count;
+      }
+      // SUM ignores NULL values and is NULL if there are no other values
+      Number sum = null;
+      for (Object[] row : rows) {
+        Object value = expression.evaluate(table, row, parameters);
+        if (value != null) {
+          if (!(value instanceof Number)) {
+            throw new SQLException("Cannot sum " + value);
+          }
+          sum = sum == null ? (Number) value : add(sum, (Number) value);
+        }
+      }
+      return sum;
+    }
+  }
+
+  private static final class OrderItem {
+    private final Expression expression;
+    private final boolean descending;
+
+    private OrderItem(Expression expression, boolean descending) {
+      this.expression = expression;
+      this.descending = descending;
+    }
+  }
+
+  private static final class Select extends Command {
+    private final String table;
+    private final List<SelectItem> items;
+    private final boolean star;
+    private final Expression where;
+    private final List<OrderItem> orderBy;
+    private final Expression limit;
+    private final Expression offset;
+
+    private Select(String table, List<SelectItem> items, boolean star, Expression where,
+        List<OrderItem> orderBy, Expression limit, Expression offset) {
+      this.table = table;
+      this.items = items;
+      this.star = star;
+      this.where = where;
+      this.orderBy = orderBy;
+      this.limit = limit;
+      this.offset = offset;
+    }
+
+    @Override
+    Result execute(FakeDatabase database, Object[] parameters) throws SQLException {
+      FakeTable fakeTable = database.getTable(table);
+      List<Object[]> matches = findRows(fakeTable, where, parameters);
+      List<String> labels = new ArrayList<>();
+      if (star) {
+        labels.addAll(fakeTable.getColumns());
+      }
+      for (SelectItem item : items) {
+        labels.add(item.label);
+      }
+      if (!items.isEmpty() && items.get(0).aggregate != null) {
+        Object[] res = new Object[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+          res[i] = items.get(i).aggregate(fakeTable, matches, parameters);
+        }
+        return Result.rows(labels, Collections.singletonList(res));
+      }
+      if (!orderBy.isEmpty()) {
+        sort(fakeTable, matches, parameters);
+      }
+      int from = offset == null ? 0 : toInt(offset.evaluate(fakeTable, null, parameters));
+      int to = limit == null ? matches.size()
+          : from + toInt(limit.evaluate(fakeTable, null, parameters));
+      List<Object[]> res = new ArrayList<>();
+      for (int i = from; i < Math.min(to, matches.size()); i++) {
+        Object[] row = matches.get(i);
+        Object[] projected = new Object[labels.size()];
+        int index = 0;
+        if (star) {
+          System.arraycopy(row, 0, projected, 0, row.length);
+          index = row.length;
+        }
+        for (SelectItem item : items) {
+          projected[index++] = item.expression.evaluate(fakeTable, row, parameters);
+        }
+        res.add(projected);
+      }
+      return Result.rows(labels, res);
+    }
+
+    private void sort(FakeTable fakeTable, List<Object[]> rows, Object[] parameters)
+        throws SQLException {
+      SQLException[] error = new SQLException[1];
+      Comparator<Object[]> comparator = (r1, r2) -> {
+        try {
+          for (OrderItem item : orderBy) {
+            Object v1 = item.expression.evaluate(fakeTable, r1, parameters);
+            Object v2 = item.expression.evaluate(fakeTable, r2, parameters);
+            // NULL values are ordered before all other values, like in Cloud Spanner
+            int res = v1 == null ? (v2 == null ? 0 : -1) : v2 == null ? 1 : compare(v1, v2);
+            if (res != 0) {
+              return item.descending ? -res : res;
+            }
+          }
+        } catch (SQLException e) {
+          error[0] = e;
+        }
+        return 0;
+      };
+      rows.sort(comparator);
+      if (error[0] != null) {
+        throw error[0];
+      }
+    }
+
+    private static int toInt(Object value) throws SQLException {
+      if (!(value instanceof Number)) {
+        throw new SQLException("LIMIT and OFFSET must be numbers: " + value);
+      }
+      return (int) Math.min(Integer.MAX_VALUE, ((Number) value).longValue());
+    }
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Parser
+  // ---------------------------------------------------------------------------------------------
+
+  /** Parses the given SQL statement. */
+  static Command parse(String sql) throws SQLException {
+    return new Parser(sql, tokenize(sql)).parseStatement();
+  }
+
+  private static final class Parser {
+    private final String sql;
+    private final List<Token> tokens;
+    private int position;
+    private int parameterCount;
+
+    private Parser(String sql, List<Token> tokens) {
+      this.sql = sql;
+      this.tokens = tokens;
+    }
+
+    private Token peek() {
+      return tokens.get(position);
+    }
+
+    private Token next() {
+      return tokens.get(position++);
+    }
+
+    private boolean accept(String keyword) {
+      if (peek().is(keyword)) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(String keyword) throws SQLException {
+      if (!accept(keyword)) {
+        throw error("Expected " + keyword + " but found '" + peek() + "'");
+      }
+    }
+
+    private SQLException error(String message) {
+      return new SQLException(message + " in: " + sql);
+    }
+
+    private SQLFeatureNotSupportedException unsupported() {
+      return new SQLFeatureNotSupportedException(
+          "Statement is not supported by the fake driver: " + sql);
+    }
+
+    private String identifier() throws SQLException {
+      Token token = next();
+      if (token.type != TokenType.IDENTIFIER && token.type != TokenType.QUOTED_IDENTIFIER) {
+        throw error("Expected identifier but found '" + token + "'");
+      }
+      return token.text;
+    }
+
+    /** Parses a possibly qualified name and returns the last part. */
+    private String name() throws SQLException {
+      String res = identifier();
+      while (accept(".")) {
+        res = identifier();
+      }
+      return res;
+    }
+
+    private boolean atEnd() {
+      return peek().type == TokenType.END;
+    }
+
+    private void expectEnd() throws SQLException {
+      if (!atEnd()) {
+        throw error("Unexpected '" + peek() + "'");
+      }
+    }
+
+    private Command parseStatement() throws SQLException {
+      if (accept("select")) {
+        return parseSelect();
+      } else if (accept("insert")) {
+        return parseInsert();
+      } else if (accept("update")) {
+        return parseUpdate();
+      } else if (accept("delete")) {
+        return parseDelete();
+      } else if (accept("create")) {
+        return parseCreate();
+      } else if (accept("drop")) {
+        return parseDrop();
+      } else if (peek().is("alter")) {
+        return new NoOp();
+      } else if (accept("start") || accept("run") || accept("abort")) {
+        // client side batch DDL statements of the Cloud Spanner JDBC driver
+        return new NoOp();
+      }
+      throw unsupported();
+    }
+
+    private Command parseCreate() throws SQLException {
+      if (accept("table")) {
+        String table = name();
+        expect("(");
+        List<String> columns = new ArrayList<>();
+        List<String> primaryKey = new ArrayList<>();
+        Map<String, Expression> generated = new HashMap<>();
+        String unsupportedType = null;
+        do {
+          if (accept("primary")) {
+            expect("key");
+            primaryKey = parseColumnList();
+          } else if (peek().is("constraint") || peek().is("foreign") || peek().is("unique")
+              || peek().is("check")) {
+            skipDefinition();
+          } else {
+            String column = identifier();
+            columns.add(column);
+            String type = parseColumnDefinition(column, generated);
+            if (unsupportedType == null) {
+              unsupportedType = type;
+            }
+          }
+        } while (accept(","));
+        expect(")");
+        String parent = null;
+        boolean cascadeDelete = false;
+        while (!atEnd()) {
+          if (accept("primary")) {
+            expect("key");
+            primaryKey = parseColumnList();
+          } else if (accept("interleave")) {
+            expect("in");
+            expect("parent");
+            parent = name();
+            if (accept("on")) {
+              expect("delete");
+              cascadeDelete = accept("cascade");
+              accept("no");
+              accept("action");
+            }
+          } else {
+            next();
+          }
+        }
+        return new CreateTable(table, columns, primaryKey, parent, cascadeDelete, generated,
+            unsupportedType);
+      }
+      // CREATE [UNIQUE] [NULL_FILTERED] INDEX
+      return new NoOp();
+    }
+
+    /**
+     * Checks the type of a column, skips its options, and parses its generation expression.
+     *
+     * @return the type of the column if it is not a type of Cloud Spanner, or <code>null</code>
+     */
+    private String parseColumnDefinition(String column, Map<String, Expression> generated)
+        throws SQLException {
+      int start = position;
+      String unsupportedType = null;
+      if (!parseColumnType()) {
+        unsupportedType = tokens.get(start).text;
+        position = start;
+      }
+      int depth = 0;
+      while (!atEnd()) {
+        Token token = peek();
+        if (depth == 0 && (token.is(",") || token.is(")"))) {
+          return unsupportedType;
+        }
+        if (depth == 0 && accept("as")) {
+          expect("(");
+          generated.put(column, parseExpression());
+          expect(")");
+          accept("stored");
+          continue;
+        }
+        if (token.is("(") || token.is("<")) {
+          depth++;
+        } else if (token.is(")") || token.is(">")) {
+          depth--;
+        }
+        next();
+      }
+      throw error("Unexpected end of statement");
+    }
+
+    /** @return whether a type of Cloud Spanner was parsed */
+    private boolean parseColumnType() {
+      Token type = next();
+      if (type.type != TokenType.IDENTIFIER) {
+        return false;
+      }
+      switch (type.text.toUpperCase(Locale.ROOT)) {
+        case "BOOL":
+        case "INT64":
+        case "FLOAT64":
+        case "NUMERIC":
+        case "JSON":
+        case "DATE":
+        case "TIMESTAMP":
+          return true;
+        case "STRING":
+        case "BYTES":
+          return accept("(") && (accept("max") || next().type == TokenType.NUMBER)
+              && accept(")");
+        case "ARRAY":
+          return accept("<") && !peek().is("array") && parseColumnType() && accept(">");
+        default:
+          return false;
+      }
+    }
+
+    /** Skips the rest of a column or constraint definition, up to the next top-level comma. */
+    private void skipDefinition() throws SQLException {
+      int depth = 0;
+      while (!atEnd()) {
+        Token token = peek();
+        if (depth == 0 && (token.is(",") || token.is(")"))) {
+          return;
+        }
+        if (token.is("(") || token.is("<")) {
+          depth++;
+        } else if (token.is(")") || token.is(">")) {
+          depth--;
+        }
+        next();
+      }
+      throw error("Unexpected end of statement");
+    }
+
+    private List<String> parseColumnList() throws SQLException {
+      List<String> res = new ArrayList<>();
+      expect("(");
+      do {
+        res.add(identifier());
+        if (!accept("asc")) {
+          accept("desc");
+        }
+      } while (accept(","));
+      expect(")");
+      return res;
+    }
+
+    private Command parseDrop() throws SQLException {
+      if (accept("table")) {
+        accept("if");
+        accept("exists");
+        String table = name();
+        return new DropTable(table);
+      }
+      return new NoOp();
+    }
+
+    private Command parseInsert() throws SQLException {
+      accept("or");
+      accept("update");
+      accept("into");
+      String table = name();
+      List<String> columns = new ArrayList<>();
+      expect("(");
+      do {
+        columns.add(identifier());
+      } while (accept(","));
+      expect(")");
+      expect("values");
+      expect("(");
+      List<Expression> values = new ArrayList<>();
+      do {
+        values.add(parseOperand());
+      } while (accept(","));
+      expect(")");
+      if (!atEnd()) {
+        // multi-row inserts and INSERT ... SELECT
+        throw unsupported();
+      }
+      if (columns.size() != values.size()) {
+        throw error("Column count does not match value count");
+      }
+      return new Insert(table, columns, values);
+    }
+
+    private Command parseUpdate() throws SQLException {
+      String table = name();
+      skipAlias();
+      expect("set");
+      List<String> columns = new ArrayList<>();
+      List<Expression> values = new ArrayList<>();
+      do {
+        columns.add(name());
+        expect("=");
+        values.add(parseSum());
+      } while (accept(","));
+      Expression where = accept("where") ? parseExpression() : null;
+      expectEnd();
+      return new Update(table, columns, values, where);
+    }
+
+    private Command parseDelete() throws SQLException {
+      accept("from");
+      String table = name();
+      skipAlias();
+      Expression where = accept("where") ? parseExpression() : null;
+      expectEnd();
+      return new Delete(table, where);
+    }
+
+    private void skipAlias() throws SQLException {
+      if (accept("as")) {
+        identifier();
+      } else if (peek().type == TokenType.IDENTIFIER && !peek().is("set")
+          && !peek().is("where") && !peek().is("order") && !peek().is("limit")) {
+        next();
+      }
+    }
+
+    private Command parseSelect() throws SQLException {
+      accept("distinct");
+      List<SelectItem> items = new ArrayList<>();
+      boolean star = false;
+      int index = 0;
+      do {
+        if (accept("*")) {
+          star = true;
+          continue;
+        }
+        String aggregate = null;
+        Expression expression;
+        if ((peek().is("count") || peek().is("sum")) && tokens.get(position + 1).is("(")) {
+          aggregate = next().text.toLowerCase(Locale.ENGLISH);
+          next();
+          accept("distinct");
+          expression = aggregate.equals("count") && accept("*") ? null : parseExpression();
+          expect(")");
+        } else {
+          expression = parseSum();
+        }
+        String label;
+        if (accept("as")) {
+          label = identifier();
+        } else if (peek().type == TokenType.IDENTIFIER && !peek().is("from")) {
+          label = identifier();
+        } else if (expression instanceof ColumnReference) {
+          label = ((ColumnReference) expression).column;
+        } else {
+          label = "col" + index;
+        }
+        items.add(new SelectItem(expression, label, aggregate));
+        index++;
+      } while (accept(","));
+      expect("from");
+      String table = name();
+      skipAlias();
+      if (peek().is(",") || peek().is("join") || peek().is("inner") || peek().is("left")
+          || peek().is("cross")) {
+        throw unsupported();
+      }
+      Expression where = accept("where") ? parseExpression() : null;
+      List<OrderItem> orderBy = new ArrayList<>();
+      if (accept("order")) {
+        expect("by");
+        do {
+          Expression expression = parseOperand();
+          boolean descending = accept("desc");
+          if (!descending) {
+            accept("asc");
+          }
+          orderBy.add(new OrderItem(resolveLabel(expression, items), descending));
+        } while (accept(","));
+      }
+      Expression limit = null;
+      Expression offset = null;
+      if (accept("limit")) {
+        limit = parseOperand();
+        if (accept("offset")) {
+          offset = parseOperand();
+        } else if (accept(",")) {
+          // LIMIT offset, count
+          offset = limit;
+          limit = parseOperand();
+        }
+      }
+      if (accept("offset")) {
+        offset = parseOperand();
+        accept("rows");
+      }
+      if (accept("for")) {
+        expect("update");
+      }
+      expectEnd();
+      return new Select(table, items, star, where, orderBy, limit, offset);
+    }
+
+    /** Order by items may refer to the label of a select item. */
+    private Expression resolveLabel(Expression expression, List<SelectItem> items) {
+      if (expression instanceof ColumnReference) {
+        for (SelectItem item : items) {
+          if (item.aggregate == null
+              && item.label.equalsIgnoreCase(((ColumnReference) expression).column)
+              && item.expression != null) {
+            return item.expression;
+          }
+        }
+      }
+      return expression;
+    }
+
+    private Expression parseExpression() throws SQLException {
+      Expression res = parseAnd();
+      while (accept("or")) {
+        res = new Or(res, parseAnd());
+      }
+      return res;
+    }
+
+    private Expression parseAnd() throws SQLException {
+      Expression res = parseNot();
+      while (accept("and")) {
+        res = new And(res, parseNot());
+      }
+      return res;
+    }
+
+    private Expression parseNot() throws SQLException {
+      if (accept("not")) {
+        return new Not(parseNot());
+      }
+      return parsePredicate();
+    }
+
+    private Expression parsePredicate() throws SQLException {
+      Expression left = parseSum();
+      Token token = peek();
+      Operator comparison = token.type == TokenType.SYMBOL ? comparison(token.text) : null;
+      if (comparison != null) {
+        next();
+        return new Binary(left, parseSum(), comparison);
+      }
+      if (accept("is")) {
+        boolean not = accept("not");
+        expect("null");
+        return not ? new Not(new IsNull(left)) : new IsNull(left);
+      }
+      boolean not = accept("not");
+      Expression res;
+      if (accept("like")) {
+        res = new Binary(left, parseOperand(), new Like());
+      } else if (accept("in")) {
+        expect("(");
+        List<Expression> values = new ArrayList<>();
+        do {
+          values.add(parseOperand());
+        } while (accept(","));
+        expect(")");
+        res = new In(left, values);
+      } else if (accept("between")) {
+        Expression low = parseOperand();
+        expect("and");
+        Expression high = parseOperand();
+        res = new And(new Binary(left, low, comparison(">=")),
+            new Binary(left, high, comparison("<=")));
+      } else if (not) {
+        throw error("Expected LIKE, IN or BETWEEN after NOT");
+      } else {
+        return left;
+      }
+      return not ? new Not(res) : res;
+    }
+
+    /** Parses an operand followed by any number of additions and subtractions. */
+    private Expression parseSum() throws SQLException {
+      Expression res = parseOperand();
+      while (peek().is("+") || peek().is("-")) {
+        boolean subtract = next().is("-");
+        res = new Arithmetic(res, parseOperand(), subtract);
+      }
+      return res;
+    }
+
+    private Expression parseOperand() throws SQLException {
+      Token token = next();
+      switch (token.type) {
+        case PARAMETER:
+          return new Parameter(parameterCount++);
+        case STRING:
+          return new Literal(token.text);
+        case BYTES:
+          return new Literal(token.text.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1));
+        case NUMBER:
+          return new Literal(token.text.matches("[0-9]+") ? (Object) Long.valueOf(token.text)
+              : (Object) Double.valueOf(token.text));
+        case QUOTED_IDENTIFIER:
+          return columnReference(token.text);
+        case IDENTIFIER:
+          if (token.is("null")) {
+            return new Literal(null);
+          } else if (token.is("true")) {
+            return new Literal(Boolean.TRUE);
+          } else if (token.is("false")) {
+            return new Literal(Boolean.FALSE);
+          } else if (peek().is("(")) {
+            next();
+            List<Expression> arguments = new ArrayList<>();
+            if (!accept(")")) {
+              do {
+                arguments.add(parseExpression());
+              } while (accept(","));
+              expect(")");
+            }
+            return new Function(token.text.toLowerCase(Locale.ENGLISH), arguments);
+          }
+          return columnReference(token.text);
+        case SYMBOL:
+          if (token.is("(")) {
+            Expression res = parseExpression();
+            expect(")");
+            return res;
+          } else if (token.is("-") && peek().type == TokenType.NUMBER) {
+            Literal literal = (Literal) parseOperand();
+            return new Literal(literal.value instanceof Long ? (Object) (-(Long) literal.value)
+                : (Object) (-(Double) literal.value));
+          }
+          throw error("Unexpected '" + token + "'");
+        default:
+          throw error("Unexpected end of statement");
+      }
+    }
+
+    /** Column references may be qualified with a table alias, which is ignored. */
+    private Expression columnReference(String first) throws SQLException {
+      String column = first;
+      while (accept(".")) {
+        column = identifier();
+      }
+      return new ColumnReference(column);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package knut.harness;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** An in-memory table of a {@link FakeDatabase}. */
+final class FakeTable {
+  /** Computes the value of a generated column from the other values of a row. */
+  interface Generator {
+    Object generate(FakeTable table, Object[] row) throws SQLException;
+  }
+
+  private final String name;
+  private final List<String> columns;
+  private final Map<String, Integer> columnIndices = new HashMap<>();
+  private final int[] primaryKey;
+  private final String parent;
+  private final boolean cascadeDelete;
+  /** The generators of the generated columns by column index. */
+  private final Map<Integer, Generator> generators = new HashMap<>();
+  /** The rows of the table, ordered by their primary key values like in Cloud Spanner. */
+  private final TreeMap<List<Object>, Object[]> rows = new TreeMap<>(FakeTable::compareKeys);
+
+  FakeTable(String name, List<String> columns, List<String> primaryKey, String parent,
+      boolean cascadeDelete) throws SQLException {
+    this.name = name;
+    this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+    for (int i = 0; i < columns.size(); i++) {
+      columnIndices.put(columns.get(i).toLowerCase(Locale.ENGLISH), i);
+    }
+    this.primaryKey = new int[primaryKey.size()];
+    for (int i = 0; i < primaryKey.size(); i++) {
+      this.primaryKey[i] = getColumnIndex(primaryKey.get(i));
+    }
+    this.parent = parent;
+    this.cascadeDelete = cascadeDelete;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  List<String> getColumns() {
+    return columns;
+  }
+
+  String getParent() {
+    return parent;
+  }
+
+  boolean isCascadeDelete() {
+    return cascadeDelete;
+  }
+
+  /** @return the names of the primary key columns */
+  List<String> getPrimaryKey() {
+    List<String> res = new ArrayList<>(primaryKey.length);
+    for (int index : primaryKey) {
+      res.add(columns.get(index));
+    }
+    return res;
+  }
+
+  /** Makes a column a stored generated column, which is computed when a row is written. */
+  void setGenerator(String column, Generator generator) throws SQLException {
+    generators.put(getColumnIndex(column), generator);
+  }
+
+  boolean isGenerated(String column) throws SQLException {
+    return generators.containsKey(getColumnIndex(column));
+  }
+
+  int getColumnIndex(String column) throws SQLException {
+    Integer index = columnIndices.get(column.toLowerCase(Locale.ENGLISH));
+    if (index == null) {
+      throw new SQLException("Column not found in table " + name + ": " + column);
+    }
+    return index;
+  }
+
+  int size() {
+    return rows.size();
+  }
+
+  /** @return a snapshot of the rows, which may be modified while it is iterated */
+  List<Object[]> snapshot() {
+    return new ArrayList<>(rows.values());
+  }
+
+  /** @return the row with the given primary key values, or <code>null</code> */
+  Object[] find(Object[] keyValues) {
+    return rows.get(toKey(keyValues));
+  }
+
+  /** @return the rows whose primary key starts with the given values */
+  List<Object[]> findByKeyPrefix(List<Object> prefix) {
+    List<Object[]> res = new ArrayList<>();
+    for (Map.Entry<List<Object>, Object[]> entry : rows.tailMap(prefix, true).entrySet()) {
+      if (entry.getKey().size() < prefix.size()
+          || compareKeys(entry.getKey().subList(0, prefix.size()), prefix) != 0) {
+        break;
+      }
+      res.add(entry.getValue());
+    }
+    return res;
+  }
+
+  void insert(Object[] row) throws SQLException {
+    generate(row);
+    List<Object> key = getKey(row);
+    if (rows.containsKey(key)) {
+      throw new SQLException("Row " + key + " already exists in table " + name);
+    }
+    rows.put(key, row);
+  }
+
+  /** Replaces a row after its values have been updated. */
+  void update(Object[] oldRow, Object[] newRow) throws SQLException {
+    generate(newRow);
+    List<Object> oldKey = getKey(oldRow);
+    List<Object> newKey = getKey(newRow);
+    if (compareKeys(oldKey, newKey) != 0) {
+      throw new SQLException("Cannot update primary key column of table " + name);
+    }
+    rows.put(newKey, newRow);
+  }
+
+  private void generate(Object[] row) throws SQLException {
+    for (Map.Entry<Integer, Generator> entry : generators.entrySet()) {
+      row[entry.getKey()] = entry.getValue().generate(this, row);
+    }
+  }
+
+  void delete(Object[] row) {
+    rows.remove(getKey(row));
+  }
+
+  /** @return the primary key values of the given row */
+  List<Object> getKey(Object[] row) {
+    Object[] key = new Object[primaryKey.length];
+    for (int i = 0; i < primaryKey.length; i++) {
+      key[i] = row[primaryKey[i]];
+    }
+    return toKey(key);
+  }
+
+  private static List<Object> toKey(Object[] values) {
+    for (int i = 0; i < values.length; i++) {
+      // byte arrays are compared by their contents
+      if (values[i] instanceof byte[]) {
+        values[i] = Arrays.toString((byte[]) values[i]);
+      }
+    }
+    return Arrays.asList(values);
+  }
+
+  /** Compares keys column by column, ordering NULL values first and shorter keys before longer. */
+  private static int compareKeys(List<Object> key1, List<Object> key2) {
+    for (int i = 0; i < Math.min(key1.size(), key2.size()); i++) {
+      Object v1 = key1.get(i);
+      Object v2 = key2.get(i);
+      int res = v1 == null ? (v2 == null ? 0 : -1) : v2 == null ? 1 : FakeSql.compare(v1, v2);
+      if (res != 0) {
+        return res;
+      }
+    }
+    return Integer.compare(key1.size(), key2.size());
+  }
+}
@@ -0,0 +1,68 @@
+package knut.harness;
+
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/** Parent entity of the workloads of {@link DialectComparison}. */
+@Entity
+@Table(name = "Singers")
+public class Singer {
+  @Id
+  private Long singerId;
+
+  @Column(length = 100)
+  private String firstName;
+
+  @Column(length = 100, nullable = false)
+  private String lastName;
+
+  @Temporal(TemporalType.DATE)
+  private Date birthDate;
+
+  private boolean active;
+
+  public Long getSingerId() {
+    return singerId;
+  }
+
+  public void setSingerId(Long singerId) {
+    this.singerId = singerId;
+  }
+
+  public String getFirstName() {
+    return firstName;
+  }
+
+  public void setFirstName(String firstName) {
+    this.firstName = firstName;
+  }
+
+  public String getLastName() {
+    return lastName;
+  }
+
+  public void setLastName(String lastName) {
+    this.lastName = lastName;
+  }
+
+  public Date getBirthDate() {
+    return birthDate;
+  }
+
+  public void setBirthDate(Date birthDate) {
+    this.birthDate = birthDate;
+  }
+
+  public boolean isActive() {
+    return active;
+  }
+
+  public void setActive(boolean active) {
+    this.active = active;
+  }
+}